@@ -0,0 +1,50 @@
+package com.sourceware.labs.idp;
+
+import java.io.File;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Class for running the JMH benchmarks with 1, 4 and one thread per available processor <br />
+ * Every run measures throughput and the latency distribution (sample time) and reports allocation
+ * per operation through the GC profiler. Results are written to
+ * target/jmh/&lt;threads&gt;-threads.json so they can be compared between commits.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class BenchmarkRunner {
+
+  /**
+   * @param args Optional regex of the benchmarks to run, defaults to every benchmark
+   * @throws RunnerException If a benchmark fails
+   */
+  public static void main(String[] args) throws RunnerException {
+    String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackageName() + ".*";
+    File resultDir = new File("target/jmh");
+    resultDir.mkdirs();
+    int processors = Runtime.getRuntime().availableProcessors();
+    // Sorted set so a machine with 1 or 4 processors does not run the same thread count twice
+    for (int threads : new TreeSet<>(List.of(1, 4, processors))) {
+      Options options = new OptionsBuilder().include(include)
+              .mode(Mode.Throughput)
+              .mode(Mode.SampleTime)
+              .timeUnit(TimeUnit.MILLISECONDS)
+              .threads(threads)
+              .addProfiler(GCProfiler.class)
+              .resultFormat(ResultFormatType.JSON)
+              .result(new File(resultDir, threads + "-threads.json").getPath())
+              .build();
+      new Runner(options).run();
+    }
+  }
+
+}
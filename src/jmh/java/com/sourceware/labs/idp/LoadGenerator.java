@@ -0,0 +1,145 @@
+package com.sourceware.labs.idp;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sourceware.labs.idp.test.data.TestData;
+import com.sourceware.labs.idp.util.LoginData;
+import com.sourceware.labs.idp.util.SignupData;
+
+/**
+ * Class for a closed loop load test of a running IDP server <br />
+ * Every client runs on its own virtual thread and sends its next login or signup as soon as the
+ * previous one was answered, so the client count is the number of requests in flight. Signups
+ * against a server started with MAIL_BACKEND=local exercise the whole email path, from the outbox
+ * to the mail sender, without sending mail. Running the same load against a server started with
+ * VIRTUAL_THREADS=false and one started with VIRTUAL_THREADS=true shows the concurrency the server
+ * sustains in each mode; with more clients than Tomcat's 200 platform threads, requests queue for
+ * a thread in the first mode only.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class LoadGenerator {
+
+  /**
+   * @param args Base URL of the server, number of clients, duration in seconds and either login
+   *          with the email and password of an existing verified user, or signup to sign up a new
+   *          user per request
+   * @throws InterruptedException If interrupted while waiting for the clients
+   * @throws JsonProcessingException If the login data cannot be serialized
+   */
+  public static void main(String[] args) throws InterruptedException, JsonProcessingException {
+    boolean signup = args.length == 4 && "signup".equals(args[3]);
+    if (!signup && !(args.length == 6 && "login".equals(args[3]))) {
+      System.err.println(
+              "Usage: LoadGenerator <baseUrl> <clients> <seconds> login <email> <password>\n"
+                      + "       LoadGenerator <baseUrl> <clients> <seconds> signup");
+      System.exit(1);
+    }
+    int clients = Integer.parseInt(args[1]);
+    Duration duration = Duration.ofSeconds(Long.parseLong(args[2]));
+
+    HttpClient httpClient = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    ObjectMapper objectMapper = new ObjectMapper();
+    Supplier<HttpRequest> requests;
+    if (signup) {
+      // Every signup is a new user so that the request, the outbox and the email are exercised
+      SignupData signupData = TestData.getTestSignupData();
+      requests = () -> {
+        signupData.setEmail("load-" + UUID.randomUUID() + "@test.com");
+        try {
+          return jsonPost(args[0] + "/user/signup", objectMapper.writeValueAsString(signupData));
+        } catch (JsonProcessingException ex) {
+          throw new IllegalStateException(ex);
+        }
+      };
+    } else {
+      HttpRequest login = jsonPost(
+              args[0] + "/user/login",
+              objectMapper.writeValueAsString(new LoginData(args[4], args[5])));
+      requests = () -> login;
+    }
+
+    // Latencies in microseconds, one array per client so recording needs no synchronization
+    long[][] latencies = new long[clients][];
+    Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    Instant end = Instant.now().plus(duration);
+    long start = System.nanoTime();
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < clients; i++) {
+        int client = i;
+        executor.submit(() -> {
+          long[] recorded = new long[1024];
+          int count = 0;
+          while (Instant.now().isBefore(end)) {
+            long sent = System.nanoTime();
+            String outcome;
+            try {
+              outcome = String.valueOf(
+                      httpClient.send(requests.get(), BodyHandlers.discarding()).statusCode());
+            } catch (Exception ex) {
+              outcome = ex.getClass().getSimpleName();
+            }
+            if (count == recorded.length) {
+              recorded = Arrays.copyOf(recorded, count * 2);
+            }
+            recorded[count++] = (System.nanoTime() - sent) / 1000;
+            outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+          }
+          latencies[client] = Arrays.copyOf(recorded, count);
+        });
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+    System.out.printf(
+            "%d clients, %d requests in %.1f s: %.1f requests/s%n",
+            clients,
+            all.length,
+            seconds,
+            all.length / seconds);
+    if (all.length > 0) {
+      System.out.printf(
+              "Latency ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+              percentile(all, 0.50),
+              percentile(all, 0.90),
+              percentile(all, 0.99),
+              all[all.length - 1] / 1000.0);
+    }
+    new TreeMap<>(outcomes).forEach((outcome, count) -> System.out.println(outcome + ": " + count));
+  }
+
+  private static HttpRequest jsonPost(String uri, String body) {
+    return HttpRequest.newBuilder(URI.create(uri))
+            .header("Content-Type", "application/json")
+            .timeout(Duration.ofSeconds(60))
+            .POST(BodyPublishers.ofString(body))
+            .build();
+  }
+
+  private static double percentile(long[] sorted, double percentile) {
+    return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)]
+            / 1000.0;
+  }
+
+}
@@ -0,0 +1,103 @@
+package com.sourceware.labs.idp.jwt;
+
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jwt.SignedJWT;
+import com.sourceware.labs.idp.keystore.IdpKeyAlgorithm;
+import com.sourceware.labs.idp.keystore.IdpKeyRing;
+
+/**
+ * Benchmarks for signing and verifying tokens with {@link JwtManager} for each token signing
+ * algorithm <br />
+ * The key and the token that is verified are created once per trial so only the per-login cost of
+ * the signature and the (de)serialization of the token is measured.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JwtManagerBenchmark {
+
+  private static final String CLIENT_ID = "Sourceware Labs IDP";
+
+  private static final String APPLICATION = "RealQuick";
+
+  private static final PermissionSet PERMISSIONS = PermissionSet.of(0, 1);
+
+  @Param({ "ES256", "RS384", "EdDSA" })
+  public String algorithm;
+
+  private JWK key;
+
+  private IdpKeyRing keyRing;
+
+  private String token;
+
+  private VerifiedJwtCache verifiedJwtCache;
+
+  @Setup
+  public void setup() throws Exception {
+    key = IdpKeyAlgorithm.of(JWSAlgorithm.parse(algorithm)).generateKey("benchmarkkey");
+    keyRing = new IdpKeyRing(
+            List.of(new IdpKeyRing.Entry(key.getKeyID(), "benchmarkkey", key, Instant.EPOCH)));
+    token = sign();
+    verifiedJwtCache = new VerifiedJwtCache(1000);
+  }
+
+  /**
+   * Issuing a token from its {@link JwtTemplate}, as done on login
+   */
+  @Benchmark
+  public String sign() throws JOSEException {
+    return JwtManager
+            .issueJwtToken(key, CLIENT_ID, APPLICATION, 600, 1L, APPLICATION, "User", PERMISSIONS);
+  }
+
+  /**
+   * Issuing a token through the Nimbus header and claims builders, the baseline of {@link #sign()}
+   */
+  @Benchmark
+  public String signWithBuilder() throws JOSEException {
+    SignedJWT jwt = JwtManager.getSignedJwtToken(
+            key,
+            CLIENT_ID,
+            APPLICATION,
+            600,
+            1L,
+            APPLICATION,
+            "User",
+            PERMISSIONS);
+    return jwt.serialize();
+  }
+
+  @Benchmark
+  public Optional<VerifiedJwt> verify() throws JOSEException, ParseException {
+    return JwtManager.verifyJwt(token, keyRing, null, Instant.now());
+  }
+
+  /**
+   * Verifying a token that was already verified, answered by the {@link VerifiedJwtCache}
+   */
+  @Benchmark
+  public Optional<VerifiedJwt> verifyCached() throws JOSEException, ParseException {
+    return verifiedJwtCache.verify(token, keyRing, null, Instant.now());
+  }
+
+}
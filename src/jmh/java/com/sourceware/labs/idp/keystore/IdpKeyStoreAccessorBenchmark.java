@@ -0,0 +1,90 @@
+package com.sourceware.labs.idp.keystore;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWK;
+
+/**
+ * Benchmarks for loading token keys out of the KeyStore and for generating new keys, for each token
+ * signing algorithm <br />
+ * A KeyStore with one key is created in a temporary directory per trial; loading it covers the
+ * PKCS12 decode and key decryption that {@link IdpKeyStoreCache} avoids on a cache hit.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class IdpKeyStoreAccessorBenchmark {
+
+  @Param({ "ES256", "RS384", "EdDSA" })
+  public String algorithm;
+
+  private JWSAlgorithm jwsAlgorithm;
+
+  private IdpKeyAlgorithm keyAlgorithm;
+
+  private IdpKeyStoreData keyStoreData;
+
+  private byte[] storeContent;
+
+  @Setup
+  public void setup() throws Exception {
+    jwsAlgorithm = JWSAlgorithm.parse(algorithm);
+    keyAlgorithm = IdpKeyAlgorithm.of(jwsAlgorithm);
+    File storeDir = Files.createTempDirectory("idp-jmh").toFile();
+    keyStoreData = new IdpKeyStoreData(
+            storeDir.getPath(),
+            "benchmark.p12",
+            UUID.randomUUID().toString(),
+            "benchmarkkey",
+            UUID.randomUUID().toString(),
+            "benchmarkkey");
+    IdpKeyStoreAccessor.accessKeyStore(jwsAlgorithm, keyStoreData);
+    storeContent = Files
+            .readAllBytes(new File(storeDir, keyStoreData.getStoreFileName()).toPath());
+  }
+
+  @TearDown
+  public void tearDown() {
+    File storeDir = new File(keyStoreData.getStoreDir());
+    new File(storeDir, keyStoreData.getStoreFileName()).delete();
+    storeDir.delete();
+  }
+
+  /**
+   * Reading and decoding the KeyStore file, as done on every uncached key lookup
+   */
+  @Benchmark
+  public JWK loadKeyStore() throws Exception {
+    return IdpKeyStoreAccessor.accessKeyStore(jwsAlgorithm, keyStoreData);
+  }
+
+  /**
+   * Decoding the key ring out of KeyStore bytes that were already read
+   */
+  @Benchmark
+  public IdpKeyRing readKeyRing() throws Exception {
+    return IdpKeyStoreAccessor.readKeyRing(keyStoreData, storeContent);
+  }
+
+  @Benchmark
+  public JWK generateKey() throws Exception {
+    return keyAlgorithm.generateKey("benchmarkkey");
+  }
+
+}
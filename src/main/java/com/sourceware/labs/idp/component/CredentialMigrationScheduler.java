@@ -0,0 +1,58 @@
+package com.sourceware.labs.idp.component;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.sourceware.labs.idp.password.PasswordHashingRejectedException;
+import com.sourceware.labs.idp.service.CredentialMigrationService;
+
+/**
+ * Spring component for hashing stored plain credentials in the background, one batch per run so
+ * the migration is paced by the configured delay <br />
+ * Instances that do not run the migration check its checkpoint on every run instead, so they stop
+ * accepting plain passwords at most one delay after another instance completed it.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Component
+public class CredentialMigrationScheduler {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CredentialMigrationScheduler.class);
+
+  @Autowired
+  private CredentialMigrationService credentialMigrationService;
+
+  @Value("${credentials.migration.enabled}")
+  private boolean enabled;
+
+  // Set once the checkpoint reports the migration as complete so later runs do not query it
+  private boolean completed;
+
+  /**
+   * Hash the plain credentials of the next batch of users, or only check whether the migration was
+   * completed if it is not enabled on this instance
+   */
+  @Scheduled(fixedDelayString = "${credentials.migration.delay}")
+  public void migrateCredentials() {
+    if (completed) {
+      return;
+    }
+    try {
+      if (enabled ? credentialMigrationService.migrateBatch() == 0
+              : credentialMigrationService.checkCompleted()) {
+        completed = true;
+        LOGGER.info("Every stored credential is hashed");
+      }
+    } catch (PasswordHashingRejectedException ex) {
+      // Logins and signups come first; the batch is retried on the next run
+      LOGGER.debug("Credential migration paused: " + ex.getLocalizedMessage());
+    } catch (Exception ex) {
+      LOGGER.error("Failed to migrate credentials: " + ex.getLocalizedMessage(), ex);
+    }
+  }
+
+}
@@ -2,22 +2,32 @@ package com.sourceware.labs.idp.component;
 
 import java.text.ParseException;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
 import com.sourceware.labs.idp.entity.Role;
 import com.sourceware.labs.idp.entity.Role.Application;
 import com.sourceware.labs.idp.entity.Role.RoleName;
 import com.sourceware.labs.idp.repo.RoleRepo;
+import com.sourceware.labs.idp.repo.UserRepo;
 
 import jakarta.annotation.PostConstruct;
 
 @Component
 public class DatabaseInit {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseInit.class);
+
   @Autowired
   private RoleRepo roleRepo;
 
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
   @PostConstruct
   private void loadInitialData() throws ParseException {
 
@@ -34,6 +44,37 @@ public class DatabaseInit {
     roleRepo.save(adminRole);
     roleRepo.save(role);
 
+    createNormalizedEmailIndex();
+
+  }
+
+  /**
+   * Functional indexes cannot be declared on the entity, so the unique index that logins look users
+   * up through and that rejects emails differing only in case or surrounding whitespace is created
+   * here <br />
+   * It is the only uniqueness constraint on emails, so startup fails if it cannot be created
+   *
+   * @throws IllegalStateException If the index cannot be created, e.g. because existing users have
+   *           emails that only differ in case or surrounding whitespace
+   */
+  private void createNormalizedEmailIndex() {
+    try {
+      jdbcTemplate.execute(
+              "create unique index if not exists " + UserRepo.NORMALIZED_EMAIL_INDEX
+                      + " on users (lower(trim(email)))");
+    } catch (DataAccessException ex) {
+      Long duplicates = jdbcTemplate.queryForObject(
+              "select count(*) from (select 1 from users group by lower(trim(email)) "
+                      + "having count(*) > 1) duplicates",
+              Long.class);
+      LOGGER.error(
+              "Failed to create the " + UserRepo.NORMALIZED_EMAIL_INDEX + " index; the users of "
+                      + duplicates + " emails that only differ in case or whitespace have to be "
+                      + "merged first");
+      throw new IllegalStateException(
+              "Failed to create the " + UserRepo.NORMALIZED_EMAIL_INDEX + " index",
+              ex);
+    }
   }
 
 }
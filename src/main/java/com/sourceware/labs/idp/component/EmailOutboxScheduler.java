@@ -0,0 +1,37 @@
+package com.sourceware.labs.idp.component;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.sourceware.labs.idp.service.EmailOutboxService;
+
+/**
+ * Spring component for draining the email outbox in the background
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Component
+public class EmailOutboxScheduler {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EmailOutboxScheduler.class);
+
+  @Autowired
+  private EmailOutboxService emailOutboxService;
+
+  /**
+   * Send one batch of due emails per run, so that waiting for the send rate never holds a shared
+   * scheduler thread for more than one batch; a backed up outbox drains one batch per delay
+   */
+  @Scheduled(fixedDelayString = "${email.outbox.delay}")
+  public void dispatchEmails() {
+    try {
+      emailOutboxService.dispatchBatch();
+    } catch (Exception ex) {
+      LOGGER.error("Failed to dispatch emails: " + ex.getLocalizedMessage(), ex);
+    }
+  }
+
+}
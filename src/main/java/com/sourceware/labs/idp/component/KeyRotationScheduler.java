@@ -0,0 +1,49 @@
+package com.sourceware.labs.idp.component;
+
+import java.time.Instant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.sourceware.labs.idp.keystore.IdpKeyRotationPolicy;
+import com.sourceware.labs.idp.keystore.IdpKeyRotator;
+import com.sourceware.labs.idp.keystore.IdpKeyStoreData;
+
+/**
+ * Spring component for periodically advancing the token key rotation schedule on the scheduler
+ * thread so that key generation never runs on a request thread
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Component
+public class KeyRotationScheduler {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(KeyRotationScheduler.class);
+
+  @Autowired
+  private IdpKeyStoreData keyStoreData;
+
+  @Autowired
+  private JWSAlgorithm tokenSigningAlgorithm;
+
+  @Autowired
+  private IdpKeyRotationPolicy rotationPolicy;
+
+  /**
+   * Generate the next token key ahead of its activation and remove retired keys that are no longer
+   * needed
+   */
+  @Scheduled(initialDelayString = "${keystore.key.token.rotation.check}", fixedDelayString = "${keystore.key.token.rotation.check}")
+  public void rotateKeys() {
+    try {
+      IdpKeyRotator.rotate(tokenSigningAlgorithm, keyStoreData, rotationPolicy, Instant.now());
+    } catch (Exception ex) {
+      LOGGER.error("Failed to rotate token keys: " + ex.getLocalizedMessage(), ex);
+    }
+  }
+
+}
@@ -1,48 +1,49 @@
 package com.sourceware.labs.idp.component;
 
 import java.io.File;
-
-import org.springframework.beans.factory.annotation.Value;
+import java.io.IOException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateException;
+import java.time.Instant;
+
+import org.bouncycastle.operator.OperatorCreationException;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSAlgorithm;
-import com.sourceware.labs.idp.keystore.IdpKeyStoreAccessor;
+import com.sourceware.labs.idp.keystore.IdpKeyRotationPolicy;
+import com.sourceware.labs.idp.keystore.IdpKeyRotator;
 import com.sourceware.labs.idp.keystore.IdpKeyStoreData;
+import com.sourceware.labs.idp.keystore.IdpServiceKeys;
 
 import jakarta.annotation.PostConstruct;
 
 @Component
 public class KeyStoreInit {
 
-  @Value("${keystore.dir.name}")
-  private String keyStoreDir;
-
-  @Value("${keystore.store.name}")
-  private String keyStoreName;
+  @Autowired
+  private IdpKeyStoreData keyStoreData;
 
-  @Value("${keystore.store.password}")
-  private String keyStorePassword;
+  @Autowired
+  private JWSAlgorithm tokenSigningAlgorithm;
 
-  @Value("${keystore.key.token.alias}")
-  private String tokenAlias;
+  @Autowired
+  private IdpKeyRotationPolicy rotationPolicy;
 
-  @Value("${keystore.key.token.password}")
-  private String tokenPassword;
+  @Autowired
+  private IdpServiceKeys serviceKeys;
 
   @PostConstruct
-  private void createKeystoreAndKey() {
-    IdpKeyStoreData keyStoreData = new IdpKeyStoreData(
-            keyStoreDir,
-            keyStoreName,
-            keyStorePassword,
-            tokenAlias,
-            tokenPassword,
-            "initial");
-    File dir = new File(keyStoreDir);
+  private void createKeystoreAndKey() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    File dir = new File(keyStoreData.getStoreDir());
     if (!dir.exists()) {
       dir.mkdir();
     }
-    IdpKeyStoreAccessor.prepareKeyStoreAndSet(JWSAlgorithm.ES256, keyStoreData);
+    IdpKeyRotator.rotate(tokenSigningAlgorithm, keyStoreData, rotationPolicy, Instant.now());
+    serviceKeys.prepareKeys();
   }
 
 }
@@ -0,0 +1,88 @@
+package com.sourceware.labs.idp.component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.sourceware.labs.idp.password.PasswordHasher;
+import com.sourceware.labs.idp.service.PasswordHashingService;
+
+/**
+ * Spring component for calibrating the password hashing cost on the scheduler thread; the first
+ * run at startup benchmarks the node, later runs only calibrate again when the container's CPU
+ * quota or the number of available processors changed
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Component
+public class PasswordHashCalibrationScheduler {
+
+  private static final Logger LOGGER = LoggerFactory
+          .getLogger(PasswordHashCalibrationScheduler.class);
+
+  // cgroup v2 quota "<quota|max> <period>" and the cgroup v1 equivalents
+  private static final Path CPU_MAX = Path.of("/sys/fs/cgroup/cpu.max");
+  private static final Path CFS_QUOTA = Path.of("/sys/fs/cgroup/cpu/cpu.cfs_quota_us");
+  private static final Path CFS_PERIOD = Path.of("/sys/fs/cgroup/cpu/cpu.cfs_period_us");
+
+  @Autowired
+  private PasswordHashingService passwordHashingService;
+
+  @Value("${password.hashing.calibration.enabled}")
+  private boolean enabled;
+
+  // CPU quota the current cost was calibrated for, null before the first calibration
+  private String calibratedCpuQuota;
+
+  /**
+   * Calibrate the password hashing cost if it was not calibrated for the current CPU quota yet
+   */
+  @Scheduled(fixedDelayString = "${password.hashing.calibration.check}")
+  public void calibrate() {
+    if (!enabled) {
+      return;
+    }
+    String cpuQuota = readCpuQuota();
+    if (Objects.equals(cpuQuota, calibratedCpuQuota)) {
+      return;
+    }
+    try {
+      PasswordHasher hasher = passwordHashingService.calibrate();
+      calibratedCpuQuota = cpuQuota;
+      LOGGER.info(
+              "Calibrated {} password hashing to cost {} for CPU quota {}",
+              hasher.getAlgorithm(),
+              hasher.getCost(),
+              cpuQuota);
+    } catch (Exception ex) {
+      LOGGER.error("Failed to calibrate password hashing: " + ex.getLocalizedMessage(), ex);
+    }
+  }
+
+  /**
+   * Helper function for describing the CPU quota of the process: the cgroup quota and period if
+   * one is set and the number of processors the JVM sees
+   */
+  static String readCpuQuota() {
+    String quota = "none";
+    try {
+      if (Files.isReadable(CPU_MAX)) {
+        quota = Files.readString(CPU_MAX).trim();
+      } else if (Files.isReadable(CFS_QUOTA) && Files.isReadable(CFS_PERIOD)) {
+        quota = Files.readString(CFS_QUOTA).trim() + " " + Files.readString(CFS_PERIOD).trim();
+      }
+    } catch (IOException ex) {
+      LOGGER.warn("Failed to read the cgroup CPU quota: " + ex.getLocalizedMessage());
+    }
+    return quota + " cpus=" + Runtime.getRuntime().availableProcessors();
+  }
+
+}
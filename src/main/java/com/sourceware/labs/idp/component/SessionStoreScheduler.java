@@ -0,0 +1,30 @@
+package com.sourceware.labs.idp.component;
+
+import java.time.Instant;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.sourceware.labs.idp.service.SessionStore;
+
+/**
+ * Spring component for periodically dropping expired sessions from the {@link SessionStore}
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Component
+public class SessionStoreScheduler {
+
+  @Autowired
+  private SessionStore sessionStore;
+
+  /**
+   * Drop the sessions whose refresh token expired
+   */
+  @Scheduled(initialDelayString = "${session.store.purge}", fixedDelayString = "${session.store.purge}")
+  public void purgeSessions() {
+    sessionStore.purgeExpired(Instant.now());
+  }
+
+}
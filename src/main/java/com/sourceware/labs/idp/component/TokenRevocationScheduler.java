@@ -0,0 +1,42 @@
+package com.sourceware.labs.idp.component;
+
+import java.time.Instant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.sourceware.labs.idp.service.TokenRevocationService;
+
+/**
+ * Spring component for periodically purging revocations of expired tokens and rebuilding the
+ * revocation filter; the first run at startup builds the filter
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Component
+public class TokenRevocationScheduler {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TokenRevocationScheduler.class);
+
+  @Autowired
+  private TokenRevocationService tokenRevocationService;
+
+  /**
+   * Delete the revocations of tokens that expired and rebuild the filter from the remaining ones
+   */
+  @Scheduled(fixedDelayString = "${jwt.revocation.rebuild}")
+  public void purgeRevocations() {
+    try {
+      int purged = tokenRevocationService.purgeAndRebuild(Instant.now());
+      if (purged > 0) {
+        LOGGER.info("Purged " + purged + " revocations of expired tokens");
+      }
+    } catch (Exception ex) {
+      LOGGER.error("Failed to rebuild the token revocation filter: " + ex.getLocalizedMessage(), ex);
+    }
+  }
+
+}
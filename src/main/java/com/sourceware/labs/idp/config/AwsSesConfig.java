@@ -1,28 +1,44 @@
 package com.sourceware.labs.idp.config;
 
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.mail.MailSender;
 import org.springframework.mail.javamail.JavaMailSender;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.simpleemail.AmazonSimpleEmailService;
 import com.amazonaws.services.simpleemail.AmazonSimpleEmailServiceClientBuilder;
 
+import com.sourceware.labs.idp.mail.BulkMailSender;
+import com.sourceware.labs.idp.mail.SendRateLimiter;
+import com.sourceware.labs.idp.mail.SesBulkMailSender;
+
 import io.awspring.cloud.ses.SimpleEmailServiceJavaMailSender;
-import io.awspring.cloud.ses.SimpleEmailServiceMailSender;
 
 /**
  * Spring configuration file for AWS Simple Email Service (SES) which contains the injected
- * access-key, secret-key, and region information used to connect the service to AWS
+ * access-key, secret-key, and region information used to connect the service to AWS; used unless
+ * the local mail backend is selected
  * 
  * @author Robert Forristall (robert.s.forristall@gmail.com)
  */
 @Configuration
+@ConditionalOnProperty(name = "mail.backend", havingValue = "ses", matchIfMissing = true)
 public class AwsSesConfig {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(AwsSesConfig.class);
+
+  // Maximum send rate of an SES account in the sandbox, assumed if the quota cannot be read
+  private static final double SANDBOX_SEND_RATE = 1;
+
   /**
    * AWS access key for the IAM user that will be sending emails
    */
@@ -42,28 +58,66 @@ public class AwsSesConfig {
   private String region;
 
   /**
-   * Bean function for creating a new AWS SES Java instance
+   * Bean function for creating a new AWS SES Java instance; a call, including its retries, is
+   * aborted after the send timeout so that a slow SES frees the mail sender threads
    * 
+   * @param sendTimeout - how long a call to SES may take at most
    * @return {@link AmazonSimpleEmailService}
    */
   @Bean
-  public AmazonSimpleEmailService amazonSimpleEmailService() {
+  public AmazonSimpleEmailService amazonSimpleEmailService(
+          @Value("${email.send.timeout}") Duration sendTimeout) {
     BasicAWSCredentials credentials = new BasicAWSCredentials(accessKey, secretKey);
     return AmazonSimpleEmailServiceClientBuilder.standard()
             .withCredentials(new AWSStaticCredentialsProvider(credentials))
+            .withClientConfiguration(
+                    new ClientConfiguration()
+                            .withClientExecutionTimeout((int) sendTimeout.toMillis()))
             .withRegion(region)
             .build();
   }
 
   /**
-   * Bean function for creating a new mail sender
+   * Name of the pass-through SES template that bulk sends go through
+   */
+  @Value("${email.ses.template}")
+  private String templateName;
+
+  /**
+   * Bean function for creating a new mail sender that sends batches of messages through the SES
+   * bulk API
    * 
    * @param amazonSimpleEmailService - the AWS SES service that the mail sender will use
-   * @return {@link MailSender}
+   * @return {@link BulkMailSender}
+   */
+  @Bean
+  public BulkMailSender mailSender(AmazonSimpleEmailService amazonSimpleEmailService) {
+    return new SesBulkMailSender(amazonSimpleEmailService, templateName);
+  }
+
+  /**
+   * Bean function for creating the limiter that paces sends to the account's maximum send rate
+   * 
+   * @param amazonSimpleEmailService - the AWS SES service whose send quota is read
+   * @param maxRate - maximum messages per second, 0 or less to read it from the SES send quota
+   * @return {@link SendRateLimiter}
    */
   @Bean
-  public MailSender mailSender(AmazonSimpleEmailService amazonSimpleEmailService) {
-    return new SimpleEmailServiceMailSender(amazonSimpleEmailService);
+  public SendRateLimiter sendRateLimiter(
+          AmazonSimpleEmailService amazonSimpleEmailService,
+          @Value("${email.rate.max}") double maxRate) {
+    if (maxRate <= 0) {
+      try {
+        maxRate = amazonSimpleEmailService.getSendQuota().getMaxSendRate();
+        LOGGER.info("SES maximum send rate is " + maxRate + " emails per second");
+      } catch (AmazonClientException ex) {
+        maxRate = SANDBOX_SEND_RATE;
+        LOGGER.warn(
+                "Failed to read the SES send quota, sending " + maxRate + " email per second: "
+                        + ex.getLocalizedMessage());
+      }
+    }
+    return new SendRateLimiter(maxRate);
   }
 
   /**
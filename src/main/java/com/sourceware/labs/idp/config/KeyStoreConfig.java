@@ -0,0 +1,117 @@
+package com.sourceware.labs.idp.config;
+
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.sourceware.labs.idp.entity.Role.Application;
+import com.sourceware.labs.idp.keystore.IdpKeyAlgorithm;
+import com.sourceware.labs.idp.keystore.IdpKeyRotationPolicy;
+import com.sourceware.labs.idp.keystore.IdpKeyStoreData;
+import com.sourceware.labs.idp.keystore.IdpServiceKeys;
+import com.sourceware.labs.idp.service.AuthService;
+
+/**
+ * Spring configuration file for the IDP Java Keystore which contains the injected keystore
+ * location, passwords, token key rotation schedule, and service token secrets
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Configuration
+public class KeyStoreConfig {
+
+  /**
+   * Bean function for the data needed to access the token keys in the keystore
+   * 
+   * @param keyStoreDir - directory holding the keystore file
+   * @param keyStoreName - name of the keystore file
+   * @param keyStorePassword - password of the keystore
+   * @param tokenAlias - alias of the token key; rotated keys are stored as "&lt;alias&gt;-&lt;key
+   *          ID&gt;"
+   * @param tokenPassword - password of the token keys
+   * @param tokenKeyId - key ID of the key stored directly under the token alias
+   * @return {@link IdpKeyStoreData}
+   */
+  @Bean
+  public IdpKeyStoreData idpKeyStoreData(
+          @Value("${keystore.dir.name}") String keyStoreDir,
+          @Value("${keystore.store.name}") String keyStoreName,
+          @Value("${keystore.store.password}") String keyStorePassword,
+          @Value("${keystore.key.token.alias}") String tokenAlias,
+          @Value("${keystore.key.token.password}") String tokenPassword,
+          @Value("${keystore.key.token.id}") String tokenKeyId) {
+    return new IdpKeyStoreData(
+            keyStoreDir,
+            keyStoreName,
+            keyStorePassword,
+            tokenAlias,
+            tokenPassword,
+            tokenKeyId);
+  }
+
+  /**
+   * Bean function for the algorithm that token keys are created with and tokens are signed with
+   * 
+   * @param algorithm - name of the JWS algorithm, Supported: RS384, ES256, EdDSA
+   * @return {@link JWSAlgorithm}
+   * @throws NoSuchAlgorithmException If the configured algorithm is not supported
+   */
+  @Bean
+  public JWSAlgorithm tokenSigningAlgorithm(
+          @Value("${jwt.algorithm}") String algorithm) throws NoSuchAlgorithmException {
+    return IdpKeyAlgorithm.of(JWSAlgorithm.parse(algorithm)).getJwsAlgorithm();
+  }
+
+  /**
+   * Bean function for the applications using the internal service token profile; an application
+   * opts in by setting "jwt.service.algorithm.&lt;application&gt;" to HS256 or HS512
+   * 
+   * @param tokenKeyStoreData - data of the token keys; the secrets share its KeyStore
+   * @param serviceAlias - alias prefix of the service token secrets
+   * @param env - environment holding the per application properties
+   * @return {@link IdpServiceKeys}
+   * @throws NoSuchAlgorithmException If a configured algorithm is not HS256 or HS512
+   */
+  @Bean
+  public IdpServiceKeys idpServiceKeys(
+          IdpKeyStoreData tokenKeyStoreData,
+          @Value("${keystore.key.service.alias}") String serviceAlias,
+          Environment env) throws NoSuchAlgorithmException {
+    Map<String, JWSAlgorithm> algorithms = new HashMap<>();
+    for (Application application : Application.values()) {
+      String algorithm = env.getProperty("jwt.service.algorithm." + application.name());
+      if (algorithm != null && !algorithm.isBlank()) {
+        algorithms.put(application.toString(), JWSAlgorithm.parse(algorithm.trim()));
+      }
+    }
+    return new IdpServiceKeys(algorithms, tokenKeyStoreData, serviceAlias);
+  }
+
+  /**
+   * Bean function for the token key rotation schedule
+   * 
+   * @param period - how long each key signs new tokens
+   * @param lead - how long before activation the next key is generated and published
+   * @param retained - number of retired keys kept for verifying tokens they signed
+   * @return {@link IdpKeyRotationPolicy}
+   */
+  @Bean
+  public IdpKeyRotationPolicy idpKeyRotationPolicy(
+          @Value("${keystore.key.token.rotation.period}") Duration period,
+          @Value("${keystore.key.token.rotation.lead}") Duration lead,
+          @Value("${keystore.key.token.rotation.retained}") int retained) {
+    return new IdpKeyRotationPolicy(
+            period,
+            lead,
+            retained,
+            Duration.ofSeconds(AuthService.REFRESH_TOKEN_EXPIRATION));
+  }
+
+}
@@ -0,0 +1,66 @@
+package com.sourceware.labs.idp.config;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.sourceware.labs.idp.mail.BulkMailSender;
+import com.sourceware.labs.idp.mail.LocalMailSender;
+import com.sourceware.labs.idp.mail.SendRateLimiter;
+
+/**
+ * Spring configuration file for the local mail backend, which replaces SES with an in-process
+ * stand-in so the email path can be run and load tested without sending mail
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Configuration
+@ConditionalOnProperty(name = "mail.backend", havingValue = "local")
+public class LocalMailConfig {
+
+  /**
+   * Bean function for creating the local mail sender
+   *
+   * @param latency {@link Duration} each simulated SES call takes
+   * @param errorRate Probability between 0 and 1 that a message fails
+   * @param maxSendRate Maximum messages accepted per second, 0 for no limit
+   * @param recordFile Path of the file sent messages are appended to, blank to not record them
+   * @return {@link BulkMailSender}
+   * @throws IOException If the directory of the record file cannot be created
+   */
+  @Bean
+  public BulkMailSender mailSender(
+          @Value("${mail.local.latency}") Duration latency,
+          @Value("${mail.local.error-rate}") double errorRate,
+          @Value("${mail.local.max-rate}") int maxSendRate,
+          @Value("${mail.local.file}") String recordFile) throws IOException {
+    Path path = null;
+    if (!recordFile.isBlank()) {
+      path = Path.of(recordFile).toAbsolutePath();
+      Files.createDirectories(path.getParent());
+    }
+    return new LocalMailSender(latency, errorRate, maxSendRate, path);
+  }
+
+  /**
+   * Bean function for creating the limiter that paces sends to the stand-in's send rate, as it
+   * paces them to the SES send quota
+   *
+   * @param maxRate Maximum messages per second, 0 or less to use the stand-in's send rate
+   * @param maxSendRate Maximum messages the stand-in accepts per second, 0 for no limit
+   * @return {@link SendRateLimiter}
+   */
+  @Bean
+  public SendRateLimiter sendRateLimiter(
+          @Value("${email.rate.max}") double maxRate,
+          @Value("${mail.local.max-rate}") int maxSendRate) {
+    return new SendRateLimiter(maxRate > 0 ? maxRate : maxSendRate);
+  }
+
+}
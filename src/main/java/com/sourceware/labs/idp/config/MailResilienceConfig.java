@@ -0,0 +1,123 @@
+package com.sourceware.labs.idp.config;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.sourceware.labs.idp.mail.MailCircuitBreaker;
+import com.sourceware.labs.idp.mail.MailCircuitBreaker.State;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+/**
+ * Spring configuration file for the executor that emails are sent on and the circuit breaker around
+ * the email provider, and their metrics
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Configuration
+public class MailResilienceConfig {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MailResilienceConfig.class);
+
+  /**
+   * Bean function for the executor that calls to the email provider run on <br />
+   * A slow provider only ties up this small pool, never the scheduler or request threads, and once
+   * its queue is full new sends are rejected immediately instead of waiting. Its pool and queue
+   * are published as the "executor.*" metrics tagged with name=mailSender. The bean is not a
+   * default candidate so it has to be injected by name.
+   *
+   * @param threads - number of concurrent calls to the email provider
+   * @param queueSize - number of sends that may wait for a thread
+   * @param meterRegistry - registry the executor metrics are bound to
+   * @return {@link ExecutorService}
+   */
+  @Bean(defaultCandidate = false, destroyMethod = "shutdown")
+  public ExecutorService mailSenderExecutor(
+          @Value("${email.send.threads}") int threads,
+          @Value("${email.send.queue}") int queueSize,
+          MeterRegistry meterRegistry) {
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "mail-sender-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    ExecutorService executor = new ThreadPoolExecutor(
+            Math.max(1, threads),
+            Math.max(1, threads),
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+            threadFactory,
+            new ThreadPoolExecutor.AbortPolicy());
+    return ExecutorServiceMetrics.monitor(meterRegistry, executor, "mailSender");
+  }
+
+  /**
+   * Bean function for the circuit breaker around the email provider; its state is published as
+   * the "email.circuit.state" gauges, 1 for the current state, and its transitions as the
+   * "email.circuit.transitions" counters
+   *
+   * @param windowSize - number of latest calls the rates are computed over
+   * @param minimumCalls - number of calls needed before the circuit can open
+   * @param failureRate - percentage of failed calls that opens the circuit
+   * @param slowCall - duration above which a call counts as slow
+   * @param slowCallRate - percentage of slow calls that opens the circuit
+   * @param openDuration - how long the circuit stays open before a trial call
+   * @param meterRegistry - registry the circuit metrics are published to
+   * @return {@link MailCircuitBreaker}
+   */
+  @Bean
+  public MailCircuitBreaker mailCircuitBreaker(
+          @Value("${email.circuit.window}") int windowSize,
+          @Value("${email.circuit.calls.min}") int minimumCalls,
+          @Value("${email.circuit.failure.rate}") double failureRate,
+          @Value("${email.circuit.slow.duration}") Duration slowCall,
+          @Value("${email.circuit.slow.rate}") double slowCallRate,
+          @Value("${email.circuit.open.duration}") Duration openDuration,
+          MeterRegistry meterRegistry) {
+    MailCircuitBreaker mailCircuitBreaker = new MailCircuitBreaker(
+            windowSize,
+            minimumCalls,
+            failureRate,
+            slowCall,
+            slowCallRate,
+            openDuration,
+            (from, to) -> {
+              meterRegistry.counter(
+                      "email.circuit.transitions",
+                      "from",
+                      from.toString(),
+                      "to",
+                      to.toString()).increment();
+              if (to == State.Open) {
+                LOGGER.warn("Email provider circuit opened after " + from + ", deferring emails");
+              } else {
+                LOGGER.info("Email provider circuit is now " + to);
+              }
+            });
+    for (State state : State.values()) {
+      Gauge.builder(
+              "email.circuit.state",
+              mailCircuitBreaker,
+              breaker -> breaker.getState() == state ? 1 : 0)
+              .tag("state", state.toString())
+              .register(meterRegistry);
+    }
+    return mailCircuitBreaker;
+  }
+
+}
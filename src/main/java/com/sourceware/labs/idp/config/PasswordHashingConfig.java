@@ -0,0 +1,141 @@
+package com.sourceware.labs.idp.config;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.sourceware.labs.idp.password.Argon2idPasswordHasher;
+import com.sourceware.labs.idp.password.BCryptPasswordHasher;
+import com.sourceware.labs.idp.password.PasswordHashCalibrator;
+import com.sourceware.labs.idp.password.PasswordHasher;
+import com.sourceware.labs.idp.password.Pbkdf2PasswordHasher;
+
+/**
+ * Spring configuration file for the password hashing algorithms, the executor they run on and the
+ * executor rehashed passwords are written on
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Configuration
+public class PasswordHashingConfig {
+
+  /**
+   * Bean function for the executor that passwords are hashed and checked on <br />
+   * Hashing is deliberately CPU and memory expensive, so it runs on a small fixed pool instead of the
+   * request threads; by default half of the processors, leaving the rest for every other endpoint
+   * during a login storm. Once the queue is full new work is rejected immediately instead of
+   * waiting. The bean is not a default candidate so it has to be injected by name.
+   *
+   * @param threads - number of hashing threads; 0 or less uses half of the available processors
+   * @param queueSize - number of hashes that may wait for a thread
+   * @return {@link ExecutorService}
+   */
+  @Bean(defaultCandidate = false, destroyMethod = "shutdown")
+  public ExecutorService passwordHashingExecutor(
+          @Value("${password.hashing.threads}") int threads,
+          @Value("${password.hashing.queue}") int queueSize) {
+    int poolSize = threads > 0 ? threads
+            : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "password-hashing-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    return new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+            threadFactory,
+            new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  /**
+   * Bean function for the executor that passwords rehashed after a login are written on <br />
+   * The write waits for a database connection and the database, so it runs here instead of
+   * holding a hashing thread. Once the queue is full further rehashes are rejected and done on the
+   * user's next login. The bean is not a default candidate so it has to be injected by name.
+   *
+   * @param threads - number of threads writing rehashed passwords
+   * @param queueSize - number of rehashed passwords that may wait to be written
+   * @return {@link ExecutorService}
+   */
+  @Bean(defaultCandidate = false, destroyMethod = "shutdown")
+  public ExecutorService passwordRehashExecutor(
+          @Value("${credentials.rehash.threads}") int threads,
+          @Value("${credentials.rehash.queue}") int queueSize) {
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "password-rehash-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    return new ThreadPoolExecutor(
+            Math.max(1, threads),
+            Math.max(1, threads),
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+            threadFactory,
+            new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  /**
+   * Bean function for the calibrator that raises the hashing cost to fit the latency target on the
+   * node
+   *
+   * @param target - latency a hash should take at most at p99
+   * @param samples - number of hashes measured per cost
+   * @return {@link PasswordHashCalibrator}
+   */
+  @Bean
+  public PasswordHashCalibrator passwordHashCalibrator(
+          @Value("${password.hashing.calibration.target}") Duration target,
+          @Value("${password.hashing.calibration.samples}") int samples) {
+    return new PasswordHashCalibrator(target, samples);
+  }
+
+  /**
+   * @param memoryKiB - memory used per hash in KiB
+   * @param iterations - number of passes over the memory
+   * @param parallelism - number of lanes
+   * @return {@link Argon2idPasswordHasher}
+   */
+  @Bean
+  public PasswordHasher argon2idPasswordHasher(
+          @Value("${password.hashing.argon2.memory}") int memoryKiB,
+          @Value("${password.hashing.argon2.iterations}") int iterations,
+          @Value("${password.hashing.argon2.parallelism}") int parallelism) {
+    return new Argon2idPasswordHasher(memoryKiB, iterations, parallelism);
+  }
+
+  /**
+   * @param cost - base 2 logarithm of the number of rounds
+   * @return {@link BCryptPasswordHasher}
+   */
+  @Bean
+  public PasswordHasher bcryptPasswordHasher(@Value("${password.hashing.bcrypt.cost}") int cost) {
+    return new BCryptPasswordHasher(cost);
+  }
+
+  /**
+   * @param iterations - number of HMAC-SHA256 iterations
+   * @return {@link Pbkdf2PasswordHasher}
+   */
+  @Bean
+  public PasswordHasher pbkdf2PasswordHasher(
+          @Value("${password.hashing.pbkdf2.iterations}") int iterations) {
+    return new Pbkdf2PasswordHasher(iterations);
+  }
+
+}
@@ -0,0 +1,45 @@
+package com.sourceware.labs.idp.config;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import com.sourceware.labs.idp.entity.Role.Application;
+import com.sourceware.labs.idp.jwt.PermissionRegistry;
+
+/**
+ * Spring configuration file for the registry of the additional permissions of every application
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Configuration
+public class PermissionConfig {
+
+  /**
+   * Bean function for the permission registry, read from the comma separated
+   * "permissions.&lt;application&gt;" property of every {@link Application}
+   *
+   * @param environment - environment holding the permission properties
+   * @return {@link PermissionRegistry}
+   */
+  @Bean
+  public PermissionRegistry permissionRegistry(Environment environment) {
+    Map<String, List<String>> permissionsByApplication = new HashMap<>();
+    for (Application application : Application.values()) {
+      String permissions = environment.getProperty("permissions." + application, "");
+      permissionsByApplication.put(
+              application.toString(),
+              Arrays.stream(permissions.split(","))
+                      .map(String::trim)
+                      .filter(permission -> !permission.isEmpty())
+                      .toList());
+    }
+    return new PermissionRegistry(permissionsByApplication);
+  }
+
+}
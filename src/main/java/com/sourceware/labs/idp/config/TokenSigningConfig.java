@@ -0,0 +1,59 @@
+package com.sourceware.labs.idp.config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Spring configuration file for the executor that signs tokens in parallel with the request thread
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Configuration
+public class TokenSigningConfig {
+
+  // Queued signatures per signing thread before requests sign on their own thread
+  private static final int QUEUE_PER_THREAD = 16;
+
+  /**
+   * Bean function for the executor that token signatures are offloaded to <br />
+   * Signing is CPU bound so the pool is fixed in size; once its queue is full the request thread
+   * signs the token itself instead of waiting. With a single processor there is nothing to overlap
+   * with, so unless threads are configured the tokens are signed on the request thread. The bean is
+   * not a default candidate so that it does not replace Spring's application task executor and has
+   * to be injected by name.
+   *
+   * @param threads - number of signing threads; 0 or less uses one per available processor
+   * @return {@link Executor}
+   */
+  @Bean(defaultCandidate = false)
+  public Executor tokenSigningExecutor(@Value("${jwt.signing.threads}") int threads) {
+    int processors = Runtime.getRuntime().availableProcessors();
+    if (threads <= 0 && processors < 2) {
+      return Runnable::run;
+    }
+    int poolSize = threads > 0 ? threads : processors;
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "token-signing-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    return new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(poolSize * QUEUE_PER_THREAD),
+            threadFactory,
+            new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+}
@@ -0,0 +1,37 @@
+package com.sourceware.labs.idp.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.sourceware.labs.idp.jwt.VerifiedJwtCache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Spring configuration file for the cache of verified tokens and its metrics
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Configuration
+public class TokenVerificationConfig {
+
+  /**
+   * Bean function for the cache of verified tokens; its size, hits, misses and evictions are
+   * published as the "cache.*" metrics tagged with cache=verifiedTokens
+   *
+   * @param maximumSize - maximum number of verified tokens held
+   * @param meterRegistry - registry the cache statistics are bound to
+   * @return {@link VerifiedJwtCache}
+   */
+  @Bean
+  public VerifiedJwtCache verifiedJwtCache(
+          @Value("${jwt.verify.cache.size}") long maximumSize,
+          MeterRegistry meterRegistry) {
+    VerifiedJwtCache verifiedJwtCache = new VerifiedJwtCache(maximumSize);
+    CaffeineCacheMetrics.monitor(meterRegistry, verifiedJwtCache.getCache(), "verifiedTokens");
+    return verifiedJwtCache;
+  }
+
+}
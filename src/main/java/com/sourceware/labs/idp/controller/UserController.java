@@ -1,6 +1,7 @@
 package com.sourceware.labs.idp.controller;
 
 import java.io.IOException;
+import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyStoreException;
@@ -8,6 +9,9 @@ import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
 import java.sql.Timestamp;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
@@ -17,9 +21,14 @@ import org.bouncycastle.operator.OperatorCreationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseCookie;
 import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.bind.annotation.CookieValue;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -31,17 +40,25 @@ import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import com.nimbusds.jose.JOSEException;
 import com.sourceware.labs.idp.entity.AccountVerification;
 import com.sourceware.labs.idp.entity.Role.Application;
 import com.sourceware.labs.idp.entity.Role.RoleName;
 import com.sourceware.labs.idp.entity.SecurityQuestion;
 import com.sourceware.labs.idp.entity.User;
+import com.sourceware.labs.idp.mail.EmailTemplate;
+import com.sourceware.labs.idp.password.PasswordHashingRejectedException;
 import com.sourceware.labs.idp.repo.AccountVerificationRepo;
 import com.sourceware.labs.idp.repo.RoleRepo;
 import com.sourceware.labs.idp.repo.UserRepo;
 import com.sourceware.labs.idp.service.AuthService;
-import com.sourceware.labs.idp.service.AwsEmailService;
+import com.sourceware.labs.idp.service.CredentialMigrationService;
+import com.sourceware.labs.idp.service.EmailOutboxService;
+import com.sourceware.labs.idp.service.EmailTemplateService;
+import com.sourceware.labs.idp.service.PasswordHashingService;
+import com.sourceware.labs.idp.service.SessionStore;
 import com.sourceware.labs.idp.util.LoginData;
 import com.sourceware.labs.idp.util.RestError;
 import com.sourceware.labs.idp.util.RestError.RestErrorBuilder;
@@ -66,6 +83,10 @@ import jakarta.validation.ConstraintViolationException;
  * <ul>
  * <li>- POST /user/signup: Handle signing up a new user with the IDP server</li>
  * <li>- POST /user/login: Method: Handle logging in a user with the IDP server</li>
+ * <li>- POST /user/logout: Revoke the tokens of the user's session and clear the session
+ * cookie</li>
+ * <li>- POST /user/token: Exchange the session handle cookie for the session's access token
+ * (reference cookie mode)</li>
  * <li>- POST /user/verify: Method: Handle verifying a new user's account</li>
  * <li>- GET /user/recover/questions: Return the user's security questions</li>
  * <li>- POST /user/recover/questions: Verify that the user's security question answers are
@@ -93,6 +114,9 @@ public class UserController {
   private static final String SIGNUP_PATH = "/signup";
   private static final String VERIFY_PATH = "/verify/{userId}/{verificationToken}";
   private static final String LOGIN_PATH = "/login";
+  private static final String LOGOUT_PATH = "/logout";
+  private static final String TOKEN_PATH = "/token";
+  private static final String SESSION_COOKIE = "SourcewareLabIdp";
 
   private final UserRepo userRepo;
 
@@ -100,22 +124,47 @@ public class UserController {
 
   private final AccountVerificationRepo accountVerificationRepo;
 
-  private final AwsEmailService awsEmailService;
+  private final EmailTemplateService emailTemplateService;
 
   private final AuthService authService;
 
+  private final SessionStore sessionStore;
+
+  private final PasswordHashingService passwordHashingService;
+
+  private final CredentialMigrationService credentialMigrationService;
+
+  private final EmailOutboxService emailOutboxService;
+
+  private final TransactionTemplate transactionTemplate;
+
+  // True if the session cookie only carries a handle into the session store
+  private final boolean referenceCookies;
+
   @Autowired
   UserController(
           UserRepo userRepo,
           RoleRepo roleRepo,
           AccountVerificationRepo accountVerificationRepo,
-          AwsEmailService awsEmailService,
-          AuthService authService) {
+          EmailTemplateService emailTemplateService,
+          AuthService authService,
+          SessionStore sessionStore,
+          PasswordHashingService passwordHashingService,
+          CredentialMigrationService credentialMigrationService,
+          EmailOutboxService emailOutboxService,
+          TransactionTemplate transactionTemplate,
+          @Value("${session.cookie.mode}") String sessionCookieMode) {
     this.userRepo = userRepo;
     this.roleRepo = roleRepo;
     this.accountVerificationRepo = accountVerificationRepo;
-    this.awsEmailService = awsEmailService;
+    this.emailTemplateService = emailTemplateService;
     this.authService = authService;
+    this.sessionStore = sessionStore;
+    this.passwordHashingService = passwordHashingService;
+    this.credentialMigrationService = credentialMigrationService;
+    this.emailOutboxService = emailOutboxService;
+    this.transactionTemplate = transactionTemplate;
+    this.referenceCookies = "reference".equalsIgnoreCase(sessionCookieMode.trim());
   }
 
   @ApiResponses({
@@ -124,6 +173,8 @@ public class UserController {
       @ApiResponse(responseCode = "400", description = "User failed to be signed up", content = {
           @Content(mediaType = "application/json", schema = @Schema(implementation = RestError.class)) }),
       @ApiResponse(responseCode = "409", description = "User provided an email that is already associated with an account", content = {
+          @Content(mediaType = "application/json", schema = @Schema(implementation = RestError.class)) }),
+      @ApiResponse(responseCode = "503", description = "Too many passwords are being hashed, retry later", content = {
           @Content(mediaType = "application/json", schema = @Schema(implementation = RestError.class)) }) })
   @Operation(summary = "Signup", description = "Signup a new user with the IDP service")
   @Tag(name = "post", description = "POST methods for User APIs")
@@ -131,26 +182,40 @@ public class UserController {
   String signup(
           @RequestBody SignupData signupData,
           HttpServletResponse response) throws IOException {
+    signupData.setEmail(UserRepo.normalizeEmail(signupData.getEmail()));
     Optional<RestError> error = signupData
             .isDataValid(getRoutePath(SIGNUP_PATH), RequestMethod.POST);
     if (error.isPresent()) {
       response.sendError(HttpStatus.BAD_REQUEST.value(), error.get().toString());
     } else {
+      // Password and security answers are hashed in parallel
+      List<String> hashes;
+      try {
+        hashes = passwordHashingService.hashAll(
+                Arrays.asList(signupData.getPassword(), signupData.getSa1(), signupData.getSa2()));
+      } catch (PasswordHashingRejectedException ex) {
+        sendHashingRejectedError(response, SIGNUP_PATH, 7);
+        return null;
+      }
       try {
-        User user = userRepo.save(createNewUser(signupData));
-        awsEmailService.sendMessage(
-                awsEmailService.createSimpleMailMessage(
-                        user.getEmail(),
-                        "Sourceware Labs IDP User Verification",
-                        awsEmailService.createVerificatioEmailBody(
-                                user.getId(),
-                                signupData.getVerificationToken())));
+        // The verification email is sent from the outbox once the user committed
+        transactionTemplate.executeWithoutResult(status -> {
+          User user = userRepo.save(createNewUser(signupData, hashes));
+          emailOutboxService.enqueue(
+                  user.getEmail(),
+                  EmailTemplate.Verification.getSubject(),
+                  emailTemplateService.renderVerification(
+                          user.getFirstName(),
+                          user.getId(),
+                          signupData.getVerificationToken()));
+        });
         response.setStatus(HttpStatus.CREATED.value());
         return "User Created Successfully";
       } catch (Exception ex) {
         if (ex.getClass().equals(DataIntegrityViolationException.class)) {
           // TODO find a better way to catch this SQL error than parsing the message
-          if (ex.getLocalizedMessage()
+          String message = ex.getLocalizedMessage();
+          if (message.contains(UserRepo.NORMALIZED_EMAIL_INDEX) || message
                   .contains("Detail: Key (email)=(" + signupData.getEmail() + ") already exists")) {
             response.sendError(
                     HttpStatus.CONFLICT.value(),
@@ -225,7 +290,8 @@ public class UserController {
   @ApiResponses({
     @ApiResponse(responseCode = "200", description = "User is successfully logged in", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = String.class))}),
     @ApiResponse(responseCode = "401", description = "User login credentials failed", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = RestError.class))}),
-    @ApiResponse(responseCode = "400", description = "User failed to login", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = RestError.class))})
+    @ApiResponse(responseCode = "400", description = "User failed to login", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = RestError.class))}),
+    @ApiResponse(responseCode = "503", description = "Too many passwords are being checked, retry later", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = RestError.class))})
   })
   @Tag(name = "post", description = "POST methods for User APIs")
   @PostMapping(LOGIN_PATH)
@@ -233,13 +299,21 @@ public class UserController {
           @RequestBody LoginData loginData,
           HttpServletResponse response) throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, JOSEException {
     
+    loginData.setEmail(UserRepo.normalizeEmail(loginData.getEmail()));
     Optional<RestError> error = loginData.isDataValid(getRoutePath(LOGIN_PATH), RequestMethod.POST);
     if (error.isPresent()) {
       response.sendError(HttpStatus.BAD_REQUEST.value(), error.get().toString());
     } else {
-      List<User> users = userRepo
-              .findUserByEmailAndPassword(loginData.getEmail(), loginData.getPassword());
-      if (users.size() != 1) {
+      Optional<User> found = userRepo.findUserByNormalizedEmail(loginData.getEmail());
+      boolean passwordMatches;
+      try {
+        passwordMatches = passwordHashingService
+                .matches(loginData.getPassword(), found.map(User::getPassword).orElse(null));
+      } catch (PasswordHashingRejectedException ex) {
+        sendHashingRejectedError(response, LOGIN_PATH, 4);
+        return null;
+      }
+      if (!passwordMatches) {
         response.sendError(
                 HttpStatus.UNAUTHORIZED.value(),
                 new RestErrorBuilder().setRoute(getRoutePath(LOGIN_PATH))
@@ -249,10 +323,24 @@ public class UserController {
                         .build()
                         .toString());
       } else {
-        User user = users.get(0);
+        User user = found.get();
+        credentialMigrationService
+                .rehashOnLogin(user.getId(), loginData.getPassword(), user.getPassword());
         SessionCookie cookie = authService
                 .generateSessionCookie(user, Application.RealQuick.name());
-        response.addCookie(new Cookie("SourcewareLabIdp", URLEncoder.encode(cookie.toString(), StandardCharsets.UTF_8)));
+        if (referenceCookies) {
+          // The handle is a bearer credential for the token exchange, so it is only sent over HTTPS,
+          // never to other sites and never readable by scripts
+          ResponseCookie handle = ResponseCookie
+                  .from(SESSION_COOKIE, sessionStore.create(cookie, getSessionExpiration()))
+                  .httpOnly(true)
+                  .secure(true)
+                  .sameSite("Strict")
+                  .build();
+          response.addHeader(HttpHeaders.SET_COOKIE, handle.toString());
+        } else {
+          response.addCookie(new Cookie(SESSION_COOKIE, URLEncoder.encode(cookie.toString(), StandardCharsets.UTF_8)));
+        }
         response.setStatus(HttpStatus.OK.value());
         return "Login Successful";
       }
@@ -260,6 +348,84 @@ public class UserController {
     return null;
   }
 
+  @ApiResponses({
+    @ApiResponse(responseCode = "200", description = "User is successfully logged out", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = String.class))}),
+    @ApiResponse(responseCode = "400", description = "No valid session cookie was provided", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = RestError.class))})
+  })
+  @Operation(summary = "Logout", description = "Revoke the tokens of the user's session")
+  @Tag(name = "post", description = "POST methods for User APIs")
+  @PostMapping(LOGOUT_PATH)
+  String logout(
+          @CookieValue(name = SESSION_COOKIE, required = false) String sessionCookie,
+          HttpServletResponse response) throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, JOSEException, ParseException {
+    SessionCookie cookie = null;
+    if (referenceCookies) {
+      cookie = sessionStore.remove(sessionCookie);
+    } else if (sessionCookie != null) {
+      try {
+        cookie = new Gson().fromJson(
+                URLDecoder.decode(sessionCookie, StandardCharsets.UTF_8),
+                SessionCookie.class);
+      } catch (JsonParseException | IllegalArgumentException ex) {
+        LOGGER.debug("Invalid session cookie: " + ex.getLocalizedMessage());
+      }
+    }
+    if (cookie == null) {
+      response.sendError(
+              HttpStatus.BAD_REQUEST.value(),
+              new RestErrorBuilder().setRoute(getRoutePath(LOGOUT_PATH))
+                      .setMethod(RequestMethod.POST)
+                      .setErrorCode(1)
+                      .setMsg("Error: No valid session cookie provided")
+                      .build()
+                      .toString());
+      return null;
+    }
+    authService.revokeSession(cookie);
+    Cookie expired = new Cookie(SESSION_COOKIE, "");
+    expired.setMaxAge(0);
+    response.addCookie(expired);
+    response.setStatus(HttpStatus.OK.value());
+    return "Logout Successful";
+  }
+
+  @ApiResponses({
+    @ApiResponse(responseCode = "200", description = "Access token of the session, also set as a bearer Authorization header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = String.class))}),
+    @ApiResponse(responseCode = "401", description = "No valid session handle was provided", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = RestError.class))})
+  })
+  @Operation(summary = "Token Exchange", description = "Exchange the session handle cookie for the session's access token, refreshing it if it expired")
+  @Tag(name = "post", description = "POST methods for User APIs")
+  @PostMapping(TOKEN_PATH)
+  String token(
+          @CookieValue(name = SESSION_COOKIE, required = false) String sessionHandle,
+          HttpServletResponse response) throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, JOSEException, ParseException {
+    SessionCookie session = referenceCookies ? sessionStore.get(sessionHandle, Instant.now())
+            : null;
+    if (session != null && !authService.verifyAccessToken(session)) {
+      Optional<SessionCookie> refreshed = authService.verifyRefreshToken(session);
+      if (refreshed.isPresent()) {
+        sessionStore.update(sessionHandle, refreshed.get(), getSessionExpiration());
+      } else {
+        sessionStore.remove(sessionHandle);
+        session = null;
+      }
+    }
+    if (session == null) {
+      response.sendError(
+              HttpStatus.UNAUTHORIZED.value(),
+              new RestErrorBuilder().setRoute(getRoutePath(TOKEN_PATH))
+                      .setMethod(RequestMethod.POST)
+                      .setErrorCode(1)
+                      .setMsg("Error: No valid session handle provided")
+                      .build()
+                      .toString());
+      return null;
+    }
+    response.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + session.getAccessToken());
+    response.setStatus(HttpStatus.OK.value());
+    return session.getAccessToken();
+  }
+
   @ResponseStatus(value = HttpStatus.BAD_REQUEST)
   @ExceptionHandler(MethodArgumentTypeMismatchException.class)
   public String handleError(HttpServletRequest req, MethodArgumentTypeMismatchException ex) {
@@ -279,12 +445,12 @@ public class UserController {
     return ex.getLocalizedMessage();
   }
 
-  private User createNewUser(SignupData signupData) {
+  private User createNewUser(SignupData signupData, List<String> hashes) {
     Timestamp ts = new Timestamp(new Date().getTime());
     User user = new User(
             null,
             signupData.getEmail(),
-            signupData.getPassword(),
+            hashes.get(0),
             false,
             signupData.getFirstName(),
             signupData.getLastName(),
@@ -295,8 +461,8 @@ public class UserController {
             null,
             signupData.getSq1(),
             signupData.getSq2(),
-            signupData.getSa1(),
-            signupData.getSa2(),
+            hashes.get(1),
+            hashes.get(2),
             ts,
             ts,
             null);
@@ -310,6 +476,27 @@ public class UserController {
     return user;
   }
 
+  private void sendHashingRejectedError(
+          HttpServletResponse response,
+          String path,
+          int errorCode) throws IOException {
+    LOGGER.warn("Password hashing is saturated, rejecting " + getRoutePath(path));
+    response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+    response.sendError(
+            HttpStatus.SERVICE_UNAVAILABLE.value(),
+            new RestErrorBuilder().setRoute(getRoutePath(path))
+                    .setMethod(RequestMethod.POST)
+                    .setErrorCode(errorCode)
+                    .setMsg("Error: Server is busy, retry later")
+                    .build()
+                    .toString());
+  }
+
+  private Instant getSessionExpiration() {
+    // Sessions live as long as the refresh token they were last issued with
+    return Instant.now().plusSeconds(AuthService.REFRESH_TOKEN_EXPIRATION);
+  }
+
   private String getRoutePath(String path) {
     return BASE_PATH + "/" + path.split("/")[1];
   }
@@ -0,0 +1,99 @@
+package com.sourceware.labs.idp.controller;
+
+import java.io.IOException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateException;
+import java.time.Duration;
+
+import org.bouncycastle.operator.OperatorCreationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.sourceware.labs.idp.jwt.JwksDocument;
+import com.sourceware.labs.idp.keystore.IdpKeyRotationPolicy;
+import com.sourceware.labs.idp.keystore.IdpKeyStoreCache;
+import com.sourceware.labs.idp.keystore.IdpKeyStoreData;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+/**
+ * Spring rest controller for publishing well known IDP metadata to relying services <br />
+ * Routes:
+ * <ul>
+ * <li>- GET /.well-known/jwks.json: Return the public keys that tokens are signed with</li>
+ * </ul>
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@RestController
+@RequestMapping(path = "/.well-known")
+public class WellKnownController {
+
+  private static final String JWKS_PATH = "/jwks.json";
+
+  private final IdpKeyStoreData keyStoreData;
+
+  private final JWSAlgorithm tokenSigningAlgorithm;
+
+  private final CacheControl jwksCacheControl;
+
+  /**
+   * The JWK Set may be cached until just before a pending key could activate; a key is published
+   * one lead time ahead of activation, but may only be generated up to one rotation check after the
+   * lead time starts
+   */
+  @Autowired
+  WellKnownController(
+          IdpKeyStoreData keyStoreData,
+          JWSAlgorithm tokenSigningAlgorithm,
+          IdpKeyRotationPolicy rotationPolicy,
+          @Value("${keystore.key.token.rotation.check}") Duration rotationCheck) {
+    this.keyStoreData = keyStoreData;
+    this.tokenSigningAlgorithm = tokenSigningAlgorithm;
+    Duration maxAge = rotationPolicy.getLead().minus(rotationCheck);
+    this.jwksCacheControl = CacheControl.maxAge(maxAge.isNegative() ? Duration.ZERO : maxAge)
+            .cachePublic();
+  }
+
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", description = "JWK Set of the token signing keys", content = {
+          @Content(mediaType = "application/json") }),
+      @ApiResponse(responseCode = "304", description = "The JWK Set matching If-None-Match is still current") })
+  @Operation(summary = "JWK Set", description = "Public keys used to verify tokens issued by the IDP service")
+  @Tag(name = "get", description = "GET methods for well known APIs")
+  @GetMapping(JWKS_PATH)
+  ResponseEntity<byte[]> jwks(
+          @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    JwksDocument document = JwksDocument
+            .forKeyRing(IdpKeyStoreCache.getKeyRing(tokenSigningAlgorithm, keyStoreData));
+    if (document.matches(ifNoneMatch)) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+              .eTag(document.getEtag())
+              .cacheControl(jwksCacheControl)
+              .build();
+    }
+    return ResponseEntity.ok()
+            .eTag(document.getEtag())
+            .cacheControl(jwksCacheControl)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(document.getContent());
+  }
+
+}
@@ -0,0 +1,190 @@
+package com.sourceware.labs.idp.entity;
+
+import java.sql.Timestamp;
+import java.util.Objects;
+
+import com.google.gson.Gson;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * Entity for an email that is written in the same transaction as the change it reports and sent
+ * afterwards by a background dispatcher; rows are deleted once the email was sent
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Entity
+@Table(name = "EmailOutbox", indexes = @Index(name = "email_outbox_due", columnList = "status, nextAttempt"))
+public class EmailOutbox {
+
+  public enum Status {
+    // Waiting for its next attempt
+    Pending,
+    // Gave up after the maximum number of attempts
+    Failed
+  }
+
+  private @Id @GeneratedValue @NotNull Long id;
+
+  @NotBlank(message = "Email recipient must be defined")
+  private String recipient;
+
+  @NotNull
+  private String subject;
+
+  @NotNull
+  @Column(columnDefinition = "text")
+  private String body;
+
+  @NotNull
+  @Enumerated(EnumType.STRING)
+  private Status status;
+
+  // Number of failed attempts to send the email
+  private int attempts;
+
+  // Timestamp before which the email is not sent; also pushed out while a dispatcher holds it
+  private @NotNull Timestamp nextAttempt;
+
+  // Error of the last failed attempt
+  @Column(length = 1000)
+  private String lastError;
+
+  private @NotNull Timestamp created;
+
+  public EmailOutbox() {
+    super();
+  }
+
+  public EmailOutbox(
+          @NotNull Long id,
+          String recipient,
+          String subject,
+          String body,
+          Status status,
+          int attempts,
+          @NotNull Timestamp nextAttempt,
+          String lastError,
+          @NotNull Timestamp created) {
+    super();
+    this.id = id;
+    this.recipient = recipient;
+    this.subject = subject;
+    this.body = body;
+    this.status = status;
+    this.attempts = attempts;
+    this.nextAttempt = nextAttempt;
+    this.lastError = lastError;
+    this.created = created;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public String getRecipient() {
+    return recipient;
+  }
+
+  public void setRecipient(String recipient) {
+    this.recipient = recipient;
+  }
+
+  public String getSubject() {
+    return subject;
+  }
+
+  public void setSubject(String subject) {
+    this.subject = subject;
+  }
+
+  public String getBody() {
+    return body;
+  }
+
+  public void setBody(String body) {
+    this.body = body;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  public void setStatus(Status status) {
+    this.status = status;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public void setAttempts(int attempts) {
+    this.attempts = attempts;
+  }
+
+  public Timestamp getNextAttempt() {
+    return nextAttempt;
+  }
+
+  public void setNextAttempt(Timestamp nextAttempt) {
+    this.nextAttempt = nextAttempt;
+  }
+
+  public String getLastError() {
+    return lastError;
+  }
+
+  public void setLastError(String lastError) {
+    this.lastError = lastError;
+  }
+
+  public Timestamp getCreated() {
+    return created;
+  }
+
+  public void setCreated(Timestamp created) {
+    this.created = created;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects
+            .hash(attempts, body, created, id, lastError, nextAttempt, recipient, status, subject);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    EmailOutbox other = (EmailOutbox) obj;
+    return attempts == other.attempts && Objects.equals(body, other.body)
+            && Objects.equals(created, other.created) && Objects.equals(id, other.id)
+            && Objects.equals(lastError, other.lastError)
+            && Objects.equals(nextAttempt, other.nextAttempt)
+            && Objects.equals(recipient, other.recipient) && status == other.status
+            && Objects.equals(subject, other.subject);
+  }
+
+  @Override
+  public String toString() {
+    return new Gson().toJson(this);
+  }
+
+}
@@ -0,0 +1,105 @@
+package com.sourceware.labs.idp.entity;
+
+import java.sql.Timestamp;
+import java.util.Objects;
+
+import com.google.gson.Gson;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * Entity for the progress of a resumable background migration that walks a table in ID order
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Entity
+@Table(name = "MigrationCheckpoints")
+public class MigrationCheckpoint {
+
+  // Name of the migration
+  private @Id @NotNull String name;
+
+  // Highest ID that was migrated; the migration resumes after it
+  private @NotNull Long lastId;
+
+  // If every row was migrated
+  private boolean completed;
+
+  // Timestamp of when the checkpoint was last advanced
+  private @NotNull Timestamp modified;
+
+  public MigrationCheckpoint() {
+    super();
+  }
+
+  public MigrationCheckpoint(
+          @NotNull String name,
+          @NotNull Long lastId,
+          boolean completed,
+          @NotNull Timestamp modified) {
+    super();
+    this.name = name;
+    this.lastId = lastId;
+    this.completed = completed;
+    this.modified = modified;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public Long getLastId() {
+    return lastId;
+  }
+
+  public void setLastId(Long lastId) {
+    this.lastId = lastId;
+  }
+
+  public boolean isCompleted() {
+    return completed;
+  }
+
+  public void setCompleted(boolean completed) {
+    this.completed = completed;
+  }
+
+  public Timestamp getModified() {
+    return modified;
+  }
+
+  public void setModified(Timestamp modified) {
+    this.modified = modified;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(completed, lastId, modified, name);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    MigrationCheckpoint other = (MigrationCheckpoint) obj;
+    return completed == other.completed && Objects.equals(lastId, other.lastId)
+            && Objects.equals(modified, other.modified) && Objects.equals(name, other.name);
+  }
+
+  @Override
+  public String toString() {
+    return new Gson().toJson(this);
+  }
+
+}
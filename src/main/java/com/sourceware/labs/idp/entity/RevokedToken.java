@@ -0,0 +1,94 @@
+package com.sourceware.labs.idp.entity;
+
+import java.sql.Timestamp;
+import java.util.Objects;
+
+import com.google.gson.Gson;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * Entity for a token that was revoked before its expiration; rows are purged once the token would
+ * have expired anyway
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Entity
+@Table(name = "RevokedTokens", indexes = {
+    @Index(name = "revoked_tokens_expiration", columnList = "expiration"),
+    @Index(name = "revoked_tokens_revoked", columnList = "revoked") })
+public class RevokedToken {
+
+  // jti (JWT ID) claim of the revoked token
+  private @Id @NotNull String jti;
+
+  // exp claim of the revoked token
+  private @NotNull Timestamp expiration;
+
+  // Time the token was revoked, by which other instances find revocations they have not seen yet;
+  // null for rows saved before it was recorded
+  private Timestamp revoked;
+
+  public RevokedToken() {
+    super();
+  }
+
+  public RevokedToken(@NotNull String jti, @NotNull Timestamp expiration, Timestamp revoked) {
+    super();
+    this.jti = jti;
+    this.expiration = expiration;
+    this.revoked = revoked;
+  }
+
+  public String getJti() {
+    return jti;
+  }
+
+  public void setJti(String jti) {
+    this.jti = jti;
+  }
+
+  public Timestamp getExpiration() {
+    return expiration;
+  }
+
+  public void setExpiration(Timestamp expiration) {
+    this.expiration = expiration;
+  }
+
+  public Timestamp getRevoked() {
+    return revoked;
+  }
+
+  public void setRevoked(Timestamp revoked) {
+    this.revoked = revoked;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(expiration, jti, revoked);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    RevokedToken other = (RevokedToken) obj;
+    return Objects.equals(expiration, other.expiration) && Objects.equals(jti, other.jti)
+            && Objects.equals(revoked, other.revoked);
+  }
+
+  @Override
+  public String toString() {
+    return new Gson().toJson(this);
+  }
+
+}
@@ -8,7 +8,6 @@ import java.util.Set;
 import com.google.gson.Gson;
 
 import jakarta.persistence.CascadeType;
-import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
@@ -34,9 +33,9 @@ public class User {
   // Internal database ID for the user
   private @Id @GeneratedValue @NotNull Long id;
 
-  // Email that the user will use to signup/login
+  // Email that the user will use to signup/login, stored normalized; uniqueness is enforced
+  // case-insensitively by an index on the normalized email (see UserRepo)
   @Size(min = 1, max = 50)
-  @Column(unique = true)
   @NotBlank(message = "User's email must be defined")
   private String email;
 
@@ -0,0 +1,115 @@
+package com.sourceware.labs.idp.jwt;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class for a fixed size Bloom filter of token IDs (jti claims) <br />
+ * A filter answers "definitely not added" without false negatives, and "possibly added" with a
+ * false positive probability that stays at or below the configured one until more IDs than the
+ * expected number are added. Adding is thread safe and lock free. Entries cannot be removed, so the
+ * filter is rebuilt once the tokens it was built from have expired.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class JtiBloomFilter {
+
+  private final AtomicLongArray bits;
+
+  private final long bitCount;
+
+  private final int hashCount;
+
+  /**
+   * @param expectedInsertions Number of IDs the filter is sized for
+   * @param falsePositiveProbability Acceptable probability of "possibly added" for an ID that was
+   *          not added, between 0 and 1 exclusive
+   */
+  public JtiBloomFilter(long expectedInsertions, double falsePositiveProbability) {
+    super();
+    if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+      throw new IllegalArgumentException(
+              "False positive probability must be between 0 and 1: " + falsePositiveProbability);
+    }
+    long n = Math.max(1, expectedInsertions);
+    // Optimal size m = -n ln(p) / ln(2)^2 and hash count k = m / n ln(2)
+    long m = (long) Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+    this.bits = new AtomicLongArray((int) Math.max(1, (m + 63) / 64));
+    this.bitCount = (long) bits.length() * 64;
+    this.hashCount = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+  }
+
+  /**
+   * @param jti {@link String} token ID to add
+   */
+  public void put(String jti) {
+    long hash = hash(jti);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 1; i <= hashCount; i++) {
+      long bit = index(h1 + i * h2);
+      int word = (int) (bit >>> 6);
+      long mask = 1L << bit;
+      long current;
+      while (((current = bits.get(word)) & mask) == 0
+              && !bits.compareAndSet(word, current, current | mask)) {
+        // Retry until the bit is set by this or another thread
+      }
+    }
+  }
+
+  /**
+   * @param jti {@link String} token ID to check
+   * @return false if the ID was definitely never added, true if it possibly was
+   */
+  public boolean mightContain(String jti) {
+    long hash = hash(jti);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 1; i <= hashCount; i++) {
+      long bit = index(h1 + i * h2);
+      if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return Number of bits in the filter
+   */
+  public long getBitCount() {
+    return bitCount;
+  }
+
+  /**
+   * @return Number of bits set per ID
+   */
+  public int getHashCount() {
+    return hashCount;
+  }
+
+  private long index(int combinedHash) {
+    // Flip negative hashes so every bit is reachable (Kirsch-Mitzenmacher double hashing)
+    return (combinedHash < 0 ? ~combinedHash : combinedHash) % bitCount;
+  }
+
+  /**
+   * Helper function for a 64 bit FNV-1a hash of the ID finished with the MurmurHash3 mixer so both
+   * halves are usable as independent hashes
+   */
+  private static long hash(String jti) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : jti.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b;
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+}
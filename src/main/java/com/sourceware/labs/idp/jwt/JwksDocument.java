@@ -0,0 +1,137 @@
+package com.sourceware.labs.idp.jwt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.util.Base64URL;
+import com.sourceware.labs.idp.keystore.IdpKeyRing;
+
+/**
+ * Class for holding the public JWK Set of the token keys as pre-encoded bytes <br />
+ * Key rings are immutable and replaced whenever the KeyStore changes, so the JSON document and its
+ * ETag are built once per ring instance and every request in between is served the same bytes.
+ * Pending keys are included so relying parties can fetch a key before any token is signed with it.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class JwksDocument {
+
+  // Document built for the most recently published key ring
+  private static final AtomicReference<Published> LATEST = new AtomicReference<>();
+
+  private final byte[] content;
+
+  private final String etag;
+
+  public JwksDocument(byte[] content, String etag) {
+    super();
+    this.content = content;
+    this.etag = etag;
+  }
+
+  /**
+   * Function for getting the JWK Set document of a key ring, only serializing it if the ring
+   * changed since the last call
+   *
+   * @param keyRing {@link IdpKeyRing} holding the token keys to publish
+   * @return {@link JwksDocument} holding the public keys of the ring
+   * @throws NoSuchAlgorithmException If the digest used for the ETag is not available
+   */
+  public static JwksDocument forKeyRing(IdpKeyRing keyRing) throws NoSuchAlgorithmException {
+    Published published = LATEST.get();
+    if (published != null && published.keyRing() == keyRing) {
+      return published.document();
+    }
+    JwksDocument document = build(keyRing);
+    LATEST.set(new Published(keyRing, document));
+    return document;
+  }
+
+  /**
+   * Function for serializing the public keys of a key ring into a JWK Set document
+   *
+   * @param keyRing {@link IdpKeyRing} holding the token keys to publish
+   * @return {@link JwksDocument} holding the public keys of the ring
+   * @throws NoSuchAlgorithmException If the digest used for the ETag is not available
+   */
+  public static JwksDocument build(IdpKeyRing keyRing) throws NoSuchAlgorithmException {
+    JWKSet jwkSet = new JWKSet(keyRing.getEntries().stream().map(IdpKeyRing.Entry::key).toList());
+    // Private key parameters are stripped here
+    byte[] content = jwkSet.toString(true).getBytes(StandardCharsets.UTF_8);
+    byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+    return new JwksDocument(content, "\"" + Base64URL.encode(digest) + "\"");
+  }
+
+  /**
+   * Function for checking an If-None-Match request header against the document's ETag
+   *
+   * @param ifNoneMatch {@link String} value of the header, may be null
+   * @return true if the client already holds this document and a 304 can be returned
+   */
+  public boolean matches(String ifNoneMatch) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      String trimmed = tag.trim();
+      if (trimmed.equals("*")) {
+        return true;
+      }
+      // If-None-Match uses the weak comparison so a weakened tag from a proxy still matches
+      if (trimmed.startsWith("W/")) {
+        trimmed = trimmed.substring(2);
+      }
+      if (trimmed.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return Encoded JSON of the JWK Set; callers must not modify the array
+   */
+  public byte[] getContent() {
+    return content;
+  }
+
+  /**
+   * @return {@link String} quoted strong ETag of the content
+   */
+  public String getEtag() {
+    return etag;
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(content);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    JwksDocument other = (JwksDocument) obj;
+    return Arrays.equals(content, other.content);
+  }
+
+  @Override
+  public String toString() {
+    return new String(content, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Document along with the key ring instance it was built from
+   */
+  private record Published(IdpKeyRing keyRing, JwksDocument document) {
+  }
+
+}
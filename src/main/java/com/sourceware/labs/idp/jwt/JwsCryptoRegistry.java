@@ -0,0 +1,143 @@
+package com.sourceware.labs.idp.jwt;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Signature;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+import com.sourceware.labs.idp.keystore.IdpKeyAlgorithm;
+import com.sourceware.labs.idp.keystore.IdpSecretKeyAlgorithm;
+
+/**
+ * Class for holding ready-to-use JWS signers and verifiers for each key so that the JWK to JCA key
+ * conversion and the JCA provider lookup happen once per key instead of once per token <br />
+ * Entries are keyed by key ID and algorithm and remember the {@link JWK} they were built from; when
+ * a different key is presented under the same key ID (e.g. after a rotation) the entry is rebuilt.
+ * The Nimbus signers and verifiers held here are thread-safe and are shared between requests.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class JwsCryptoRegistry {
+
+  // Signers and verifiers keyed by the key ID and algorithm of the key they were built from
+  private static final Map<RegistryKey, RegistryEntry> ENTRIES = new ConcurrentHashMap<>();
+
+  // JCA provider resolved once per algorithm and pinned on every signer/verifier that uses JCA
+  private static final Map<IdpKeyAlgorithm, Provider> PROVIDERS = new ConcurrentHashMap<>();
+
+  /**
+   * Function for getting the signer for a private key
+   *
+   * @param key {@link JWK} private key that tokens will be signed with
+   * @return {@link JWSSigner} for the key
+   * @throws JOSEException If the key is not a private key or its algorithm is not supported
+   */
+  public static JWSSigner getSigner(JWK key) throws JOSEException {
+    JWSSigner signer = getEntry(key).signer();
+    if (signer == null) {
+      throw new JOSEException("Key " + key.getKeyID() + " does not contain a private key");
+    }
+    return signer;
+  }
+
+  /**
+   * Function for getting the verifier for a key
+   *
+   * @param key {@link JWK} key that tokens will be verified with
+   * @return {@link JWSVerifier} for the key
+   * @throws JOSEException If the key's algorithm is not supported
+   */
+  public static JWSVerifier getVerifier(JWK key) throws JOSEException {
+    return getEntry(key).verifier();
+  }
+
+  /**
+   * Function for dropping every cached signer and verifier
+   */
+  public static void clear() {
+    ENTRIES.clear();
+  }
+
+  private static RegistryEntry getEntry(JWK key) throws JOSEException {
+    RegistryKey registryKey = new RegistryKey(key.getKeyID(), (JWSAlgorithm) key.getAlgorithm());
+    RegistryEntry entry = ENTRIES.get(registryKey);
+    if (entry != null && (entry.key() == key || entry.key().equals(key))) {
+      return entry;
+    }
+    entry = createEntry(key);
+    ENTRIES.put(registryKey, entry);
+    return entry;
+  }
+
+  private static RegistryEntry createEntry(JWK key) throws JOSEException {
+    if (key instanceof OctetSequenceKey) {
+      // HMAC secrets sign and verify with the same key
+      IdpSecretKeyAlgorithm secretAlg = getSecretKeyAlgorithm(key);
+      return new RegistryEntry(key, secretAlg.createSigner(key), secretAlg.createVerifier(key));
+    }
+    IdpKeyAlgorithm keyAlg = getKeyAlgorithm(key);
+    JWSSigner signer = key.isPrivate() ? keyAlg.createSigner(key) : null;
+    JWSVerifier verifier = keyAlg.createVerifier(key);
+    Provider provider = getProvider(keyAlg);
+    if (provider != null) {
+      if (signer != null) {
+        signer.getJCAContext().setProvider(provider);
+      }
+      verifier.getJCAContext().setProvider(provider);
+    }
+    return new RegistryEntry(key, signer, verifier);
+  }
+
+  private static IdpKeyAlgorithm getKeyAlgorithm(JWK key) throws JOSEException {
+    try {
+      return IdpKeyAlgorithm.of((JWSAlgorithm) key.getAlgorithm());
+    } catch (NoSuchAlgorithmException ex) {
+      throw new JOSEException("Unsupported key algorithm: " + key.getAlgorithm(), ex);
+    }
+  }
+
+  private static IdpSecretKeyAlgorithm getSecretKeyAlgorithm(JWK key) throws JOSEException {
+    try {
+      return IdpSecretKeyAlgorithm.of((JWSAlgorithm) key.getAlgorithm());
+    } catch (NoSuchAlgorithmException ex) {
+      throw new JOSEException("Unsupported key algorithm: " + key.getAlgorithm(), ex);
+    }
+  }
+
+  private static Provider getProvider(IdpKeyAlgorithm keyAlg) throws JOSEException {
+    String jcaName = keyAlg.getJcaSignatureName();
+    if (jcaName == null) {
+      return null;
+    }
+    Provider provider = PROVIDERS.get(keyAlg);
+    if (provider == null) {
+      try {
+        provider = Signature.getInstance(jcaName).getProvider();
+      } catch (NoSuchAlgorithmException ex) {
+        throw new JOSEException("No JCA provider found for " + jcaName, ex);
+      }
+      PROVIDERS.put(keyAlg, provider);
+    }
+    return provider;
+  }
+
+  /**
+   * Lookup key for a signer/verifier pair
+   */
+  private record RegistryKey(String keyId, JWSAlgorithm algorithm) {
+  }
+
+  /**
+   * Signer/verifier pair along with the key they were built from
+   */
+  private record RegistryEntry(JWK key, JWSSigner signer, JWSVerifier verifier) {
+  }
+
+}
@@ -6,27 +6,23 @@ import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
 import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Date;
-import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 import org.bouncycastle.operator.OperatorCreationException;
 
-import com.google.gson.Gson;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JOSEObjectType;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.JWSHeader;
-import com.nimbusds.jose.JWSSigner;
-import com.nimbusds.jose.JWSVerifier;
-import com.nimbusds.jose.crypto.ECDSASigner;
-import com.nimbusds.jose.crypto.ECDSAVerifier;
-import com.nimbusds.jose.crypto.RSASSASigner;
-import com.nimbusds.jose.crypto.RSASSAVerifier;
 import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
-import com.sourceware.labs.idp.keystore.IdpKeyStoreAccessor;
+import com.sourceware.labs.idp.keystore.IdpKeyRing;
+import com.sourceware.labs.idp.keystore.IdpKeyStoreCache;
 import com.sourceware.labs.idp.keystore.IdpKeyStoreData;
 
 /**
@@ -36,11 +32,16 @@ import com.sourceware.labs.idp.keystore.IdpKeyStoreData;
  */
 public class JwtManager {
 
+  // Allowed difference between the clock of the instance that issued a token and the one checking it
+  // and how far the not before time of issued tokens is backdated
+  private static final Duration CLOCK_SKEW = Duration.ofSeconds(5);
+
   /**
    * Function for getting a signed JWT token
    * 
    * @param securityAlg {@link JWSAlgorithm} that will be used for the key, Supported:
-   *          {@link JWSAlgorithm.RS384}, {@link JWSAlgorithm.ES256}
+   *          {@link JWSAlgorithm.RS384}, {@link JWSAlgorithm.ES256},
+   *          {@link JWSAlgorithm.EdDSA}
    * @param clientId {@link String} ID identifying the application requesting a token
    * @param audience {@link String} endpoints that the token can be used for
    * @param tokenExpiration Time (long) that a token should be valid
@@ -65,8 +66,41 @@ public class JwtManager {
           Long userId,
           String applicationName,
           String roleName,
-          List<String> additionalPermissions) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, IOException, OperatorCreationException, JOSEException {
-    JWK key = IdpKeyStoreAccessor.accessKeyStore(securityAlg, keyStoreData);
+          PermissionSet permissions) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, IOException, OperatorCreationException, JOSEException {
+    return getSignedJwtToken(
+            IdpKeyStoreCache.getKey(securityAlg, keyStoreData),
+            clientId,
+            audience,
+            tokenExpiration,
+            userId,
+            applicationName,
+            roleName,
+            permissions);
+  }
+
+  /**
+   * Function for getting a JWT token signed with a specific key, e.g. the active key of an
+   * {@link IdpKeyRing} <br />
+   * Builds the token through the Nimbus header and claims builders. It is the reference for the
+   * claim layout of {@link #issueJwtToken}, which tests and benchmarks compare against; tokens on
+   * the request path are issued with {@link #issueJwtToken} instead.
+   * 
+   * @param key {@link JWK} private key to sign the token with; its key ID is placed in the header
+   * @param clientId {@link String} ID identifying the application requesting a token
+   * @param audience {@link String} endpoints that the token can be used for
+   * @param tokenExpiration Time (long) that a token should be valid
+   * @return {@link SignedJWT} that can be used to validate the user's session
+   * @throws JOSEException If there is an issue signing the token
+   */
+  public static SignedJWT getSignedJwtToken(
+          JWK key,
+          String clientId,
+          String audience,
+          long tokenExpiration,
+          Long userId,
+          String applicationName,
+          String roleName,
+          PermissionSet permissions) throws JOSEException {
     Date now = new Date();
     JWSHeader header = new JWSHeader.Builder((JWSAlgorithm) key.getAlgorithm())
             .keyID(key.getKeyID())
@@ -76,22 +110,55 @@ public class JwtManager {
             .subject(clientId)
             .audience(audience)
             .claim("kid", key.getKeyID())
-            .notBeforeTime(Date.from(now.toInstant().minusSeconds(5)))
+            .notBeforeTime(Date.from(now.toInstant().minus(CLOCK_SKEW)))
             .expirationTime(Date.from(now.toInstant().plusSeconds((tokenExpiration))))
             .jwtID(UUID.randomUUID().toString())
             .claim("userId", userId)
             .claim("application", applicationName)
             .claim("roleName", roleName)
-            .claim("additionalPermissions", new Gson().toJson(additionalPermissions))
+            .claim("perms", permissions.encode())
             .build();
     SignedJWT signedJWT = new SignedJWT(header, jwt);
-    JWSSigner signer = securityAlg.equals(JWSAlgorithm.RS384)
-            ? new RSASSASigner(key.toRSAKey().toRSAPrivateKey())
-            : new ECDSASigner(key.toECKey().toECPrivateKey());
-    signedJWT.sign(signer);
+    signedJWT.sign(JwsCryptoRegistry.getSigner(key));
     return signedJWT;
   }
 
+  /**
+   * Function for issuing a serialized JWT token signed with a specific key from the key's
+   * {@link JwtTemplate} <br />
+   * Produces the same claims as {@link #getSignedJwtToken(JWK, String, String, long, Long, String,
+   * String, PermissionSet)} but only the per-token claims are serialized and encoded, so this is the
+   * one used on the request path.
+   * 
+   * @param key {@link JWK} private key or secret to sign the token with
+   * @param clientId {@link String} ID identifying the application requesting a token
+   * @param audience {@link String} endpoints that the token can be used for
+   * @param tokenExpiration Time (long) that a token should be valid
+   * @return {@link String} compact serialization of the signed token
+   * @throws JOSEException If there is an issue signing the token
+   */
+  public static String issueJwtToken(
+          JWK key,
+          String clientId,
+          String audience,
+          long tokenExpiration,
+          Long userId,
+          String applicationName,
+          String roleName,
+          PermissionSet permissions) throws JOSEException {
+    long now = Instant.now().getEpochSecond();
+    return JwtTemplate.get(key, clientId, audience)
+            .sign(
+                    key,
+                    now - CLOCK_SKEW.toSeconds(),
+                    now + tokenExpiration,
+                    UUID.randomUUID().toString(),
+                    userId,
+                    applicationName,
+                    roleName,
+                    permissions);
+  }
+
   /**
    * Function for verifying a Signed JWT
    * 
@@ -115,21 +182,109 @@ public class JwtManager {
           String jwt,
           JWSAlgorithm securityAlg,
           IdpKeyStoreData keyStoreData) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException, ParseException {
-    JWK key = IdpKeyStoreAccessor.accessKeyStore(securityAlg, keyStoreData);
+    JWK key = IdpKeyStoreCache.getKey(securityAlg, keyStoreData);
     SignedJWT signedJwt = SignedJWT.parse(jwt);
-    JWSVerifier verifier = securityAlg.equals(JWSAlgorithm.RS384)
-            ? new RSASSAVerifier(key.toRSAKey())
-            : new ECDSAVerifier(key.toECKey());
-    return signedJwt.verify(verifier);
+    return signedJwt.verify(JwsCryptoRegistry.getVerifier(key));
   }
   
-  public static JWTClaimsSet getClaimsSetFromJwt(
+  /**
+   * Function for verifying a Signed JWT against the key named by the key ID in its header
+   * 
+   * @param jwt {@link String} representation of the token
+   * @param keyRing {@link IdpKeyRing} holding every key that tokens may have been signed with
+   * @return True if the token was signed by a key in the ring and False otherwise
+   * @throws JOSEException If there is an issue creating the token verifier
+   * @throws ParseException if there is an issue parsing the provided JWT
+   */
+  public static boolean verifySignedJwtToken(
           String jwt,
-          JWSAlgorithm securityAlg,
-          IdpKeyStoreData keyStoreData) throws ParseException, KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
-    JWK key = IdpKeyStoreAccessor.accessKeyStore(securityAlg, keyStoreData);
+          IdpKeyRing keyRing) throws JOSEException, ParseException {
+    return verifySignedJwtToken(jwt, keyRing, null);
+  }
+
+  /**
+   * Function for verifying a Signed JWT that may either be signed by a key in the ring or, for
+   * applications using the internal service token profile, carry an HMAC made with the
+   * application's secret
+   * 
+   * @param jwt {@link String} representation of the token
+   * @param keyRing {@link IdpKeyRing} holding every key that tokens may have been signed with
+   * @param secretKey {@link JWK} HMAC secret of the token's application or null if the
+   *          application does not use service tokens
+   * @return True if the token was signed by a key in the ring or the secret and False otherwise
+   * @throws JOSEException If there is an issue creating the token verifier
+   * @throws ParseException if there is an issue parsing the provided JWT
+   */
+  public static boolean verifySignedJwtToken(
+          String jwt,
+          IdpKeyRing keyRing,
+          JWK secretKey) throws JOSEException, ParseException {
     SignedJWT signedJwt = SignedJWT.parse(jwt);
-    return signedJwt.getJWTClaimsSet();
+    return verifySignature(signedJwt, keyRing, secretKey) != null;
+  }
+
+  /**
+   * Function for parsing and verifying a token once, checking both its signature and its validity
+   * period, and returning the parsed claims so that callers never parse the token again
+   * 
+   * @param jwt {@link String} representation of the token
+   * @param keyRing {@link IdpKeyRing} holding every key that tokens may have been signed with
+   * @param secretKey {@link JWK} HMAC secret of the token's application or null if the
+   *          application does not use service tokens
+   * @param now {@link Instant} to check the token's validity period at
+   * @return {@link VerifiedJwt} if the token is valid, empty if the signature does not match or the
+   *         token is expired or not yet valid
+   * @throws JOSEException If there is an issue creating the token verifier
+   * @throws ParseException if the token or its claims set could not be parsed
+   */
+  public static Optional<VerifiedJwt> verifyJwt(
+          String jwt,
+          IdpKeyRing keyRing,
+          JWK secretKey,
+          Instant now) throws JOSEException, ParseException {
+    SignedJWT signedJwt = SignedJWT.parse(jwt);
+    JWK key = verifySignature(signedJwt, keyRing, secretKey);
+    if (key == null) {
+      return Optional.empty();
+    }
+    JWTClaimsSet claimsSet = signedJwt.getJWTClaimsSet();
+    Date expiration = claimsSet.getExpirationTime();
+    Date notBefore = claimsSet.getNotBeforeTime();
+    if (expiration == null || !now.isBefore(expiration.toInstant().plus(CLOCK_SKEW))
+            || (notBefore != null && now.isBefore(notBefore.toInstant().minus(CLOCK_SKEW)))) {
+      return Optional.empty();
+    }
+    return Optional.of(new VerifiedJwt(signedJwt, claimsSet, key));
+  }
+
+  /**
+   * Helper function for checking the signature of a parsed token
+   * 
+   * @return {@link JWK} the token was verified with or null if the signature does not match
+   */
+  private static JWK verifySignature(
+          SignedJWT signedJwt,
+          IdpKeyRing keyRing,
+          JWK secretKey) throws JOSEException {
+    JWSHeader header = signedJwt.getHeader();
+    // HMAC tokens are only checked against the secret and never against a ring key, so a public key
+    // can not be used as an HMAC secret to forge a token
+    JWK key = JWSAlgorithm.Family.HMAC_SHA.contains(header.getAlgorithm()) ? secretKey
+            : keyRing.getKey(header.getKeyID());
+    // The header's algorithm must match the key's so a token cannot choose how it is verified
+    if (key == null || !header.getAlgorithm().equals(key.getAlgorithm())
+            || !key.getKeyID().equals(header.getKeyID())) {
+      return null;
+    }
+    return signedJwt.verify(JwsCryptoRegistry.getVerifier(key)) ? key : null;
+  }
+
+  /**
+   * Function for reading the claims of a token without verifying it; use {@link #verifyJwt} for
+   * any token received from a client
+   */
+  public static JWTClaimsSet getClaimsSetFromJwt(String jwt) throws ParseException {
+    return SignedJWT.parse(jwt).getJWTClaimsSet();
   }
 
 }
@@ -0,0 +1,191 @@
+package com.sourceware.labs.idp.jwt;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.jwk.JWK;
+
+/**
+ * Class for holding the pre-encoded parts of a token that are the same for every token issued with
+ * a key to a client and audience <br />
+ * The JWS header and the iss/sub/aud/kid claims only depend on the algorithm, key ID, client ID and
+ * audience, so they are serialized and base64url encoded once. The static claims are padded with
+ * JSON whitespace to a multiple of 3 bytes so that their base64url encoding ends on a block
+ * boundary and can be concatenated with the encoding of the per-token claims; issuing a token then
+ * only encodes the dynamic claims and computes the signature.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class JwtTemplate {
+
+  // Templates keyed by everything that goes into the static parts of a token
+  private static final Map<TemplateKey, JwtTemplate> TEMPLATES = new ConcurrentHashMap<>();
+
+  // Keys are rotated out over time; dropping every template past this size bounds the cache
+  private static final int MAX_TEMPLATES = 256;
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+  private final JWSHeader header;
+
+  // "<base64url header>.<base64url static claims>"
+  private final String signingInputPrefix;
+
+  JwtTemplate(JWSHeader header, String clientId, String audience) {
+    super();
+    this.header = header;
+    StringBuilder claims = new StringBuilder(128).append('{');
+    appendStringClaim(claims, "iss", clientId).append(',');
+    appendStringClaim(claims, "sub", clientId).append(',');
+    appendStringClaim(claims, "aud", audience).append(',');
+    appendStringClaim(claims, "kid", header.getKeyID()).append(',');
+    byte[] staticClaims = padToBlock(claims.toString().getBytes(StandardCharsets.UTF_8));
+    this.signingInputPrefix = header.toBase64URL().toString() + "."
+            + ENCODER.encodeToString(staticClaims);
+  }
+
+  /**
+   * Function for getting the template of a key, client and audience, creating it on first use
+   *
+   * @param key {@link JWK} that tokens will be signed with
+   * @param clientId {@link String} ID identifying the application requesting a token
+   * @param audience {@link String} endpoints that the token can be used for
+   * @return {@link JwtTemplate} for the combination
+   */
+  public static JwtTemplate get(JWK key, String clientId, String audience) {
+    TemplateKey templateKey = new TemplateKey(
+            (JWSAlgorithm) key.getAlgorithm(),
+            key.getKeyID(),
+            clientId,
+            audience);
+    JwtTemplate template = TEMPLATES.get(templateKey);
+    if (template == null) {
+      if (TEMPLATES.size() >= MAX_TEMPLATES) {
+        TEMPLATES.clear();
+      }
+      template = TEMPLATES.computeIfAbsent(
+              templateKey,
+              k -> new JwtTemplate(
+                      new JWSHeader.Builder(k.algorithm()).keyID(k.keyId())
+                              .type(JOSEObjectType.JWT)
+                              .build(),
+                      k.clientId(),
+                      k.audience()));
+    }
+    return template;
+  }
+
+  /**
+   * Function for issuing a signed token from the template
+   *
+   * @param key {@link JWK} private key or secret to sign the token with
+   * @param notBefore Epoch second before which the token is not valid
+   * @param expiration Epoch second at which the token expires
+   * @param jwtId {@link String} unique ID of the token
+   * @param userId {@link Long} ID of the user the token was issued to
+   * @param applicationName {@link String} name of the application the token is for
+   * @param roleName {@link String} role of the user in the application
+   * @param permissions {@link PermissionSet} of the additional permissions of the user in the
+   *          application
+   * @return {@link String} compact serialization of the signed token
+   * @throws JOSEException If there is an issue signing the token
+   */
+  public String sign(
+          JWK key,
+          long notBefore,
+          long expiration,
+          String jwtId,
+          Long userId,
+          String applicationName,
+          String roleName,
+          PermissionSet permissions) throws JOSEException {
+    StringBuilder claims = new StringBuilder(256);
+    claims.append("\"nbf\":").append(notBefore);
+    claims.append(",\"exp\":").append(expiration).append(',');
+    appendStringClaim(claims, "jti", jwtId);
+    claims.append(",\"userId\":").append(userId).append(',');
+    appendStringClaim(claims, "application", applicationName).append(',');
+    appendStringClaim(claims, "roleName", roleName).append(',');
+    appendStringClaim(claims, "perms", permissions.encode());
+    claims.append('}');
+    String signingInput = signingInputPrefix + ENCODER
+            .encodeToString(claims.toString().getBytes(StandardCharsets.UTF_8));
+    return signingInput + "." + JwsCryptoRegistry.getSigner(key)
+            .sign(header, signingInput.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /**
+   * @return {@link JWSHeader} placed on every token issued from the template
+   */
+  public JWSHeader getHeader() {
+    return header;
+  }
+
+  /**
+   * Helper function for appending trailing spaces so the content is a whole number of base64 blocks
+   */
+  private static byte[] padToBlock(byte[] content) {
+    int padding = (3 - content.length % 3) % 3;
+    if (padding == 0) {
+      return content;
+    }
+    byte[] padded = new byte[content.length + padding];
+    System.arraycopy(content, 0, padded, 0, content.length);
+    for (int i = content.length; i < padded.length; i++) {
+      padded[i] = ' ';
+    }
+    return padded;
+  }
+
+  private static StringBuilder appendStringClaim(StringBuilder json, String name, String value) {
+    json.append('"').append(name).append("\":");
+    return appendJsonString(json, value);
+  }
+
+  private static StringBuilder appendJsonString(StringBuilder json, String value) {
+    if (value == null) {
+      return json.append("null");
+    }
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          json.append("\\\"");
+          break;
+        case '\\':
+          json.append("\\\\");
+          break;
+        case '\n':
+          json.append("\\n");
+          break;
+        case '\r':
+          json.append("\\r");
+          break;
+        case '\t':
+          json.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            json.append(String.format("\\u%04x", (int) c));
+          } else {
+            json.append(c);
+          }
+      }
+    }
+    return json.append('"');
+  }
+
+  /**
+   * Lookup key for a template
+   */
+  private record TemplateKey(JWSAlgorithm algorithm, String keyId, String clientId, String audience) {
+  }
+
+}
@@ -0,0 +1,110 @@
+package com.sourceware.labs.idp.jwt;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for the registry of the additional permissions each application knows about <br />
+ * Every permission of an application is assigned the bit of its position in the application's
+ * list, which is how it is carried in a token's {@link PermissionSet}. Issued tokens keep their
+ * bits until they expire, so permissions may only be appended to a list; removing or reordering
+ * one changes the meaning of tokens that are still valid.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class PermissionRegistry {
+
+  // Permission names by bit for every application
+  private final Map<String, List<String>> permissionsByApplication;
+
+  // Bit of every permission for every application
+  private final Map<String, Map<String, Integer>> bitsByApplication;
+
+  /**
+   * @param permissionsByApplication Permissions of every application, in bit order, keyed by the
+   *          application name
+   */
+  public PermissionRegistry(Map<String, List<String>> permissionsByApplication) {
+    super();
+    this.permissionsByApplication = new HashMap<>();
+    this.bitsByApplication = new HashMap<>();
+    permissionsByApplication.forEach((application, permissions) -> {
+      Map<String, Integer> bits = new HashMap<>();
+      for (int i = 0; i < permissions.size(); i++) {
+        if (bits.putIfAbsent(permissions.get(i), i) != null) {
+          throw new IllegalArgumentException(
+                  "Permission %s is registered twice for %s".formatted(permissions.get(i), application));
+        }
+      }
+      this.permissionsByApplication.put(application, List.copyOf(permissions));
+      this.bitsByApplication.put(application, bits);
+    });
+  }
+
+  /**
+   * @param applicationName {@link String} name of the application
+   * @param permission {@link String} name of the permission
+   * @return Bit of the permission or -1 if it is not registered for the application
+   */
+  public int getBit(String applicationName, String permission) {
+    Integer bit = bitsByApplication.getOrDefault(applicationName, Map.of()).get(permission);
+    return bit == null ? -1 : bit;
+  }
+
+  /**
+   * Function for converting permission names into the set carried in a token
+   *
+   * @param applicationName {@link String} name of the application
+   * @param permissions Names of the permissions
+   * @return {@link PermissionSet} of the permissions
+   * @throws IllegalStateException If a permission is not registered for the application
+   */
+  public PermissionSet encode(String applicationName, Collection<String> permissions) {
+    int[] bits = new int[permissions.size()];
+    int i = 0;
+    for (String permission : permissions) {
+      bits[i] = getBit(applicationName, permission);
+      if (bits[i++] < 0) {
+        throw new IllegalStateException(
+                "Permission %s is not registered for %s".formatted(permission, applicationName));
+      }
+    }
+    return PermissionSet.of(bits);
+  }
+
+  /**
+   * Function for converting the set carried in a token back into permission names; bits that are
+   * not registered, e.g. appended on a newer instance, are skipped
+   *
+   * @param applicationName {@link String} name of the application
+   * @param permissionSet {@link PermissionSet} of a token
+   * @return Names of the permissions in bit order
+   */
+  public List<String> decode(String applicationName, PermissionSet permissionSet) {
+    List<String> names = permissionsByApplication.getOrDefault(applicationName, List.of());
+    List<String> permissions = new ArrayList<>();
+    for (int bit : permissionSet.toBits()) {
+      if (bit < names.size()) {
+        permissions.add(names.get(bit));
+      }
+    }
+    return permissions;
+  }
+
+  /**
+   * @param applicationName {@link String} name of the application
+   * @param permissionSet {@link PermissionSet} of a token
+   * @param permission {@link String} name of the permission to check
+   * @return true if the permission is registered and in the set
+   */
+  public boolean hasPermission(
+          String applicationName,
+          PermissionSet permissionSet,
+          String permission) {
+    return permissionSet.contains(getBit(applicationName, permission));
+  }
+
+}
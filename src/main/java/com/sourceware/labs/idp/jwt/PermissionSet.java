@@ -0,0 +1,106 @@
+package com.sourceware.labs.idp.jwt;
+
+import java.util.Base64;
+import java.util.BitSet;
+
+/**
+ * Class for an immutable set of permissions of one application, stored as a bitmask <br />
+ * Each permission is a bit assigned by the {@link PermissionRegistry}, so checking a permission is
+ * a single bit test and the set is carried in a token as the base64url encoding of its bytes (bit
+ * 0 is the lowest bit of the first byte, trailing zero bytes are dropped). Sixteen permissions
+ * take three characters instead of a JSON array of their names.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public final class PermissionSet {
+
+  public static final PermissionSet EMPTY = new PermissionSet(new BitSet());
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+  private final BitSet bits;
+
+  private PermissionSet(BitSet bits) {
+    super();
+    this.bits = bits;
+  }
+
+  /**
+   * @param bits Bits of the permissions in the set
+   * @return {@link PermissionSet} holding the bits
+   */
+  public static PermissionSet of(int... bits) {
+    BitSet set = new BitSet();
+    for (int bit : bits) {
+      if (bit < 0) {
+        throw new IllegalArgumentException("Permission bits can not be negative: " + bit);
+      }
+      set.set(bit);
+    }
+    return set.isEmpty() ? EMPTY : new PermissionSet(set);
+  }
+
+  /**
+   * Function for reading a set from its claim value
+   *
+   * @param claim {@link String} base64url encoded bitmask, null or empty for no permissions
+   * @return {@link PermissionSet} of the claim
+   * @throws IllegalArgumentException If the claim is not base64url
+   */
+  public static PermissionSet decode(String claim) {
+    if (claim == null || claim.isEmpty()) {
+      return EMPTY;
+    }
+    BitSet set = BitSet.valueOf(Base64.getUrlDecoder().decode(claim));
+    return set.isEmpty() ? EMPTY : new PermissionSet(set);
+  }
+
+  /**
+   * @return {@link String} base64url encoded bitmask, empty if the set is empty
+   */
+  public String encode() {
+    return ENCODER.encodeToString(bits.toByteArray());
+  }
+
+  /**
+   * @param bit Bit of the permission
+   * @return true if the permission is in the set
+   */
+  public boolean contains(int bit) {
+    return bit >= 0 && bits.get(bit);
+  }
+
+  /**
+   * @return Bits of the permissions in the set in ascending order
+   */
+  public int[] toBits() {
+    return bits.stream().toArray();
+  }
+
+  public boolean isEmpty() {
+    return bits.isEmpty();
+  }
+
+  @Override
+  public int hashCode() {
+    return bits.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    PermissionSet other = (PermissionSet) obj;
+    return bits.equals(other.bits);
+  }
+
+  @Override
+  public String toString() {
+    return bits.toString();
+  }
+
+}
@@ -0,0 +1,83 @@
+package com.sourceware.labs.idp.jwt;
+
+import java.text.ParseException;
+
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+/**
+ * Class for holding a token whose signature and validity period have already been checked <br />
+ * Instances are only created by {@link JwtManager#verifyJwt} so holding one means the token bytes
+ * were parsed and the key was looked up exactly once; callers read the claims from here instead of
+ * parsing the token again.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class VerifiedJwt {
+
+  private final SignedJWT signedJwt;
+
+  private final JWTClaimsSet claimsSet;
+
+  private final JWK key;
+
+  VerifiedJwt(SignedJWT signedJwt, JWTClaimsSet claimsSet, JWK key) {
+    super();
+    this.signedJwt = signedJwt;
+    this.claimsSet = claimsSet;
+    this.key = key;
+  }
+
+  /**
+   * @return {@link SignedJWT} that was verified
+   */
+  public SignedJWT getSignedJwt() {
+    return signedJwt;
+  }
+
+  /**
+   * @return {@link JWTClaimsSet} of the verified token
+   */
+  public JWTClaimsSet getClaimsSet() {
+    return claimsSet;
+  }
+
+  /**
+   * @return {@link JWK} that the token was verified with
+   */
+  public JWK getKey() {
+    return key;
+  }
+
+  public Long getUserId() throws ParseException {
+    return claimsSet.getLongClaim("userId");
+  }
+
+  public String getApplication() throws ParseException {
+    return claimsSet.getStringClaim("application");
+  }
+
+  public String getRoleName() throws ParseException {
+    return claimsSet.getStringClaim("roleName");
+  }
+
+  /**
+   * @return {@link PermissionSet} of the user's additional permissions, stored in the token as a
+   *         base64url bitmask
+   * @throws ParseException If the claim is not a string or not base64url
+   */
+  public PermissionSet getPermissions() throws ParseException {
+    try {
+      return PermissionSet.decode(claimsSet.getStringClaim("perms"));
+    } catch (IllegalArgumentException ex) {
+      throw new ParseException("Invalid perms claim: " + ex.getMessage(), 0);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return claimsSet.toString();
+  }
+
+}
@@ -0,0 +1,140 @@
+package com.sourceware.labs.idp.jwt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+import com.nimbusds.jose.util.Base64URL;
+import com.sourceware.labs.idp.keystore.IdpKeyRing;
+
+/**
+ * Class for caching tokens that passed {@link JwtManager#verifyJwt} so that a token presented again
+ * within its lifetime is answered with a hash lookup instead of a signature verification <br />
+ * Entries are keyed by the SHA-256 digest of the token so the footprint of a key does not depend on
+ * the token size, the number of entries is bounded (least recently/frequently used entries are
+ * evicted first), and each entry expires at the token's exp. A hit is only returned if the key the
+ * token was verified with is still accepted by the caller, i.e. it is the caller's service secret or
+ * is still in the caller's key ring. Failed verifications are never cached.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class VerifiedJwtCache {
+
+  private final Cache<String, VerifiedJwt> cache;
+
+  /**
+   * @param maximumSize Maximum number of verified tokens held
+   */
+  public VerifiedJwtCache(long maximumSize) {
+    super();
+    this.cache = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfter(new TokenExpiry())
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Function for verifying a token, answering from the cache when the same token was already
+   * verified with a key the caller still accepts
+   *
+   * @param jwt {@link String} serialized token
+   * @param keyRing {@link IdpKeyRing} of the keys that tokens can be signed with
+   * @param secretKey {@link JWK} HMAC secret of the application or null if it did not opt in
+   * @param now {@link Instant} to check the validity period against
+   * @return {@link VerifiedJwt} if the token is valid, empty otherwise
+   * @throws JOSEException If the verifier could not be created
+   * @throws ParseException If the token could not be parsed
+   */
+  public Optional<VerifiedJwt> verify(
+          String jwt,
+          IdpKeyRing keyRing,
+          JWK secretKey,
+          Instant now) throws JOSEException, ParseException {
+    String digest = digest(jwt);
+    VerifiedJwt cached = cache.getIfPresent(digest);
+    if (cached != null && isAccepted(cached, keyRing, secretKey)
+            && now.isBefore(cached.getClaimsSet().getExpirationTime().toInstant())) {
+      return Optional.of(cached);
+    }
+    Optional<VerifiedJwt> verified = JwtManager.verifyJwt(jwt, keyRing, secretKey, now);
+    verified.ifPresent(token -> cache.put(digest, token));
+    return verified;
+  }
+
+  /**
+   * @return {@link Cache} of verified tokens keyed by digest, e.g. for binding its hit/miss
+   *         statistics to a metrics registry
+   */
+  public Cache<String, VerifiedJwt> getCache() {
+    return cache;
+  }
+
+  /**
+   * Helper function for checking that the key a cached token was verified with is one the caller
+   * would verify it with now
+   */
+  private static boolean isAccepted(VerifiedJwt cached, IdpKeyRing keyRing, JWK secretKey) {
+    JWK key = cached.getKey();
+    if (key instanceof OctetSequenceKey) {
+      return key.equals(secretKey);
+    }
+    return key.equals(keyRing.getKey(key.getKeyID()));
+  }
+
+  private static String digest(String jwt) {
+    try {
+      return Base64URL.encode(
+              MessageDigest.getInstance("SHA-256")
+                      .digest(jwt.getBytes(StandardCharsets.US_ASCII)))
+              .toString();
+    } catch (NoSuchAlgorithmException ex) {
+      // Every Java platform is required to support SHA-256
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Expires each entry at the exp of its token
+   */
+  private static class TokenExpiry implements Expiry<String, VerifiedJwt> {
+
+    @Override
+    public long expireAfterCreate(String key, VerifiedJwt value, long currentTime) {
+      Date expiration = value.getClaimsSet().getExpirationTime();
+      long remaining = expiration.getTime() - System.currentTimeMillis();
+      return TimeUnit.MILLISECONDS.toNanos(Math.max(0, remaining));
+    }
+
+    @Override
+    public long expireAfterUpdate(
+            String key,
+            VerifiedJwt value,
+            long currentTime,
+            long currentDuration) {
+      return expireAfterCreate(key, value, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(
+            String key,
+            VerifiedJwt value,
+            long currentTime,
+            long currentDuration) {
+      return currentDuration;
+    }
+
+  }
+
+}
@@ -0,0 +1,340 @@
+package com.sourceware.labs.idp.keystore;
+
+import java.io.IOException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.NamedParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.edec.EdECObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.Ed25519Signer;
+import com.nimbusds.jose.crypto.Ed25519Verifier;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.util.Base64URL;
+
+/**
+ * Enum holding everything that differs between the supported token signing algorithms: key
+ * generation, conversion between KeyStore (JCA) keys and JWKs, the certificate signature used for
+ * the KeyStore entry, and the JWS signer/verifier <br />
+ * Supported:
+ * <ul>
+ * <li>- RS384: RSA 2048 with SHA-384</li>
+ * <li>- ES256: ECDSA P-256 with SHA-256</li>
+ * <li>- EdDSA: Ed25519; signing is deterministic and faster than ES256</li>
+ * </ul>
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public enum IdpKeyAlgorithm {
+
+  RS384(JWSAlgorithm.RS384, "RSA", "SHA384withRSA", "SHA256WithRSAEncryption") {
+    @Override
+    KeyPair generateKeyPair() throws NoSuchAlgorithmException {
+      KeyPairGenerator keyGen = KeyPairGenerator.getInstance(getKeyAlgorithm());
+      keyGen.initialize(2048, SecureRandom.getInstanceStrong());
+      return keyGen.generateKeyPair();
+    }
+
+    @Override
+    public JWK toJwk(PublicKey publicKey, PrivateKey privateKey, String keyId) {
+      return new RSAKey.Builder((RSAPublicKey) publicKey).privateKey((RSAPrivateKey) privateKey)
+              .algorithm(getJwsAlgorithm())
+              .keyID(keyId)
+              .keyUse(KeyUse.SIGNATURE)
+              .build();
+    }
+
+    @Override
+    KeyPair toKeyPair(JWK key) throws JOSEException {
+      return key.toRSAKey().toKeyPair();
+    }
+
+    @Override
+    public JWSSigner createSigner(JWK key) throws JOSEException {
+      return new RSASSASigner(key.toRSAKey());
+    }
+
+    @Override
+    public JWSVerifier createVerifier(JWK key) throws JOSEException {
+      return new RSASSAVerifier(key.toRSAKey());
+    }
+  },
+
+  ES256(JWSAlgorithm.ES256, "EC", "SHA256withECDSA", "SHA256withECDSA") {
+    @Override
+    KeyPair generateKeyPair() throws NoSuchAlgorithmException {
+      KeyPairGenerator keyGen = KeyPairGenerator.getInstance(getKeyAlgorithm());
+      keyGen.initialize(256, SecureRandom.getInstanceStrong());
+      return keyGen.generateKeyPair();
+    }
+
+    @Override
+    public JWK toJwk(PublicKey publicKey, PrivateKey privateKey, String keyId) {
+      return new ECKey.Builder(Curve.P_256, (ECPublicKey) publicKey)
+              .privateKey((ECPrivateKey) privateKey)
+              .algorithm(getJwsAlgorithm())
+              .keyID(keyId)
+              .keyUse(KeyUse.SIGNATURE)
+              .build();
+    }
+
+    @Override
+    KeyPair toKeyPair(JWK key) throws JOSEException {
+      return key.toECKey().toKeyPair();
+    }
+
+    @Override
+    public JWSSigner createSigner(JWK key) throws JOSEException {
+      return new ECDSASigner(key.toECKey());
+    }
+
+    @Override
+    public JWSVerifier createVerifier(JWK key) throws JOSEException {
+      return new ECDSAVerifier(key.toECKey());
+    }
+  },
+
+  // Nimbus signs Ed25519 with Tink rather than a JCA provider, so there is no JCA signature name
+  EdDSA(JWSAlgorithm.EdDSA, "Ed25519", null, "Ed25519") {
+    @Override
+    KeyPair generateKeyPair() throws NoSuchAlgorithmException {
+      KeyPairGenerator keyGen = KeyPairGenerator.getInstance(getKeyAlgorithm());
+      try {
+        keyGen.initialize(NamedParameterSpec.ED25519, SecureRandom.getInstanceStrong());
+      } catch (InvalidAlgorithmParameterException ex) {
+        throw new NoSuchAlgorithmException("Ed25519 is not supported by the JCA provider", ex);
+      }
+      return keyGen.generateKeyPair();
+    }
+
+    @Override
+    public JWK toJwk(PublicKey publicKey, PrivateKey privateKey, String keyId) {
+      // JCA keys are DER encoded; the JWK holds the raw 32 byte values
+      byte[] x = SubjectPublicKeyInfo.getInstance(publicKey.getEncoded())
+              .getPublicKeyData()
+              .getBytes();
+      OctetKeyPair.Builder builder = new OctetKeyPair.Builder(Curve.Ed25519, Base64URL.encode(x))
+              .algorithm(getJwsAlgorithm())
+              .keyID(keyId)
+              .keyUse(KeyUse.SIGNATURE);
+      if (privateKey != null) {
+        try {
+          byte[] d = ASN1OctetString
+                  .getInstance(PrivateKeyInfo.getInstance(privateKey.getEncoded()).parsePrivateKey())
+                  .getOctets();
+          builder.d(Base64URL.encode(d));
+        } catch (IOException ex) {
+          throw new IllegalArgumentException("Ed25519 private key could not be decoded", ex);
+        }
+      }
+      return builder.build();
+    }
+
+    @Override
+    KeyPair toKeyPair(JWK key) throws JOSEException {
+      OctetKeyPair okp = key.toOctetKeyPair();
+      AlgorithmIdentifier algId = new AlgorithmIdentifier(EdECObjectIdentifiers.id_Ed25519);
+      try {
+        KeyFactory keyFactory = KeyFactory.getInstance(getKeyAlgorithm());
+        PublicKey publicKey = keyFactory.generatePublic(
+                new X509EncodedKeySpec(
+                        new SubjectPublicKeyInfo(algId, okp.getDecodedX()).getEncoded()));
+        PrivateKey privateKey = okp.isPrivate() ? keyFactory.generatePrivate(
+                new PKCS8EncodedKeySpec(
+                        new PrivateKeyInfo(algId, new DEROctetString(okp.getDecodedD()))
+                                .getEncoded()))
+                : null;
+        return new KeyPair(publicKey, privateKey);
+      } catch (NoSuchAlgorithmException | InvalidKeySpecException | IOException ex) {
+        throw new JOSEException("Ed25519 key " + key.getKeyID() + " could not be converted", ex);
+      }
+    }
+
+    @Override
+    public JWSSigner createSigner(JWK key) throws JOSEException {
+      return new Ed25519Signer(key.toOctetKeyPair());
+    }
+
+    @Override
+    public JWSVerifier createVerifier(JWK key) throws JOSEException {
+      return new Ed25519Verifier(key.toOctetKeyPair().toPublicJWK());
+    }
+  };
+
+  private final JWSAlgorithm jwsAlgorithm;
+
+  private final String keyAlgorithm;
+
+  private final String jcaSignatureName;
+
+  private final String certificateSignatureName;
+
+  private IdpKeyAlgorithm(
+          JWSAlgorithm jwsAlgorithm,
+          String keyAlgorithm,
+          String jcaSignatureName,
+          String certificateSignatureName) {
+    this.jwsAlgorithm = jwsAlgorithm;
+    this.keyAlgorithm = keyAlgorithm;
+    this.jcaSignatureName = jcaSignatureName;
+    this.certificateSignatureName = certificateSignatureName;
+  }
+
+  /**
+   * Function for generating a new key pair
+   *
+   * @return {@link KeyPair} of the algorithm
+   * @throws NoSuchAlgorithmException If the JCA provider does not support the algorithm
+   */
+  abstract KeyPair generateKeyPair() throws NoSuchAlgorithmException;
+
+  /**
+   * Function for converting a JCA key pair into a JWK
+   *
+   * @param publicKey {@link PublicKey} of the pair
+   * @param privateKey {@link PrivateKey} of the pair or null for a public only JWK
+   * @param keyId {@link String} ID of the key
+   * @return {@link JWK} representing the key pair
+   */
+  public abstract JWK toJwk(PublicKey publicKey, PrivateKey privateKey, String keyId);
+
+  /**
+   * Function for converting a JWK into a JCA key pair so it can be stored in the KeyStore
+   *
+   * @param key {@link JWK} to convert
+   * @return {@link KeyPair} with a null private key if the JWK is public only
+   * @throws JOSEException If the JWK does not belong to the algorithm
+   */
+  abstract KeyPair toKeyPair(JWK key) throws JOSEException;
+
+  /**
+   * Function for creating a JWS signer for a private key
+   *
+   * @param key {@link JWK} private key of the algorithm
+   * @return {@link JWSSigner} for the key
+   * @throws JOSEException If the JWK does not belong to the algorithm or is not private
+   */
+  public abstract JWSSigner createSigner(JWK key) throws JOSEException;
+
+  /**
+   * Function for creating a JWS verifier for a key
+   *
+   * @param key {@link JWK} key of the algorithm
+   * @return {@link JWSVerifier} for the key
+   * @throws JOSEException If the JWK does not belong to the algorithm
+   */
+  public abstract JWSVerifier createVerifier(JWK key) throws JOSEException;
+
+  /**
+   * Function for generating a new signing key
+   *
+   * @param keyId {@link String} ID of the key
+   * @return {@link JWK} holding the new key pair
+   * @throws NoSuchAlgorithmException If the JCA provider does not support the algorithm
+   */
+  public JWK generateKey(String keyId) throws NoSuchAlgorithmException {
+    KeyPair pair = generateKeyPair();
+    return toJwk(pair.getPublic(), pair.getPrivate(), keyId);
+  }
+
+  /**
+   * @return {@link JWSAlgorithm} placed in token headers
+   */
+  public JWSAlgorithm getJwsAlgorithm() {
+    return jwsAlgorithm;
+  }
+
+  /**
+   * @return {@link String} JCA key algorithm name
+   */
+  public String getKeyAlgorithm() {
+    return keyAlgorithm;
+  }
+
+  /**
+   * @return {@link String} JCA signature name used to resolve the provider that the signer and
+   *         verifier are pinned to, or null if they do not use a JCA provider
+   */
+  public String getJcaSignatureName() {
+    return jcaSignatureName;
+  }
+
+  /**
+   * @return {@link String} signature name used to self-sign the KeyStore certificate of a key
+   */
+  public String getCertificateSignatureName() {
+    return certificateSignatureName;
+  }
+
+  /**
+   * Function for getting the supported algorithm matching a JWS algorithm
+   *
+   * @param jwsAlgorithm {@link JWSAlgorithm} to look up
+   * @return {@link IdpKeyAlgorithm} matching the JWS algorithm
+   * @throws NoSuchAlgorithmException If the JWS algorithm is not supported
+   */
+  public static IdpKeyAlgorithm of(JWSAlgorithm jwsAlgorithm) throws NoSuchAlgorithmException {
+    for (IdpKeyAlgorithm alg : values()) {
+      if (alg.jwsAlgorithm.equals(jwsAlgorithm)) {
+        return alg;
+      }
+    }
+    throw new NoSuchAlgorithmException("Unsupported token signing algorithm: " + jwsAlgorithm);
+  }
+
+  /**
+   * Function for getting the supported algorithm that a stored key was generated for; lets a
+   * KeyStore hold keys of different algorithms while the configured algorithm is being changed
+   *
+   * @param key {@link Key} read from the KeyStore
+   * @return {@link IdpKeyAlgorithm} of the key
+   * @throws NoSuchAlgorithmException If the key's algorithm is not supported
+   */
+  public static IdpKeyAlgorithm of(Key key) throws NoSuchAlgorithmException {
+    switch (key.getAlgorithm()) {
+      case "RSA":
+        return RS384;
+      case "EC":
+        return ES256;
+      // The JDK reports Ed25519 keys as EdDSA while BouncyCastle reports Ed25519
+      case "EdDSA":
+      case "Ed25519":
+        return EdDSA;
+      default:
+        throw new NoSuchAlgorithmException("Unsupported key algorithm: " + key.getAlgorithm());
+    }
+  }
+
+}
@@ -0,0 +1,143 @@
+package com.sourceware.labs.idp.keystore;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.nimbusds.jose.jwk.JWK;
+
+/**
+ * Class for holding every token key in the IDP Java Keystore along with the time each key becomes
+ * active <br />
+ * The active key at a point in time is the key with the latest activation time that is not in the
+ * future; keys activating later are pending (published for verification but not yet used for
+ * signing) and keys activating earlier are retired (only used to verify tokens they already
+ * signed). Instances are immutable.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class IdpKeyRing {
+
+  // Entries ordered from the newest activation time to the oldest
+  private final List<Entry> entries;
+
+  // Entries keyed by their key ID
+  private final Map<String, Entry> entriesByKeyId;
+
+  public IdpKeyRing(List<Entry> entries) {
+    super();
+    List<Entry> sorted = new ArrayList<>(entries);
+    sorted.sort(Comparator.comparing(Entry::activatesAt).reversed());
+    this.entries = List.copyOf(sorted);
+    Map<String, Entry> byKeyId = new HashMap<>();
+    for (Entry entry : this.entries) {
+      byKeyId.put(entry.keyId(), entry);
+    }
+    this.entriesByKeyId = Map.copyOf(byKeyId);
+  }
+
+  /**
+   * @return Every entry in the ring ordered from the newest activation time to the oldest
+   */
+  public List<Entry> getEntries() {
+    return entries;
+  }
+
+  public boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  /**
+   * Function for getting the key that new tokens should be signed with
+   *
+   * @param now {@link Instant} to evaluate the ring at
+   * @return {@link Entry} of the active key or null if no key is active yet
+   */
+  public Entry getActiveEntry(Instant now) {
+    for (Entry entry : entries) {
+      if (!entry.activatesAt().isAfter(now)) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Function for getting the key that new tokens should be signed with
+   *
+   * @param now {@link Instant} to evaluate the ring at
+   * @return {@link JWK} of the active key or null if no key is active yet
+   */
+  public JWK getActiveKey(Instant now) {
+    Entry entry = getActiveEntry(now);
+    return entry == null ? null : entry.key();
+  }
+
+  /**
+   * Function for getting a key that a token can be verified with
+   *
+   * @param keyId {@link String} ID of the key from the token's header
+   * @return {@link JWK} with the key ID or null if the ring does not hold it
+   */
+  public JWK getKey(String keyId) {
+    Entry entry = keyId == null ? null : entriesByKeyId.get(keyId);
+    return entry == null ? null : entry.key();
+  }
+
+  /**
+   * Function for getting the keys that have been generated ahead of their activation time
+   *
+   * @param now {@link Instant} to evaluate the ring at
+   * @return Pending entries ordered from the newest activation time to the oldest
+   */
+  public List<Entry> getPendingEntries(Instant now) {
+    return entries.stream().filter(entry -> entry.activatesAt().isAfter(now)).toList();
+  }
+
+  /**
+   * Function for getting the keys that have been replaced by a newer active key
+   *
+   * @param now {@link Instant} to evaluate the ring at
+   * @return Retired entries ordered from the most recently retired to the oldest
+   */
+  public List<Entry> getRetiredEntries(Instant now) {
+    Entry active = getActiveEntry(now);
+    if (active == null) {
+      return List.of();
+    }
+    return entries.subList(entries.indexOf(active) + 1, entries.size());
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(entries);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    IdpKeyRing other = (IdpKeyRing) obj;
+    return Objects.equals(entries, other.entries);
+  }
+
+  /**
+   * Token key stored in the KeyStore
+   *
+   * @param keyId {@link String} ID of the key published in token headers
+   * @param alias {@link String} alias of the key in the KeyStore
+   * @param key {@link JWK} holding the key pair
+   * @param activatesAt {@link Instant} from which the key is used to sign new tokens
+   */
+  public record Entry(String keyId, String alias, JWK key, Instant activatesAt) {
+  }
+
+}
@@ -0,0 +1,83 @@
+package com.sourceware.labs.idp.keystore;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Class for holding the settings that control how often token keys are rotated and how long old
+ * keys are kept for verification
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class IdpKeyRotationPolicy {
+
+  // How long each key is used to sign new tokens
+  private Duration period;
+
+  // How long before activation a new key is generated and published
+  private Duration lead;
+
+  // Number of retired keys kept for verification
+  private int retained;
+
+  // Longest lifetime of a token signed by any key; retired keys are never removed before this
+  // has passed since their retirement
+  private Duration maxTokenLifetime;
+
+  public IdpKeyRotationPolicy(
+          Duration period,
+          Duration lead,
+          int retained,
+          Duration maxTokenLifetime) {
+    super();
+    if (lead.compareTo(period) >= 0) {
+      throw new IllegalArgumentException("Key rotation lead must be shorter than the period");
+    }
+    this.period = period;
+    this.lead = lead;
+    this.retained = retained;
+    this.maxTokenLifetime = maxTokenLifetime;
+  }
+
+  public Duration getPeriod() {
+    return period;
+  }
+
+  public Duration getLead() {
+    return lead;
+  }
+
+  public int getRetained() {
+    return retained;
+  }
+
+  public Duration getMaxTokenLifetime() {
+    return maxTokenLifetime;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(lead, maxTokenLifetime, period, retained);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (obj == null)
+      return false;
+    if (getClass() != obj.getClass())
+      return false;
+    IdpKeyRotationPolicy other = (IdpKeyRotationPolicy) obj;
+    return Objects.equals(lead, other.lead) && Objects.equals(maxTokenLifetime, other.maxTokenLifetime)
+            && Objects.equals(period, other.period) && retained == other.retained;
+  }
+
+  @Override
+  public String toString() {
+    // Gson cannot reflect into java.time types on recent JDKs
+    return "IdpKeyRotationPolicy [period=" + period + ", lead=" + lead + ", retained=" + retained
+            + ", maxTokenLifetime=" + maxTokenLifetime + "]";
+  }
+
+}
@@ -0,0 +1,142 @@
+package com.sourceware.labs.idp.keystore;
+
+import java.io.IOException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.bouncycastle.operator.OperatorCreationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+
+/**
+ * Class for rotating the token keys held in the IDP Java Keystore <br />
+ * Each rotation generates the next key ahead of time with an activation time in the future, so the
+ * key is published for verification before any token is signed with it and no request ever waits
+ * on key generation. Retired keys are kept until both the retained count is exceeded and every
+ * token they could have signed has expired.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class IdpKeyRotator {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(IdpKeyRotator.class);
+
+  /**
+   * Function for making sure the KeyStore holds an active token key, creating one if the KeyStore
+   * is new
+   *
+   * @param securityAlg {@link JWSAlgorithm} that will be used for the key, Supported:
+   *          {@link JWSAlgorithm.RS384}, {@link JWSAlgorithm.ES256},
+   *          {@link JWSAlgorithm.EdDSA}
+   * @param keyStoreData {@link IdpKeyStoreData} that contains information related to the keystore
+   * @param now {@link Instant} used as the activation time of a newly created key
+   * @return {@link IdpKeyRing} holding at least one active key
+   * @throws KeyStoreException If there is an issue accessing the keystore
+   * @throws NoSuchAlgorithmException If there is an issue finding the algorithm to use for key
+   *           signing/creation
+   * @throws CertificateException If the certificate associated with a key is no longer valid
+   * @throws UnrecoverableEntryException If a key entry in the KeyStore is no longer able to be
+   *           accessed due to error/corruption
+   * @throws OperatorCreationException If there is an issue creating a certificate writer
+   * @throws IOException If there is an issue accessing the KeyStore file using I/O operations
+   * @throws JOSEException If there is an issue creating/manipulating a key set
+   */
+  public static IdpKeyRing prepareKeyRing(
+          JWSAlgorithm securityAlg,
+          IdpKeyStoreData keyStoreData,
+          Instant now) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    IdpKeyRing ring = IdpKeyStoreCache.getKeyRing(securityAlg, keyStoreData);
+    if (ring.getActiveEntry(now) == null) {
+      String keyId = newKeyId();
+      LOGGER.info("No active token key found, creating key " + keyId);
+      IdpKeyStoreAccessor.addKeyToRing(securityAlg, keyStoreData, keyId, now);
+      ring = IdpKeyStoreCache.getKeyRing(securityAlg, keyStoreData);
+    }
+    return ring;
+  }
+
+  /**
+   * Function for advancing the key rotation schedule; generates the next key once the active key is
+   * within the policy's lead time of its replacement (or right away if the active key was created
+   * for a different algorithm) and removes retired keys that are no longer needed
+   *
+   * @param securityAlg {@link JWSAlgorithm} that will be used for the key, Supported:
+   *          {@link JWSAlgorithm.RS384}, {@link JWSAlgorithm.ES256},
+   *          {@link JWSAlgorithm.EdDSA}
+   * @param keyStoreData {@link IdpKeyStoreData} that contains information related to the keystore
+   * @param policy {@link IdpKeyRotationPolicy} controlling the schedule
+   * @param now {@link Instant} to evaluate the schedule at
+   * @return {@link IdpKeyRing} after the rotation
+   * @throws KeyStoreException If there is an issue accessing the keystore
+   * @throws NoSuchAlgorithmException If there is an issue finding the algorithm to use for key
+   *           signing/creation
+   * @throws CertificateException If the certificate associated with a key is no longer valid
+   * @throws UnrecoverableEntryException If a key entry in the KeyStore is no longer able to be
+   *           accessed due to error/corruption
+   * @throws OperatorCreationException If there is an issue creating a certificate writer
+   * @throws IOException If there is an issue accessing the KeyStore file using I/O operations
+   * @throws JOSEException If there is an issue creating/manipulating a key set
+   */
+  public static IdpKeyRing rotate(
+          JWSAlgorithm securityAlg,
+          IdpKeyStoreData keyStoreData,
+          IdpKeyRotationPolicy policy,
+          Instant now) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    IdpKeyRing ring = prepareKeyRing(securityAlg, keyStoreData, now);
+    IdpKeyRing.Entry active = ring.getActiveEntry(now);
+
+    Instant dueAt = active.activatesAt().plus(policy.getPeriod());
+    if (!active.key().getAlgorithm().equals(securityAlg)) {
+      // The configured algorithm changed; replace the active key as soon as it can be published
+      dueAt = now;
+    }
+    if (ring.getPendingEntries(now)
+            .stream()
+            .noneMatch(entry -> entry.key().getAlgorithm().equals(securityAlg))
+            && !now.isBefore(dueAt.minus(policy.getLead()))) {
+      // Never activate sooner than the lead time so relying parties can fetch the new public key
+      Instant activatesAt = dueAt.isBefore(now.plus(policy.getLead())) ? now.plus(policy.getLead())
+              : dueAt;
+      String keyId = newKeyId();
+      LOGGER.info("Generating token key " + keyId + " to activate at " + activatesAt);
+      IdpKeyStoreAccessor.addKeyToRing(securityAlg, keyStoreData, keyId, activatesAt);
+    }
+
+    List<String> expired = new ArrayList<>();
+    List<IdpKeyRing.Entry> retired = ring.getRetiredEntries(now);
+    // A retired key stopped signing when the key before it in the list (or the active key) started
+    Instant retiredAt = active.activatesAt();
+    for (int i = 0; i < retired.size(); i++) {
+      IdpKeyRing.Entry entry = retired.get(i);
+      if (i >= policy.getRetained()
+              && retiredAt.plus(policy.getMaxTokenLifetime()).isBefore(now)) {
+        expired.add(entry.keyId());
+      }
+      retiredAt = entry.activatesAt();
+    }
+    if (!expired.isEmpty()) {
+      LOGGER.info("Removing retired token keys " + expired);
+      IdpKeyStoreAccessor.removeKeysFromRing(keyStoreData, expired);
+    }
+
+    // Decode the updated KeyStore here so request threads do not have to
+    return IdpKeyStoreCache.getKeyRing(securityAlg, keyStoreData);
+  }
+
+  /**
+   * @return {@link String} new random key ID; lower case so it survives the PKCS12 alias round trip
+   */
+  public static String newKeyId() {
+    return UUID.randomUUID().toString();
+  }
+
+}
@@ -1,13 +1,17 @@
 package com.sourceware.labs.idp.keystore;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
@@ -18,31 +22,31 @@ import java.security.UnrecoverableEntryException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.security.interfaces.ECPrivateKey;
-import java.security.interfaces.ECPublicKey;
-import java.security.interfaces.RSAPrivateKey;
-import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSAlgorithm;
-import com.nimbusds.jose.jwk.Curve;
 import com.nimbusds.jose.jwk.ECKey;
 import com.nimbusds.jose.jwk.JWK;
-import com.nimbusds.jose.jwk.KeyUse;
-import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
 
 /**
  * Class for managing the IDP Java Keystore
@@ -54,11 +58,15 @@ public class IdpKeyStoreAccessor {
   // Type of KeyStore to be accessed/created
   private static final String KS_TYPE = "PKCS12";
 
+  // Serializes read-modify-write cycles of the KeyStore file made by key rotation
+  private static final ReentrantLock WRITE_LOCK = new ReentrantLock();
+
   /**
    * Function for only preparing a new KeyStore
    * 
    * @param securityAlg {@link JWSAlgorithm} that will be used for the key, Supported:
-   *          {@link JWSAlgorithm.RS384}, {@link JWSAlgorithm.ES256}
+   *          {@link JWSAlgorithm.RS384}, {@link JWSAlgorithm.ES256},
+   *          {@link JWSAlgorithm.EdDSA}
    * 
    * @param keyStoreData {@link IdpKeyStoreData} that contains information related to the keystore
    * @return true if everything was created/prepared successfully and false if there was an
@@ -68,7 +76,7 @@ public class IdpKeyStoreAccessor {
           JWSAlgorithm securityAlg,
           IdpKeyStoreData keyStoreData) {
     try {
-      JWK key = accessKeyStore(securityAlg, keyStoreData);
+      JWK key = IdpKeyStoreCache.getKey(securityAlg, keyStoreData);
       if (key == null) {
         System.err.println("Failed to create key store and JWK Set...");
         return false;
@@ -86,7 +94,8 @@ public class IdpKeyStoreAccessor {
    * not already exist
    * 
    * @param securityAlg {@link JWSAlgorithm} that will be used for the key, Supported:
-   *          {@link JWSAlgorithm.RS384}, {@link JWSAlgorithm.ES256}
+   *          {@link JWSAlgorithm.RS384}, {@link JWSAlgorithm.ES256},
+   *          {@link JWSAlgorithm.EdDSA}
    * 
    * @param keyStoreData {@link IdpKeyStoreData} that contains information related to the keystore
    * 
@@ -104,14 +113,7 @@ public class IdpKeyStoreAccessor {
   public static JWK accessKeyStore(
           JWSAlgorithm securityAlg,
           IdpKeyStoreData keyStoreData) throws KeyStoreException, IOException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, JOSEException {
-    KeyStore ks = KeyStore.getInstance(KS_TYPE);
-
-    try (FileInputStream fis = new FileInputStream(
-            keyStoreData.getStoreDir() + "/" + keyStoreData.getStoreFileName())) {
-      ks.load(fis, keyStoreData.getStorePassword().toCharArray());
-    } catch (FileNotFoundException ex) {
-      ks.load(null, keyStoreData.getStorePassword().toCharArray());
-    }
+    KeyStore ks = loadKeyStore(keyStoreData);
 
     KeyStore.ProtectionParameter keyProtParam = new KeyStore.PasswordProtection(
             keyStoreData.getKeyPassword().toCharArray());
@@ -119,55 +121,350 @@ public class IdpKeyStoreAccessor {
     KeyStore.PrivateKeyEntry pkEntry = (KeyStore.PrivateKeyEntry) ks
             .getEntry(keyStoreData.getKeyAlias(), keyProtParam);
     if (pkEntry == null) {
-      JWK key = generateNewPrivateKey(securityAlg, keyStoreData.getKeyId());
-      PublicKey publicKey = securityAlg.equals(JWSAlgorithm.RS384) ? key.toRSAKey().toPublicKey()
-              : key.toECKey().toPublicKey();
-      PrivateKey privateKey = securityAlg.equals(JWSAlgorithm.RS384) ? key.toRSAKey().toPrivateKey()
-              : key.toECKey().toPrivateKey();
-      X500Name certName = new X500Name("CN=Robert F., O=Sourceware Lab, C=US");
-      SubjectPublicKeyInfo pubKeyInfo = SubjectPublicKeyInfo.getInstance(publicKey.getEncoded());
-      final Date start = new Date();
-      final Date until = Date.from(
-              LocalDate.now().plus(365, ChronoUnit.DAYS).atStartOfDay().toInstant(ZoneOffset.UTC));
-      final X509v3CertificateBuilder certificateBuilder = new X509v3CertificateBuilder(
-              certName,
-              new BigInteger(10, new SecureRandom()),
-              start,
-              until,
-              certName,
-              pubKeyInfo);
-      ContentSigner contentSigner = new JcaContentSignerBuilder(
-              securityAlg.equals(JWSAlgorithm.RS384) ? "SHA256WithRSAEncryption"
-                      : "SHA256withECDSA").build(privateKey);
-      X509Certificate certificate = new JcaX509CertificateConverter()
-              .setProvider(new BouncyCastleProvider())
-              .getCertificate(certificateBuilder.build(contentSigner));
-      Certificate[] certChain = new Certificate[1];
-      certChain[0] = certificate;
-      pkEntry = new KeyStore.PrivateKeyEntry(privateKey, certChain);
-      ks.setEntry(keyStoreData.getKeyAlias(), pkEntry, keyProtParam);
-      File keyStoreOutputDir = new File(keyStoreData.getStoreDir());
-      if (!keyStoreOutputDir.exists()) {
-        keyStoreOutputDir.mkdir();
+      WRITE_LOCK.lock();
+      try {
+        // Reload under the lock so a concurrent writer's entries are not overwritten
+        ks = loadKeyStore(keyStoreData);
+        pkEntry = (KeyStore.PrivateKeyEntry) ks.getEntry(keyStoreData.getKeyAlias(), keyProtParam);
+        if (pkEntry == null) {
+          JWK key = generateNewPrivateKey(securityAlg, keyStoreData.getKeyId());
+          pkEntry = createPrivateKeyEntry(securityAlg, key, new Date());
+          ks.setEntry(keyStoreData.getKeyAlias(), pkEntry, keyProtParam);
+          storeKeyStore(ks, keyStoreData);
+        }
+      } finally {
+        WRITE_LOCK.unlock();
+      }
+    }
+    return toJwk(pkEntry, keyStoreData.getKeyId());
+  }
+
+  /**
+   * Helper function for reading a key out of the raw bytes of a KeyStore file without writing
+   * anything back to disk; used by {@link IdpKeyStoreCache} so that the bytes that were hashed are
+   * the same bytes that were decoded; the algorithm of the key comes from its entry
+   * 
+   * @param keyStoreData {@link IdpKeyStoreData} that contains information related to the keystore
+   * @param storeContent Raw bytes of the KeyStore file
+   * @return {@link JWK} from the KeyStore or null if the key alias is not present in the KeyStore
+   * @throws KeyStoreException If there is an issue accessing the keystore
+   * @throws NoSuchAlgorithmException If the algorithm used to protect the KeyStore is not found
+   * @throws CertificateException If the certificate associated with the key is no longer valid
+   * @throws UnrecoverableEntryException If the key entry in the KeyStore is no longer able to be
+   *           accessed due to error/corruption
+   * @throws IOException If the KeyStore bytes could not be decoded
+   */
+  static JWK readKey(
+          IdpKeyStoreData keyStoreData,
+          byte[] storeContent) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, IOException {
+    KeyStore ks = KeyStore.getInstance(KS_TYPE);
+    try (ByteArrayInputStream bis = new ByteArrayInputStream(storeContent)) {
+      ks.load(bis, keyStoreData.getStorePassword().toCharArray());
+    }
+    KeyStore.PrivateKeyEntry pkEntry = (KeyStore.PrivateKeyEntry) ks.getEntry(
+            keyStoreData.getKeyAlias(),
+            new KeyStore.PasswordProtection(keyStoreData.getKeyPassword().toCharArray()));
+    return pkEntry == null ? null : toJwk(pkEntry, keyStoreData.getKeyId());
+  }
+
+  /**
+   * Helper function for reading every token key out of the raw bytes of a KeyStore file <br />
+   * The key stored directly under the token alias keeps the key ID from the {@link IdpKeyStoreData}
+   * while rotated keys are stored under "&lt;token alias&gt;-&lt;key ID&gt;"; the activation time of
+   * each key is the start of its certificate's validity period, and its algorithm comes from its
+   * entry
+   * 
+   * @param keyStoreData {@link IdpKeyStoreData} that contains information related to the keystore
+   * @param storeContent Raw bytes of the KeyStore file
+   * @return {@link IdpKeyRing} holding every token key in the KeyStore
+   * @throws KeyStoreException If there is an issue accessing the keystore
+   * @throws NoSuchAlgorithmException If the algorithm used to protect the KeyStore is not found
+   * @throws CertificateException If the certificate associated with a key is no longer valid
+   * @throws UnrecoverableEntryException If a key entry in the KeyStore is no longer able to be
+   *           accessed due to error/corruption
+   * @throws IOException If the KeyStore bytes could not be decoded
+   */
+  static IdpKeyRing readKeyRing(
+          IdpKeyStoreData keyStoreData,
+          byte[] storeContent) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, IOException {
+    KeyStore ks = KeyStore.getInstance(KS_TYPE);
+    try (ByteArrayInputStream bis = new ByteArrayInputStream(storeContent)) {
+      ks.load(bis, keyStoreData.getStorePassword().toCharArray());
+    }
+    KeyStore.ProtectionParameter keyProtParam = new KeyStore.PasswordProtection(
+            keyStoreData.getKeyPassword().toCharArray());
+    List<IdpKeyRing.Entry> entries = new ArrayList<>();
+    for (String alias : Collections.list(ks.aliases())) {
+      String keyId = getRingKeyId(keyStoreData, alias);
+      if (keyId == null || !ks.entryInstanceOf(alias, KeyStore.PrivateKeyEntry.class)) {
+        continue;
+      }
+      KeyStore.PrivateKeyEntry pkEntry = (KeyStore.PrivateKeyEntry) ks.getEntry(alias, keyProtParam);
+      Instant activatesAt = ((X509Certificate) pkEntry.getCertificate()).getNotBefore().toInstant();
+      entries.add(
+              new IdpKeyRing.Entry(keyId, alias, toJwk(pkEntry, keyId), activatesAt));
+    }
+    return new IdpKeyRing(entries);
+  }
+
+  /**
+   * Function for getting the HMAC secret of a service token profile from the KeyStore, creating
+   * and storing a new random secret if the alias does not exist yet
+   * 
+   * @param securityAlg {@link JWSAlgorithm} of the secret, Supported: {@link JWSAlgorithm.HS256},
+   *          {@link JWSAlgorithm.HS512}
+   * @param keyStoreData {@link IdpKeyStoreData} whose alias and key ID identify the secret
+   * @return {@link OctetSequenceKey} holding the secret
+   * @throws KeyStoreException If there is an issue accessing the keystore
+   * @throws NoSuchAlgorithmException If the algorithm is not a supported HMAC algorithm
+   * @throws CertificateException If a certificate in the KeyStore could not be loaded
+   * @throws UnrecoverableEntryException If the secret entry in the KeyStore is no longer able to
+   *           be accessed due to error/corruption
+   * @throws IOException If there is an issue accessing the KeyStore file using I/O operations
+   */
+  public static OctetSequenceKey accessSecretKey(
+          JWSAlgorithm securityAlg,
+          IdpKeyStoreData keyStoreData) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, IOException {
+    IdpSecretKeyAlgorithm keyAlg = IdpSecretKeyAlgorithm.of(securityAlg);
+    KeyStore.ProtectionParameter keyProtParam = new KeyStore.PasswordProtection(
+            keyStoreData.getKeyPassword().toCharArray());
+    WRITE_LOCK.lock();
+    try {
+      KeyStore ks = loadKeyStore(keyStoreData);
+      KeyStore.SecretKeyEntry skEntry = (KeyStore.SecretKeyEntry) ks
+              .getEntry(keyStoreData.getKeyAlias(), keyProtParam);
+      if (skEntry == null) {
+        skEntry = new KeyStore.SecretKeyEntry(keyAlg.generateSecretKey());
+        ks.setEntry(keyStoreData.getKeyAlias(), skEntry, keyProtParam);
+        storeKeyStore(ks, keyStoreData);
+      }
+      return keyAlg.toJwk(skEntry.getSecretKey(), keyStoreData.getKeyId());
+    } finally {
+      WRITE_LOCK.unlock();
+    }
+  }
+
+  /**
+   * Helper function for reading an HMAC secret out of the raw bytes of a KeyStore file without
+   * writing anything back to disk
+   * 
+   * @param securityAlg {@link JWSAlgorithm} of the secret
+   * @param keyStoreData {@link IdpKeyStoreData} whose alias and key ID identify the secret
+   * @param storeContent Raw bytes of the KeyStore file
+   * @return {@link OctetSequenceKey} holding the secret or null if the alias is not present
+   * @throws KeyStoreException If there is an issue accessing the keystore
+   * @throws NoSuchAlgorithmException If the algorithm is not a supported HMAC algorithm
+   * @throws CertificateException If a certificate in the KeyStore could not be loaded
+   * @throws UnrecoverableEntryException If the secret entry in the KeyStore is no longer able to
+   *           be accessed due to error/corruption
+   * @throws IOException If the KeyStore bytes could not be decoded
+   */
+  static OctetSequenceKey readSecretKey(
+          JWSAlgorithm securityAlg,
+          IdpKeyStoreData keyStoreData,
+          byte[] storeContent) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, IOException {
+    IdpSecretKeyAlgorithm keyAlg = IdpSecretKeyAlgorithm.of(securityAlg);
+    KeyStore ks = KeyStore.getInstance(KS_TYPE);
+    try (ByteArrayInputStream bis = new ByteArrayInputStream(storeContent)) {
+      ks.load(bis, keyStoreData.getStorePassword().toCharArray());
+    }
+    KeyStore.SecretKeyEntry skEntry = (KeyStore.SecretKeyEntry) ks.getEntry(
+            keyStoreData.getKeyAlias(),
+            new KeyStore.PasswordProtection(keyStoreData.getKeyPassword().toCharArray()));
+    return skEntry == null ? null : keyAlg.toJwk(skEntry.getSecretKey(), keyStoreData.getKeyId());
+  }
+
+  /**
+   * Function for generating a new token key and adding it to the KeyStore under its own alias
+   * 
+   * @param securityAlg {@link JWSAlgorithm} that will be used for the key, Supported:
+   *          {@link JWSAlgorithm.RS384}, {@link JWSAlgorithm.ES256},
+   *          {@link JWSAlgorithm.EdDSA}
+   * @param keyStoreData {@link IdpKeyStoreData} that contains information related to the keystore
+   * @param keyId {@link String} ID of the new key; must be lower case since PKCS12 aliases are
+   * @param activatesAt {@link Instant} from which the key should be used to sign new tokens
+   * @return {@link JWK} representing the newly created key
+   * @throws KeyStoreException If there is an issue accessing the keystore
+   * @throws NoSuchAlgorithmException If there is an issue finding the algorithm to use for key
+   *           signing/creation
+   * @throws CertificateException If the certificate associated with the key could not be created
+   * @throws OperatorCreationException If there is an issue creating a certificate writer
+   * @throws IOException If there is an issue accessing the KeyStore file using I/O operations
+   * @throws JOSEException If there is an issue creating/manipulating a key set
+   */
+  public static JWK addKeyToRing(
+          JWSAlgorithm securityAlg,
+          IdpKeyStoreData keyStoreData,
+          String keyId,
+          Instant activatesAt) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, OperatorCreationException, IOException, JOSEException {
+    // Generate before taking the write lock; RSA key generation can take a noticeable amount of time
+    JWK key = generateNewPrivateKey(securityAlg, keyId);
+    KeyStore.PrivateKeyEntry pkEntry = createPrivateKeyEntry(
+            securityAlg,
+            key,
+            Date.from(activatesAt));
+    WRITE_LOCK.lock();
+    try {
+      KeyStore ks = loadKeyStore(keyStoreData);
+      ks.setEntry(
+              getRingAlias(keyStoreData, keyId),
+              pkEntry,
+              new KeyStore.PasswordProtection(keyStoreData.getKeyPassword().toCharArray()));
+      storeKeyStore(ks, keyStoreData);
+    } finally {
+      WRITE_LOCK.unlock();
+    }
+    return key;
+  }
+
+  /**
+   * Function for removing token keys from the KeyStore
+   * 
+   * @param keyStoreData {@link IdpKeyStoreData} that contains information related to the keystore
+   * @param keyIds IDs of the keys to remove
+   * @throws KeyStoreException If there is an issue accessing the keystore
+   * @throws NoSuchAlgorithmException If the algorithm used to protect the KeyStore is not found
+   * @throws CertificateException If a certificate in the KeyStore could not be loaded
+   * @throws IOException If there is an issue accessing the KeyStore file using I/O operations
+   */
+  public static void removeKeysFromRing(
+          IdpKeyStoreData keyStoreData,
+          Collection<String> keyIds) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException {
+    if (keyIds.isEmpty()) {
+      return;
+    }
+    WRITE_LOCK.lock();
+    try {
+      KeyStore ks = loadKeyStore(keyStoreData);
+      for (String keyId : keyIds) {
+        ks.deleteEntry(getRingAlias(keyStoreData, keyId));
       }
-      try (FileOutputStream fos = new FileOutputStream(
-              keyStoreData.getStoreDir() + "/" + keyStoreData.getStoreFileName())) {
-        ks.store(fos, keyStoreData.getStorePassword().toCharArray());
+      storeKeyStore(ks, keyStoreData);
+    } finally {
+      WRITE_LOCK.unlock();
+    }
+  }
+
+  private static String getRingAlias(IdpKeyStoreData keyStoreData, String keyId) {
+    return keyId.equals(keyStoreData.getKeyId()) ? keyStoreData.getKeyAlias()
+            : keyStoreData.getKeyAlias() + "-" + keyId;
+  }
+
+  private static String getRingKeyId(IdpKeyStoreData keyStoreData, String alias) {
+    String tokenAlias = keyStoreData.getKeyAlias().toLowerCase(Locale.ENGLISH);
+    String lowerAlias = alias.toLowerCase(Locale.ENGLISH);
+    if (lowerAlias.equals(tokenAlias)) {
+      return keyStoreData.getKeyId();
+    }
+    return lowerAlias.startsWith(tokenAlias + "-") ? lowerAlias.substring(tokenAlias.length() + 1)
+            : null;
+  }
+
+  /**
+   * Helper function for loading the KeyStore file or creating an empty KeyStore if it does not
+   * exist yet <br />
+   * The file is read before it is decoded because the KeyStore implementation decodes inside a
+   * synchronized method, which would pin a virtual thread to its carrier for the whole read.
+   */
+  private static KeyStore loadKeyStore(
+          IdpKeyStoreData keyStoreData) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException {
+    KeyStore ks = KeyStore.getInstance(KS_TYPE);
+    Path path = Paths.get(keyStoreData.getStoreDir(), keyStoreData.getStoreFileName());
+    byte[] content;
+    try {
+      content = Files.readAllBytes(path);
+    } catch (NoSuchFileException ex) {
+      content = null;
+    }
+    if (content == null) {
+      ks.load(null, keyStoreData.getStorePassword().toCharArray());
+    } else {
+      try (ByteArrayInputStream bis = new ByteArrayInputStream(content)) {
+        ks.load(bis, keyStoreData.getStorePassword().toCharArray());
       }
     }
-    return securityAlg.equals(JWSAlgorithm.RS384)
-            ? new RSAKey.Builder((RSAPublicKey) pkEntry.getCertificate().getPublicKey())
-                    .privateKey((RSAPrivateKey) pkEntry.getPrivateKey())
-                    .algorithm(JWSAlgorithm.RS384)
-                    .keyID(keyStoreData.getKeyId())
-                    .keyUse(KeyUse.SIGNATURE)
-                    .build()
-            : new ECKey.Builder(Curve.P_256, (ECPublicKey) pkEntry.getCertificate().getPublicKey())
-                    .privateKey((ECPrivateKey) pkEntry.getPrivateKey())
-                    .algorithm(JWSAlgorithm.ES256)
-                    .keyID(keyStoreData.getKeyId())
-                    .keyUse(KeyUse.SIGNATURE)
-                    .build();
+    return ks;
+  }
+
+  /**
+   * Helper function for writing the KeyStore to disk; the KeyStore is encoded in memory, written to
+   * a temporary file and then moved over the existing file so readers never observe a partially
+   * written file and the synchronized encoding does not pin a virtual thread during the write
+   */
+  private static void storeKeyStore(
+          KeyStore ks,
+          IdpKeyStoreData keyStoreData) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException {
+    File keyStoreOutputDir = new File(keyStoreData.getStoreDir());
+    if (!keyStoreOutputDir.exists()) {
+      keyStoreOutputDir.mkdir();
+    }
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    ks.store(encoded, keyStoreData.getStorePassword().toCharArray());
+    Path target = Paths.get(keyStoreData.getStoreDir(), keyStoreData.getStoreFileName());
+    Path temp = Files.createTempFile(keyStoreOutputDir.toPath(), keyStoreData.getStoreFileName(), ".tmp");
+    try {
+      Files.write(temp, encoded.toByteArray());
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Helper function for wrapping a key pair and a self-signed certificate into a KeyStore entry
+   * 
+   * @param securityAlg {@link JWSAlgorithm} that the key was created with
+   * @param key {@link JWK} holding the key pair
+   * @param start {@link Date} the certificate becomes valid; used as the key's activation time
+   * @return {@link KeyStore.PrivateKeyEntry} ready to be stored
+   */
+  private static KeyStore.PrivateKeyEntry createPrivateKeyEntry(
+          JWSAlgorithm securityAlg,
+          JWK key,
+          Date start) throws JOSEException, OperatorCreationException, CertificateException, NoSuchAlgorithmException {
+    IdpKeyAlgorithm keyAlg = IdpKeyAlgorithm.of(securityAlg);
+    KeyPair pair = keyAlg.toKeyPair(key);
+    PublicKey publicKey = pair.getPublic();
+    PrivateKey privateKey = pair.getPrivate();
+    X500Name certName = new X500Name("CN=Robert F., O=Sourceware Lab, C=US");
+    SubjectPublicKeyInfo pubKeyInfo = SubjectPublicKeyInfo.getInstance(publicKey.getEncoded());
+    final Date until = Date.from(
+            LocalDate.ofInstant(start.toInstant(), ZoneOffset.UTC)
+                    .plus(365, ChronoUnit.DAYS)
+                    .atStartOfDay()
+                    .toInstant(ZoneOffset.UTC));
+    final X509v3CertificateBuilder certificateBuilder = new X509v3CertificateBuilder(
+            certName,
+            new BigInteger(10, new SecureRandom()),
+            start,
+            until,
+            certName,
+            pubKeyInfo);
+    ContentSigner contentSigner = new JcaContentSignerBuilder(
+            keyAlg.getCertificateSignatureName()).build(privateKey);
+    // Decoded by the default JCA provider so the certificate's public key reports the same algorithm
+    // name as the JCA private key (BouncyCastle names Ed25519 keys differently)
+    X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(certificateBuilder.build(contentSigner));
+    Certificate[] certChain = new Certificate[1];
+    certChain[0] = certificate;
+    return new KeyStore.PrivateKeyEntry(privateKey, certChain);
+  }
+
+  /**
+   * Helper function for converting a KeyStore entry into its JWK representation; the algorithm is
+   * taken from the stored key so keys created before a change of the configured algorithm can still
+   * be read
+   * 
+   * @param pkEntry {@link KeyStore.PrivateKeyEntry} holding the private key and its certificate
+   * @param keyId {@link String} ID of the key
+   * @return {@link JWK} representing the entry
+   * @throws NoSuchAlgorithmException If the stored key's algorithm is not supported
+   */
+  private static JWK toJwk(
+          KeyStore.PrivateKeyEntry pkEntry,
+          String keyId) throws NoSuchAlgorithmException {
+    return IdpKeyAlgorithm.of(pkEntry.getPrivateKey())
+            .toJwk(pkEntry.getCertificate().getPublicKey(), pkEntry.getPrivateKey(), keyId);
   }
 
   /**
@@ -203,26 +500,6 @@ public class IdpKeyStoreAccessor {
   private static JWK generateKeyForProvider(
           JWSAlgorithm securityAlg,
           String keyId) throws NoSuchAlgorithmException {
-    if (securityAlg.equals(JWSAlgorithm.RS384)) {
-      KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
-      keyGen.initialize(2048, SecureRandom.getInstanceStrong());
-      KeyPair pair = keyGen.generateKeyPair();
-      return new RSAKey.Builder((RSAPublicKey) pair.getPublic())
-              .privateKey((RSAPrivateKey) pair.getPrivate())
-              .algorithm(JWSAlgorithm.RS384)
-              .keyID(keyId)
-              .keyUse(KeyUse.SIGNATURE)
-              .build();
-    } else {
-      KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC");
-      keyGen.initialize(256, SecureRandom.getInstanceStrong());
-      KeyPair pair = keyGen.generateKeyPair();
-      return new ECKey.Builder(Curve.P_256, (ECPublicKey) pair.getPublic())
-              .privateKey((ECPrivateKey) pair.getPrivate())
-              .algorithm(JWSAlgorithm.ES256)
-              .keyID(keyId)
-              .keyUse(KeyUse.SIGNATURE)
-              .build();
-    }
+    return IdpKeyAlgorithm.of(securityAlg).generateKey(keyId);
   }
 }
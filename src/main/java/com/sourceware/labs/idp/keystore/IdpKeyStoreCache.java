@@ -0,0 +1,267 @@
+package com.sourceware.labs.idp.keystore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.bouncycastle.operator.OperatorCreationException;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+
+/**
+ * Class for holding decoded keys from the IDP Java Keystore in memory so that the PKCS12 file is
+ * only opened and decrypted when it actually changes on disk <br />
+ * Every lookup compares the file's modification time and size against the values recorded when the
+ * key was loaded; if they differ the file is read and hashed, and the key is only decoded again if
+ * the content hash changed. Reloads replace the cached entry in a single map write so readers
+ * always observe either the old key or the new key, and readers that find a reload already in
+ * progress keep using the previous key instead of waiting on it.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class IdpKeyStoreCache {
+
+  // Digest used to detect changes to the KeyStore file content
+  private static final String DIGEST_ALG = "SHA-256";
+
+  // Decoded keys keyed by the KeyStore data used to access them
+  private static final Map<IdpKeyStoreData, CachedValue<JWK>> KEYS = new ConcurrentHashMap<>();
+
+  // Decoded key rings keyed by the KeyStore data used to access them
+  private static final Map<IdpKeyStoreData, CachedValue<IdpKeyRing>> RINGS = new ConcurrentHashMap<>();
+
+  // Decoded service token secrets keyed by the KeyStore data used to access them
+  private static final Map<IdpKeyStoreData, CachedValue<OctetSequenceKey>> SECRETS = new ConcurrentHashMap<>();
+
+  // Serializes reloads so that a changed file is only decoded once
+  private static final ReentrantLock RELOAD_LOCK = new ReentrantLock();
+
+  /**
+   * Function for getting a key from memory, reloading it from the KeyStore only if the KeyStore
+   * file changed since it was last read
+   *
+   * @param securityAlg {@link JWSAlgorithm} that will be used for the key, Supported:
+   *          {@link JWSAlgorithm.RS384}, {@link JWSAlgorithm.ES256},
+   *          {@link JWSAlgorithm.EdDSA}
+   * @param keyStoreData {@link IdpKeyStoreData} that contains information related to the keystore
+   * @return {@link JWK} for the requested key
+   * @throws KeyStoreException If there is an issue accessing the keystore
+   * @throws NoSuchAlgorithmException If there is an issue finding the algorithm to use for key
+   *           signing/creation
+   * @throws CertificateException If the certificate associated with the key is no longer valid
+   * @throws UnrecoverableEntryException If the key entry in the KeyStore is no longer able to be
+   *           accessed due to error/corruption
+   * @throws OperatorCreationException If there is an issue creating a certificate writer
+   * @throws IOException If there is an issue accessing the KeyStore file using I/O operations
+   * @throws JOSEException If there is an issue creating/manipulating a key set
+   */
+  public static JWK getKey(
+          JWSAlgorithm securityAlg,
+          IdpKeyStoreData keyStoreData) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    return get(KEYS, securityAlg, keyStoreData, content -> {
+      JWK key = content == null ? null
+              : IdpKeyStoreAccessor.readKey(keyStoreData, content);
+      if (key == null) {
+        // Creates the KeyStore file and/or the key entry; the caller re-reads the file afterwards
+        IdpKeyStoreAccessor.accessKeyStore(securityAlg, keyStoreData);
+      }
+      return key;
+    });
+  }
+
+  /**
+   * Function for getting every token key in the KeyStore from memory, reloading them only if the
+   * KeyStore file changed since it was last read; unlike {@link #getKey} this never creates keys
+   *
+   * @param securityAlg {@link JWSAlgorithm} that the keys were created with
+   * @param keyStoreData {@link IdpKeyStoreData} that contains information related to the keystore
+   * @return {@link IdpKeyRing} holding the token keys, empty if the KeyStore does not exist yet
+   * @throws KeyStoreException If there is an issue accessing the keystore
+   * @throws NoSuchAlgorithmException If the algorithm used to protect the KeyStore is not found
+   * @throws CertificateException If the certificate associated with a key is no longer valid
+   * @throws UnrecoverableEntryException If a key entry in the KeyStore is no longer able to be
+   *           accessed due to error/corruption
+   * @throws OperatorCreationException If there is an issue creating a certificate writer
+   * @throws IOException If there is an issue accessing the KeyStore file using I/O operations
+   * @throws JOSEException If there is an issue creating/manipulating a key set
+   */
+  public static IdpKeyRing getKeyRing(
+          JWSAlgorithm securityAlg,
+          IdpKeyStoreData keyStoreData) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    return get(
+            RINGS,
+            securityAlg,
+            keyStoreData,
+            content -> content == null ? new IdpKeyRing(List.of())
+                    : IdpKeyStoreAccessor.readKeyRing(keyStoreData, content));
+  }
+
+  /**
+   * Function for getting a service token HMAC secret from memory, reloading it from the KeyStore
+   * only if the KeyStore file changed since it was last read
+   *
+   * @param securityAlg {@link JWSAlgorithm} of the secret, Supported: {@link JWSAlgorithm.HS256},
+   *          {@link JWSAlgorithm.HS512}
+   * @param keyStoreData {@link IdpKeyStoreData} whose alias and key ID identify the secret
+   * @return {@link OctetSequenceKey} holding the secret
+   * @throws KeyStoreException If there is an issue accessing the keystore
+   * @throws NoSuchAlgorithmException If the algorithm is not a supported HMAC algorithm
+   * @throws CertificateException If a certificate in the KeyStore could not be loaded
+   * @throws UnrecoverableEntryException If the secret entry in the KeyStore is no longer able to
+   *           be accessed due to error/corruption
+   * @throws OperatorCreationException If there is an issue creating a certificate writer
+   * @throws IOException If there is an issue accessing the KeyStore file using I/O operations
+   * @throws JOSEException If there is an issue creating/manipulating a key set
+   */
+  public static OctetSequenceKey getSecretKey(
+          JWSAlgorithm securityAlg,
+          IdpKeyStoreData keyStoreData) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    return get(SECRETS, securityAlg, keyStoreData, content -> {
+      OctetSequenceKey key = content == null ? null
+              : IdpKeyStoreAccessor.readSecretKey(securityAlg, keyStoreData, content);
+      if (key == null) {
+        // Creates the KeyStore file and/or the secret entry; the caller re-reads the file afterwards
+        IdpKeyStoreAccessor.accessSecretKey(securityAlg, keyStoreData);
+      }
+      return key;
+    });
+  }
+
+  /**
+   * Function for removing a key, key ring and secret from memory so that the next lookup reads the
+   * KeyStore file
+   *
+   * @param keyStoreData {@link IdpKeyStoreData} of the key to remove
+   */
+  public static void invalidate(IdpKeyStoreData keyStoreData) {
+    KEYS.remove(keyStoreData);
+    RINGS.remove(keyStoreData);
+    SECRETS.remove(keyStoreData);
+  }
+
+  private static <T> T get(
+          Map<IdpKeyStoreData, CachedValue<T>> cache,
+          JWSAlgorithm securityAlg,
+          IdpKeyStoreData keyStoreData,
+          Loader<T> loader) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    Path path = getStorePath(keyStoreData);
+    CachedValue<T> cached = cache.get(keyStoreData);
+    if (cached != null && cached.isCurrent(securityAlg, readStamp(path))) {
+      return cached.value();
+    }
+    if (cached != null && cached.algorithm().equals(securityAlg)) {
+      // Keep serving the previous value while another thread (e.g. key rotation) reloads
+      if (!RELOAD_LOCK.tryLock()) {
+        return cached.value();
+      }
+    } else {
+      RELOAD_LOCK.lock();
+    }
+    try {
+      return reload(cache, securityAlg, keyStoreData, path, loader);
+    } finally {
+      RELOAD_LOCK.unlock();
+    }
+  }
+
+  /**
+   * Helper function for reloading a cached value; must be called while holding the reload lock
+   */
+  private static <T> T reload(
+          Map<IdpKeyStoreData, CachedValue<T>> cache,
+          JWSAlgorithm securityAlg,
+          IdpKeyStoreData keyStoreData,
+          Path path,
+          Loader<T> loader) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    while (true) {
+      // Another thread may have finished the reload while this one was waiting on the lock
+      CachedValue<T> cached = cache.get(keyStoreData);
+      FileStamp stamp = readStamp(path);
+      if (cached != null && cached.isCurrent(securityAlg, stamp)) {
+        return cached.value();
+      }
+      byte[] content = null;
+      byte[] digest = new byte[0];
+      if (stamp != null) {
+        try {
+          content = Files.readAllBytes(path);
+        } catch (NoSuchFileException ex) {
+          continue;
+        }
+        digest = MessageDigest.getInstance(DIGEST_ALG).digest(content);
+        if (!stamp.equals(readStamp(path))) {
+          // The file was replaced while it was being read
+          continue;
+        }
+        if (cached != null && cached.algorithm().equals(securityAlg)
+                && MessageDigest.isEqual(cached.digest(), digest)) {
+          // Only the file metadata changed; keep the decoded value
+          cache.put(keyStoreData, new CachedValue<>(securityAlg, cached.value(), stamp, digest));
+          return cached.value();
+        }
+      }
+      T value = loader.load(content);
+      if (value == null) {
+        // The loader changed the KeyStore file; read it again
+        continue;
+      }
+      cache.put(keyStoreData, new CachedValue<>(securityAlg, value, stamp, digest));
+      return value;
+    }
+  }
+
+  private static Path getStorePath(IdpKeyStoreData keyStoreData) {
+    return Paths.get(keyStoreData.getStoreDir(), keyStoreData.getStoreFileName());
+  }
+
+  private static FileStamp readStamp(Path path) throws IOException {
+    try {
+      BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+      return new FileStamp(attrs.lastModifiedTime().toMillis(), attrs.size());
+    } catch (NoSuchFileException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Modification time and size of the KeyStore file at the time it was read
+   */
+  private record FileStamp(long lastModified, long size) {
+  }
+
+  /**
+   * Decoded value along with the state of the KeyStore file it was decoded from
+   */
+  private record CachedValue<T>(JWSAlgorithm algorithm, T value, FileStamp stamp, byte[] digest) {
+
+    boolean isCurrent(JWSAlgorithm securityAlg, FileStamp currentStamp) {
+      return algorithm.equals(securityAlg) && Objects.equals(stamp, currentStamp);
+    }
+  }
+
+  /**
+   * Decodes the raw bytes of the KeyStore file, or null if the file does not exist
+   */
+  @FunctionalInterface
+  private interface Loader<T> {
+    T load(
+            byte[] content) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException;
+  }
+
+}
@@ -0,0 +1,127 @@
+package com.sourceware.labs.idp.keystore;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.crypto.MACVerifier;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+
+/**
+ * Enum for the symmetric (HMAC) algorithms of the internal service token profile <br />
+ * Service tokens never leave the internal network and are only verified by the IDP and services
+ * holding the same secret, so a MAC is used instead of a signature. These keys are never added to
+ * an {@link IdpKeyRing} or published in the JWK Set. Supported:
+ * <ul>
+ * <li>- HS256: HMAC with SHA-256 and a 256 bit secret</li>
+ * <li>- HS512: HMAC with SHA-512 and a 512 bit secret</li>
+ * </ul>
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public enum IdpSecretKeyAlgorithm {
+
+  HS256(JWSAlgorithm.HS256, "HmacSHA256", 256),
+  HS512(JWSAlgorithm.HS512, "HmacSHA512", 512);
+
+  private final JWSAlgorithm jwsAlgorithm;
+
+  private final String keyAlgorithm;
+
+  private final int keySize;
+
+  private IdpSecretKeyAlgorithm(JWSAlgorithm jwsAlgorithm, String keyAlgorithm, int keySize) {
+    this.jwsAlgorithm = jwsAlgorithm;
+    this.keyAlgorithm = keyAlgorithm;
+    this.keySize = keySize;
+  }
+
+  /**
+   * Function for generating a new random secret of the algorithm's full key size
+   *
+   * @return {@link SecretKey} that can be stored in the KeyStore
+   * @throws NoSuchAlgorithmException If no strong random number generator is available
+   */
+  public SecretKey generateSecretKey() throws NoSuchAlgorithmException {
+    byte[] secret = new byte[keySize / 8];
+    SecureRandom.getInstanceStrong().nextBytes(secret);
+    return new SecretKeySpec(secret, keyAlgorithm);
+  }
+
+  /**
+   * Function for converting a secret read from the KeyStore into a JWK
+   *
+   * @param secretKey {@link SecretKey} from the KeyStore
+   * @param keyId {@link String} ID of the key
+   * @return {@link OctetSequenceKey} representing the secret
+   */
+  public OctetSequenceKey toJwk(SecretKey secretKey, String keyId) {
+    return new OctetSequenceKey.Builder(secretKey).algorithm(jwsAlgorithm)
+            .keyID(keyId)
+            .keyUse(KeyUse.SIGNATURE)
+            .build();
+  }
+
+  /**
+   * Function for creating a MAC signer for a secret
+   *
+   * @param key {@link JWK} secret of the algorithm
+   * @return {@link JWSSigner} for the secret
+   * @throws JOSEException If the JWK is not a secret or is shorter than the algorithm requires
+   */
+  public JWSSigner createSigner(JWK key) throws JOSEException {
+    return new MACSigner(key.toOctetSequenceKey());
+  }
+
+  /**
+   * Function for creating a MAC verifier for a secret
+   *
+   * @param key {@link JWK} secret of the algorithm
+   * @return {@link JWSVerifier} for the secret
+   * @throws JOSEException If the JWK is not a secret or is shorter than the algorithm requires
+   */
+  public JWSVerifier createVerifier(JWK key) throws JOSEException {
+    return new MACVerifier(key.toOctetSequenceKey());
+  }
+
+  /**
+   * @return {@link JWSAlgorithm} placed in token headers
+   */
+  public JWSAlgorithm getJwsAlgorithm() {
+    return jwsAlgorithm;
+  }
+
+  /**
+   * @return {@link String} JCA MAC algorithm name
+   */
+  public String getKeyAlgorithm() {
+    return keyAlgorithm;
+  }
+
+  /**
+   * Function for getting the supported algorithm matching a JWS algorithm
+   *
+   * @param jwsAlgorithm {@link JWSAlgorithm} to look up
+   * @return {@link IdpSecretKeyAlgorithm} matching the JWS algorithm
+   * @throws NoSuchAlgorithmException If the JWS algorithm is not a supported HMAC algorithm
+   */
+  public static IdpSecretKeyAlgorithm of(
+          JWSAlgorithm jwsAlgorithm) throws NoSuchAlgorithmException {
+    for (IdpSecretKeyAlgorithm alg : values()) {
+      if (alg.jwsAlgorithm.equals(jwsAlgorithm)) {
+        return alg;
+      }
+    }
+    throw new NoSuchAlgorithmException("Unsupported service token algorithm: " + jwsAlgorithm);
+  }
+
+}
@@ -0,0 +1,122 @@
+package com.sourceware.labs.idp.keystore;
+
+import java.io.IOException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.bouncycastle.operator.OperatorCreationException;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+
+/**
+ * Class for holding the applications that opted into the internal service token profile along with
+ * where each application's HMAC secret is stored <br />
+ * Every application gets its own secret stored in the IDP Java Keystore under
+ * "&lt;service alias&gt;-&lt;application&gt;-&lt;algorithm&gt;" so a leaked secret only affects
+ * one application. Applications that did not opt in keep using the asymmetric token keys.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class IdpServiceKeys {
+
+  // KeyStore data of each application's secret keyed by application name
+  private final Map<String, IdpKeyStoreData> keyStoreData;
+
+  // HMAC algorithm of each application keyed by application name
+  private final Map<String, JWSAlgorithm> algorithms;
+
+  /**
+   * @param algorithms HMAC algorithm keyed by the name of each application that opted in
+   * @param tokenKeyStoreData {@link IdpKeyStoreData} of the token keys; the secrets are stored in
+   *          the same KeyStore with the same key password
+   * @param serviceAlias {@link String} alias prefix of the secrets
+   * @throws NoSuchAlgorithmException If an algorithm is not a supported HMAC algorithm
+   */
+  public IdpServiceKeys(
+          Map<String, JWSAlgorithm> algorithms,
+          IdpKeyStoreData tokenKeyStoreData,
+          String serviceAlias) throws NoSuchAlgorithmException {
+    super();
+    Map<String, IdpKeyStoreData> data = new HashMap<>();
+    for (Map.Entry<String, JWSAlgorithm> entry : algorithms.entrySet()) {
+      IdpSecretKeyAlgorithm.of(entry.getValue());
+      // Lower case since PKCS12 aliases are
+      String keyId = (entry.getKey() + "-" + entry.getValue().getName())
+              .toLowerCase(Locale.ENGLISH);
+      data.put(
+              entry.getKey(),
+              new IdpKeyStoreData(
+                      tokenKeyStoreData.getStoreDir(),
+                      tokenKeyStoreData.getStoreFileName(),
+                      tokenKeyStoreData.getStorePassword(),
+                      serviceAlias + "-" + keyId,
+                      tokenKeyStoreData.getKeyPassword(),
+                      keyId));
+    }
+    this.keyStoreData = Map.copyOf(data);
+    this.algorithms = Map.copyOf(algorithms);
+  }
+
+  /**
+   * @param applicationName {@link String} name of the application
+   * @return true if the application's tokens are HMAC service tokens
+   */
+  public boolean isEnabled(String applicationName) {
+    return algorithms.containsKey(applicationName);
+  }
+
+  /**
+   * Function for getting the HMAC secret of an application, creating it if it does not exist yet
+   *
+   * @param applicationName {@link String} name of the application
+   * @return {@link OctetSequenceKey} of the application or null if it did not opt in
+   * @throws KeyStoreException If there is an issue accessing the keystore
+   * @throws NoSuchAlgorithmException If the algorithm is not a supported HMAC algorithm
+   * @throws CertificateException If a certificate in the KeyStore could not be loaded
+   * @throws UnrecoverableEntryException If the secret entry in the KeyStore is no longer able to
+   *           be accessed due to error/corruption
+   * @throws OperatorCreationException If there is an issue creating a certificate writer
+   * @throws IOException If there is an issue accessing the KeyStore file using I/O operations
+   * @throws JOSEException If there is an issue creating/manipulating a key set
+   */
+  public OctetSequenceKey getKey(
+          String applicationName) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    IdpKeyStoreData data = keyStoreData.get(applicationName);
+    return data == null ? null
+            : IdpKeyStoreCache.getSecretKey(algorithms.get(applicationName), data);
+  }
+
+  /**
+   * Function for creating the secret of every application that opted in so that the first token
+   * request does not have to
+   *
+   * @throws KeyStoreException If there is an issue accessing the keystore
+   * @throws NoSuchAlgorithmException If the algorithm is not a supported HMAC algorithm
+   * @throws CertificateException If a certificate in the KeyStore could not be loaded
+   * @throws UnrecoverableEntryException If the secret entry in the KeyStore is no longer able to
+   *           be accessed due to error/corruption
+   * @throws OperatorCreationException If there is an issue creating a certificate writer
+   * @throws IOException If there is an issue accessing the KeyStore file using I/O operations
+   * @throws JOSEException If there is an issue creating/manipulating a key set
+   */
+  public void prepareKeys() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    for (String applicationName : algorithms.keySet()) {
+      getKey(applicationName);
+    }
+  }
+
+  /**
+   * @return HMAC algorithm keyed by the name of each application that opted in
+   */
+  public Map<String, JWSAlgorithm> getAlgorithms() {
+    return algorithms;
+  }
+
+}
@@ -0,0 +1,57 @@
+package com.sourceware.labs.idp.mail;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.MailSender;
+import org.springframework.mail.SimpleMailMessage;
+
+/**
+ * {@link MailSender} that sends batches of messages and reports the outcome of every message by its
+ * position in the batch <br />
+ * The failed messages of a {@link MailSendException} are keyed by message equality, so equal
+ * messages of one batch, e.g. a repeated notification, would share a single outcome there;
+ * {@link #sendEach(List)} keeps the outcome of each of them apart.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public interface BulkMailSender extends MailSender {
+
+  /**
+   * Function for sending messages in as few calls to the provider as possible; a message that
+   * fails does not fail the others
+   *
+   * @param simpleMessages Messages to send
+   * @return Error of each message at the position of the message, null for every message that was
+   *         sent
+   */
+  List<Exception> sendEach(List<SimpleMailMessage> simpleMessages);
+
+  @Override
+  default void send(SimpleMailMessage simpleMessage) throws MailException {
+    send(new SimpleMailMessage[] { simpleMessage });
+  }
+
+  /**
+   * @throws MailSendException If any message was not sent, holding every failed message and its
+   *           error; the other messages were sent
+   */
+  @Override
+  default void send(SimpleMailMessage... simpleMessages) throws MailException {
+    List<Exception> errors = sendEach(Arrays.asList(simpleMessages));
+    Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+    for (int i = 0; i < simpleMessages.length; i++) {
+      if (errors.get(i) != null) {
+        failedMessages.put(simpleMessages[i], errors.get(i));
+      }
+    }
+    if (!failedMessages.isEmpty()) {
+      throw new MailSendException(failedMessages);
+    }
+  }
+
+}
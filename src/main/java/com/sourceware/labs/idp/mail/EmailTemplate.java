@@ -0,0 +1,33 @@
+package com.sourceware.labs.idp.mail;
+
+/**
+ * Emails sent by the IDP; each one is a FreeMarker template under templates/email that is compiled
+ * once at startup
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public enum EmailTemplate {
+  // Variables: firstName, userId, verificationToken
+  Verification("verification.ftl", "Sourceware Labs IDP User Verification"),
+  // Variables: firstName, recoveryCode, expiresInMinutes
+  Recovery("recovery.ftl", "Sourceware Labs IDP Account Recovery"),
+  // Variables: firstName, message
+  Notification("notification.ftl", "Sourceware Labs IDP Notification");
+
+  private final String fileName;
+
+  private final String subject;
+
+  private EmailTemplate(String fileName, String subject) {
+    this.fileName = fileName;
+    this.subject = subject;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  public String getSubject() {
+    return subject;
+  }
+}
@@ -0,0 +1,151 @@
+package com.sourceware.labs.idp.mail;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+
+import com.google.gson.Gson;
+
+/**
+ * In-process stand-in for SES that sends nothing, for running and load testing the email path
+ * offline <br />
+ * Messages are handled like the SES bulk API handles them: up to 50 per simulated call, each call
+ * taking the configured latency. Each message fails with the configured probability. Messages over
+ * the configured send rate are refused with a {@link MailThrottledException}, as SES refuses
+ * messages over the account's maximum send rate. Every message and its outcome can be recorded to
+ * a file as one JSON object per line.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class LocalMailSender implements BulkMailSender {
+
+  private final Duration latency;
+
+  private final double errorRate;
+
+  private final int maxSendRate;
+
+  private final Path recordFile;
+
+  private final Gson gson = new Gson();
+
+  // Guards the send rate window and the record file; a lock so waiting virtual threads unmount
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private long windowStart;
+
+  private int windowSends;
+
+  /**
+   * @param latency {@link Duration} each simulated call to SES takes
+   * @param errorRate Probability between 0 and 1 that a message fails
+   * @param maxSendRate Maximum messages accepted per second, 0 for no limit
+   * @param recordFile {@link Path} of the file to append sent messages to, null to not record them
+   */
+  public LocalMailSender(Duration latency, double errorRate, int maxSendRate, Path recordFile) {
+    super();
+    if (errorRate < 0 || errorRate > 1) {
+      throw new IllegalArgumentException("Error rate must be between 0 and 1: " + errorRate);
+    }
+    this.latency = latency;
+    this.errorRate = errorRate;
+    this.maxSendRate = maxSendRate;
+    this.recordFile = recordFile;
+    this.windowStart = System.nanoTime() - 1_000_000_000L;
+  }
+
+  @Override
+  public List<Exception> sendEach(List<SimpleMailMessage> simpleMessages) {
+    Exception[] errors = new Exception[simpleMessages.size()];
+    int calls = (simpleMessages.size() + SesBulkMailSender.MAX_DESTINATIONS - 1)
+            / SesBulkMailSender.MAX_DESTINATIONS;
+    try {
+      Thread.sleep(latency.multipliedBy(calls));
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      Arrays.fill(errors, new MailSendException("Interrupted while sending", ex));
+      return Arrays.asList(errors);
+    }
+    int accepted = acquire(simpleMessages.size());
+    for (int i = 0; i < simpleMessages.size(); i++) {
+      if (i >= accepted) {
+        errors[i] = new MailThrottledException("Maximum sending rate exceeded");
+      } else if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+        errors[i] = new MailSendException("Injected failure");
+      }
+    }
+    record(simpleMessages, errors);
+    return Arrays.asList(errors);
+  }
+
+  /**
+   * Helper function for taking up to the requested number of sends from the current one second
+   * window
+   *
+   * @return Number of messages that fit the send rate
+   */
+  private int acquire(int requested) {
+    if (maxSendRate <= 0) {
+      return requested;
+    }
+    lock.lock();
+    try {
+      long now = System.nanoTime();
+      if (now - windowStart >= 1_000_000_000L) {
+        windowStart = now;
+        windowSends = 0;
+      }
+      int accepted = Math.min(requested, maxSendRate - windowSends);
+      windowSends += accepted;
+      return accepted;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void record(List<SimpleMailMessage> messages, Exception[] errors) {
+    if (recordFile == null) {
+      return;
+    }
+    String time = Instant.now().toString();
+    lock.lock();
+    try (BufferedWriter writer = Files.newBufferedWriter(
+            recordFile,
+            StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND)) {
+      for (int i = 0; i < messages.size(); i++) {
+        SimpleMailMessage message = messages.get(i);
+        Exception error = errors[i];
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("time", time);
+        line.put("from", message.getFrom());
+        line.put("to", message.getTo() == null ? List.of() : List.of(message.getTo()));
+        line.put("subject", message.getSubject());
+        line.put("text", message.getText());
+        line.put("result", error == null ? "Sent" : error.getMessage());
+        writer.write(gson.toJson(line));
+        writer.newLine();
+      }
+    } catch (IOException ex) {
+      throw new MailSendException("Failed to record messages to " + recordFile, ex);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
@@ -0,0 +1,223 @@
+package com.sourceware.labs.idp.mail;
+
+import java.time.Duration;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Circuit breaker for calls to the email provider <br />
+ * The outcome of the last calls is kept in a sliding window. Once the window holds the minimum
+ * number of calls and either the share of failed calls or the share of calls slower than the slow
+ * call threshold reaches its limit, the circuit opens and calls are refused without reaching the
+ * provider. After the open duration a single trial call is let through: if it succeeds in time the
+ * circuit closes with an empty window, otherwise it opens again.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class MailCircuitBreaker {
+
+  /**
+   * States of the circuit
+   */
+  public enum State {
+    Closed, Open, HalfOpen
+  }
+
+  private final int minimumCalls;
+
+  private final double failureRateThreshold;
+
+  private final Duration slowCallThreshold;
+
+  private final double slowCallRateThreshold;
+
+  private final Duration openDuration;
+
+  private final BiConsumer<State, State> transitionListener;
+
+  // A lock so that virtual threads waiting for it unmount
+  private final ReentrantLock lock = new ReentrantLock();
+
+  // Ring buffers of the outcomes in the window, the oldest at position once the window is full
+  private final boolean[] failed;
+
+  private final boolean[] slow;
+
+  private int position;
+
+  private int calls;
+
+  private int failedCalls;
+
+  private int slowCalls;
+
+  private volatile State state = State.Closed;
+
+  private long openedAt;
+
+  private boolean trialInFlight;
+
+  /**
+   * @param windowSize Number of latest calls the rates are computed over
+   * @param minimumCalls Number of calls the window must hold before the circuit can open
+   * @param failureRateThreshold Percentage of failed calls that opens the circuit
+   * @param slowCallThreshold {@link Duration} above which a call counts as slow
+   * @param slowCallRateThreshold Percentage of slow calls that opens the circuit
+   * @param openDuration {@link Duration} the circuit stays open before a trial call
+   * @param transitionListener Called with the previous and the new state on every transition
+   */
+  public MailCircuitBreaker(
+          int windowSize,
+          int minimumCalls,
+          double failureRateThreshold,
+          Duration slowCallThreshold,
+          double slowCallRateThreshold,
+          Duration openDuration,
+          BiConsumer<State, State> transitionListener) {
+    super();
+    if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+      throw new IllegalArgumentException(
+              "Minimum calls must be between 1 and the window size: " + minimumCalls + " of "
+                      + windowSize);
+    }
+    this.minimumCalls = minimumCalls;
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallThreshold = slowCallThreshold;
+    this.slowCallRateThreshold = slowCallRateThreshold;
+    this.openDuration = openDuration;
+    this.transitionListener = transitionListener;
+    this.failed = new boolean[windowSize];
+    this.slow = new boolean[windowSize];
+  }
+
+  /**
+   * Function for asking whether a call may be made; a permitted call must be followed by
+   * {@link #onResult(Duration, boolean)} or, if it was not made, by {@link #release()}
+   *
+   * @return true if the call may be made, false if the circuit refuses it
+   */
+  public boolean tryAcquire() {
+    lock.lock();
+    try {
+      if (state == State.Open) {
+        if (System.nanoTime() - openedAt < openDuration.toNanos()) {
+          return false;
+        }
+        transition(State.HalfOpen);
+      }
+      if (state == State.HalfOpen) {
+        if (trialInFlight) {
+          return false;
+        }
+        trialInFlight = true;
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return true if a call would currently be permitted, without taking the permission
+   */
+  public boolean isCallPermitted() {
+    lock.lock();
+    try {
+      return switch (state) {
+        case Closed -> true;
+        case Open -> System.nanoTime() - openedAt >= openDuration.toNanos();
+        case HalfOpen -> !trialInFlight;
+      };
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Function for giving back the permission of a call that was not made
+   */
+  public void release() {
+    lock.lock();
+    try {
+      if (state == State.HalfOpen) {
+        trialInFlight = false;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Function for recording the outcome of a permitted call
+   *
+   * @param elapsed {@link Duration} the call took
+   * @param failure true if the provider failed the call
+   */
+  public void onResult(Duration elapsed, boolean failure) {
+    boolean slowCall = elapsed.compareTo(slowCallThreshold) > 0;
+    lock.lock();
+    try {
+      if (state == State.HalfOpen) {
+        trialInFlight = false;
+        if (failure || slowCall) {
+          open();
+        } else {
+          clearWindow();
+          transition(State.Closed);
+        }
+      } else if (state == State.Closed) {
+        record(failure, slowCall);
+        if (calls >= minimumCalls && (failedCalls * 100.0 / calls >= failureRateThreshold
+                || slowCalls * 100.0 / calls >= slowCallRateThreshold)) {
+          open();
+        }
+      }
+      // Calls that were made before the circuit opened do not change it
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return {@link State} of the circuit
+   */
+  public State getState() {
+    return state;
+  }
+
+  private void record(boolean failure, boolean slowCall) {
+    if (calls == failed.length) {
+      failedCalls -= failed[position] ? 1 : 0;
+      slowCalls -= slow[position] ? 1 : 0;
+    } else {
+      calls++;
+    }
+    failed[position] = failure;
+    slow[position] = slowCall;
+    failedCalls += failure ? 1 : 0;
+    slowCalls += slowCall ? 1 : 0;
+    position = (position + 1) % failed.length;
+  }
+
+  private void open() {
+    openedAt = System.nanoTime();
+    clearWindow();
+    transition(State.Open);
+  }
+
+  private void clearWindow() {
+    position = 0;
+    calls = 0;
+    failedCalls = 0;
+    slowCalls = 0;
+  }
+
+  private void transition(State next) {
+    State previous = state;
+    state = next;
+    if (previous != next && transitionListener != null) {
+      transitionListener.accept(previous, next);
+    }
+  }
+
+}
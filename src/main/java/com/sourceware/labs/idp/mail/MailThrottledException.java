@@ -0,0 +1,23 @@
+package com.sourceware.labs.idp.mail;
+
+import org.springframework.mail.MailSendException;
+
+/**
+ * Exception for a message the email provider refused because the account's sending rate was
+ * exceeded; the message can be sent again once the rate allows it
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class MailThrottledException extends MailSendException {
+
+  private static final long serialVersionUID = 1L;
+
+  public MailThrottledException(String msg) {
+    super(msg);
+  }
+
+  public MailThrottledException(String msg, Throwable cause) {
+    super(msg, cause);
+  }
+
+}
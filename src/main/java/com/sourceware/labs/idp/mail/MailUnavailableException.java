@@ -0,0 +1,23 @@
+package com.sourceware.labs.idp.mail;
+
+import org.springframework.mail.MailSendException;
+
+/**
+ * Exception for a message that was not handed to the email provider because its circuit is open
+ * or the email sending pool is saturated; the message can be sent again once the provider recovers
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class MailUnavailableException extends MailSendException {
+
+  private static final long serialVersionUID = 1L;
+
+  public MailUnavailableException(String msg) {
+    super(msg);
+  }
+
+  public MailUnavailableException(String msg, Throwable cause) {
+    super(msg, cause);
+  }
+
+}
@@ -0,0 +1,171 @@
+package com.sourceware.labs.idp.mail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket that paces sends to the email provider's maximum send rate <br />
+ * Tokens refill continuously at the current rate and up to one second's worth can be saved for a
+ * burst, as SES allows; a caller taking more tokens than are saved waits for the rest to refill.
+ * The current rate adapts to the provider: every time it throttles a send the rate is halved, down
+ * to one message per second, and every second without throttling it grows back by a tenth of the
+ * maximum rate, so sends settle just under the rate the provider accepts. A maximum rate of 0 or
+ * less disables limiting.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class SendRateLimiter {
+
+  private static final double MIN_RATE = 1;
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  // A lock so that virtual threads waiting for it unmount
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private double maxRate;
+
+  private double rate;
+
+  private double tokens;
+
+  private long lastRefill;
+
+  private long lastAdjustment;
+
+  /**
+   * @param maxRate Maximum messages per second the provider accepts, 0 or less for no limit
+   */
+  public SendRateLimiter(double maxRate) {
+    super();
+    this.maxRate = maxRate;
+    this.rate = maxRate;
+    this.tokens = maxRate > 0 ? Math.max(MIN_RATE, maxRate) : 0;
+    this.lastRefill = System.nanoTime();
+    this.lastAdjustment = lastRefill;
+  }
+
+  /**
+   * @return Number of messages that can be sent at once without waiting when the bucket is full,
+   *         {@link Integer#MAX_VALUE} if sends are not limited
+   */
+  public int getBurst() {
+    lock.lock();
+    try {
+      refill(System.nanoTime());
+      return maxRate <= 0 ? Integer.MAX_VALUE : (int) Math.floor(capacity());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Function for taking tokens for a number of messages, waiting until the tokens they lack have
+   * refilled; callers wait in the order they asked, as each one's wait includes the tokens the
+   * earlier callers still owe
+   *
+   * @param permits Number of messages to send
+   * @throws InterruptedException If interrupted while waiting for the tokens
+   */
+  public void acquire(int permits) throws InterruptedException {
+    long wait;
+    lock.lock();
+    try {
+      if (maxRate <= 0) {
+        return;
+      }
+      refill(System.nanoTime());
+      tokens -= permits;
+      wait = tokens < 0 ? (long) Math.ceil(-tokens / rate * SECOND) : 0;
+    } finally {
+      lock.unlock();
+    }
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+
+  /**
+   * Function for reporting that the provider throttled a send; halves the current rate
+   */
+  public void onThrottled() {
+    lock.lock();
+    try {
+      if (maxRate <= 0) {
+        return;
+      }
+      long now = System.nanoTime();
+      refill(now);
+      rate = Math.max(Math.min(MIN_RATE, maxRate), rate / 2);
+      tokens = Math.min(tokens, 0);
+      lastAdjustment = now;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Function for changing the maximum rate, e.g. once the provider raised the account's quota
+   *
+   * @param maxRate Maximum messages per second the provider accepts, 0 or less for no limit
+   */
+  public void setMaxRate(double maxRate) {
+    lock.lock();
+    try {
+      refill(System.nanoTime());
+      this.maxRate = maxRate;
+      this.rate = maxRate <= 0 || rate <= 0 ? maxRate : Math.min(rate, maxRate);
+      this.tokens = Math.min(tokens, capacity());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return Maximum messages per second the provider accepts, 0 or less for no limit
+   */
+  public double getMaxRate() {
+    lock.lock();
+    try {
+      return maxRate;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return Messages per second currently sent at most, 0 or less for no limit
+   */
+  public double getRate() {
+    lock.lock();
+    try {
+      refill(System.nanoTime());
+      return rate;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Helper function for adding the tokens earned since the last refill and growing the rate back
+   * for every second without throttling; must be called holding the lock
+   */
+  private void refill(long now) {
+    if (maxRate <= 0) {
+      lastRefill = now;
+      return;
+    }
+    tokens = Math.min(capacity(), tokens + (now - lastRefill) * rate / SECOND);
+    lastRefill = now;
+    long seconds = (now - lastAdjustment) / SECOND;
+    if (seconds > 0) {
+      rate = Math.min(maxRate, rate + seconds * maxRate / 10);
+      lastAdjustment += seconds * SECOND;
+    }
+  }
+
+  private double capacity() {
+    return Math.max(MIN_RATE, rate);
+  }
+
+}
@@ -0,0 +1,186 @@
+package com.sourceware.labs.idp.mail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.MailSender;
+import org.springframework.mail.SimpleMailMessage;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.simpleemail.AmazonSimpleEmailService;
+import com.amazonaws.services.simpleemail.model.AlreadyExistsException;
+import com.amazonaws.services.simpleemail.model.BulkEmailDestination;
+import com.amazonaws.services.simpleemail.model.BulkEmailDestinationStatus;
+import com.amazonaws.services.simpleemail.model.BulkEmailStatus;
+import com.amazonaws.services.simpleemail.model.CreateTemplateRequest;
+import com.amazonaws.services.simpleemail.model.Destination;
+import com.amazonaws.services.simpleemail.model.GetTemplateRequest;
+import com.amazonaws.services.simpleemail.model.SendBulkTemplatedEmailRequest;
+import com.amazonaws.services.simpleemail.model.SendBulkTemplatedEmailResult;
+import com.amazonaws.services.simpleemail.model.Template;
+import com.amazonaws.services.simpleemail.model.TemplateDoesNotExistException;
+import com.google.gson.Gson;
+
+/**
+ * {@link MailSender} that sends messages through the SES bulk templated API, up to 50 messages per
+ * API call instead of one call per message <br />
+ * Messages are rendered by the application, so every message is sent through a pass-through SES
+ * template whose subject and text are the message's own; the template is created on first use. A
+ * message that SES rejects does not fail the others: SES reports a status per destination, in the
+ * order of the destinations, and each rejected message gets its own error, a
+ * {@link MailThrottledException} if the send rate was exceeded.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class SesBulkMailSender implements BulkMailSender {
+
+  // Maximum number of destinations per SendBulkTemplatedEmail call
+  public static final int MAX_DESTINATIONS = 50;
+
+  private static final String SUCCESS = BulkEmailStatus.Success.toString();
+
+  private static final String THROTTLED = BulkEmailStatus.AccountThrottled.toString();
+
+  // Error code of a call refused because the maximum send rate was exceeded
+  private static final String THROTTLING = "Throttling";
+
+  private final AmazonSimpleEmailService amazonSimpleEmailService;
+
+  private final String templateName;
+
+  private final Gson gson = new Gson();
+
+  private volatile boolean templateExists;
+
+  /**
+   * @param amazonSimpleEmailService {@link AmazonSimpleEmailService} to send through
+   * @param templateName {@link String} name of the pass-through template in SES
+   */
+  public SesBulkMailSender(AmazonSimpleEmailService amazonSimpleEmailService, String templateName) {
+    super();
+    this.amazonSimpleEmailService = amazonSimpleEmailService;
+    this.templateName = templateName;
+  }
+
+  /**
+   * Function for sending messages in as few API calls as possible; messages are grouped by their
+   * sender and reply-to addresses because one call has a single source and reply-to
+   */
+  @Override
+  public List<Exception> sendEach(List<SimpleMailMessage> simpleMessages) {
+    Exception[] errors = new Exception[simpleMessages.size()];
+    try {
+      ensureTemplate();
+    } catch (AmazonClientException ex) {
+      Arrays.fill(errors, ex);
+      return Arrays.asList(errors);
+    }
+    // Positions of the messages rather than the messages, as equal messages have their own outcome
+    Map<List<String>, List<Integer>> bySender = IntStream.range(0, simpleMessages.size())
+            .boxed()
+            .collect(
+                    Collectors.groupingBy(
+                            i -> Arrays.asList(
+                                    simpleMessages.get(i).getFrom(),
+                                    simpleMessages.get(i).getReplyTo()),
+                            LinkedHashMap::new,
+                            Collectors.toList()));
+    for (List<Integer> positions : bySender.values()) {
+      for (int i = 0; i < positions.size(); i += MAX_DESTINATIONS) {
+        List<Integer> chunk = positions
+                .subList(i, Math.min(positions.size(), i + MAX_DESTINATIONS));
+        sendChunk(chunk.stream().map(simpleMessages::get).toList(), chunk, errors);
+      }
+    }
+    return Arrays.asList(errors);
+  }
+
+  private void sendChunk(
+          List<SimpleMailMessage> messages,
+          List<Integer> positions,
+          Exception[] errors) {
+    List<BulkEmailDestination> destinations = new ArrayList<>(messages.size());
+    for (SimpleMailMessage message : messages) {
+      Destination destination = new Destination().withToAddresses(addresses(message.getTo()))
+              .withCcAddresses(addresses(message.getCc()))
+              .withBccAddresses(addresses(message.getBcc()));
+      destinations.add(
+              new BulkEmailDestination().withDestination(destination)
+                      .withReplacementTemplateData(
+                              gson.toJson(
+                                      Map.of(
+                                              "subject",
+                                              String.valueOf(message.getSubject()),
+                                              "body",
+                                              String.valueOf(message.getText())))));
+    }
+    SendBulkTemplatedEmailRequest request = new SendBulkTemplatedEmailRequest()
+            .withSource(messages.get(0).getFrom())
+            .withTemplate(templateName)
+            .withDefaultTemplateData("{\"subject\":\"\",\"body\":\"\"}")
+            .withDestinations(destinations);
+    if (messages.get(0).getReplyTo() != null) {
+      request.withReplyToAddresses(messages.get(0).getReplyTo());
+    }
+    SendBulkTemplatedEmailResult result;
+    try {
+      result = amazonSimpleEmailService.sendBulkTemplatedEmail(request);
+    } catch (AmazonClientException ex) {
+      Exception error = isThrottling(ex) ? new MailThrottledException(ex.getMessage(), ex) : ex;
+      positions.forEach(position -> errors[position] = error);
+      return;
+    }
+    // Statuses are in the order of the destinations
+    List<BulkEmailDestinationStatus> statuses = result.getStatus();
+    for (int i = 0; i < messages.size(); i++) {
+      BulkEmailDestinationStatus status = i < statuses.size() ? statuses.get(i) : null;
+      if (status == null) {
+        errors[positions.get(i)] = new MailSendException("No status returned");
+      } else if (THROTTLED.equals(status.getStatus())) {
+        errors[positions.get(i)] = new MailThrottledException(
+                status.getStatus() + ": " + status.getError());
+      } else if (!SUCCESS.equals(status.getStatus())) {
+        errors[positions.get(i)] = new MailSendException(
+                status.getStatus() + ": " + status.getError());
+      }
+    }
+  }
+
+  private void ensureTemplate() {
+    if (templateExists) {
+      return;
+    }
+    try {
+      amazonSimpleEmailService.getTemplate(new GetTemplateRequest().withTemplateName(templateName));
+    } catch (TemplateDoesNotExistException ex) {
+      try {
+        // Triple braces so the rendered subject and text are not HTML escaped
+        amazonSimpleEmailService.createTemplate(
+                new CreateTemplateRequest().withTemplate(
+                        new Template().withTemplateName(templateName)
+                                .withSubjectPart("{{{subject}}}")
+                                .withTextPart("{{{body}}}")));
+      } catch (AlreadyExistsException exists) {
+        // Created by another instance in the meantime
+      }
+    }
+    templateExists = true;
+  }
+
+  private static boolean isThrottling(AmazonClientException ex) {
+    return ex instanceof AmazonServiceException serviceEx
+            && THROTTLING.equals(serviceEx.getErrorCode());
+  }
+
+  private static List<String> addresses(String[] addresses) {
+    return addresses == null ? List.of() : List.of(addresses);
+  }
+
+}
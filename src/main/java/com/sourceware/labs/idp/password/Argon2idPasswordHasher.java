@@ -0,0 +1,171 @@
+package com.sourceware.labs.idp.password;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+
+/**
+ * Argon2id password hashing (RFC 9106) using BouncyCastle <br />
+ * The cost is the number of iterations; the memory per hash stays fixed. Hashes use the PHC string
+ * format:
+ * $argon2id$v=19$m=&lt;memory KiB&gt;,t=&lt;iterations&gt;,p=&lt;parallelism&gt;$&lt;salt&gt;$&lt;hash&gt;
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class Argon2idPasswordHasher implements PasswordHasher {
+
+  public static final String ALGORITHM = "argon2id";
+
+  private static final String PREFIX = "$argon2id$";
+
+  private static final int SALT_BYTES = 16;
+
+  private static final int HASH_BYTES = 32;
+
+  private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+
+  private static final Base64.Decoder DECODER = Base64.getDecoder();
+
+  private final SecureRandom random = new SecureRandom();
+
+  private final int memoryKiB;
+
+  private final int iterations;
+
+  private final int parallelism;
+
+  /**
+   * @param memoryKiB Memory used per hash in KiB
+   * @param iterations Number of passes over the memory
+   * @param parallelism Number of lanes
+   */
+  public Argon2idPasswordHasher(int memoryKiB, int iterations, int parallelism) {
+    super();
+    this.memoryKiB = memoryKiB;
+    this.iterations = iterations;
+    this.parallelism = parallelism;
+  }
+
+  @Override
+  public String getAlgorithm() {
+    return ALGORITHM;
+  }
+
+  @Override
+  public int getCost() {
+    return iterations;
+  }
+
+  @Override
+  public PasswordHasher withCost(int cost) {
+    return new Argon2idPasswordHasher(memoryKiB, cost, parallelism);
+  }
+
+  @Override
+  public String hash(String password) {
+    byte[] salt = new byte[SALT_BYTES];
+    random.nextBytes(salt);
+    byte[] hash = generate(password, salt, memoryKiB, iterations, parallelism, HASH_BYTES);
+    return PREFIX + "v=19$m=%d,t=%d,p=%d$%s$%s".formatted(
+            memoryKiB,
+            iterations,
+            parallelism,
+            ENCODER.encodeToString(salt),
+            ENCODER.encodeToString(hash));
+  }
+
+  @Override
+  public boolean matches(String password, String encoded) {
+    Hash hash = parse(encoded);
+    return hash != null && MessageDigest.isEqual(
+            hash.hash(),
+            generate(
+                    password,
+                    hash.salt(),
+                    hash.memoryKiB(),
+                    hash.iterations(),
+                    hash.parallelism(),
+                    hash.hash().length));
+  }
+
+  @Override
+  public boolean needsRehash(String encoded) {
+    Hash hash = parse(encoded);
+    return hash == null || hash.memoryKiB() < memoryKiB || hash.iterations() < iterations;
+  }
+
+  @Override
+  public boolean supports(String encoded) {
+    return encoded != null && encoded.startsWith(PREFIX);
+  }
+
+  /**
+   * Helper function for reading the parameters, salt and hash of an encoded hash
+   *
+   * @return {@link Hash} or null if the hash is malformed
+   */
+  private Hash parse(String encoded) {
+    if (!supports(encoded)) {
+      return null;
+    }
+    // "", "argon2id", "v=19", "m=..,t=..,p=..", salt, hash
+    String[] parts = encoded.split("\\$");
+    if (parts.length != 6 || !parts[2].equals("v=19")) {
+      return null;
+    }
+    try {
+      int m = 0, t = 0, p = 0;
+      for (String parameter : parts[3].split(",")) {
+        int value = Integer.parseInt(parameter.substring(2));
+        switch (parameter.substring(0, 2)) {
+          case "m=" -> m = value;
+          case "t=" -> t = value;
+          case "p=" -> p = value;
+          default -> {
+            return null;
+          }
+        }
+      }
+      byte[] salt = DECODER.decode(parts[4]);
+      byte[] hash = DECODER.decode(parts[5]);
+      if (m <= 0 || t <= 0 || p <= 0 || hash.length == 0) {
+        return null;
+      }
+      return new Hash(m, t, p, salt, hash);
+    } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+      return null;
+    }
+  }
+
+  private static byte[] generate(
+          String password,
+          byte[] salt,
+          int memoryKiB,
+          int iterations,
+          int parallelism,
+          int length) {
+    Argon2Parameters parameters = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+            .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+            .withSalt(salt)
+            .withMemoryAsKB(memoryKiB)
+            .withIterations(iterations)
+            .withParallelism(parallelism)
+            .build();
+    Argon2BytesGenerator generator = new Argon2BytesGenerator();
+    generator.init(parameters);
+    byte[] hash = new byte[length];
+    generator.generateBytes(password.getBytes(StandardCharsets.UTF_8), hash);
+    return hash;
+  }
+
+  /**
+   * Parameters, salt and hash of an encoded hash
+   */
+  private record Hash(int memoryKiB, int iterations, int parallelism, byte[] salt, byte[] hash) {
+  }
+
+}
@@ -0,0 +1,93 @@
+package com.sourceware.labs.idp.password;
+
+import java.security.SecureRandom;
+
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.generators.OpenBSDBCrypt;
+
+/**
+ * bcrypt password hashing using BouncyCastle <br />
+ * The cost is the base 2 logarithm of the number of rounds. Hashes use the modular crypt format $2b$&lt;cost&gt;$&lt;salt and hash&gt;. bcrypt only reads
+ * the first 72 bytes of a password; prefer argon2id or pbkdf2 where long passphrases are common.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class BCryptPasswordHasher implements PasswordHasher {
+
+  public static final String ALGORITHM = "bcrypt";
+
+  private static final int SALT_BYTES = 16;
+
+  private static final int MAX_COST = 31;
+
+  private final SecureRandom random = new SecureRandom();
+
+  private final int cost;
+
+  /**
+   * @param cost Base 2 logarithm of the number of key expansion rounds, between 4 and 31
+   */
+  public BCryptPasswordHasher(int cost) {
+    super();
+    this.cost = cost;
+  }
+
+  @Override
+  public String getAlgorithm() {
+    return ALGORITHM;
+  }
+
+  @Override
+  public int getCost() {
+    return cost;
+  }
+
+  @Override
+  public PasswordHasher withCost(int cost) {
+    return new BCryptPasswordHasher(Math.min(cost, MAX_COST));
+  }
+
+  @Override
+  public int doubleCost(int cost) {
+    return Math.min(cost + 1, MAX_COST);
+  }
+
+  @Override
+  public String hash(String password) {
+    byte[] salt = new byte[SALT_BYTES];
+    random.nextBytes(salt);
+    return OpenBSDBCrypt.generate("2b", password.toCharArray(), salt, cost);
+  }
+
+  @Override
+  public boolean matches(String password, String encoded) {
+    if (!supports(encoded)) {
+      return false;
+    }
+    try {
+      return OpenBSDBCrypt.checkPassword(encoded, password.toCharArray());
+    } catch (IllegalArgumentException | DataLengthException ex) {
+      return false;
+    }
+  }
+
+  @Override
+  public boolean needsRehash(String encoded) {
+    // "$2b$" followed by the two digit cost, "$" and 53 characters of salt and hash
+    if (!supports(encoded) || encoded.length() != 60) {
+      return true;
+    }
+    try {
+      return Integer.parseInt(encoded.substring(4, 6)) < cost;
+    } catch (NumberFormatException ex) {
+      return true;
+    }
+  }
+
+  @Override
+  public boolean supports(String encoded) {
+    return encoded != null && (encoded.startsWith("$2a$") || encoded.startsWith("$2b$")
+            || encoded.startsWith("$2y$"));
+  }
+
+}
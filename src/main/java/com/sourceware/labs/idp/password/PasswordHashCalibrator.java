@@ -0,0 +1,97 @@
+package com.sourceware.labs.idp.password;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Class for picking the highest cost of a password hashing algorithm that fits a latency target on
+ * the current hardware <br />
+ * The cost is doubled while the measured p99 latency of a hash stays within the target and then
+ * narrowed down by bisection between the last cost that fit and the first that did not. The cost
+ * of the given hasher is a floor: if it already misses the target it is kept, since lowering it
+ * would weaken every new hash.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class PasswordHashCalibrator {
+
+  // Bisection stops once the bounds are within 1/16th (about 6%) of each other
+  private static final int PRECISION = 16;
+
+  private final Duration target;
+
+  private final int samples;
+
+  /**
+   * @param target {@link Duration} that a hash should take at most at p99
+   * @param samples Number of hashes measured per cost; with fewer than 100 the slowest one is the
+   *          p99 estimate, which errs on the cheap side
+   */
+  public PasswordHashCalibrator(Duration target, int samples) {
+    super();
+    this.target = target;
+    this.samples = Math.max(1, samples);
+  }
+
+  /**
+   * Function for calibrating the cost of a hasher
+   *
+   * @param minimum {@link PasswordHasher} whose cost is the lowest one that may be picked
+   * @return {@link PasswordHasher} with the highest cost that fits the target, or the minimum
+   */
+  public PasswordHasher calibrate(PasswordHasher minimum) {
+    if (!fits(minimum)) {
+      return minimum;
+    }
+    int low = minimum.getCost();
+    int high;
+    while (true) {
+      int next = minimum.doubleCost(low);
+      if (next <= low) {
+        return minimum.withCost(low);
+      }
+      if (!fits(minimum.withCost(next))) {
+        high = next;
+        break;
+      }
+      low = next;
+    }
+    while (high - low > Math.max(1, low / PRECISION)) {
+      int middle = low + (high - low) / 2;
+      if (fits(minimum.withCost(middle))) {
+        low = middle;
+      } else {
+        high = middle;
+      }
+    }
+    return minimum.withCost(low);
+  }
+
+  /**
+   * Function for measuring the p99 latency of a hasher
+   *
+   * @param hasher {@link PasswordHasher} to measure
+   * @return {@link Duration} that 99% of the measured hashes took at most
+   */
+  public Duration measure(PasswordHasher hasher) {
+    // The first hash warms up the code path and is not counted
+    hasher.hash("calibration");
+    long[] latencies = new long[samples];
+    for (int i = 0; i < samples; i++) {
+      long start = System.nanoTime();
+      hasher.hash("calibration");
+      latencies[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(latencies);
+    return Duration.ofNanos(latencies[(int) Math.ceil(samples * 0.99) - 1]);
+  }
+
+  public Duration getTarget() {
+    return target;
+  }
+
+  private boolean fits(PasswordHasher hasher) {
+    return measure(hasher).compareTo(target) <= 0;
+  }
+
+}
@@ -0,0 +1,67 @@
+package com.sourceware.labs.idp.password;
+
+/**
+ * Interface for a password hashing algorithm <br />
+ * Hashes are self describing strings in the algorithm's usual modular crypt / PHC format, holding
+ * the salt and every cost parameter. A hash is therefore always checked with the parameters it was
+ * created with, and the parameters used for new hashes can change without invalidating stored
+ * ones.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public interface PasswordHasher {
+
+  /**
+   * @return {@link String} name of the algorithm as used in the password.hashing.algorithm property
+   */
+  String getAlgorithm();
+
+  /**
+   * @return Work factor used for new hashes; what it counts depends on the algorithm
+   */
+  int getCost();
+
+  /**
+   * @param cost Work factor for new hashes
+   * @return {@link PasswordHasher} of the same algorithm and other parameters with the given cost
+   */
+  PasswordHasher withCost(int cost);
+
+  /**
+   * @param cost Work factor
+   * @return Work factor that takes roughly twice as long as the given one
+   */
+  default int doubleCost(int cost) {
+    return cost > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : cost * 2;
+  }
+
+  /**
+   * Function for hashing a password with a new random salt
+   *
+   * @param password {@link String} plain password
+   * @return {@link String} encoded hash
+   */
+  String hash(String password);
+
+  /**
+   * Function for checking a password against a hash created by this algorithm
+   *
+   * @param password {@link String} plain password
+   * @param encoded {@link String} encoded hash
+   * @return true if the password matches, false if it does not or the hash is malformed
+   */
+  boolean matches(String password, String encoded);
+
+  /**
+   * @param encoded {@link String} stored password value
+   * @return true if the value is a hash created by this algorithm
+   */
+  boolean supports(String encoded);
+
+  /**
+   * @param encoded {@link String} hash created by this algorithm
+   * @return true if the hash was created with a lower cost than new hashes use, or is malformed
+   */
+  boolean needsRehash(String encoded);
+
+}
@@ -0,0 +1,17 @@
+package com.sourceware.labs.idp.password;
+
+/**
+ * Exception thrown when a password could not be hashed or checked because the password hashing
+ * executor is saturated; the request should be answered with 503 Service Unavailable
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class PasswordHashingRejectedException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public PasswordHashingRejectedException(Throwable cause) {
+    super("Password hashing is saturated", cause);
+  }
+
+}
@@ -0,0 +1,134 @@
+package com.sourceware.labs.idp.password;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * PBKDF2 with HMAC-SHA256 password hashing using the JDK's SecretKeyFactory <br />
+ * The cost is the number of iterations. Hashes use the PHC string format $pbkdf2-sha256$i=&lt;iterations&gt;$&lt;salt&gt;$&lt;hash&gt;
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+
+  public static final String ALGORITHM = "pbkdf2";
+
+  private static final String PREFIX = "$pbkdf2-sha256$";
+
+  private static final int SALT_BYTES = 16;
+
+  private static final int HASH_BYTES = 32;
+
+  private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+
+  private static final Base64.Decoder DECODER = Base64.getDecoder();
+
+  private final SecureRandom random = new SecureRandom();
+
+  private final int iterations;
+
+  /**
+   * @param iterations Number of HMAC iterations
+   */
+  public Pbkdf2PasswordHasher(int iterations) {
+    super();
+    this.iterations = iterations;
+  }
+
+  @Override
+  public String getAlgorithm() {
+    return ALGORITHM;
+  }
+
+  @Override
+  public int getCost() {
+    return iterations;
+  }
+
+  @Override
+  public PasswordHasher withCost(int cost) {
+    return new Pbkdf2PasswordHasher(cost);
+  }
+
+  @Override
+  public String hash(String password) {
+    byte[] salt = new byte[SALT_BYTES];
+    random.nextBytes(salt);
+    byte[] hash = generate(password, salt, iterations, HASH_BYTES);
+    return PREFIX + "i=%d$%s$%s".formatted(
+            iterations,
+            ENCODER.encodeToString(salt),
+            ENCODER.encodeToString(hash));
+  }
+
+  @Override
+  public boolean matches(String password, String encoded) {
+    Hash hash = parse(encoded);
+    return hash != null && MessageDigest.isEqual(
+            hash.hash(),
+            generate(password, hash.salt(), hash.iterations(), hash.hash().length));
+  }
+
+  @Override
+  public boolean needsRehash(String encoded) {
+    Hash hash = parse(encoded);
+    return hash == null || hash.iterations() < iterations;
+  }
+
+  @Override
+  public boolean supports(String encoded) {
+    return encoded != null && encoded.startsWith(PREFIX);
+  }
+
+  /**
+   * Helper function for reading the iterations, salt and hash of an encoded hash
+   *
+   * @return {@link Hash} or null if the hash is malformed
+   */
+  private Hash parse(String encoded) {
+    if (!supports(encoded)) {
+      return null;
+    }
+    // "", "pbkdf2-sha256", "i=..", salt, hash
+    String[] parts = encoded.split("\\$");
+    if (parts.length != 5 || !parts[2].startsWith("i=")) {
+      return null;
+    }
+    try {
+      int i = Integer.parseInt(parts[2].substring(2));
+      byte[] salt = DECODER.decode(parts[3]);
+      byte[] hash = DECODER.decode(parts[4]);
+      if (i <= 0 || hash.length == 0) {
+        return null;
+      }
+      return new Hash(i, salt, hash);
+    } catch (IllegalArgumentException ex) {
+      return null;
+    }
+  }
+
+  private static byte[] generate(String password, byte[] salt, int iterations, int length) {
+    PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, length * 8);
+    try {
+      return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+    } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+      // Every Java SE implementation provides PBKDF2WithHmacSHA256
+      throw new IllegalStateException(ex);
+    } finally {
+      spec.clearPassword();
+    }
+  }
+
+  /**
+   * Iterations, salt and hash of an encoded hash
+   */
+  private record Hash(int iterations, byte[] salt, byte[] hash) {
+  }
+
+}
@@ -0,0 +1,25 @@
+package com.sourceware.labs.idp.repo;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import com.sourceware.labs.idp.entity.EmailOutbox;
+
+/**
+ * JPA repository for interacting with the EmailOutbox table
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public interface EmailOutboxRepo extends JpaRepository<EmailOutbox, Long> {
+
+  /**
+   * Locks the pending emails that are due, oldest first, skipping rows locked by another
+   * dispatcher; must be called in a transaction
+   */
+  @Query(value = "select * from email_outbox where status = 'Pending' and next_attempt <= ?1 "
+          + "order by next_attempt limit ?2 for update skip locked", nativeQuery = true)
+  List<EmailOutbox> lockDue(Timestamp now, int limit);
+}
@@ -0,0 +1,13 @@
+package com.sourceware.labs.idp.repo;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.sourceware.labs.idp.entity.MigrationCheckpoint;
+
+/**
+ * JPA repository for interacting with the MigrationCheckpoints table
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public interface MigrationCheckpointRepo extends JpaRepository<MigrationCheckpoint, String> {
+}
@@ -0,0 +1,30 @@
+package com.sourceware.labs.idp.repo;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.sourceware.labs.idp.entity.RevokedToken;
+
+/**
+ * JPA repository for interacting with the RevokedTokens table
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+public interface RevokedTokenRepo extends JpaRepository<RevokedToken, String> {
+
+  @Query("select r.jti from RevokedToken r where r.expiration > ?1")
+  List<String> findJtiByExpirationAfter(Timestamp time);
+
+  @Query("select r.jti from RevokedToken r where r.revoked > ?1")
+  List<String> findJtiByRevokedAfter(Timestamp time);
+
+  @Transactional
+  @Modifying
+  @Query("delete from RevokedToken r where r.expiration <= ?1")
+  int deleteByExpirationNotAfter(Timestamp time);
+}
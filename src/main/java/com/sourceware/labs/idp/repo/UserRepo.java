@@ -1,8 +1,12 @@
 package com.sourceware.labs.idp.repo;
 
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 import com.sourceware.labs.idp.entity.User;
 
@@ -12,5 +16,55 @@ import com.sourceware.labs.idp.entity.User;
  * @author Robert Forristall (robert.s.forristall@gmail.com)
  */
 public interface UserRepo extends JpaRepository<User, Long> {
-  List<User> findUserByEmailAndPassword(String email, String password);
+
+  // Unique index on the normalized email created by DatabaseInit, which also serves the lookup
+  String NORMALIZED_EMAIL_INDEX = "users_email_normalized";
+
+  /**
+   * Lookup through the unique index on the normalized email
+   *
+   * @param normalizedEmail {@link String} email already normalized by {@link #normalizeEmail}
+   */
+  @Query(value = "select * from users where lower(trim(email)) = ?1", nativeQuery = true)
+  List<User> findUsersByNormalizedEmail(String normalizedEmail);
+
+  /**
+   * @param normalizedEmail {@link String} email already normalized by {@link #normalizeEmail}
+   * @return {@link Optional} of the user with the email, empty unless exactly one user has it
+   */
+  default Optional<User> findUserByNormalizedEmail(String normalizedEmail) {
+    List<User> users = findUsersByNormalizedEmail(normalizedEmail);
+    return users.size() == 1 ? Optional.of(users.get(0)) : Optional.empty();
+  }
+
+  /**
+   * @param email {@link String} email as entered by the user
+   * @return {@link String} trimmed and lower-cased email, or null if the email is null
+   */
+  static String normalizeEmail(String email) {
+    return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Keyset paginated read of the stored credentials of the users after an ID, in ID order
+   */
+  @Query("select u.id as userId, u.password as password, s.id as securityQuestionId, "
+          + "s.answer1 as answer1, s.answer2 as answer2 "
+          + "from User u left join u.securityQuestion s where u.id > ?1 order by u.id")
+  List<Credentials> findCredentialsByIdAfter(Long id, Limit limit);
+
+  /**
+   * Projection of the credentials stored for a user
+   */
+  interface Credentials {
+    Long getUserId();
+
+    String getPassword();
+
+    Long getSecurityQuestionId();
+
+    String getAnswer1();
+
+    String getAnswer2();
+  }
 }
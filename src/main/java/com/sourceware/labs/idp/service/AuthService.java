@@ -6,45 +6,77 @@ import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
 import java.text.ParseException;
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 import org.bouncycastle.operator.OperatorCreationException;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import com.google.gson.Gson;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSAlgorithm;
-import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jose.jwk.JWK;
 import com.sourceware.labs.idp.entity.Role;
 import com.sourceware.labs.idp.entity.User;
 import com.sourceware.labs.idp.jwt.JwtManager;
+import com.sourceware.labs.idp.jwt.PermissionRegistry;
+import com.sourceware.labs.idp.jwt.PermissionSet;
+import com.sourceware.labs.idp.jwt.VerifiedJwt;
+import com.sourceware.labs.idp.jwt.VerifiedJwtCache;
+import com.sourceware.labs.idp.keystore.IdpKeyRing;
+import com.sourceware.labs.idp.keystore.IdpKeyStoreCache;
 import com.sourceware.labs.idp.keystore.IdpKeyStoreData;
+import com.sourceware.labs.idp.keystore.IdpServiceKeys;
 import com.sourceware.labs.idp.util.SessionCookie;
 
 @Service
 public class AuthService {
 
+  // Lifetime of an access token in seconds
+  public static final long ACCESS_TOKEN_EXPIRATION = 60 * 10;
+
+  // Lifetime of a refresh token in seconds; retired signing keys are kept at least this long
+  public static final long REFRESH_TOKEN_EXPIRATION = 60 * 60;
+
   private String clientId;
 
   private IdpKeyStoreData idpKeyStoreData;
-  
+
+  private JWSAlgorithm tokenSigningAlgorithm;
+
+  private IdpServiceKeys idpServiceKeys;
+
+  private Executor tokenSigningExecutor;
+
+  private VerifiedJwtCache verifiedJwtCache;
+
+  private TokenRevocationService tokenRevocationService;
+
+  private PermissionRegistry permissionRegistry;
+
   public AuthService(
-          @Value("${keystore.dir.name}") String keyStoreDir,
-          @Value("${keystore.store.name}") String keyStoreName,
-          @Value("${keystore.store.password}") String keyStorePassword,
-          @Value("${keystore.key.token.alias}") String tokenAlias,
-          @Value("${keystore.key.token.password}") String tokenPassword,
+          IdpKeyStoreData idpKeyStoreData,
+          JWSAlgorithm tokenSigningAlgorithm,
+          IdpServiceKeys idpServiceKeys,
+          @Qualifier("tokenSigningExecutor") Executor tokenSigningExecutor,
+          VerifiedJwtCache verifiedJwtCache,
+          TokenRevocationService tokenRevocationService,
+          PermissionRegistry permissionRegistry,
           @Value("${jwt.clientId}") String clientId) {
-    idpKeyStoreData = new IdpKeyStoreData(
-            keyStoreDir,
-            keyStoreName,
-            keyStorePassword,
-            tokenAlias,
-            tokenPassword,
-            "initial");
+    this.idpKeyStoreData = idpKeyStoreData;
+    this.tokenSigningAlgorithm = tokenSigningAlgorithm;
+    this.idpServiceKeys = idpServiceKeys;
+    this.tokenSigningExecutor = tokenSigningExecutor;
+    this.verifiedJwtCache = verifiedJwtCache;
+    this.tokenRevocationService = tokenRevocationService;
+    this.permissionRegistry = permissionRegistry;
+    this.clientId = clientId;
   }
 
   public SessionCookie generateSessionCookie(
@@ -58,96 +90,201 @@ public class AuthService {
     if (userRole == null || userRole.getRole() == null) {
       throw new IllegalStateException("User should have a role for the application");
     }
-    String accessToken = JwtManager
-            .getSignedJwtToken(
-                    JWSAlgorithm.ES256,
-                    clientId,
-                    applicationName,
-                    60 * 10,
-                    idpKeyStoreData,
-                    user.getId(),
-                    applicationName,
-                    userRole.getRole().name(),
-                    user.getAdditionalPermissions()
-                    .stream()
-                    .filter(perm -> perm.getApplication().equalsName(applicationName))
-                    .map(perm -> perm.getPermission())
-                    .collect(Collectors.toList()))
-            .serialize();
-    String refreshToken = JwtManager
-            .getSignedJwtToken(
-                    JWSAlgorithm.ES256,
-                    clientId,
-                    applicationName,
-                    60 * 60,
-                    idpKeyStoreData,
-                    user.getId(),
-                    applicationName,
-                    userRole.getRole().name(),
-                    user.getAdditionalPermissions()
-                    .stream()
-                    .filter(perm -> perm.getApplication().equalsName(applicationName))
-                    .map(perm -> perm.getPermission())
-                    .collect(Collectors.toList()))
-            .serialize();
+    String roleName = userRole.getRole().name();
+    List<String> additionalPermissions = user.getAdditionalPermissions()
+            .stream()
+            .filter(perm -> perm.getApplication().equalsName(applicationName))
+            .map(perm -> perm.getPermission())
+            .collect(Collectors.toList());
+    TokenPair tokens = issueTokens(
+            getSigningKey(applicationName),
+            applicationName,
+            user.getId(),
+            applicationName,
+            roleName,
+            permissionRegistry.encode(applicationName, additionalPermissions));
     return new SessionCookie(
             user.getId(),
             applicationName,
             userRole.getRole().toString(),
-            user.getAdditionalPermissions()
-                    .stream()
-                    .filter(perm -> perm.getApplication().equalsName(applicationName))
-                    .map(perm -> perm.getPermission())
-                    .collect(Collectors.toList()),
-            accessToken,
-            refreshToken);
+            additionalPermissions,
+            tokens.accessToken(),
+            tokens.refreshToken());
   }
 
   public boolean verifyAccessToken(
           SessionCookie cookie) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException, ParseException {
-    return JwtManager
-            .verifySignedJwtToken(cookie.getAccessToken(), JWSAlgorithm.ES256, idpKeyStoreData);
+    return verifyToken(cookie.getAccessToken(), cookie.getApplication(), getKeyRing()).isPresent();
   }
 
   public Optional<SessionCookie> verifyRefreshToken(
           SessionCookie cookie) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException, ParseException {
-    if (JwtManager
-            .verifySignedJwtToken(cookie.getRefreshToken(), JWSAlgorithm.ES256, idpKeyStoreData)) {
-      JWTClaimsSet claimsSet = JwtManager.getClaimsSetFromJwt(cookie.getRefreshToken(), JWSAlgorithm.ES256, idpKeyStoreData);
-      Long userId = claimsSet.getLongClaim("userId");
-      String applicationName = claimsSet.getStringClaim("application");
-      String roleName = claimsSet.getStringClaim("roleName");
-      List<String> listAdditionalPermissions = List.of(new Gson().fromJson(claimsSet.getStringClaim("additionalPermissions"), String[].class));
-      cookie.setAccessToken(
-              JwtManager
-                      .getSignedJwtToken(
-                              JWSAlgorithm.ES256,
-                              clientId,
-                              cookie.getApplication(),
-                              60 * 10,
-                              idpKeyStoreData,
-                              userId,
-                              applicationName,
-                              roleName,
-                              listAdditionalPermissions)
-                      .serialize());
-      cookie.setRefreshToken(
-              JwtManager
-                      .getSignedJwtToken(
-                              JWSAlgorithm.ES256,
-                              clientId,
-                              cookie.getApplication(),
-                              60 * 60,
-                              idpKeyStoreData,
-                              userId,
-                              applicationName,
-                              roleName,
-                              listAdditionalPermissions)
-                      .serialize());
+    IdpKeyRing keyRing = getKeyRing();
+    Optional<VerifiedJwt> refreshToken = verifyToken(
+            cookie.getRefreshToken(),
+            cookie.getApplication(),
+            keyRing);
+    if (refreshToken.isPresent()) {
+      VerifiedJwt verified = refreshToken.get();
+      Long userId = verified.getUserId();
+      String applicationName = verified.getApplication();
+      String roleName = verified.getRoleName();
+      PermissionSet permissions = verified.getPermissions();
+      // The token's application, not the client supplied cookie's, picks the key and audience
+      TokenPair tokens = issueTokens(
+              getSigningKey(applicationName, keyRing),
+              applicationName,
+              userId,
+              applicationName,
+              roleName,
+              permissions);
+      // The cookie's permissions are client supplied so they are replaced by the token's
+      cookie.setAdditionalPermissions(permissionRegistry.decode(applicationName, permissions));
+      cookie.setAccessToken(tokens.accessToken());
+      cookie.setRefreshToken(tokens.refreshToken());
       return Optional.of(cookie);
     } else {
       return Optional.empty();
     }
   }
 
+  /**
+   * Function for revoking both tokens of a session so they are rejected before their expiration
+   *
+   * @param cookie {@link SessionCookie} of the session
+   * @return true if at least one of the tokens was valid and has been revoked
+   */
+  public boolean revokeSession(
+          SessionCookie cookie) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException, ParseException {
+    IdpKeyRing keyRing = getKeyRing();
+    boolean revoked = false;
+    for (String token : new String[] { cookie.getAccessToken(), cookie.getRefreshToken() }) {
+      // Only tokens this IDP issued can be revoked so the table cannot be filled with arbitrary IDs
+      Optional<VerifiedJwt> verified = token == null ? Optional.empty()
+              : verifyToken(token, cookie.getApplication(), keyRing);
+      if (verified.isPresent()) {
+        tokenRevocationService.revoke(
+                verified.get().getClaimsSet().getJWTID(),
+                verified.get().getClaimsSet().getExpirationTime().toInstant());
+        revoked = true;
+      }
+    }
+    return revoked;
+  }
+
+  /**
+   * Function for verifying a token of an application exactly once, returning its parsed claims;
+   * tokens that were already verified are answered from the {@link VerifiedJwtCache}, and tokens
+   * issued for another application than the one whose key was selected or revoked tokens are
+   * rejected
+   */
+  private Optional<VerifiedJwt> verifyToken(
+          String token,
+          String applicationName,
+          IdpKeyRing keyRing) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException, ParseException {
+    if (applicationName == null) {
+      return Optional.empty();
+    }
+    return verifiedJwtCache
+            .verify(token, keyRing, idpServiceKeys.getKey(applicationName), Instant.now())
+            .filter(verified -> isIssuedFor(verified, applicationName))
+            .filter(
+                    verified -> !tokenRevocationService
+                            .isRevoked(verified.getClaimsSet().getJWTID()));
+  }
+
+  /**
+   * Helper function for binding a token to the application whose key verified it; every service
+   * that verifies an application's HMAC tokens holds its secret, so without this check the holder
+   * of one application's secret could mint tokens naming another application
+   *
+   * @return true if both the application and the only audience of the token are the application
+   */
+  private static boolean isIssuedFor(VerifiedJwt verified, String applicationName) {
+    try {
+      return applicationName.equals(verified.getApplication())
+              && List.of(applicationName).equals(verified.getClaimsSet().getAudience());
+    } catch (ParseException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Function for issuing the access and refresh token of a session from a single set of claims <br />
+   * The access token is signed on the token signing executor while the request thread signs the
+   * refresh token, so issuing both costs roughly one signature on a multi-core machine.
+   */
+  private TokenPair issueTokens(
+          JWK signingKey,
+          String audience,
+          Long userId,
+          String applicationName,
+          String roleName,
+          PermissionSet permissions) throws JOSEException {
+    CompletableFuture<String> accessToken = CompletableFuture.supplyAsync(() -> {
+      try {
+        return JwtManager.issueJwtToken(
+                signingKey,
+                clientId,
+                audience,
+                ACCESS_TOKEN_EXPIRATION,
+                userId,
+                applicationName,
+                roleName,
+                permissions);
+      } catch (JOSEException ex) {
+        throw new CompletionException(ex);
+      }
+    }, tokenSigningExecutor);
+    String refreshToken = JwtManager.issueJwtToken(
+            signingKey,
+            clientId,
+            audience,
+            REFRESH_TOKEN_EXPIRATION,
+            userId,
+            applicationName,
+            roleName,
+            permissions);
+    try {
+      return new TokenPair(accessToken.join(), refreshToken);
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof JOSEException cause) {
+        throw cause;
+      }
+      throw ex;
+    }
+  }
+
+  private IdpKeyRing getKeyRing() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    return IdpKeyStoreCache.getKeyRing(tokenSigningAlgorithm, idpKeyStoreData);
+  }
+
+  private JWK getSigningKey(
+          String applicationName) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    // Applications using the service token profile sign with their HMAC secret instead
+    JWK serviceKey = idpServiceKeys.getKey(applicationName);
+    return serviceKey != null ? serviceKey : getActiveKey(getKeyRing());
+  }
+
+  private JWK getSigningKey(
+          String applicationName,
+          IdpKeyRing keyRing) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    JWK serviceKey = idpServiceKeys.getKey(applicationName);
+    return serviceKey != null ? serviceKey : getActiveKey(keyRing);
+  }
+
+  private JWK getActiveKey(IdpKeyRing keyRing) {
+    JWK signingKey = keyRing.getActiveKey(Instant.now());
+    if (signingKey == null) {
+      throw new IllegalStateException("Keystore does not hold an active token signing key");
+    }
+    return signingKey;
+  }
+
+  /**
+   * Access and refresh token of a session
+   */
+  private record TokenPair(String accessToken, String refreshToken) {
+  }
+
 }
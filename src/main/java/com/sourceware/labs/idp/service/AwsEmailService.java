@@ -1,13 +1,33 @@
 package com.sourceware.labs.idp.service;
 
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.mail.MailSender;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.stereotype.Service;
 
+import com.sourceware.labs.idp.mail.BulkMailSender;
+import com.sourceware.labs.idp.mail.MailCircuitBreaker;
+import com.sourceware.labs.idp.mail.MailThrottledException;
+import com.sourceware.labs.idp.mail.MailUnavailableException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
 /**
  * Spring service class for sending mail using AWS Simple Email Service (SES)
  *
@@ -20,7 +40,22 @@ public class AwsEmailService {
 
   // Inject the mail sender configured to use AWS
   @Autowired
-  private MailSender mailSender;
+  private BulkMailSender mailSender;
+
+  // Calls to SES run on their own bounded pool so a slow SES cannot tie up the calling threads
+  @Autowired
+  @Qualifier("mailSenderExecutor")
+  private ExecutorService mailSenderExecutor;
+
+  @Autowired
+  private MailCircuitBreaker mailCircuitBreaker;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  // How long a caller waits at most for SES to answer
+  @Value("${email.send.timeout}")
+  private Duration sendTimeout;
 
   // Get the verified from email address to use for all sent messages
   @Value("${cloud.aws.email.from}")
@@ -30,10 +65,80 @@ public class AwsEmailService {
    * Send a simple email message using AWS SES
    * 
    * @param simpleMailMessage - The message information to be sent
+   * @throws MailException If the message was not sent
    */
   public void sendMessage(SimpleMailMessage simpleMailMessage) {
     LOGGER.info("Sending email to addresses: " + simpleMailMessage.getTo()[0]);
-    this.mailSender.send(simpleMailMessage);
+    Exception failure = sendMessages(List.of(simpleMailMessage)).get(0);
+    if (failure instanceof MailException mailException) {
+      throw mailException;
+    } else if (failure != null) {
+      throw new MailSendException(failure.getLocalizedMessage(), failure);
+    }
+  }
+
+  /**
+   * Send several simple email messages, batched into as few SES calls as possible <br />
+   * The call to SES runs on the bounded mail sender executor and the calling thread waits at most
+   * the send timeout for it. If the circuit around SES is open or the executor is saturated the
+   * messages fail at once with a {@link MailUnavailableException} without reaching SES.
+   *
+   * @param simpleMailMessages - The messages to be sent
+   * @return {@link List} of the error of each message at the position of the message, null for
+   *         every message that was sent
+   */
+  public List<Exception> sendMessages(List<SimpleMailMessage> simpleMailMessages) {
+    LOGGER.info("Sending " + simpleMailMessages.size() + " emails");
+    if (!mailCircuitBreaker.tryAcquire()) {
+      return reject(
+              simpleMailMessages,
+              "circuit",
+              new MailUnavailableException("Email provider circuit is open"));
+    }
+    long start = System.nanoTime();
+    Future<List<Exception>> result;
+    try {
+      result = mailSenderExecutor.submit(() -> send(simpleMailMessages));
+    } catch (RejectedExecutionException ex) {
+      mailCircuitBreaker.release();
+      return reject(
+              simpleMailMessages,
+              "bulkhead",
+              new MailUnavailableException("Email sending is saturated", ex));
+    }
+    List<Exception> failed;
+    try {
+      failed = result.get(sendTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException ex) {
+      // SES may still send the messages, so they are retried like any other failure
+      result.cancel(true);
+      failed = failAll(
+              simpleMailMessages,
+              new MailSendException("SES did not answer within " + sendTimeout, ex));
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      result.cancel(true);
+      mailCircuitBreaker.release();
+      return failAll(
+              simpleMailMessages,
+              new MailUnavailableException("Interrupted while sending", ex));
+    } catch (ExecutionException ex) {
+      failed = failAll(
+              simpleMailMessages,
+              ex.getCause() instanceof Exception cause ? cause : ex);
+    }
+    mailCircuitBreaker.onResult(
+            Duration.ofNanos(System.nanoTime() - start),
+            isProviderFailure(simpleMailMessages, failed));
+    return failed;
+  }
+
+  /**
+   * @return true if emails can currently be handed to SES, false while the circuit around it is
+   *         open
+   */
+  public boolean isAvailable() {
+    return mailCircuitBreaker.isCallPermitted();
   }
 
   /**
@@ -54,13 +159,36 @@ public class AwsEmailService {
     return simpleMailMessage;
   }
 
-  public String createVerificatioEmailBody(Long userId, String verificationToken) {
-    StringBuilder b = new StringBuilder();
-    b.append("<h1>Sourceware Labs IDP</h1>\n");
-    b.append(
-            "<p>Click the following link to verify your account: http://localhost:8080/user/verify?userId="
-                    + userId + "&verificationToken=" + verificationToken + "</p>\n");
-    return b.toString();
+  private List<Exception> send(List<SimpleMailMessage> simpleMailMessages) {
+    try {
+      return this.mailSender.sendEach(simpleMailMessages);
+    } catch (MailException ex) {
+      return failAll(simpleMailMessages, ex);
+    }
+  }
+
+  private List<Exception> reject(
+          List<SimpleMailMessage> simpleMailMessages,
+          String reason,
+          MailUnavailableException ex) {
+    meterRegistry.counter("email.rejected", "reason", reason).increment();
+    return failAll(simpleMailMessages, ex);
+  }
+
+  private static List<Exception> failAll(List<SimpleMailMessage> simpleMailMessages, Exception ex) {
+    return Collections.nCopies(simpleMailMessages.size(), ex);
+  }
+
+  /**
+   * Helper function for telling a failing provider from messages it refused; a call only counts
+   * against the circuit if every message failed and none of them for exceeding the send rate, which
+   * the send rate limiter handles
+   */
+  private static boolean isProviderFailure(
+          List<SimpleMailMessage> simpleMailMessages,
+          List<Exception> failed) {
+    return !simpleMailMessages.isEmpty() && failed.stream().allMatch(Objects::nonNull)
+            && failed.stream().noneMatch(MailThrottledException.class::isInstance);
   }
 
 }
@@ -0,0 +1,213 @@
+package com.sourceware.labs.idp.service;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.sourceware.labs.idp.entity.MigrationCheckpoint;
+import com.sourceware.labs.idp.password.PasswordHashingRejectedException;
+import com.sourceware.labs.idp.repo.MigrationCheckpointRepo;
+import com.sourceware.labs.idp.repo.UserRepo;
+import com.sourceware.labs.idp.repo.UserRepo.Credentials;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Service for replacing the plain passwords and security answers stored before credentials were
+ * hashed <br />
+ * The Users table is walked in ID order, one keyset paginated batch at a time. Each batch is hashed
+ * one value at a time on the password hashing executor, so the migration occupies at most one
+ * hashing thread, and is written with JDBC batch updates in the same transaction that advances the
+ * checkpoint, so a restarted migration resumes after the last written batch. Updates only apply
+ * while the stored value is still the one that was hashed, so a password changed or rehashed in
+ * the meantime is never overwritten. Logins also rehash passwords that are plain or weaker than
+ * new hashes; their hash is written on the rehash executor so the database round trip does not hold
+ * a hashing thread. Once the checkpoint is completed stored values are no longer accepted as plain
+ * passwords.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Service
+public class CredentialMigrationService {
+
+  public static final String MIGRATION_NAME = "hashCredentials";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CredentialMigrationService.class);
+
+  // Tables of the User and SecurityQuestion entities under Spring's default naming strategy
+  private static final String UPDATE_PASSWORD = "update users set password = ? "
+          + "where id = ? and password = ?";
+  private static final String UPDATE_ANSWERS = "update security_questions "
+          + "set answer1 = ?, answer2 = ? where id = ? and answer1 = ? and answer2 = ?";
+
+  private final UserRepo userRepo;
+
+  private final MigrationCheckpointRepo migrationCheckpointRepo;
+
+  private final JdbcTemplate jdbcTemplate;
+
+  private final TransactionTemplate transactionTemplate;
+
+  private final PasswordHashingService passwordHashingService;
+
+  private final ExecutorService passwordRehashExecutor;
+
+  private final int batchSize;
+
+  public CredentialMigrationService(
+          UserRepo userRepo,
+          MigrationCheckpointRepo migrationCheckpointRepo,
+          JdbcTemplate jdbcTemplate,
+          TransactionTemplate transactionTemplate,
+          PasswordHashingService passwordHashingService,
+          @Qualifier("passwordRehashExecutor") ExecutorService passwordRehashExecutor,
+          @Value("${credentials.migration.batch}") int batchSize) {
+    this.userRepo = userRepo;
+    this.migrationCheckpointRepo = migrationCheckpointRepo;
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = transactionTemplate;
+    this.passwordHashingService = passwordHashingService;
+    this.passwordRehashExecutor = passwordRehashExecutor;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Stop accepting plain passwords at startup if the migration was completed before
+   */
+  @PostConstruct
+  public void init() {
+    checkCompleted();
+  }
+
+  /**
+   * Function for checking whether the migration was completed, on this or any other instance, and
+   * no longer accepting plain passwords once it was; instances that do not run the migration call
+   * it periodically to notice when another instance completed it
+   *
+   * @return true if the migration is complete
+   */
+  public boolean checkCompleted() {
+    boolean completed = migrationCheckpointRepo.findById(MIGRATION_NAME)
+            .map(MigrationCheckpoint::isCompleted)
+            .orElse(false);
+    if (completed) {
+      passwordHashingService.rejectPlainPasswords();
+    }
+    return completed;
+  }
+
+  /**
+   * Function for migrating the next batch of users after the checkpoint; once the checkpoint is
+   * completed plain passwords are rejected
+   *
+   * @return Number of users read, 0 once the migration is complete
+   * @throws PasswordHashingRejectedException If the password hashing executor is saturated; the
+   *           checkpoint is not advanced and the batch is retried on the next call
+   */
+  public int migrateBatch() {
+    MigrationCheckpoint checkpoint = migrationCheckpointRepo.findById(MIGRATION_NAME)
+            .orElseGet(() -> new MigrationCheckpoint(MIGRATION_NAME, 0L, false, now()));
+    if (checkpoint.isCompleted()) {
+      passwordHashingService.rejectPlainPasswords();
+      return 0;
+    }
+    List<Credentials> batch = userRepo
+            .findCredentialsByIdAfter(checkpoint.getLastId(), Limit.of(batchSize));
+    List<Object[]> passwords = new ArrayList<>();
+    List<Object[]> answers = new ArrayList<>();
+    for (Credentials credentials : batch) {
+      String password = credentials.getPassword();
+      if (password != null && !passwordHashingService.isHashed(password)) {
+        passwords.add(
+                new Object[] { passwordHashingService.hash(password), credentials.getUserId(),
+                    password });
+      }
+      String answer1 = credentials.getAnswer1();
+      String answer2 = credentials.getAnswer2();
+      if (credentials.getSecurityQuestionId() != null && (isPlain(answer1) || isPlain(answer2))) {
+        answers.add(
+                new Object[] { hashIfPlain(answer1), hashIfPlain(answer2),
+                    credentials.getSecurityQuestionId(), answer1, answer2 });
+      }
+    }
+    transactionTemplate.executeWithoutResult(status -> {
+      if (!passwords.isEmpty()) {
+        jdbcTemplate.batchUpdate(UPDATE_PASSWORD, passwords);
+      }
+      if (!answers.isEmpty()) {
+        jdbcTemplate.batchUpdate(UPDATE_ANSWERS, answers);
+      }
+      if (!batch.isEmpty()) {
+        checkpoint.setLastId(batch.get(batch.size() - 1).getUserId());
+      }
+      checkpoint.setCompleted(batch.size() < batchSize);
+      checkpoint.setModified(now());
+      migrationCheckpointRepo.save(checkpoint);
+    });
+    if (checkpoint.isCompleted()) {
+      passwordHashingService.rejectPlainPasswords();
+    }
+    if (!passwords.isEmpty() || !answers.isEmpty()) {
+      LOGGER.info(
+              "Hashed {} passwords and {} security answers up to user {}",
+              passwords.size(),
+              answers.size(),
+              checkpoint.getLastId());
+    }
+    return batch.size();
+  }
+
+  /**
+   * Function for replacing a user's stored password after a successful login if it is plain or
+   * weaker than new hashes <br />
+   * The hash is computed on the hashing executor and written on the rehash executor, so the login
+   * does not wait for either; if either executor is saturated the rehash is skipped until the next
+   * login.
+   *
+   * @param userId {@link Long} ID of the user
+   * @param password {@link String} plain password the user logged in with
+   * @param stored {@link String} password value the login was checked against
+   */
+  public void rehashOnLogin(Long userId, String password, String stored) {
+    if (!passwordHashingService.needsRehash(stored)) {
+      return;
+    }
+    try {
+      passwordHashingService.hashAsync(password)
+              .thenAcceptAsync(
+                      hash -> jdbcTemplate.update(UPDATE_PASSWORD, hash, userId, stored),
+                      passwordRehashExecutor)
+              .exceptionally(ex -> {
+                LOGGER.warn("Failed to rehash the password of user " + userId + ": "
+                        + ex.getLocalizedMessage());
+                return null;
+              });
+    } catch (PasswordHashingRejectedException ex) {
+      LOGGER.debug("Skipped rehashing the password of user " + userId + ": executor saturated");
+    }
+  }
+
+  private boolean isPlain(String value) {
+    return value != null && !passwordHashingService.isHashed(value);
+  }
+
+  private String hashIfPlain(String value) {
+    return isPlain(value) ? passwordHashingService.hash(value) : value;
+  }
+
+  private static Timestamp now() {
+    return Timestamp.from(Instant.now());
+  }
+
+}
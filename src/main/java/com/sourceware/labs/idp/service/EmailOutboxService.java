@@ -0,0 +1,245 @@
+package com.sourceware.labs.idp.service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.sourceware.labs.idp.entity.EmailOutbox;
+import com.sourceware.labs.idp.entity.EmailOutbox.Status;
+import com.sourceware.labs.idp.mail.MailThrottledException;
+import com.sourceware.labs.idp.mail.MailUnavailableException;
+import com.sourceware.labs.idp.mail.SendRateLimiter;
+import com.sourceware.labs.idp.repo.EmailOutboxRepo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Service for the transactional email outbox <br />
+ * Emails are written to the EmailOutbox table in the transaction of the change that triggers them,
+ * so an email exists exactly when that change committed, and the request does not wait for SES.
+ * The dispatcher claims due emails with SELECT ... FOR UPDATE SKIP LOCKED, so several instances
+ * drain the outbox without sending an email twice, and pushes their next attempt out by a lease
+ * before releasing the lock. The emails are then sent together outside of any transaction, so SES
+ * bulk calls carry the whole batch and no database connection is held during them. Sent emails
+ * are deleted; failed ones are retried with exponential backoff and jitter until the maximum
+ * number of attempts. An email claimed by an instance that stops before sending it is picked up
+ * again once its lease ran out, so emails are sent at least once. <br />
+ * Batches are paced by a {@link SendRateLimiter} so that SES is not asked to send faster than the
+ * account's send rate: a batch holds at most the limiter's burst and waits for its tokens before
+ * it is sent, while emails beyond the rate stay in the outbox. Emails SES throttled anyway are due
+ * again at once without counting as a failed attempt, and slow the limiter down. While the
+ * circuit around SES is open no emails are claimed, so they wait in the outbox until SES recovers;
+ * emails that were not handed to SES because the circuit opened or the sending pool was saturated
+ * are deferred without counting as a failed attempt either.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Service
+public class EmailOutboxService {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EmailOutboxService.class);
+
+  private static final int MAX_ERROR_LENGTH = 1000;
+
+  private final EmailOutboxRepo emailOutboxRepo;
+
+  private final TransactionTemplate transactionTemplate;
+
+  private final AwsEmailService awsEmailService;
+
+  private final SendRateLimiter sendRateLimiter;
+
+  private final int batchSize;
+
+  private final int maxAttempts;
+
+  private final Duration backoff;
+
+  private final Duration maxBackoff;
+
+  private final Duration lease;
+
+  private final Counter sent;
+
+  private final Counter retried;
+
+  private final Counter throttled;
+
+  private final Counter deferred;
+
+  private final Counter failed;
+
+  public EmailOutboxService(
+          EmailOutboxRepo emailOutboxRepo,
+          TransactionTemplate transactionTemplate,
+          AwsEmailService awsEmailService,
+          SendRateLimiter sendRateLimiter,
+          @Value("${email.outbox.batch}") int batchSize,
+          @Value("${email.outbox.attempts}") int maxAttempts,
+          @Value("${email.outbox.backoff}") Duration backoff,
+          @Value("${email.outbox.backoff.max}") Duration maxBackoff,
+          @Value("${email.outbox.lease}") Duration lease,
+          MeterRegistry meterRegistry) {
+    this.emailOutboxRepo = emailOutboxRepo;
+    this.transactionTemplate = transactionTemplate;
+    this.awsEmailService = awsEmailService;
+    this.sendRateLimiter = sendRateLimiter;
+    this.batchSize = batchSize;
+    this.maxAttempts = maxAttempts;
+    this.backoff = backoff;
+    this.maxBackoff = maxBackoff;
+    this.lease = lease;
+    this.sent = meterRegistry.counter("email.outbox.dispatched", "result", "sent");
+    this.retried = meterRegistry.counter("email.outbox.dispatched", "result", "retried");
+    this.throttled = meterRegistry.counter("email.outbox.dispatched", "result", "throttled");
+    this.deferred = meterRegistry.counter("email.outbox.dispatched", "result", "deferred");
+    this.failed = meterRegistry.counter("email.outbox.dispatched", "result", "failed");
+    Gauge.builder("email.send.rate", sendRateLimiter, SendRateLimiter::getRate)
+            .description("Emails per second currently sent at most")
+            .register(meterRegistry);
+  }
+
+  /**
+   * Function for adding an email to the outbox; must be called in the transaction of the change the
+   * email reports so that it is only sent if that change commits
+   *
+   * @param recipient {@link String} email address to send the email to
+   * @param subject {@link String} subject of the email
+   * @param body {@link String} body of the email
+   * @return {@link EmailOutbox} that was saved
+   */
+  @Transactional(propagation = Propagation.MANDATORY)
+  public EmailOutbox enqueue(String recipient, String subject, String body) {
+    Timestamp now = Timestamp.from(Instant.now());
+    return emailOutboxRepo.save(
+            new EmailOutbox(null, recipient, subject, body, Status.Pending, 0, now, null, now));
+  }
+
+  /**
+   * Function for sending the next batch of due emails; the batch is handed to the mail sender at
+   * once so it is sent in as few provider calls as possible, once the send rate allows it
+   *
+   * @return Number of emails that were claimed, 0 if none were due or the dispatch was interrupted
+   */
+  public int dispatchBatch() {
+    if (!awsEmailService.isAvailable()) {
+      return 0;
+    }
+    Instant now = Instant.now();
+    int limit = Math.min(batchSize, sendRateLimiter.getBurst());
+    List<EmailOutbox> claimed = transactionTemplate.execute(status -> {
+      List<EmailOutbox> due = emailOutboxRepo.lockDue(Timestamp.from(now), limit);
+      Timestamp leaseEnd = Timestamp.from(now.plus(lease));
+      due.forEach(email -> email.setNextAttempt(leaseEnd));
+      return emailOutboxRepo.saveAll(due);
+    });
+    if (claimed.isEmpty()) {
+      return 0;
+    }
+    try {
+      sendRateLimiter.acquire(claimed.size());
+    } catch (InterruptedException ex) {
+      // The claimed emails are sent by the next dispatch once their lease ran out; 0 so that no
+      // further batch is claimed while shutting down
+      Thread.currentThread().interrupt();
+      return 0;
+    }
+    List<SimpleMailMessage> messages = new ArrayList<>(claimed.size());
+    for (EmailOutbox email : claimed) {
+      messages.add(
+              awsEmailService.createSimpleMailMessage(
+                      email.getRecipient(),
+                      email.getSubject(),
+                      email.getBody()));
+    }
+    // Outcomes are matched to the emails by position, as emails may have equal messages
+    List<Exception> failures = awsEmailService.sendMessages(messages);
+    List<Long> sentIds = new ArrayList<>(claimed.size());
+    List<EmailOutbox> throttledEmails = new ArrayList<>();
+    List<EmailOutbox> deferredEmails = new ArrayList<>();
+    String deferReason = null;
+    for (int i = 0; i < claimed.size(); i++) {
+      Exception failure = failures.get(i);
+      if (failure == null) {
+        sentIds.add(claimed.get(i).getId());
+      } else if (failure instanceof MailThrottledException) {
+        throttledEmails.add(claimed.get(i));
+      } else if (failure instanceof MailUnavailableException) {
+        deferredEmails.add(claimed.get(i));
+        deferReason = failure.getLocalizedMessage();
+      } else {
+        recordFailure(claimed.get(i), failure);
+      }
+    }
+    if (!throttledEmails.isEmpty()) {
+      // Due again at once; the slowed down limiter paces their next attempt
+      sendRateLimiter.onThrottled();
+      Timestamp due = Timestamp.from(Instant.now());
+      throttledEmails.forEach(email -> email.setNextAttempt(due));
+      emailOutboxRepo.saveAll(throttledEmails);
+      throttled.increment(throttledEmails.size());
+      LOGGER.warn(
+              "SES throttled " + throttledEmails.size() + " emails, sending at most "
+                      + sendRateLimiter.getRate() + " per second");
+    }
+    if (!deferredEmails.isEmpty()) {
+      Timestamp due = Timestamp.from(Instant.now().plus(getBackoff(1)));
+      deferredEmails.forEach(email -> email.setNextAttempt(due));
+      emailOutboxRepo.saveAll(deferredEmails);
+      deferred.increment(deferredEmails.size());
+      LOGGER.warn("Deferred " + deferredEmails.size() + " emails: " + deferReason);
+    }
+    if (!sentIds.isEmpty()) {
+      emailOutboxRepo.deleteAllByIdInBatch(sentIds);
+      sent.increment(sentIds.size());
+    }
+    return claimed.size();
+  }
+
+  /**
+   * @param attempts Number of failed attempts so far, at least 1
+   * @return {@link Duration} to wait before the next attempt; the backoff doubles with every
+   *         attempt up to the maximum, and a random wait between half and all of it is used so
+   *         emails that failed together are not retried together
+   */
+  Duration getBackoff(int attempts) {
+    long exponential = backoff.toMillis() << Math.min(attempts - 1, 30);
+    long capped = exponential <= 0 ? maxBackoff.toMillis()
+            : Math.min(exponential, maxBackoff.toMillis());
+    return Duration.ofMillis(capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1));
+  }
+
+  private void recordFailure(EmailOutbox email, Exception ex) {
+    String error = String.valueOf(ex.getLocalizedMessage());
+    email.setAttempts(email.getAttempts() + 1);
+    email.setLastError(
+            error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error);
+    if (email.getAttempts() >= maxAttempts) {
+      email.setStatus(Status.Failed);
+      failed.increment();
+      LOGGER.error(
+              "Giving up on email " + email.getId() + " after " + email.getAttempts()
+                      + " attempts: " + error);
+    } else {
+      email.setNextAttempt(Timestamp.from(Instant.now().plus(getBackoff(email.getAttempts()))));
+      retried.increment();
+      LOGGER.warn("Failed to send email " + email.getId() + ", retrying later: " + error);
+    }
+    emailOutboxRepo.save(email);
+  }
+
+}
@@ -0,0 +1,93 @@
+package com.sourceware.labs.idp.service;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.sourceware.labs.idp.mail.EmailTemplate;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateExceptionHandler;
+import freemarker.template.TemplateModelException;
+
+/**
+ * Service for rendering email bodies from FreeMarker templates <br />
+ * Every {@link EmailTemplate} is parsed once when the service is created, so a missing or broken
+ * template fails startup instead of a send. A parsed template keeps its static text as ready
+ * fragments, so rendering only writes those out and substitutes the per-user variables; no
+ * template is parsed or looked up per message. The public URL of the IDP is shared with every
+ * template as publicUrl.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Service
+public class EmailTemplateService {
+
+  private static final String TEMPLATE_DIR = "/templates/email";
+
+  private final Map<EmailTemplate, Template> templates = new EnumMap<>(EmailTemplate.class);
+
+  /**
+   * @param publicUrl {@link String} URL the IDP is reached at by users, without a trailing slash
+   * @throws IOException If a template is missing or cannot be parsed
+   * @throws TemplateModelException If the public URL cannot be shared with the templates
+   */
+  public EmailTemplateService(
+          @Value("${idp.public.url}") String publicUrl) throws IOException, TemplateModelException {
+    Configuration configuration = new Configuration(Configuration.VERSION_2_3_33);
+    configuration.setClassForTemplateLoading(EmailTemplateService.class, TEMPLATE_DIR);
+    configuration.setDefaultEncoding("UTF-8");
+    configuration.setURLEscapingCharset("UTF-8");
+    configuration.setLocalizedLookup(false);
+    configuration.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+    configuration.setLogTemplateExceptions(false);
+    configuration.setSharedVariable(
+            "publicUrl",
+            publicUrl.endsWith("/") ? publicUrl.substring(0, publicUrl.length() - 1) : publicUrl);
+    for (EmailTemplate template : EmailTemplate.values()) {
+      templates.put(template, configuration.getTemplate(template.getFileName()));
+    }
+  }
+
+  /**
+   * Function for rendering the body of an email
+   *
+   * @param template {@link EmailTemplate} of the email
+   * @param variables {@link Map} of the template's variables to their values
+   * @return {@link String} rendered body
+   * @throws IllegalArgumentException If a variable the template needs is missing
+   */
+  public String render(EmailTemplate template, Map<String, ?> variables) {
+    StringWriter writer = new StringWriter(512);
+    try {
+      templates.get(template).process(variables, writer);
+    } catch (TemplateException | IOException ex) {
+      throw new IllegalArgumentException(
+              "Failed to render the " + template + " email: " + ex.getMessage(),
+              ex);
+    }
+    return writer.toString();
+  }
+
+  /**
+   * @param firstName {@link String} first name of the user
+   * @param userId {@link Long} ID of the user
+   * @param verificationToken {@link String} token that verifies the user's email
+   * @return {@link String} body of the account verification email
+   */
+  public String renderVerification(String firstName, Long userId, String verificationToken) {
+    Map<String, Object> variables = new HashMap<>();
+    variables.put("firstName", firstName);
+    variables.put("userId", userId);
+    variables.put("verificationToken", verificationToken);
+    return render(EmailTemplate.Verification, variables);
+  }
+
+}
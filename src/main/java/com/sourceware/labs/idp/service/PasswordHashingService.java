@@ -0,0 +1,251 @@
+package com.sourceware.labs.idp.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.sourceware.labs.idp.password.PasswordHashCalibrator;
+import com.sourceware.labs.idp.password.PasswordHasher;
+import com.sourceware.labs.idp.password.PasswordHashingRejectedException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Service for hashing and checking user passwords on the dedicated password hashing executor <br />
+ * New hashes use the configured algorithm; stored hashes are checked with whichever supported
+ * algorithm created them. The calling request thread only waits for the result, so the number of
+ * CPUs spent on hashing is bounded by the executor's pool, and once its queue is full calls fail
+ * fast with a {@link PasswordHashingRejectedException}. The configured cost is the minimum; it is
+ * raised by {@link #calibrate()} to the highest cost that fits the latency target on this node.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Service
+public class PasswordHashingService {
+
+  private final List<PasswordHasher> passwordHashers;
+
+  // Configured hasher of the selected algorithm; its cost is the lowest calibration may pick
+  private final PasswordHasher minimumPasswordHasher;
+
+  private final PasswordHashCalibrator passwordHashCalibrator;
+
+  private final ExecutorService passwordHashingExecutor;
+
+  private final Counter rejections;
+
+  private volatile PasswordHasher passwordHasher;
+
+  // Checked when no user exists so that unknown emails take as long as wrong passwords
+  private volatile String dummyHash;
+
+  // Cleared once the credential migration hashed every stored password
+  private volatile boolean plainPasswordsAccepted = true;
+
+  public PasswordHashingService(
+          List<PasswordHasher> passwordHashers,
+          @Value("${password.hashing.algorithm}") String algorithm,
+          PasswordHashCalibrator passwordHashCalibrator,
+          @Qualifier("passwordHashingExecutor") ExecutorService passwordHashingExecutor,
+          MeterRegistry meterRegistry) {
+    this.passwordHashers = List.copyOf(passwordHashers);
+    this.minimumPasswordHasher = passwordHashers.stream()
+            .filter(hasher -> hasher.getAlgorithm().equalsIgnoreCase(algorithm.trim()))
+            .findFirst()
+            .orElseThrow(
+                    () -> new IllegalArgumentException(
+                            "Unsupported password hashing algorithm: " + algorithm));
+    this.passwordHashCalibrator = passwordHashCalibrator;
+    this.passwordHashingExecutor = passwordHashingExecutor;
+    this.rejections = meterRegistry.counter("password.hashing.rejected");
+    Gauge.builder("password.hashing.cost", this, service -> service.getPasswordHasher().getCost())
+            .tag("algorithm", minimumPasswordHasher.getAlgorithm())
+            .register(meterRegistry);
+    setPasswordHasher(minimumPasswordHasher);
+  }
+
+  /**
+   * Function for hashing a new password with the configured algorithm
+   *
+   * @param password {@link String} plain password
+   * @return {@link String} encoded hash to store
+   * @throws PasswordHashingRejectedException If the password hashing executor is saturated
+   */
+  public String hash(String password) {
+    return join(hashAsync(password));
+  }
+
+  /**
+   * Function for hashing several values at once, e.g. a password and security answers, in parallel
+   * on the hashing executor
+   *
+   * @param passwords Plain values; null or blank ones are returned as they are so that entity
+   *          validation still rejects them
+   * @return Encoded hashes in the same order
+   * @throws PasswordHashingRejectedException If the password hashing executor is saturated
+   */
+  public List<String> hashAll(List<String> passwords) {
+    List<CompletableFuture<String>> hashes = new ArrayList<>(passwords.size());
+    for (String password : passwords) {
+      hashes.add(password == null || password.isBlank() ? CompletableFuture.completedFuture(password)
+              : hashAsync(password));
+    }
+    List<String> results = new ArrayList<>(hashes.size());
+    for (CompletableFuture<String> hash : hashes) {
+      results.add(join(hash));
+    }
+    return results;
+  }
+
+  /**
+   * Function for hashing a new password with the configured algorithm without waiting for the hash
+   *
+   * @param password {@link String} plain password
+   * @return {@link CompletableFuture} completed with the encoded hash on the hashing executor
+   * @throws PasswordHashingRejectedException If the password hashing executor is saturated
+   */
+  public CompletableFuture<String> hashAsync(String password) {
+    PasswordHasher hasher = passwordHasher;
+    return submit(() -> hasher.hash(password));
+  }
+
+  /**
+   * Function for checking a password against a stored value <br />
+   * Values that no supported algorithm created are passwords stored before they were hashed and
+   * are compared in constant time instead, until {@link #rejectPlainPasswords()} is called once
+   * the credential migration completed; from then on they never match.
+   *
+   * @param password {@link String} plain password
+   * @param encoded {@link String} stored password value or null if there is no user, in which case
+   *          a dummy hash is checked so that the response takes as long as for a wrong password
+   * @return true if the password matches
+   * @throws PasswordHashingRejectedException If the password hashing executor is saturated
+   */
+  public boolean matches(String password, String encoded) {
+    if (encoded == null) {
+      run(() -> passwordHasher.matches(password, dummyHash));
+      return false;
+    }
+    PasswordHasher hasher = getHasher(encoded);
+    if (hasher != null) {
+      return run(() -> hasher.matches(password, encoded));
+    }
+    if (!plainPasswordsAccepted) {
+      run(() -> passwordHasher.matches(password, dummyHash));
+      return false;
+    }
+    return MessageDigest.isEqual(
+            password.getBytes(StandardCharsets.UTF_8),
+            encoded.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Function for no longer accepting stored values that no supported algorithm created as plain
+   * passwords, called once the credential migration hashed all of them
+   */
+  public void rejectPlainPasswords() {
+    plainPasswordsAccepted = false;
+  }
+
+  /**
+   * @return true if stored values that no supported algorithm created are still compared as plain
+   *         passwords
+   */
+  public boolean isPlainPasswordsAccepted() {
+    return plainPasswordsAccepted;
+  }
+
+  /**
+   * @param encoded {@link String} stored password value
+   * @return true if the value is a hash of a supported algorithm rather than a plain password
+   */
+  public boolean isHashed(String encoded) {
+    return getHasher(encoded) != null;
+  }
+
+  /**
+   * @param encoded {@link String} stored password value
+   * @return true if the value is a plain password or a hash of another algorithm or with a lower
+   *         cost than new hashes use
+   */
+  public boolean needsRehash(String encoded) {
+    PasswordHasher hasher = getHasher(encoded);
+    PasswordHasher current = passwordHasher;
+    return hasher == null || !hasher.getAlgorithm().equals(current.getAlgorithm())
+            || current.needsRehash(encoded);
+  }
+
+  /**
+   * Function for benchmarking the configured algorithm on this node and using the highest cost that
+   * fits the latency target for new hashes <br />
+   * Measures on the calling thread and takes a few seconds, so it should not run on a request
+   * thread. Existing hashes keep the cost they were created with.
+   *
+   * @return {@link PasswordHasher} used for new hashes from now on
+   */
+  public PasswordHasher calibrate() {
+    PasswordHasher calibrated = passwordHashCalibrator.calibrate(minimumPasswordHasher);
+    if (calibrated.getCost() != passwordHasher.getCost()) {
+      setPasswordHasher(calibrated);
+    }
+    return calibrated;
+  }
+
+  /**
+   * @return {@link PasswordHasher} used for new hashes
+   */
+  public PasswordHasher getPasswordHasher() {
+    return passwordHasher;
+  }
+
+  private void setPasswordHasher(PasswordHasher passwordHasher) {
+    this.dummyHash = passwordHasher.hash("dummy password");
+    this.passwordHasher = passwordHasher;
+  }
+
+  private PasswordHasher getHasher(String encoded) {
+    for (PasswordHasher hasher : passwordHashers) {
+      if (hasher.supports(encoded)) {
+        return hasher;
+      }
+    }
+    return null;
+  }
+
+  private <T> T run(Supplier<T> task) {
+    return join(submit(task));
+  }
+
+  private <T> CompletableFuture<T> submit(Supplier<T> task) {
+    try {
+      return CompletableFuture.supplyAsync(task, passwordHashingExecutor);
+    } catch (RejectedExecutionException ex) {
+      rejections.increment();
+      throw new PasswordHashingRejectedException(ex);
+    }
+  }
+
+  private static <T> T join(CompletableFuture<T> result) {
+    try {
+      return result.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw ex;
+    }
+  }
+
+}
@@ -0,0 +1,194 @@
+package com.sourceware.labs.idp.service;
+
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.sourceware.labs.idp.util.SessionCookie;
+
+/**
+ * Service for holding sessions in memory behind short random handles, used when the session cookie
+ * only carries a handle instead of the full {@link SessionCookie} (reference token mode) <br />
+ * Sessions are spread over independent shards selected by the handle so that logins, token
+ * exchanges and the expiry sweep of one shard do not contend with the others. Each shard holds at
+ * most its share of the capacity; when a shard is full its expired sessions are dropped first and
+ * then the session closest to expiring is evicted.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Service
+public class SessionStore {
+
+  // Random bytes per handle; 256 bits so handles cannot be guessed
+  private static final int HANDLE_BYTES = 32;
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+  private final SecureRandom random = new SecureRandom();
+
+  private final Shard[] shards;
+
+  private final int shardCapacity;
+
+  /**
+   * @param capacity Maximum number of sessions held across all shards
+   */
+  public SessionStore(@Value("${session.store.capacity}") int capacity) {
+    // Smallest power of two of at least 4 shards per processor so a shard is selected with a mask
+    int minShards = Runtime.getRuntime().availableProcessors() * 4;
+    int shardCount = Integer.highestOneBit(minShards - 1) << 1;
+    this.shards = new Shard[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = new Shard();
+    }
+    this.shardCapacity = Math.max(1, capacity / shardCount);
+  }
+
+  /**
+   * Function for storing a new session under a new random handle
+   *
+   * @param session {@link SessionCookie} holding the tokens of the session
+   * @param expiresAt {@link Instant} after which the session is dropped, i.e. the refresh token's
+   *          exp
+   * @return {@link String} URL safe handle of the session
+   */
+  public String create(SessionCookie session, Instant expiresAt) {
+    byte[] bytes = new byte[HANDLE_BYTES];
+    random.nextBytes(bytes);
+    String handle = ENCODER.encodeToString(bytes);
+    shard(handle).put(handle, new Entry(session, expiresAt), shardCapacity);
+    return handle;
+  }
+
+  /**
+   * @param handle {@link String} handle of the session
+   * @param now {@link Instant} to check the expiration against
+   * @return {@link SessionCookie} of the session or null if it does not exist or expired
+   */
+  public SessionCookie get(String handle, Instant now) {
+    if (handle == null) {
+      return null;
+    }
+    Entry entry = shard(handle).sessions.get(handle);
+    return entry == null || !now.isBefore(entry.expiresAt()) ? null : entry.session();
+  }
+
+  /**
+   * Function for replacing the session of an existing handle, e.g. after its tokens were refreshed
+   *
+   * @param handle {@link String} handle of the session
+   * @param session {@link SessionCookie} holding the new tokens
+   * @param expiresAt {@link Instant} after which the session is dropped
+   */
+  public void update(String handle, SessionCookie session, Instant expiresAt) {
+    shard(handle).sessions.replace(handle, new Entry(session, expiresAt));
+  }
+
+  /**
+   * @param handle {@link String} handle of the session
+   * @return {@link SessionCookie} that was removed or null if there was none
+   */
+  public SessionCookie remove(String handle) {
+    if (handle == null) {
+      return null;
+    }
+    Entry entry = shard(handle).sessions.remove(handle);
+    return entry == null ? null : entry.session();
+  }
+
+  /**
+   * Function for dropping every expired session
+   *
+   * @param now {@link Instant} to check expirations against
+   * @return Number of sessions dropped
+   */
+  public int purgeExpired(Instant now) {
+    int purged = 0;
+    for (Shard shard : shards) {
+      purged += shard.purgeExpired(now);
+    }
+    return purged;
+  }
+
+  /**
+   * @return Number of sessions held, including expired ones that were not purged yet
+   */
+  public int size() {
+    int size = 0;
+    for (Shard shard : shards) {
+      size += shard.sessions.size();
+    }
+    return size;
+  }
+
+  private Shard shard(String handle) {
+    int hash = handle.hashCode();
+    return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+  }
+
+  /**
+   * Session and the time it expires at
+   */
+  private record Entry(SessionCookie session, Instant expiresAt) {
+  }
+
+  /**
+   * Independent part of the store
+   */
+  private static class Shard {
+
+    private final Map<String, Entry> sessions = new ConcurrentHashMap<>();
+
+    // Lock instead of synchronized so a waiting virtual thread does not pin its carrier thread
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private void put(String handle, Entry entry, int capacity) {
+      if (sessions.size() >= capacity) {
+        evictionLock.lock();
+        try {
+          if (sessions.size() >= capacity && purgeExpired(Instant.now()) == 0) {
+            evictSoonestExpiring();
+          }
+        } finally {
+          evictionLock.unlock();
+        }
+      }
+      sessions.put(handle, entry);
+    }
+
+    private int purgeExpired(Instant now) {
+      int purged = 0;
+      Iterator<Entry> iterator = sessions.values().iterator();
+      while (iterator.hasNext()) {
+        if (!now.isBefore(iterator.next().expiresAt())) {
+          iterator.remove();
+          purged++;
+        }
+      }
+      return purged;
+    }
+
+    private void evictSoonestExpiring() {
+      String soonest = null;
+      Instant soonestExpiration = null;
+      for (Map.Entry<String, Entry> session : sessions.entrySet()) {
+        if (soonestExpiration == null || session.getValue().expiresAt().isBefore(soonestExpiration)) {
+          soonest = session.getKey();
+          soonestExpiration = session.getValue().expiresAt();
+        }
+      }
+      if (soonest != null) {
+        sessions.remove(soonest);
+      }
+    }
+
+  }
+
+}
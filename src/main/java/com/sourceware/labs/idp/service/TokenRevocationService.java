@@ -0,0 +1,171 @@
+package com.sourceware.labs.idp.service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.sourceware.labs.idp.entity.RevokedToken;
+import com.sourceware.labs.idp.jwt.JtiBloomFilter;
+import com.sourceware.labs.idp.repo.RevokedTokenRepo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Service for revoking tokens before their expiration by their jti (JWT ID) claim <br />
+ * Revoked IDs are stored in the RevokedTokens table, which is the exact source of truth, and added
+ * to an in-memory {@link JtiBloomFilter}. A check only queries the table when the filter reports
+ * that the ID was possibly revoked, so verifying a token that was not revoked normally needs no
+ * lookup. Once the sync interval passed, the next check first adds the IDs revoked since the last
+ * sync, e.g. by other instances, to the filter with one indexed query; a check that finds another
+ * thread syncing looks the ID up instead. A revocation made on another instance is therefore seen
+ * here within the sync interval. Rows are purged once their token has expired anyway and the
+ * filter is rebuilt from the remaining rows.
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@Service
+public class TokenRevocationService {
+
+  // IDs revoked this long before the last sync are read again by the next one, to cover clock
+  // differences between instances and transactions that committed after the last sync
+  private static final Duration SYNC_OVERLAP = Duration.ofSeconds(5);
+
+  private final RevokedTokenRepo revokedTokenRepo;
+
+  private final long expectedRevocations;
+
+  private final double falsePositiveProbability;
+
+  private final Duration syncInterval;
+
+  private final Counter filteredChecks;
+
+  private final Counter lookupChecks;
+
+  // Serializes syncs and rebuilds so that IDs synced into a filter that is being replaced are not
+  // lost; a lock so that virtual threads waiting for it unmount
+  private final ReentrantLock syncLock = new ReentrantLock();
+
+  // Null until the filter is first built from the table; every check is a lookup until then
+  private volatile JtiBloomFilter filter;
+
+  // Start of the last sync or rebuild; the filter holds every ID revoked before it
+  private volatile Instant syncedAt = Instant.EPOCH;
+
+  public TokenRevocationService(
+          RevokedTokenRepo revokedTokenRepo,
+          @Value("${jwt.revocation.expected}") long expectedRevocations,
+          @Value("${jwt.revocation.fpp}") double falsePositiveProbability,
+          @Value("${jwt.revocation.sync}") Duration syncInterval,
+          MeterRegistry meterRegistry) {
+    this.revokedTokenRepo = revokedTokenRepo;
+    this.expectedRevocations = expectedRevocations;
+    this.falsePositiveProbability = falsePositiveProbability;
+    this.syncInterval = syncInterval;
+    this.filteredChecks = meterRegistry.counter("token.revocation.checks", "result", "filtered");
+    this.lookupChecks = meterRegistry.counter("token.revocation.checks", "result", "lookup");
+  }
+
+  /**
+   * Function for revoking a token; tokens that already expired are ignored
+   *
+   * @param jti {@link String} ID of the token
+   * @param expiration {@link Instant} exp of the token
+   */
+  public void revoke(String jti, Instant expiration) {
+    if (jti == null || !expiration.isAfter(Instant.now())) {
+      return;
+    }
+    revokedTokenRepo.save(
+            new RevokedToken(jti, Timestamp.from(expiration), Timestamp.from(Instant.now())));
+    JtiBloomFilter current = filter;
+    if (current != null) {
+      current.put(jti);
+    }
+  }
+
+  /**
+   * @param jti {@link String} ID of the token
+   * @return true if the token was revoked
+   */
+  public boolean isRevoked(String jti) {
+    if (jti == null) {
+      return false;
+    }
+    JtiBloomFilter current = filter;
+    if (current != null && sync(current) && !current.mightContain(jti)) {
+      filteredChecks.increment();
+      return false;
+    }
+    lookupChecks.increment();
+    return revokedTokenRepo.existsById(jti);
+  }
+
+  /**
+   * Function for deleting the revocations of expired tokens and rebuilding the filter from the
+   * remaining ones
+   *
+   * @param now {@link Instant} to compare expirations against
+   * @return Number of revocations that were purged
+   */
+  public int purgeAndRebuild(Instant now) {
+    Timestamp time = Timestamp.from(now);
+    int purged = revokedTokenRepo.deleteByExpirationNotAfter(time);
+    syncLock.lock();
+    try {
+      Instant started = Instant.now();
+      List<String> revoked = revokedTokenRepo.findJtiByExpirationAfter(time);
+      JtiBloomFilter rebuilt = new JtiBloomFilter(
+              Math.max(expectedRevocations, revoked.size() * 2L),
+              falsePositiveProbability);
+      revoked.forEach(rebuilt::put);
+      filter = rebuilt;
+      syncedAt = started;
+      // A token revoked here during the rebuild may only have been added to the replaced filter;
+      // its row was saved before the swap so reading the rows again covers it
+      revokedTokenRepo.findJtiByExpirationAfter(time).forEach(rebuilt::put);
+    } finally {
+      syncLock.unlock();
+    }
+    return purged;
+  }
+
+  /**
+   * Helper function for adding the IDs revoked since the last sync to the filter once the sync
+   * interval passed
+   *
+   * @return true if the filter holds every ID revoked before the sync interval, false if another
+   *         thread is syncing it so the ID has to be looked up
+   */
+  private boolean sync(JtiBloomFilter current) {
+    Instant now = Instant.now();
+    if (now.isBefore(syncedAt.plus(syncInterval))) {
+      return true;
+    }
+    if (!syncLock.tryLock()) {
+      return false;
+    }
+    try {
+      Instant last = syncedAt;
+      if (current != filter) {
+        // Replaced by a rebuild that read every row
+        return false;
+      }
+      if (!now.isBefore(last.plus(syncInterval))) {
+        revokedTokenRepo.findJtiByRevokedAfter(Timestamp.from(last.minus(SYNC_OVERLAP)))
+                .forEach(current::put);
+        syncedAt = now;
+      }
+      return true;
+    } finally {
+      syncLock.unlock();
+    }
+  }
+
+}
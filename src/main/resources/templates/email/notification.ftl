@@ -0,0 +1,7 @@
+Sourceware Labs IDP
+
+Hi ${firstName!"there"},
+
+${message}
+
+Manage your account at ${publicUrl}
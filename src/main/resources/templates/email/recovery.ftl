@@ -0,0 +1,5 @@
+Sourceware Labs IDP
+
+Hi ${firstName!"there"}, use the following code to recover your account: ${recoveryCode}
+The code expires in ${expiresInMinutes?c} minutes. If you did not request it, you can ignore this
+email and your account stays unchanged.
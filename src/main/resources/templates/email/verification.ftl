@@ -0,0 +1,4 @@
+Sourceware Labs IDP
+
+Welcome ${firstName!"there"}, open the following link to verify your account:
+${publicUrl}/user/verify/${userId?c}/${verificationToken?url}
@@ -35,6 +35,7 @@ import com.sourceware.labs.idp.util.RestError.RestErrorBuilder;
     "cloud.aws.stack.auto=false",
     "cloud.aws.credentials.access-key=testAccessKey",
     "cloud.aws.credentials.secret-key=testSecretKey",
+    "email.rate.max=14",
     "keystore.store.password=testPass",
     "keystore.key.token.password=testKeyPass",
     "spring.datasource.hikari.schema=public" })
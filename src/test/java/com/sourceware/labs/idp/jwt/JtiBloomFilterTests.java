@@ -0,0 +1,62 @@
+package com.sourceware.labs.idp.jwt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+/**
+ * Testing class for the Bloom filter of revoked token IDs
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class JtiBloomFilterTests {
+
+  /**
+   * Test that every added ID is reported as possibly contained and that unknown IDs are reported
+   * at about the configured false positive probability
+   */
+  @Test
+  public void testNoFalseNegativesAndBoundedFalsePositives() {
+    int expected = 10000;
+    double fpp = 0.01;
+    JtiBloomFilter filter = new JtiBloomFilter(expected, fpp);
+    List<String> added = new ArrayList<>();
+    for (int i = 0; i < expected; i++) {
+      String jti = UUID.randomUUID().toString();
+      added.add(jti);
+      filter.put(jti);
+    }
+    for (String jti : added) {
+      Assertions.assertTrue(filter.mightContain(jti));
+    }
+
+    int falsePositives = 0;
+    int checks = 100000;
+    for (int i = 0; i < checks; i++) {
+      if (filter.mightContain(UUID.randomUUID().toString())) {
+        falsePositives++;
+      }
+    }
+    // Allow twice the configured rate for randomness
+    Assertions.assertTrue(
+            falsePositives < checks * fpp * 2,
+            "False positive rate too high: " + falsePositives + "/" + checks);
+    Assertions.assertEquals(7, filter.getHashCount());
+  }
+
+  /**
+   * Test that a false positive probability outside of (0, 1) is rejected
+   */
+  @Test
+  public void testInvalidProbability() {
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new JtiBloomFilter(10, 0));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new JtiBloomFilter(10, 1));
+  }
+
+}
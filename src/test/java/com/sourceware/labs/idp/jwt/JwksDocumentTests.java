@@ -0,0 +1,73 @@
+package com.sourceware.labs.idp.jwt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.sourceware.labs.idp.keystore.IdpKeyRing;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class JwksDocumentTests {
+
+  @Test
+  public void testDocumentBuiltOncePerRing() throws JOSEException, NoSuchAlgorithmException {
+    IdpKeyRing ring = new IdpKeyRing(List.of(entry("first", Instant.now())));
+    JwksDocument document = JwksDocument.forKeyRing(ring);
+    Assertions.assertSame(document, JwksDocument.forKeyRing(ring));
+
+    IdpKeyRing rotated = new IdpKeyRing(
+            List.of(ring.getEntries().get(0), entry("second", Instant.now().plusSeconds(60))));
+    JwksDocument rotatedDocument = JwksDocument.forKeyRing(rotated);
+    Assertions.assertNotSame(document, rotatedDocument);
+    Assertions.assertNotEquals(document.getEtag(), rotatedDocument.getEtag());
+  }
+
+  @Test
+  public void testOnlyPublicKeysPublished() throws JOSEException, NoSuchAlgorithmException, ParseException {
+    Instant now = Instant.now();
+    IdpKeyRing ring = new IdpKeyRing(
+            List.of(entry("active", now), entry("pending", now.plusSeconds(60))));
+    JWKSet published = JWKSet.parse(
+            new String(JwksDocument.build(ring).getContent(), StandardCharsets.UTF_8));
+    Assertions.assertEquals(2, published.size());
+    for (JWK key : published.getKeys()) {
+      Assertions.assertFalse(key.isPrivate());
+      Assertions.assertEquals(JWSAlgorithm.ES256, key.getAlgorithm());
+    }
+    Assertions.assertNotNull(published.getKeyByKeyId("pending"));
+  }
+
+  @Test
+  public void testIfNoneMatch() throws JOSEException, NoSuchAlgorithmException {
+    JwksDocument document = JwksDocument
+            .build(new IdpKeyRing(List.of(entry("first", Instant.now()))));
+    String etag = document.getEtag();
+    Assertions.assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+    Assertions.assertTrue(document.matches(etag));
+    Assertions.assertTrue(document.matches("\"other\", W/" + etag));
+    Assertions.assertTrue(document.matches("*"));
+    Assertions.assertFalse(document.matches("\"other\""));
+    Assertions.assertFalse(document.matches(null));
+  }
+
+  private IdpKeyRing.Entry entry(String keyId, Instant activatesAt) throws JOSEException {
+    ECKey key = new ECKeyGenerator(Curve.P_256).algorithm(JWSAlgorithm.ES256)
+            .keyID(keyId)
+            .generate();
+    return new IdpKeyRing.Entry(keyId, keyId, key, activatesAt);
+  }
+}
@@ -0,0 +1,56 @@
+package com.sourceware.labs.idp.jwt;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.util.Base64URL;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class JwsCryptoRegistryTests {
+
+  private final String keyId = "registryTestKeyId";
+
+  @Test
+  public void testSignerReused() throws JOSEException {
+    ECKey key = generateKey();
+    JWSSigner signer = JwsCryptoRegistry.getSigner(key);
+    Assertions.assertSame(signer, JwsCryptoRegistry.getSigner(key));
+    Assertions.assertSame(JwsCryptoRegistry.getVerifier(key), JwsCryptoRegistry.getVerifier(key));
+  }
+
+  @Test
+  public void testRotatedKeyRebuildsSigner() throws JOSEException {
+    ECKey oldKey = generateKey();
+    ECKey newKey = generateKey();
+    JWSSigner oldSigner = JwsCryptoRegistry.getSigner(oldKey);
+    JWSSigner newSigner = JwsCryptoRegistry.getSigner(newKey);
+    Assertions.assertNotSame(oldSigner, newSigner);
+
+    JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.ES256).keyID(keyId).build();
+    byte[] signingInput = "registry-test".getBytes();
+    Base64URL signature = newSigner.sign(header, signingInput);
+    Assertions.assertTrue(
+            JwsCryptoRegistry.getVerifier(newKey).verify(header, signingInput, signature));
+    Assertions.assertFalse(
+            JwsCryptoRegistry.getVerifier(oldKey).verify(header, signingInput, signature));
+  }
+
+  @Test
+  public void testPublicKeyCannotSign() throws JOSEException {
+    ECKey key = generateKey().toPublicJWK();
+    Assertions.assertThrows(JOSEException.class, () -> JwsCryptoRegistry.getSigner(key));
+  }
+
+  private ECKey generateKey() throws JOSEException {
+    return new ECKeyGenerator(Curve.P_256).algorithm(JWSAlgorithm.ES256).keyID(keyId).generate();
+  }
+}
@@ -7,7 +7,9 @@ import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
 import java.text.ParseException;
+import java.time.Instant;
 import java.util.List;
+import java.util.Optional;
 
 import org.bouncycastle.operator.OperatorCreationException;
 import org.junit.jupiter.api.AfterAll;
@@ -20,11 +22,18 @@ import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.TestInstance.Lifecycle;
 import org.junit.jupiter.api.TestMethodOrder;
 
-import com.google.gson.Gson;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.OctetKeyPairGenerator;
+import com.nimbusds.jose.jwk.gen.OctetSequenceKeyGenerator;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
+import com.sourceware.labs.idp.keystore.IdpKeyRing;
 import com.sourceware.labs.idp.keystore.IdpKeyStoreAccessor;
 import com.sourceware.labs.idp.keystore.IdpKeyStoreData;
 
@@ -76,7 +85,7 @@ public class JwtManagerTests {
             Long.valueOf(1),
             "testApplication",
             "testRole",
-            List.of("perm1", "perm2"));
+            PermissionSet.of(0, 1));
     Assertions.assertNotNull(jwt.serialize());
     Assertions.assertTrue(
             JwtManager
@@ -95,16 +104,172 @@ public class JwtManagerTests {
             Long.valueOf(1),
             "testApplication",
             "testRole",
-            List.of("perm1", "perm2"));
+            PermissionSet.of(0, 1));
     Assertions.assertNotNull(jwt.serialize());
     validateJwtClaimSet(jwt.serialize());
   }
   
-  public void validateJwtClaimSet(String jwt) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, ParseException, IOException, JOSEException {
-    JWTClaimsSet claimSet = JwtManager.getClaimsSetFromJwt(jwt, JWSAlgorithm.ES256, ecIdpKeyStoreData);
+  @Test
+  @Order(3)
+  public void testEdDsaJwt() throws JOSEException, ParseException {
+    OctetKeyPair key = new OctetKeyPairGenerator(Curve.Ed25519).algorithm(JWSAlgorithm.EdDSA)
+            .keyID("edTestKeyId")
+            .generate();
+    SignedJWT jwt = JwtManager.getSignedJwtToken(
+            key,
+            clientId,
+            audience,
+            tokenExpiration,
+            Long.valueOf(1),
+            "testApplication",
+            "testRole",
+            PermissionSet.of(0, 1));
+    Assertions.assertEquals(JWSAlgorithm.EdDSA, jwt.getHeader().getAlgorithm());
+    IdpKeyRing ring = new IdpKeyRing(
+            List.of(new IdpKeyRing.Entry("edTestKeyId", "edTestKeyAlias", key, Instant.now())));
+    Assertions.assertTrue(JwtManager.verifySignedJwtToken(jwt.serialize(), ring));
+  }
+
+  @Test
+  @Order(4)
+  public void testHmacServiceJwt() throws JOSEException, ParseException {
+    OctetSequenceKey secret = new OctetSequenceKeyGenerator(256).algorithm(JWSAlgorithm.HS256)
+            .keyID("hmacTestKeyId")
+            .generate();
+    SignedJWT jwt = JwtManager.getSignedJwtToken(
+            secret,
+            clientId,
+            audience,
+            tokenExpiration,
+            Long.valueOf(1),
+            "testApplication",
+            "testRole",
+            PermissionSet.of(0, 1));
+    IdpKeyRing emptyRing = new IdpKeyRing(List.of());
+    Assertions.assertTrue(JwtManager.verifySignedJwtToken(jwt.serialize(), emptyRing, secret));
+    // Applications that did not opt in do not accept HMAC tokens
+    Assertions.assertFalse(JwtManager.verifySignedJwtToken(jwt.serialize(), emptyRing));
+  }
+
+  @Test
+  @Order(5)
+  public void testPublicKeyNotAcceptedAsHmacSecret() throws JOSEException, ParseException {
+    ECKey key = new ECKeyGenerator(Curve.P_256).algorithm(JWSAlgorithm.ES256)
+            .keyID(ecKeyId)
+            .generate();
+    IdpKeyRing ring = new IdpKeyRing(
+            List.of(new IdpKeyRing.Entry(ecKeyId, ecKeyAlias, key, Instant.now())));
+    // Forge a token using the published public key as the HMAC secret
+    OctetSequenceKey forged = new OctetSequenceKey.Builder(
+            key.toPublicJWK().toJSONString().getBytes()).algorithm(JWSAlgorithm.HS256)
+            .keyID(ecKeyId)
+            .build();
+    SignedJWT jwt = JwtManager.getSignedJwtToken(
+            forged,
+            clientId,
+            audience,
+            tokenExpiration,
+            Long.valueOf(1),
+            "testApplication",
+            "testRole",
+            PermissionSet.EMPTY);
+    Assertions.assertFalse(JwtManager.verifySignedJwtToken(jwt.serialize(), ring));
+  }
+
+  @Test
+  @Order(6)
+  public void testVerifyJwtReturnsClaims() throws JOSEException, ParseException {
+    ECKey key = new ECKeyGenerator(Curve.P_256).algorithm(JWSAlgorithm.ES256)
+            .keyID(ecKeyId)
+            .generate();
+    IdpKeyRing ring = new IdpKeyRing(
+            List.of(new IdpKeyRing.Entry(ecKeyId, ecKeyAlias, key, Instant.now())));
+    String jwt = JwtManager.getSignedJwtToken(
+            key,
+            clientId,
+            audience,
+            tokenExpiration,
+            Long.valueOf(1),
+            "testApplication",
+            "testRole",
+            PermissionSet.of(0, 1)).serialize();
+
+    Optional<VerifiedJwt> verified = JwtManager.verifyJwt(jwt, ring, null, Instant.now());
+    Assertions.assertTrue(verified.isPresent());
+    Assertions.assertSame(key, verified.get().getKey());
+    Assertions.assertEquals(Long.valueOf(1), verified.get().getUserId());
+    Assertions.assertEquals("testApplication", verified.get().getApplication());
+    Assertions.assertEquals("testRole", verified.get().getRoleName());
+    Assertions.assertEquals(PermissionSet.of(0, 1), verified.get().getPermissions());
+
+    // Expired tokens are rejected even though the signature still matches
+    Instant afterExpiration = Instant.now().plusSeconds(tokenExpiration + 60);
+    Assertions.assertTrue(JwtManager.verifySignedJwtToken(jwt, ring));
+    Assertions.assertTrue(JwtManager.verifyJwt(jwt, ring, null, afterExpiration).isEmpty());
+    Assertions.assertTrue(
+            JwtManager.verifyJwt(jwt, new IdpKeyRing(List.of()), null, Instant.now()).isEmpty());
+  }
+
+  @Test
+  @Order(7)
+  public void testTemplateJwtMatchesBuiltJwt() throws JOSEException, ParseException {
+    ECKey key = new ECKeyGenerator(Curve.P_256).algorithm(JWSAlgorithm.ES256)
+            .keyID(ecKeyId)
+            .generate();
+    IdpKeyRing ring = new IdpKeyRing(
+            List.of(new IdpKeyRing.Entry(ecKeyId, ecKeyAlias, key, Instant.now())));
+    Assertions.assertSame(
+            JwtTemplate.get(key, clientId, audience),
+            JwtTemplate.get(key, clientId, audience));
+
+    // Audiences of every length modulo 3 so each static claim padding is exercised
+    for (String aud : List.of(audience, audience + "1", audience + "12")) {
+      PermissionSet permissions = PermissionSet.of(0, 2, 9);
+      SignedJWT built = JwtManager.getSignedJwtToken(
+              key,
+              clientId,
+              aud,
+              tokenExpiration,
+              Long.valueOf(1),
+              "testApplication",
+              "testRole",
+              permissions);
+      String jwt = JwtManager.issueJwtToken(
+              key,
+              clientId,
+              aud,
+              tokenExpiration,
+              Long.valueOf(1),
+              "testApplication",
+              "testRole",
+              permissions);
+
+      Optional<VerifiedJwt> verified = JwtManager.verifyJwt(jwt, ring, null, Instant.now());
+      Assertions.assertTrue(verified.isPresent());
+      Assertions.assertEquals(
+              built.getHeader().toJSONObject(),
+              verified.get().getSignedJwt().getHeader().toJSONObject());
+      JWTClaimsSet expected = built.getJWTClaimsSet();
+      JWTClaimsSet actual = verified.get().getClaimsSet();
+      Assertions.assertEquals(expected.getIssuer(), actual.getIssuer());
+      Assertions.assertEquals(expected.getSubject(), actual.getSubject());
+      Assertions.assertEquals(expected.getAudience(), actual.getAudience());
+      Assertions.assertEquals(expected.getClaim("kid"), actual.getClaim("kid"));
+      Assertions.assertEquals(Long.valueOf(1), verified.get().getUserId());
+      Assertions.assertEquals("testApplication", verified.get().getApplication());
+      Assertions.assertEquals("testRole", verified.get().getRoleName());
+      Assertions.assertEquals(permissions, verified.get().getPermissions());
+      Assertions.assertTrue(
+              Math.abs(expected.getExpirationTime().getTime()
+                      - actual.getExpirationTime().getTime()) <= 1000);
+    }
+  }
+
+  public void validateJwtClaimSet(String jwt) throws ParseException {
+    JWTClaimsSet claimSet = JwtManager.getClaimsSetFromJwt(jwt);
     Assertions.assertEquals(Long.valueOf(1), claimSet.getLongClaim("userId"));
     Assertions.assertEquals("testApplication", claimSet.getStringClaim("application"));
     Assertions.assertEquals("testRole", claimSet.getStringClaim("roleName"));
-    Assertions.assertIterableEquals(List.of("perm1", "perm2"), List.of(new Gson().fromJson(claimSet.getStringClaim("additionalPermissions"), String[].class)));
+    Assertions.assertEquals(PermissionSet.of(0, 1), PermissionSet.decode(claimSet.getStringClaim("perms")));
   }
 }
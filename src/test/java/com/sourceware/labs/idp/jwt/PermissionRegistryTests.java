@@ -0,0 +1,68 @@
+package com.sourceware.labs.idp.jwt;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+/**
+ * Testing class for carrying permissions as bitmasks
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class PermissionRegistryTests {
+
+  private final PermissionRegistry registry = new PermissionRegistry(
+          Map.of(
+                  "testApplication",
+                  List.of("read", "write", "delete", "p3", "p4", "p5", "p6", "p7", "admin")));
+
+  /**
+   * Test that permissions are encoded to their bits and read back from the claim value
+   */
+  @Test
+  public void testEncodeAndDecode() {
+    PermissionSet permissions = registry.encode("testApplication", List.of("admin", "read"));
+    Assertions.assertEquals(PermissionSet.of(0, 8), permissions);
+    // Bit 0 in the first byte and bit 8 in the second
+    Assertions.assertEquals("AQE", permissions.encode());
+    Assertions.assertEquals(permissions, PermissionSet.decode(permissions.encode()));
+    Assertions.assertIterableEquals(
+            List.of("read", "admin"),
+            registry.decode("testApplication", permissions));
+
+    Assertions.assertTrue(registry.hasPermission("testApplication", permissions, "admin"));
+    Assertions.assertFalse(registry.hasPermission("testApplication", permissions, "write"));
+    Assertions.assertFalse(registry.hasPermission("testApplication", permissions, "unknown"));
+    Assertions.assertFalse(registry.hasPermission("otherApplication", permissions, "admin"));
+
+    Assertions.assertEquals("", PermissionSet.EMPTY.encode());
+    Assertions.assertSame(PermissionSet.EMPTY, PermissionSet.decode(""));
+    Assertions.assertSame(PermissionSet.EMPTY, PermissionSet.decode(null));
+    Assertions.assertSame(PermissionSet.EMPTY, registry.encode("testApplication", List.of()));
+  }
+
+  /**
+   * Test that unregistered permissions are refused when issuing and skipped when reading
+   */
+  @Test
+  public void testUnregisteredPermissions() {
+    Assertions.assertThrows(
+            IllegalStateException.class,
+            () -> registry.encode("testApplication", List.of("read", "unknown")));
+    Assertions.assertThrows(
+            IllegalStateException.class,
+            () -> registry.encode("otherApplication", List.of("read")));
+    Assertions.assertIterableEquals(
+            List.of("write"),
+            registry.decode("testApplication", PermissionSet.of(1, 40)));
+    Assertions.assertThrows(
+            IllegalArgumentException.class,
+            () -> new PermissionRegistry(Map.of("testApplication", List.of("read", "read"))));
+  }
+
+}
@@ -0,0 +1,90 @@
+package com.sourceware.labs.idp.jwt;
+
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.OctetSequenceKeyGenerator;
+import com.sourceware.labs.idp.keystore.IdpKeyRing;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class VerifiedJwtCacheTests {
+
+  private final String clientId = "Sourceware Labs Frontend";
+  private final String audience = "Sourceware Labs Backend";
+
+  private String issue(JWK key) throws JOSEException {
+    return JwtManager.issueJwtToken(
+            key,
+            clientId,
+            audience,
+            60,
+            Long.valueOf(1),
+            "testApplication",
+            "testRole",
+            PermissionSet.of(0));
+  }
+
+  @Test
+  public void testRepeatedTokenIsCacheHit() throws JOSEException, ParseException {
+    ECKey key = new ECKeyGenerator(Curve.P_256).algorithm(JWSAlgorithm.ES256)
+            .keyID("cacheTestKeyId")
+            .generate();
+    IdpKeyRing ring = new IdpKeyRing(
+            List.of(new IdpKeyRing.Entry(key.getKeyID(), "cacheTestKeyAlias", key, Instant.now())));
+    VerifiedJwtCache cache = new VerifiedJwtCache(10);
+    String jwt = issue(key);
+
+    Optional<VerifiedJwt> first = cache.verify(jwt, ring, null, Instant.now());
+    Optional<VerifiedJwt> second = cache.verify(jwt, ring, null, Instant.now());
+    Assertions.assertTrue(first.isPresent());
+    Assertions.assertSame(first.get(), second.get());
+    Assertions.assertEquals(1, cache.getCache().stats().hitCount());
+    Assertions.assertEquals(1, cache.getCache().stats().missCount());
+
+    // Cached tokens are not served past their exp or once their key left the ring
+    Instant afterExpiration = Instant.now().plusSeconds(120);
+    Assertions.assertTrue(cache.verify(jwt, ring, null, afterExpiration).isEmpty());
+    Assertions.assertTrue(
+            cache.verify(jwt, new IdpKeyRing(List.of()), null, Instant.now()).isEmpty());
+
+    // Tokens that fail verification are not cached
+    String tampered = jwt.substring(0, jwt.length() - 4) + "AAAA";
+    Assertions.assertTrue(cache.verify(tampered, ring, null, Instant.now()).isEmpty());
+    Assertions.assertTrue(cache.verify(tampered, ring, null, Instant.now()).isEmpty());
+    cache.getCache().cleanUp();
+    Assertions.assertEquals(1, cache.getCache().estimatedSize());
+  }
+
+  @Test
+  public void testServiceTokenOnlyHitsForSameSecret() throws JOSEException, ParseException {
+    OctetSequenceKey secret = new OctetSequenceKeyGenerator(256).algorithm(JWSAlgorithm.HS256)
+            .keyID("cacheTestSecret")
+            .generate();
+    OctetSequenceKey otherSecret = new OctetSequenceKeyGenerator(256)
+            .algorithm(JWSAlgorithm.HS256)
+            .keyID("cacheTestSecret")
+            .generate();
+    IdpKeyRing ring = new IdpKeyRing(List.of());
+    VerifiedJwtCache cache = new VerifiedJwtCache(10);
+    String jwt = issue(secret);
+
+    Assertions.assertTrue(cache.verify(jwt, ring, secret, Instant.now()).isPresent());
+    Assertions.assertTrue(cache.verify(jwt, ring, otherSecret, Instant.now()).isEmpty());
+    Assertions.assertTrue(cache.verify(jwt, ring, null, Instant.now()).isEmpty());
+  }
+
+}
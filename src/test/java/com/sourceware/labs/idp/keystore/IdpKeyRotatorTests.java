@@ -0,0 +1,146 @@
+package com.sourceware.labs.idp.keystore;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateException;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.bouncycastle.operator.OperatorCreationException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.sourceware.labs.idp.jwt.JwtManager;
+import com.sourceware.labs.idp.jwt.PermissionSet;
+
+@TestInstance(Lifecycle.PER_CLASS)
+@TestMethodOrder(OrderAnnotation.class)
+public class IdpKeyRotatorTests {
+
+  private final String storeDir = "testRotationKeyStoreDir";
+  private final String storeName = "testRotationKeyStoreName";
+  private final String storePass = "testKeyStorePass";
+  private final String keyAlias = "rotationTestKeyAlias";
+  private final String keyPass = "rotationTestKeyPass";
+  private final String keyId = "initial";
+
+  private final IdpKeyStoreData idpKeyStoreData = new IdpKeyStoreData(
+          storeDir,
+          storeName,
+          storePass,
+          keyAlias,
+          keyPass,
+          keyId);
+
+  private final IdpKeyRotationPolicy policy = new IdpKeyRotationPolicy(
+          Duration.ofDays(10),
+          Duration.ofDays(1),
+          1,
+          Duration.ofHours(1));
+
+  private final Instant start = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+
+  private final File keyStoreDir = new File(storeDir);
+  private final File keyStoreFile = new File(storeDir + "/" + storeName);
+
+  private String firstKeyId;
+  private String firstToken;
+
+  @AfterAll
+  public void cleanupKeystores() {
+    keyStoreFile.delete();
+    keyStoreDir.delete();
+  }
+
+  @Test
+  @Order(1)
+  public void testPrepareCreatesActiveKey() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    IdpKeyRing ring = IdpKeyRotator.prepareKeyRing(JWSAlgorithm.ES256, idpKeyStoreData, start);
+    Assertions.assertEquals(1, ring.getEntries().size());
+    firstKeyId = ring.getActiveEntry(start).keyId();
+    firstToken = JwtManager
+            .getSignedJwtToken(
+                    ring.getActiveKey(start),
+                    "client",
+                    "audience",
+                    60,
+                    Long.valueOf(1),
+                    "testApplication",
+                    "testRole",
+                    PermissionSet.EMPTY)
+            .serialize();
+  }
+
+  @Test
+  @Order(2)
+  public void testNextKeyGeneratedAheadOfActivation() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    Assertions.assertEquals(
+            1,
+            rotate(start.plus(Duration.ofDays(1))).getEntries().size());
+
+    Instant beforeLead = start.plus(Duration.ofDays(9));
+    IdpKeyRing ring = rotate(beforeLead);
+    Assertions.assertEquals(2, ring.getEntries().size());
+    Assertions.assertEquals(firstKeyId, ring.getActiveEntry(beforeLead).keyId());
+    Assertions.assertEquals(1, ring.getPendingEntries(beforeLead).size());
+    Assertions.assertEquals(
+            start.plus(policy.getPeriod()),
+            ring.getPendingEntries(beforeLead).get(0).activatesAt());
+  }
+
+  @Test
+  @Order(3)
+  public void testRetiredKeyStillVerifies() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException, ParseException {
+    Instant afterActivation = start.plus(policy.getPeriod()).plusSeconds(1);
+    IdpKeyRing ring = rotate(afterActivation);
+    Assertions.assertNotEquals(firstKeyId, ring.getActiveEntry(afterActivation).keyId());
+    Assertions.assertEquals(
+            firstKeyId,
+            ring.getRetiredEntries(afterActivation).get(0).keyId());
+    Assertions.assertTrue(JwtManager.verifySignedJwtToken(firstToken, ring));
+  }
+
+  @Test
+  @Order(4)
+  public void testExpiredKeysRemoved() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException, ParseException {
+    rotate(start.plus(Duration.ofDays(19)));
+    Instant thirdPeriod = start.plus(Duration.ofDays(20)).plus(Duration.ofHours(2));
+    IdpKeyRing ring = rotate(thirdPeriod);
+    Assertions.assertEquals(2, ring.getEntries().size());
+    Assertions.assertNull(ring.getKey(firstKeyId));
+    Assertions.assertFalse(JwtManager.verifySignedJwtToken(firstToken, ring));
+  }
+
+  @Test
+  @Order(5)
+  public void testAlgorithmChangeReplacesActiveKey() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException, ParseException {
+    Instant changedAt = start.plus(Duration.ofDays(21));
+    IdpKeyRing ring = IdpKeyRotator
+            .rotate(JWSAlgorithm.EdDSA, idpKeyStoreData, policy, changedAt);
+    IdpKeyRing.Entry pending = ring.getPendingEntries(changedAt).get(0);
+    Assertions.assertEquals(JWSAlgorithm.EdDSA, pending.key().getAlgorithm());
+    Assertions.assertEquals(changedAt.plus(policy.getLead()), pending.activatesAt());
+    Assertions.assertEquals(
+            JWSAlgorithm.ES256,
+            ring.getActiveEntry(changedAt).key().getAlgorithm());
+  }
+
+  private IdpKeyRing rotate(
+          Instant now) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    return IdpKeyRotator.rotate(JWSAlgorithm.ES256, idpKeyStoreData, policy, now);
+  }
+}
@@ -21,6 +21,9 @@ import org.junit.jupiter.api.TestMethodOrder;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
 import com.nimbusds.jose.jwk.RSAKey;
 
 @TestInstance(Lifecycle.PER_CLASS)
@@ -36,6 +39,12 @@ public class IdpKeyStoreAccessorTests {
   private final String rsaKeyAlias = "rsaTestKeyAlias";
   private final String rsaKeyPass = "rsaTestKeyPass";
   private final String rsaKeyId = "rsaTestKeyId";
+  private final String edKeyAlias = "edTestKeyAlias";
+  private final String edKeyPass = "edTestKeyPass";
+  private final String edKeyId = "edTestKeyId";
+  private final String hmacKeyAlias = "hmacTestKeyAlias";
+  private final String hmacKeyPass = "hmacTestKeyPass";
+  private final String hmacKeyId = "hmacTestKeyId";
 
   private final IdpKeyStoreData ecIdpKeyStoreData = new IdpKeyStoreData(
           storeDir,
@@ -51,6 +60,20 @@ public class IdpKeyStoreAccessorTests {
           rsaKeyAlias,
           rsaKeyPass,
           rsaKeyId);
+  private final IdpKeyStoreData edIdpKeyStoreData = new IdpKeyStoreData(
+          storeDir,
+          storeName,
+          storePass,
+          edKeyAlias,
+          edKeyPass,
+          edKeyId);
+  private final IdpKeyStoreData hmacIdpKeyStoreData = new IdpKeyStoreData(
+          storeDir,
+          storeName,
+          storePass,
+          hmacKeyAlias,
+          hmacKeyPass,
+          hmacKeyId);
 
   private final File keyStoreDir = new File(storeDir);
   private final File keyStoreFile = new File(storeDir + "/" + storeName);
@@ -64,6 +87,8 @@ public class IdpKeyStoreAccessorTests {
             IdpKeyStoreAccessor.prepareKeyStoreAndSet(JWSAlgorithm.ES256, ecIdpKeyStoreData));
     Assertions.assertTrue(
             IdpKeyStoreAccessor.prepareKeyStoreAndSet(JWSAlgorithm.RS384, rsaIdpKeyStoreData));
+    Assertions.assertTrue(
+            IdpKeyStoreAccessor.prepareKeyStoreAndSet(JWSAlgorithm.EdDSA, edIdpKeyStoreData));
   }
 
   @AfterAll
@@ -93,4 +118,31 @@ public class IdpKeyStoreAccessorTests {
             RSAKey.class,
             IdpKeyStoreAccessor.accessKeyStore(JWSAlgorithm.RS384, rsaIdpKeyStoreData));
   }
+
+  @Test
+  @Order(4)
+  public void testEdKey() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    JWK key = IdpKeyStoreAccessor.accessKeyStore(JWSAlgorithm.EdDSA, edIdpKeyStoreData);
+    Assertions.assertInstanceOf(OctetKeyPair.class, key);
+    Assertions.assertTrue(key.isPrivate());
+    Assertions.assertEquals(JWSAlgorithm.EdDSA, key.getAlgorithm());
+    // The raw key values survive the round trip through the PKCS12 entry
+    IdpKeyStoreCache.invalidate(edIdpKeyStoreData);
+    Assertions.assertEquals(key, IdpKeyStoreCache.getKey(JWSAlgorithm.EdDSA, edIdpKeyStoreData));
+  }
+
+  @Test
+  @Order(5)
+  public void testHmacSecret() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    OctetSequenceKey secret = IdpKeyStoreAccessor
+            .accessSecretKey(JWSAlgorithm.HS512, hmacIdpKeyStoreData);
+    Assertions.assertEquals(64, secret.toByteArray().length);
+    Assertions.assertEquals(JWSAlgorithm.HS512, secret.getAlgorithm());
+    Assertions.assertEquals(
+            secret,
+            IdpKeyStoreCache.getSecretKey(JWSAlgorithm.HS512, hmacIdpKeyStoreData));
+    // Secrets stored next to the token keys are never read as ring keys
+    Assertions.assertNotNull(
+            IdpKeyStoreAccessor.accessKeyStore(JWSAlgorithm.ES256, ecIdpKeyStoreData));
+  }
 }
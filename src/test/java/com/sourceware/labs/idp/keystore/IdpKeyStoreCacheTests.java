@@ -0,0 +1,89 @@
+package com.sourceware.labs.idp.keystore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateException;
+
+import org.bouncycastle.operator.OperatorCreationException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWK;
+
+@TestInstance(Lifecycle.PER_CLASS)
+@TestMethodOrder(OrderAnnotation.class)
+public class IdpKeyStoreCacheTests {
+
+  private final String storeDir = "testCacheKeyStoreDir";
+  private final String storeName = "testCacheKeyStoreName";
+  private final String storePass = "testKeyStorePass";
+  private final String ecKeyAlias = "ecTestKeyAlias";
+  private final String ecKeyPass = "ecTestKeyPass";
+  private final String ecKeyId = "ecTestKeyId";
+
+  private final IdpKeyStoreData ecIdpKeyStoreData = new IdpKeyStoreData(
+          storeDir,
+          storeName,
+          storePass,
+          ecKeyAlias,
+          ecKeyPass,
+          ecKeyId);
+
+  private final File keyStoreDir = new File(storeDir);
+  private final File keyStoreFile = new File(storeDir + "/" + storeName);
+
+  @BeforeAll
+  public void setupKeystores() {
+    Assertions.assertTrue(
+            IdpKeyStoreAccessor.prepareKeyStoreAndSet(JWSAlgorithm.ES256, ecIdpKeyStoreData));
+  }
+
+  @AfterAll
+  public void cleanupKeystores() {
+    keyStoreFile.delete();
+    keyStoreDir.delete();
+  }
+
+  @Test
+  @Order(1)
+  public void testKeyServedFromMemory() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    JWK first = IdpKeyStoreCache.getKey(JWSAlgorithm.ES256, ecIdpKeyStoreData);
+    JWK second = IdpKeyStoreCache.getKey(JWSAlgorithm.ES256, ecIdpKeyStoreData);
+    Assertions.assertSame(first, second);
+  }
+
+  @Test
+  @Order(2)
+  public void testTouchedFileKeepsKey() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    JWK before = IdpKeyStoreCache.getKey(JWSAlgorithm.ES256, ecIdpKeyStoreData);
+    Files.setLastModifiedTime(
+            keyStoreFile.toPath(),
+            FileTime.fromMillis(keyStoreFile.lastModified() + 10_000));
+    Assertions.assertSame(before, IdpKeyStoreCache.getKey(JWSAlgorithm.ES256, ecIdpKeyStoreData));
+  }
+
+  @Test
+  @Order(3)
+  public void testReplacedFileReloadsKey() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, IOException, JOSEException {
+    JWK before = IdpKeyStoreCache.getKey(JWSAlgorithm.ES256, ecIdpKeyStoreData);
+    Assertions.assertTrue(keyStoreFile.delete());
+    JWK replacement = IdpKeyStoreAccessor.accessKeyStore(JWSAlgorithm.ES256, ecIdpKeyStoreData);
+    JWK after = IdpKeyStoreCache.getKey(JWSAlgorithm.ES256, ecIdpKeyStoreData);
+    Assertions.assertNotEquals(before, after);
+    Assertions.assertEquals(replacement, after);
+  }
+}
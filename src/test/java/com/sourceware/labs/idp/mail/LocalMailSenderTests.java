@@ -0,0 +1,95 @@
+package com.sourceware.labs.idp.mail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Testing class for the in-process stand-in for SES
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class LocalMailSenderTests {
+
+  @TempDir
+  private Path tempDir;
+
+  /**
+   * Test that every message is recorded with its outcome and that messages over the send rate are
+   * throttled
+   */
+  @Test
+  public void testThrottleAndRecord() throws IOException {
+    Path recordFile = tempDir.resolve("throttle.jsonl");
+    LocalMailSender sender = new LocalMailSender(Duration.ZERO, 0, 3, recordFile);
+    SimpleMailMessage[] messages = new SimpleMailMessage[5];
+    for (int i = 0; i < messages.length; i++) {
+      messages[i] = message("user" + i + "@test.com");
+    }
+    MailSendException ex = Assertions
+            .assertThrows(MailSendException.class, () -> sender.send(messages));
+    Assertions.assertEquals(2, ex.getFailedMessages().size());
+    Assertions.assertInstanceOf(
+            MailThrottledException.class,
+            ex.getFailedMessages().get(messages[3]));
+    Assertions.assertInstanceOf(
+            MailThrottledException.class,
+            ex.getFailedMessages().get(messages[4]));
+
+    List<String> lines = Files.readAllLines(recordFile);
+    Assertions.assertEquals(5, lines.size());
+    JsonObject first = JsonParser.parseString(lines.get(0)).getAsJsonObject();
+    Assertions.assertEquals("from@test.com", first.get("from").getAsString());
+    Assertions.assertEquals("user0@test.com", first.getAsJsonArray("to").get(0).getAsString());
+    Assertions.assertEquals("Subject", first.get("subject").getAsString());
+    Assertions.assertEquals("Sent", first.get("result").getAsString());
+    Assertions.assertEquals(
+            "Maximum sending rate exceeded",
+            JsonParser.parseString(lines.get(4)).getAsJsonObject().get("result").getAsString());
+  }
+
+  /**
+   * Test that an error rate of 1 fails every message and that an error rate of 0 fails none
+   */
+  @Test
+  public void testErrorRate() {
+    SimpleMailMessage[] messages = { message("a@test.com"), message("b@test.com") };
+    LocalMailSender failing = new LocalMailSender(Duration.ZERO, 1, 0, null);
+    MailSendException ex = Assertions
+            .assertThrows(MailSendException.class, () -> failing.send(messages));
+    Assertions.assertEquals(2, ex.getFailedMessages().size());
+    Assertions.assertEquals(
+            "Injected failure",
+            ex.getFailedMessages().get(messages[0]).getMessage());
+
+    Assertions.assertDoesNotThrow(
+            () -> new LocalMailSender(Duration.ZERO, 0, 0, null).send(messages));
+    Assertions.assertThrows(
+            IllegalArgumentException.class,
+            () -> new LocalMailSender(Duration.ZERO, 1.5, 0, null));
+  }
+
+  private static SimpleMailMessage message(String to) {
+    SimpleMailMessage message = new SimpleMailMessage();
+    message.setFrom("from@test.com");
+    message.setTo(to);
+    message.setSubject("Subject");
+    message.setText("Body " + to);
+    return message;
+  }
+
+}
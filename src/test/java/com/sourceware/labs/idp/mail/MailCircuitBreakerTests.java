@@ -0,0 +1,94 @@
+package com.sourceware.labs.idp.mail;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.sourceware.labs.idp.mail.MailCircuitBreaker.State;
+
+/**
+ * Testing class for the circuit breaker around the email provider
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class MailCircuitBreakerTests {
+
+  private static final Duration FAST = Duration.ofMillis(10);
+
+  /**
+   * Test that the circuit opens once the failure rate of the window reaches the threshold, refuses
+   * calls while open and closes after a successful trial call
+   */
+  @Test
+  public void testFailureRate() throws InterruptedException {
+    List<String> transitions = new ArrayList<>();
+    MailCircuitBreaker breaker = newBreaker(transitions);
+
+    // Not enough calls yet to open the circuit
+    for (int i = 0; i < 3; i++) {
+      Assertions.assertTrue(breaker.tryAcquire());
+      breaker.onResult(FAST, true);
+    }
+    Assertions.assertEquals(State.Closed, breaker.getState());
+    Assertions.assertTrue(breaker.tryAcquire());
+    breaker.onResult(FAST, false);
+    Assertions.assertEquals(State.Open, breaker.getState());
+    Assertions.assertFalse(breaker.tryAcquire());
+    Assertions.assertFalse(breaker.isCallPermitted());
+
+    // A single trial call once the open duration passed
+    Thread.sleep(250);
+    Assertions.assertTrue(breaker.isCallPermitted());
+    Assertions.assertTrue(breaker.tryAcquire());
+    Assertions.assertEquals(State.HalfOpen, breaker.getState());
+    Assertions.assertFalse(breaker.tryAcquire());
+    breaker.onResult(FAST, false);
+    Assertions.assertEquals(State.Closed, breaker.getState());
+    Assertions.assertEquals(
+            List.of("Closed>Open", "Open>HalfOpen", "HalfOpen>Closed"),
+            transitions);
+  }
+
+  /**
+   * Test that slow calls open the circuit, that a failed trial call opens it again and that a trial
+   * permission that was not used is given back
+   */
+  @Test
+  public void testSlowCalls() throws InterruptedException {
+    List<String> transitions = new ArrayList<>();
+    MailCircuitBreaker breaker = newBreaker(transitions);
+    for (int i = 0; i < 4; i++) {
+      Assertions.assertTrue(breaker.tryAcquire());
+      breaker.onResult(i % 2 == 0 ? Duration.ofSeconds(2) : FAST, false);
+    }
+    Assertions.assertEquals(State.Open, breaker.getState());
+
+    Thread.sleep(250);
+    Assertions.assertTrue(breaker.tryAcquire());
+    breaker.release();
+    Assertions.assertTrue(breaker.tryAcquire());
+    breaker.onResult(Duration.ofSeconds(2), false);
+    Assertions.assertEquals(State.Open, breaker.getState());
+    Assertions.assertEquals(
+            List.of("Closed>Open", "Open>HalfOpen", "HalfOpen>Open"),
+            transitions);
+  }
+
+  private static MailCircuitBreaker newBreaker(List<String> transitions) {
+    return new MailCircuitBreaker(
+            8,
+            4,
+            50,
+            Duration.ofSeconds(1),
+            50,
+            Duration.ofMillis(200),
+            (from, to) -> transitions.add(from + ">" + to));
+  }
+
+}
@@ -0,0 +1,62 @@
+package com.sourceware.labs.idp.mail;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+/**
+ * Testing class for pacing sends to the email provider's send rate
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class SendRateLimiterTests {
+
+  /**
+   * Test that a full bucket is taken at once and that tokens beyond it are waited for at the rate
+   */
+  @Test
+  public void testAcquire() throws InterruptedException {
+    SendRateLimiter limiter = new SendRateLimiter(20);
+    Assertions.assertEquals(20, limiter.getBurst());
+
+    long start = System.nanoTime();
+    limiter.acquire(20);
+    Assertions.assertTrue(System.nanoTime() - start < 100_000_000L);
+    limiter.acquire(10);
+    long waited = System.nanoTime() - start;
+    Assertions.assertTrue(waited >= 450_000_000L, String.valueOf(waited));
+
+    SendRateLimiter unlimited = new SendRateLimiter(0);
+    Assertions.assertEquals(Integer.MAX_VALUE, unlimited.getBurst());
+    start = System.nanoTime();
+    unlimited.acquire(1_000_000);
+    Assertions.assertTrue(System.nanoTime() - start < 100_000_000L);
+  }
+
+  /**
+   * Test that throttling halves the rate down to one per second and that the rate grows back to
+   * the maximum rate
+   */
+  @Test
+  public void testAdaptiveRate() throws InterruptedException {
+    SendRateLimiter limiter = new SendRateLimiter(40);
+    limiter.onThrottled();
+    Assertions.assertEquals(20, limiter.getRate());
+    for (int i = 0; i < 10; i++) {
+      limiter.onThrottled();
+    }
+    Assertions.assertEquals(1, limiter.getRate());
+    Assertions.assertEquals(1, limiter.getBurst());
+
+    // A tenth of the maximum rate is added back per second without throttling
+    Thread.sleep(1100);
+    Assertions.assertEquals(5, limiter.getRate());
+
+    limiter.setMaxRate(2);
+    Assertions.assertEquals(2, limiter.getRate());
+    Assertions.assertEquals(2, limiter.getMaxRate());
+  }
+
+}
@@ -0,0 +1,153 @@
+package com.sourceware.labs.idp.mail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.simpleemail.AmazonSimpleEmailService;
+import com.amazonaws.services.simpleemail.model.BulkEmailDestinationStatus;
+import com.amazonaws.services.simpleemail.model.BulkEmailStatus;
+import com.amazonaws.services.simpleemail.model.CreateTemplateRequest;
+import com.amazonaws.services.simpleemail.model.SendBulkTemplatedEmailRequest;
+import com.amazonaws.services.simpleemail.model.SendBulkTemplatedEmailResult;
+import com.amazonaws.services.simpleemail.model.TemplateDoesNotExistException;
+import com.google.gson.JsonParser;
+
+/**
+ * Testing class for sending batches of messages through the SES bulk templated API
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class SesBulkMailSenderTests {
+
+  /**
+   * Test that messages are sent 50 per call, that the pass-through template is created once and
+   * that a rejected destination only fails its own message
+   */
+  @Test
+  public void testSendBatches() {
+    AmazonSimpleEmailService ses = Mockito.mock(AmazonSimpleEmailService.class);
+    Mockito.when(ses.getTemplate(ArgumentMatchers.any()))
+            .thenThrow(new TemplateDoesNotExistException("IdpPassthrough"));
+    Mockito.when(ses.sendBulkTemplatedEmail(ArgumentMatchers.any())).thenAnswer(invocation -> {
+      SendBulkTemplatedEmailRequest request = invocation.getArgument(0);
+      List<BulkEmailDestinationStatus> statuses = new ArrayList<>();
+      request.getDestinations().forEach(destination -> {
+        boolean rejected = destination.getDestination().getToAddresses().get(0).startsWith("bad");
+        statuses.add(
+                new BulkEmailDestinationStatus().withStatus(
+                        rejected ? BulkEmailStatus.MessageRejected : BulkEmailStatus.Success)
+                        .withError(rejected ? "Address blacklisted" : null));
+      });
+      return new SendBulkTemplatedEmailResult().withStatus(statuses);
+    });
+    SesBulkMailSender sender = new SesBulkMailSender(ses, "IdpPassthrough");
+
+    SimpleMailMessage[] messages = new SimpleMailMessage[120];
+    for (int i = 0; i < messages.length; i++) {
+      messages[i] = message(i == 70 ? "bad@test.com" : "user" + i + "@test.com");
+    }
+    MailSendException ex = Assertions
+            .assertThrows(MailSendException.class, () -> sender.send(messages));
+    Assertions.assertEquals(1, ex.getFailedMessages().size());
+    Assertions.assertSame(messages[70], ex.getFailedMessages().keySet().iterator().next());
+    Assertions.assertTrue(
+            ex.getFailedMessages().get(messages[70]).getMessage().contains("MessageRejected"));
+
+    ArgumentCaptor<SendBulkTemplatedEmailRequest> requests = ArgumentCaptor
+            .forClass(SendBulkTemplatedEmailRequest.class);
+    Mockito.verify(ses, Mockito.times(3)).sendBulkTemplatedEmail(requests.capture());
+    Assertions.assertEquals(
+            List.of(50, 50, 20),
+            requests.getAllValues().stream().map(r -> r.getDestinations().size()).toList());
+    SendBulkTemplatedEmailRequest first = requests.getAllValues().get(0);
+    Assertions.assertEquals("from@test.com", first.getSource());
+    Assertions.assertEquals("IdpPassthrough", first.getTemplate());
+    Assertions.assertEquals(
+            JsonParser
+                    .parseString("{\"subject\":\"Subject\",\"body\":\"Body user0@test.com\"}"),
+            JsonParser.parseString(first.getDestinations().get(0).getReplacementTemplateData()));
+
+    // The template is only looked up and created before the first send
+    sender.send(message("user@test.com"));
+    Mockito.verify(ses, Mockito.times(1))
+            .createTemplate(ArgumentMatchers.any(CreateTemplateRequest.class));
+    Mockito.verify(ses, Mockito.times(1)).getTemplate(ArgumentMatchers.any());
+  }
+
+  /**
+   * Test that equal messages each get the status of their own destination
+   */
+  @Test
+  public void testEqualMessages() {
+    AmazonSimpleEmailService ses = Mockito.mock(AmazonSimpleEmailService.class);
+    Mockito.when(ses.sendBulkTemplatedEmail(ArgumentMatchers.any()))
+            .thenReturn(
+                    new SendBulkTemplatedEmailResult().withStatus(
+                            new BulkEmailDestinationStatus().withStatus(BulkEmailStatus.Success),
+                            new BulkEmailDestinationStatus()
+                                    .withStatus(BulkEmailStatus.MessageRejected)
+                                    .withError("Rejected")));
+    SesBulkMailSender sender = new SesBulkMailSender(ses, "IdpPassthrough");
+    SimpleMailMessage first = message("repeated@test.com");
+    SimpleMailMessage second = message("repeated@test.com");
+    Assertions.assertEquals(first, second);
+
+    List<Exception> errors = sender.sendEach(List.of(first, second));
+    Assertions.assertEquals(2, errors.size());
+    Assertions.assertNull(errors.get(0));
+    Assertions.assertTrue(errors.get(1).getMessage().contains("MessageRejected"));
+  }
+
+  /**
+   * Test that a failed call fails every message of that call
+   */
+  @Test
+  public void testFailedCall() {
+    AmazonSimpleEmailService ses = Mockito.mock(AmazonSimpleEmailService.class);
+    Mockito.when(ses.sendBulkTemplatedEmail(ArgumentMatchers.any()))
+            .thenThrow(new TemplateDoesNotExistException("Throttling"));
+    SesBulkMailSender sender = new SesBulkMailSender(ses, "IdpPassthrough");
+    SimpleMailMessage[] messages = { message("a@test.com"), message("b@test.com") };
+    MailSendException ex = Assertions
+            .assertThrows(MailSendException.class, () -> sender.send(messages));
+    Assertions.assertEquals(2, ex.getFailedMessages().size());
+  }
+
+  /**
+   * Test that a call refused for exceeding the send rate fails its messages as throttled
+   */
+  @Test
+  public void testThrottledCall() {
+    AmazonSimpleEmailService ses = Mockito.mock(AmazonSimpleEmailService.class);
+    AmazonServiceException throttling = new AmazonServiceException("Maximum sending rate exceeded");
+    throttling.setErrorCode("Throttling");
+    Mockito.when(ses.sendBulkTemplatedEmail(ArgumentMatchers.any())).thenThrow(throttling);
+    SesBulkMailSender sender = new SesBulkMailSender(ses, "IdpPassthrough");
+    SimpleMailMessage message = message("a@test.com");
+    MailSendException ex = Assertions
+            .assertThrows(MailSendException.class, () -> sender.send(message));
+    Assertions.assertInstanceOf(MailThrottledException.class, ex.getFailedMessages().get(message));
+  }
+
+  private static SimpleMailMessage message(String to) {
+    SimpleMailMessage message = new SimpleMailMessage();
+    message.setFrom("from@test.com");
+    message.setTo(to);
+    message.setSubject("Subject");
+    message.setText("Body " + to);
+    return message;
+  }
+
+}
@@ -0,0 +1,96 @@
+package com.sourceware.labs.idp.password;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+/**
+ * Testing class for calibrating the password hashing cost to a latency target
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class PasswordHashCalibratorTests {
+
+  private final PasswordHashCalibrator calibrator = new PasswordHashCalibrator(
+          Duration.ofMillis(20),
+          3);
+
+  /**
+   * Test that the highest cost within the target is picked and that the minimum is kept when it
+   * already misses the target
+   */
+  @Test
+  public void testCalibrate() {
+    PasswordHasher calibrated = calibrator.calibrate(new SleepingHasher(2));
+    Assertions.assertTrue(
+            calibrated.getCost() >= 16 && calibrated.getCost() <= 20,
+            "Calibrated cost " + calibrated.getCost());
+    Assertions.assertEquals(30, calibrator.calibrate(new SleepingHasher(30)).getCost());
+  }
+
+  /**
+   * Test that the costs of the real algorithms are changed without changing their other parameters
+   */
+  @Test
+  public void testWithCost() {
+    Assertions.assertTrue(
+            new Argon2idPasswordHasher(1024, 1, 1).withCost(3)
+                    .hash("password")
+                    .startsWith("$argon2id$v=19$m=1024,t=3,p=1$"));
+    Assertions.assertEquals(5, new BCryptPasswordHasher(4).doubleCost(4));
+    Assertions.assertEquals(31, new BCryptPasswordHasher(4).withCost(40).getCost());
+    Assertions.assertEquals(2000, new Pbkdf2PasswordHasher(1000).doubleCost(1000));
+  }
+
+  /**
+   * Hasher taking its cost in milliseconds per hash
+   */
+  private record SleepingHasher(int cost) implements PasswordHasher {
+
+    @Override
+    public String getAlgorithm() {
+      return "sleeping";
+    }
+
+    @Override
+    public int getCost() {
+      return cost;
+    }
+
+    @Override
+    public PasswordHasher withCost(int cost) {
+      return new SleepingHasher(cost);
+    }
+
+    @Override
+    public String hash(String password) {
+      try {
+        Thread.sleep(cost);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      return password;
+    }
+
+    @Override
+    public boolean matches(String password, String encoded) {
+      return password.equals(encoded);
+    }
+
+    @Override
+    public boolean supports(String encoded) {
+      return true;
+    }
+
+    @Override
+    public boolean needsRehash(String encoded) {
+      return false;
+    }
+
+  }
+
+}
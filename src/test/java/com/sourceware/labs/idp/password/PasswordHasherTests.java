@@ -0,0 +1,85 @@
+package com.sourceware.labs.idp.password;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+/**
+ * Testing class for the supported password hashing algorithms
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class PasswordHasherTests {
+
+  // Low costs so the tests stay fast; the parameters are read back from each hash
+  private final List<PasswordHasher> hashers = List.of(
+          new Argon2idPasswordHasher(1024, 1, 1),
+          new BCryptPasswordHasher(4),
+          new Pbkdf2PasswordHasher(1000));
+
+  /**
+   * Test that every algorithm accepts the hashed password and rejects any other
+   */
+  @Test
+  public void testHashAndMatch() {
+    for (PasswordHasher hasher : hashers) {
+      String hash = hasher.hash("correct horse");
+      Assertions.assertTrue(hasher.supports(hash), hash);
+      Assertions.assertTrue(hasher.matches("correct horse", hash), hash);
+      Assertions.assertFalse(hasher.matches("correct horsf", hash), hash);
+      Assertions.assertFalse(hasher.matches("", hash), hash);
+      // Every hash has its own salt
+      Assertions.assertNotEquals(hash, hasher.hash("correct horse"));
+      for (PasswordHasher other : hashers) {
+        if (other != hasher) {
+          Assertions.assertFalse(other.supports(hash), hash);
+        }
+      }
+    }
+  }
+
+  /**
+   * Test that hashes are checked with the parameters they were created with and that malformed
+   * hashes are rejected instead of throwing
+   */
+  @Test
+  public void testStoredParameters() {
+    String argon2 = new Argon2idPasswordHasher(2048, 2, 2).hash("password");
+    Assertions.assertTrue(argon2.startsWith("$argon2id$v=19$m=2048,t=2,p=2$"), argon2);
+    Assertions.assertTrue(hashers.get(0).matches("password", argon2));
+    String pbkdf2 = new Pbkdf2PasswordHasher(2000).hash("password");
+    Assertions.assertTrue(pbkdf2.startsWith("$pbkdf2-sha256$i=2000$"), pbkdf2);
+    Assertions.assertTrue(hashers.get(2).matches("password", pbkdf2));
+    String bcrypt = new BCryptPasswordHasher(5).hash("password");
+    Assertions.assertTrue(bcrypt.startsWith("$2b$05$"), bcrypt);
+    Assertions.assertTrue(hashers.get(1).matches("password", bcrypt));
+
+    // Hashes with a lower cost than new hashes need a rehash
+    Assertions.assertFalse(hashers.get(0).needsRehash(hashers.get(0).hash("password")));
+    Assertions.assertFalse(hashers.get(0).needsRehash(argon2));
+    Assertions.assertTrue(new Argon2idPasswordHasher(1024, 3, 1).needsRehash(argon2));
+    Assertions.assertTrue(new Argon2idPasswordHasher(4096, 1, 1).needsRehash(argon2));
+    Assertions.assertFalse(hashers.get(1).needsRehash(bcrypt));
+    Assertions.assertTrue(new BCryptPasswordHasher(6).needsRehash(bcrypt));
+    Assertions.assertFalse(hashers.get(2).needsRehash(pbkdf2));
+    Assertions.assertTrue(new Pbkdf2PasswordHasher(3000).needsRehash(pbkdf2));
+
+    for (String malformed : List.of(
+            "$argon2id$v=19$m=1024,t=1$AAAA$AAAA",
+            "$argon2id$v=19$m=x,t=1,p=1$AAAA$AAAA",
+            "$pbkdf2-sha256$i=1000$AAAA",
+            "$pbkdf2-sha256$i=1000$!!$AAAA",
+            "$2b$04$short",
+            "password")) {
+      for (PasswordHasher hasher : hashers) {
+        Assertions.assertFalse(hasher.matches("password", malformed), malformed);
+        Assertions.assertTrue(hasher.needsRehash(malformed), malformed);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,56 @@
+package com.sourceware.labs.idp.route;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import com.sourceware.labs.idp.BaseIdpApplicationTests;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class JwksTests extends BaseIdpApplicationTests {
+
+  private URI fullTestingRoute;
+
+  @BeforeAll
+  public void setup() throws URISyntaxException {
+    fullTestingRoute = new URI(baseUrl + "/.well-known/jwks.json");
+  }
+
+  @Test
+  public void publishesPublicKeys() throws ParseException {
+    ResponseEntity<String> result = this.restTemplate.getForEntity(fullTestingRoute, String.class);
+    Assertions.assertEquals(HttpStatusCode.valueOf(200), result.getStatusCode());
+    Assertions.assertNotNull(result.getHeaders().getETag());
+    Assertions.assertTrue(result.getHeaders().getCacheControl().contains("max-age="));
+    JWKSet jwkSet = JWKSet.parse(result.getBody());
+    Assertions.assertFalse(jwkSet.isEmpty());
+    Assertions.assertTrue(jwkSet.getKeys().stream().noneMatch(key -> key.isPrivate()));
+  }
+
+  @Test
+  public void notModifiedForMatchingEtag() {
+    String etag = this.restTemplate.getForEntity(fullTestingRoute, String.class)
+            .getHeaders()
+            .getETag();
+    HttpHeaders headers = new HttpHeaders();
+    headers.setIfNoneMatch(etag);
+    ResponseEntity<String> result = this.restTemplate
+            .exchange(fullTestingRoute, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+    Assertions.assertEquals(HttpStatusCode.valueOf(304), result.getStatusCode());
+    Assertions.assertNull(result.getBody());
+    Assertions.assertEquals(etag, result.getHeaders().getETag());
+  }
+
+}
@@ -1,18 +1,12 @@
 package com.sourceware.labs.idp.route;
 
-import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableEntryException;
-import java.security.cert.CertificateException;
 import java.text.ParseException;
 import java.util.List;
 
-import org.bouncycastle.operator.OperatorCreationException;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
@@ -29,12 +23,10 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMethod;
 
 import com.google.gson.Gson;
-import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.sourceware.labs.idp.BaseIdpApplicationTests;
 import com.sourceware.labs.idp.jwt.JwtManager;
-import com.sourceware.labs.idp.keystore.IdpKeyStoreData;
+import com.sourceware.labs.idp.jwt.PermissionSet;
 import com.sourceware.labs.idp.test.data.TestData;
 import com.sourceware.labs.idp.util.LoginData;
 import com.sourceware.labs.idp.util.SessionCookie;
@@ -49,21 +41,6 @@ public class LoginTests extends BaseIdpApplicationTests{
   private URI fullTestingRoute;
   private Long userId;
   
-  private final String storeDir = "testKeyStoreDir";
-  private final String storeName = "testKeyStoreName";
-  private final String storePass = "testKeyStorePass";
-  private final String ecKeyAlias = "ecTestKeyAlias";
-  private final String ecKeyPass = "ecTestKeyPass";
-  private final String ecKeyId = "ecTestKeyId";
-  
-  private final IdpKeyStoreData ecIdpKeyStoreData = new IdpKeyStoreData(
-          storeDir,
-          storeName,
-          storePass,
-          ecKeyAlias,
-          ecKeyPass,
-          ecKeyId);
-  
   @BeforeAll
   public void setup() throws URISyntaxException {
     testingPath = "/user/login";
@@ -89,7 +66,7 @@ public class LoginTests extends BaseIdpApplicationTests{
   
   @Test
   @Order(1)
-  public void successfullyLoginUser() throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, ParseException, IOException, JOSEException {
+  public void successfullyLoginUser() throws ParseException {
     LoginData loginData = TestData.getLoginData();
     HttpEntity<LoginData> request = new HttpEntity<>(loginData, new HttpHeaders());
     ResponseEntity<String> result = this.restTemplate.postForEntity(fullTestingRoute, request, String.class);
@@ -173,6 +150,16 @@ public class LoginTests extends BaseIdpApplicationTests{
             "Error: Password must have a non-null and non-blank value");
   }
   
+  @Test
+  public void loginWithDifferentlyCasedEmail() {
+    LoginData loginData = TestData.getLoginData();
+    loginData.setEmail(" " + loginData.getEmail().toUpperCase() + " ");
+    HttpEntity<LoginData> request = new HttpEntity<>(loginData, new HttpHeaders());
+    ResponseEntity<String> result = this.restTemplate.postForEntity(fullTestingRoute, request, String.class);
+    Assertions.assertEquals(HttpStatusCode.valueOf(200), result.getStatusCode());
+    Assertions.assertEquals("Login Successful", result.getBody());
+  }
+
   @Test
   public void noUserFound() {
     LoginData loginData = TestData.getLoginData();
@@ -188,7 +175,7 @@ public class LoginTests extends BaseIdpApplicationTests{
             "Error: No user found using provided credentials");
   }
   
-  private boolean validateCookie(String cookie) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, ParseException, IOException, JOSEException {
+  private boolean validateCookie(String cookie) throws ParseException {
     //TODO Implement me!!!
     String decodedCookie = URLDecoder.decode(cookie, StandardCharsets.UTF_8);
     String cookieId = decodedCookie.split("=")[0];
@@ -203,12 +190,12 @@ public class LoginTests extends BaseIdpApplicationTests{
     return true;
   }
   
-  public void validateJwtClaimSet(String jwt) throws KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException, OperatorCreationException, ParseException, IOException, JOSEException {
-    JWTClaimsSet claimSet = JwtManager.getClaimsSetFromJwt(jwt, JWSAlgorithm.ES256, ecIdpKeyStoreData);
+  public void validateJwtClaimSet(String jwt) throws ParseException {
+    JWTClaimsSet claimSet = JwtManager.getClaimsSetFromJwt(jwt);
     Assertions.assertEquals(userId, claimSet.getLongClaim("userId"));
     Assertions.assertEquals("RealQuick", claimSet.getStringClaim("application"));
     Assertions.assertEquals("User", claimSet.getStringClaim("roleName"));
-    Assertions.assertIterableEquals(List.of(), List.of(new Gson().fromJson(claimSet.getStringClaim("additionalPermissions"), String[].class)));
+    Assertions.assertEquals(PermissionSet.EMPTY, PermissionSet.decode(claimSet.getStringClaim("perms")));
   }
   
   private String getVerificationPathVariables(String userId, String verificationToken) {
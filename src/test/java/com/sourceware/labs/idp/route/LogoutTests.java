@@ -0,0 +1,83 @@
+package com.sourceware.labs.idp.route;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import com.sourceware.labs.idp.BaseIdpApplicationTests;
+import com.sourceware.labs.idp.test.data.TestData;
+import com.sourceware.labs.idp.util.LoginData;
+import com.sourceware.labs.idp.util.SignupData;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class LogoutTests extends BaseIdpApplicationTests {
+
+  private String testingPath;
+  private RequestMethod testingMethod;
+  private URI fullTestingRoute;
+
+  @BeforeAll
+  public void setup() throws URISyntaxException {
+    testingPath = "/user/logout";
+    testingMethod = RequestMethod.POST;
+    fullTestingRoute = new URI(baseUrl + testingPath);
+    SignupData signupData = TestData.getTestSignupData();
+    HttpEntity<SignupData> signupRequest = new HttpEntity<>(signupData, new HttpHeaders());
+    ResponseEntity<String> signupResult = this.restTemplate
+            .postForEntity(baseUrl + "/user/signup", signupRequest, String.class);
+    Assertions.assertEquals(HttpStatusCode.valueOf(201), signupResult.getStatusCode());
+    Long userId = Long.valueOf(userRepo.findAll().get(0).getId());
+    ResponseEntity<String> verificationResult = this.restTemplate.getForEntity(
+            baseUrl + "/user/verify/%s/%s".formatted(userId, signupData.getVerificationToken()),
+            String.class);
+    Assertions.assertEquals(HttpStatusCode.valueOf(200), verificationResult.getStatusCode());
+  }
+
+  @AfterAll
+  public void cleanup() {
+    userRepo.deleteAll();
+  }
+
+  @Test
+  public void successfullyLogoutUser() {
+    HttpEntity<LoginData> loginRequest = new HttpEntity<>(TestData.getLoginData(), new HttpHeaders());
+    ResponseEntity<String> login = this.restTemplate
+            .postForEntity(baseUrl + "/user/login", loginRequest, String.class);
+    Assertions.assertEquals(HttpStatusCode.valueOf(200), login.getStatusCode());
+    String sessionCookie = login.getHeaders().getFirst(HttpHeaders.SET_COOKIE).split(";")[0];
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.add(HttpHeaders.COOKIE, sessionCookie);
+    ResponseEntity<String> result = this.restTemplate
+            .postForEntity(fullTestingRoute, new HttpEntity<>(headers), String.class);
+    Assertions.assertEquals(HttpStatusCode.valueOf(200), result.getStatusCode());
+    Assertions.assertEquals("Logout Successful", result.getBody());
+    Assertions.assertTrue(
+            result.getHeaders().getFirst(HttpHeaders.SET_COOKIE).contains("Max-Age=0"));
+  }
+
+  @Test
+  public void catchMissingSessionCookie() {
+    ResponseEntity<String> result = this.restTemplate
+            .postForEntity(fullTestingRoute, new HttpEntity<>(new HttpHeaders()), String.class);
+    assertRestErrorsEqual(
+            result,
+            testingPath,
+            testingMethod,
+            400,
+            1,
+            "Error: No valid session cookie provided");
+  }
+
+}
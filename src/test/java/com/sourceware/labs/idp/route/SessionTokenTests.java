@@ -0,0 +1,108 @@
+package com.sourceware.labs.idp.route;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import com.nimbusds.jwt.SignedJWT;
+import com.sourceware.labs.idp.BaseIdpApplicationTests;
+import com.sourceware.labs.idp.test.data.TestData;
+import com.sourceware.labs.idp.util.LoginData;
+import com.sourceware.labs.idp.util.SignupData;
+
+@TestInstance(Lifecycle.PER_CLASS)
+@TestPropertySource(properties = "session.cookie.mode=reference")
+public class SessionTokenTests extends BaseIdpApplicationTests {
+
+  private String testingPath;
+  private RequestMethod testingMethod;
+  private URI fullTestingRoute;
+  private Long userId;
+
+  @BeforeAll
+  public void setup() throws URISyntaxException {
+    testingPath = "/user/token";
+    testingMethod = RequestMethod.POST;
+    fullTestingRoute = new URI(baseUrl + testingPath);
+    SignupData signupData = TestData.getTestSignupData();
+    HttpEntity<SignupData> signupRequest = new HttpEntity<>(signupData, new HttpHeaders());
+    ResponseEntity<String> signupResult = this.restTemplate
+            .postForEntity(baseUrl + "/user/signup", signupRequest, String.class);
+    Assertions.assertEquals(HttpStatusCode.valueOf(201), signupResult.getStatusCode());
+    userId = Long.valueOf(userRepo.findAll().get(0).getId());
+    ResponseEntity<String> verificationResult = this.restTemplate.getForEntity(
+            baseUrl + "/user/verify/%s/%s".formatted(userId, signupData.getVerificationToken()),
+            String.class);
+    Assertions.assertEquals(HttpStatusCode.valueOf(200), verificationResult.getStatusCode());
+  }
+
+  @AfterAll
+  public void cleanup() {
+    userRepo.deleteAll();
+  }
+
+  @Test
+  public void exchangeHandleForAccessToken() throws Exception {
+    HttpEntity<LoginData> loginRequest = new HttpEntity<>(TestData.getLoginData(), new HttpHeaders());
+    ResponseEntity<String> login = this.restTemplate
+            .postForEntity(baseUrl + "/user/login", loginRequest, String.class);
+    Assertions.assertEquals(HttpStatusCode.valueOf(200), login.getStatusCode());
+    String setCookie = login.getHeaders().getFirst(HttpHeaders.SET_COOKIE);
+    Assertions.assertTrue(setCookie.contains("HttpOnly"));
+    Assertions.assertTrue(setCookie.contains("Secure"));
+    Assertions.assertTrue(setCookie.contains("SameSite=Strict"));
+    String sessionCookie = setCookie.split(";")[0];
+    // Only the 43 character handle is carried instead of the whole session
+    Assertions.assertEquals("SourcewareLabIdp=".length() + 43, sessionCookie.length());
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.add(HttpHeaders.COOKIE, sessionCookie);
+    ResponseEntity<String> result = this.restTemplate
+            .postForEntity(fullTestingRoute, new HttpEntity<>(headers), String.class);
+    Assertions.assertEquals(HttpStatusCode.valueOf(200), result.getStatusCode());
+    Assertions.assertEquals(
+            "Bearer " + result.getBody(),
+            result.getHeaders().getFirst(HttpHeaders.AUTHORIZATION));
+    Assertions.assertEquals(
+            userId,
+            SignedJWT.parse(result.getBody()).getJWTClaimsSet().getLongClaim("userId"));
+
+    // The handle no longer resolves once the session was logged out
+    ResponseEntity<String> logout = this.restTemplate
+            .postForEntity(baseUrl + "/user/logout", new HttpEntity<>(headers), String.class);
+    Assertions.assertEquals(HttpStatusCode.valueOf(200), logout.getStatusCode());
+    assertRestErrorsEqual(
+            this.restTemplate.postForEntity(fullTestingRoute, new HttpEntity<>(headers), String.class),
+            testingPath,
+            testingMethod,
+            401,
+            1,
+            "Error: No valid session handle provided");
+  }
+
+  @Test
+  public void catchUnknownHandle() {
+    HttpHeaders headers = new HttpHeaders();
+    headers.add(HttpHeaders.COOKIE, "SourcewareLabIdp=unknown");
+    assertRestErrorsEqual(
+            this.restTemplate.postForEntity(fullTestingRoute, new HttpEntity<>(headers), String.class),
+            testingPath,
+            testingMethod,
+            401,
+            1,
+            "Error: No valid session handle provided");
+  }
+
+}
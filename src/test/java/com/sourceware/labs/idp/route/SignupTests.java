@@ -54,6 +54,23 @@ public class SignupTests extends BaseIdpApplicationTests {
     Assertions.assertEquals("User Created Successfully", result.getBody());
   }
 
+  @Test
+  @Order(2)
+  public void catchDifferentlyCasedDuplicateEmail() {
+    SignupData signupData = TestData.getTestSignupData();
+    signupData.setEmail(" " + signupData.getEmail().toUpperCase() + " ");
+    HttpEntity<SignupData> request = new HttpEntity<>(signupData, new HttpHeaders());
+    ResponseEntity<String> result = this.restTemplate
+            .postForEntity(fullTestingRoute, request, String.class);
+    assertRestErrorsEqual(
+            result,
+            testingPath,
+            testingMethod,
+            409,
+            5,
+            "Error: A user with the provided email already exists");
+  }
+
   @Test
   public void catchEmailIsNull() {
     SignupData signupData = TestData.getTestSignupData();
@@ -0,0 +1,210 @@
+package com.sourceware.labs.idp.service;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sourceware.labs.idp.entity.AdditionalPermission;
+import com.sourceware.labs.idp.entity.RevokedToken;
+import com.sourceware.labs.idp.entity.Role;
+import com.sourceware.labs.idp.entity.Role.Application;
+import com.sourceware.labs.idp.entity.Role.RoleName;
+import com.sourceware.labs.idp.entity.User;
+import com.sourceware.labs.idp.jwt.JwtManager;
+import com.sourceware.labs.idp.jwt.PermissionRegistry;
+import com.sourceware.labs.idp.jwt.PermissionSet;
+import com.sourceware.labs.idp.jwt.VerifiedJwtCache;
+import com.sourceware.labs.idp.keystore.IdpKeyStoreAccessor;
+import com.sourceware.labs.idp.keystore.IdpKeyStoreData;
+import com.sourceware.labs.idp.keystore.IdpServiceKeys;
+import com.sourceware.labs.idp.repo.RevokedTokenRepo;
+import com.sourceware.labs.idp.util.SessionCookie;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Testing class for issuing and refreshing session tokens without a database
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class AuthServiceTests {
+
+  private final String storeDir = "testAuthKeyStoreDir";
+  private final String storeName = "testAuthKeyStoreName";
+
+  private final IdpKeyStoreData idpKeyStoreData = new IdpKeyStoreData(
+          storeDir,
+          storeName,
+          "testKeyStorePass",
+          "authTestKeyAlias",
+          "authTestKeyPass",
+          "authTestKeyId");
+
+  private final File keyStoreDir = new File(storeDir);
+  private final File keyStoreFile = new File(storeDir + "/" + storeName);
+
+  private final ExecutorService tokenSigningExecutor = Executors.newFixedThreadPool(2);
+
+  private final RevokedTokenRepo revokedTokenRepo = Mockito.mock(RevokedTokenRepo.class);
+
+  private AuthService authService;
+
+  private User user;
+
+  @BeforeAll
+  public void setup() throws Exception {
+    Assertions.assertTrue(
+            IdpKeyStoreAccessor.prepareKeyStoreAndSet(JWSAlgorithm.ES256, idpKeyStoreData));
+    authService = new AuthService(
+            idpKeyStoreData,
+            JWSAlgorithm.ES256,
+            new IdpServiceKeys(Map.of(), idpKeyStoreData, "authTestServiceAlias"),
+            tokenSigningExecutor,
+            new VerifiedJwtCache(100),
+            new TokenRevocationService(
+                    revokedTokenRepo,
+                    100,
+                    0.01,
+                    Duration.ofSeconds(1),
+                    new SimpleMeterRegistry()),
+            new PermissionRegistry(Map.of("RealQuick", List.of("perm0", "perm1"))),
+            "testClientId");
+    user = new User(1L, "test@test.com", "password", true, "Test", "User", null, null, null);
+    user.setRoles(Set.of(new Role(1L, Application.RealQuick, RoleName.User, "Test role", null)));
+    user.setAdditionalPermissions(
+            Set.of(new AdditionalPermission(1L, Application.RealQuick, "perm1", null)));
+  }
+
+  @AfterAll
+  public void cleanup() {
+    tokenSigningExecutor.shutdown();
+    keyStoreFile.delete();
+    keyStoreDir.delete();
+  }
+
+  /**
+   * Test that both tokens of a session are issued from the same claims, with their own lifetimes,
+   * and that the refresh token issues a new pair
+   */
+  @Test
+  public void testSessionTokens() throws Exception {
+    SessionCookie cookie = authService
+            .generateSessionCookie(user, Application.RealQuick.toString());
+    Assertions.assertIterableEquals(List.of("perm1"), cookie.getAdditionalPermissions());
+    Assertions.assertTrue(authService.verifyAccessToken(cookie));
+
+    JWTClaimsSet access = SignedJWT.parse(cookie.getAccessToken()).getJWTClaimsSet();
+    JWTClaimsSet refresh = SignedJWT.parse(cookie.getRefreshToken()).getJWTClaimsSet();
+    Assertions.assertNotEquals(access.getJWTID(), refresh.getJWTID());
+    Assertions.assertEquals(access.getClaim("roleName"), refresh.getClaim("roleName"));
+    Assertions.assertEquals("Ag", access.getClaim("perms"));
+    Assertions.assertEquals(access.getClaim("perms"), refresh.getClaim("perms"));
+    Assertions.assertEquals(
+            AuthService.REFRESH_TOKEN_EXPIRATION - AuthService.ACCESS_TOKEN_EXPIRATION,
+            (refresh.getExpirationTime().getTime() - access.getExpirationTime().getTime()) / 1000,
+            1);
+
+    String previousAccessToken = cookie.getAccessToken();
+    Optional<SessionCookie> refreshed = authService.verifyRefreshToken(cookie);
+    Assertions.assertTrue(refreshed.isPresent());
+    Assertions.assertNotEquals(previousAccessToken, refreshed.get().getAccessToken());
+    Assertions.assertTrue(authService.verifyAccessToken(refreshed.get()));
+    Assertions.assertIterableEquals(List.of("perm1"), refreshed.get().getAdditionalPermissions());
+  }
+
+  /**
+   * Test that a token is only accepted for the application it names, so that the secret of one
+   * application cannot be used to mint or refresh tokens of another
+   */
+  @Test
+  public void testTokenBoundToApplication() throws Exception {
+    IdpServiceKeys serviceKeys = new IdpServiceKeys(
+            Map.of("RealQuick", JWSAlgorithm.HS256, "Other", JWSAlgorithm.HS256),
+            idpKeyStoreData,
+            "authTestServiceAlias");
+    AuthService serviceAuthService = new AuthService(
+            idpKeyStoreData,
+            JWSAlgorithm.ES256,
+            serviceKeys,
+            tokenSigningExecutor,
+            new VerifiedJwtCache(100),
+            new TokenRevocationService(
+                    revokedTokenRepo,
+                    100,
+                    0.01,
+                    Duration.ofSeconds(1),
+                    new SimpleMeterRegistry()),
+            new PermissionRegistry(Map.of("RealQuick", List.of("perm0", "perm1"))),
+            "testClientId");
+    SessionCookie cookie = serviceAuthService
+            .generateSessionCookie(user, Application.RealQuick.toString());
+    Assertions.assertTrue(serviceAuthService.verifyAccessToken(cookie));
+
+    // Signed with the other application's secret but naming RealQuick
+    String forged = JwtManager.issueJwtToken(
+            serviceKeys.getKey("Other"),
+            "testClientId",
+            "Other",
+            AuthService.REFRESH_TOKEN_EXPIRATION,
+            1L,
+            "RealQuick",
+            "Admin",
+            PermissionSet.EMPTY);
+    SessionCookie forgedCookie = new SessionCookie(
+            1L,
+            "Other",
+            "Admin",
+            List.of(),
+            forged,
+            forged);
+    Assertions.assertFalse(serviceAuthService.verifyAccessToken(forgedCookie));
+    Assertions.assertTrue(serviceAuthService.verifyRefreshToken(forgedCookie).isEmpty());
+
+    // A genuine token presented for another application
+    cookie.setApplication("Other");
+    Assertions.assertFalse(serviceAuthService.verifyAccessToken(cookie));
+  }
+
+  /**
+   * Test that revoking a session rejects its tokens before their expiration
+   */
+  @Test
+  public void testRevokedSessionIsRejected() throws Exception {
+    SessionCookie cookie = authService
+            .generateSessionCookie(user, Application.RealQuick.toString());
+    Assertions.assertTrue(authService.verifyAccessToken(cookie));
+
+    String accessJti = SignedJWT.parse(cookie.getAccessToken()).getJWTClaimsSet().getJWTID();
+    String refreshJti = SignedJWT.parse(cookie.getRefreshToken()).getJWTClaimsSet().getJWTID();
+    Assertions.assertTrue(authService.revokeSession(cookie));
+    ArgumentCaptor<RevokedToken> revoked = ArgumentCaptor.forClass(RevokedToken.class);
+    Mockito.verify(revokedTokenRepo, Mockito.times(2)).save(revoked.capture());
+    Assertions.assertEquals(
+            List.of(accessJti, refreshJti),
+            revoked.getAllValues().stream().map(RevokedToken::getJti).toList());
+
+    Mockito.when(revokedTokenRepo.existsById(accessJti)).thenReturn(true);
+    Mockito.when(revokedTokenRepo.existsById(refreshJti)).thenReturn(true);
+    Assertions.assertFalse(authService.verifyAccessToken(cookie));
+    Assertions.assertTrue(authService.verifyRefreshToken(cookie).isEmpty());
+  }
+
+}
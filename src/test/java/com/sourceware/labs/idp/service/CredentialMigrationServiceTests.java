@@ -0,0 +1,260 @@
+package com.sourceware.labs.idp.service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.sourceware.labs.idp.entity.MigrationCheckpoint;
+import com.sourceware.labs.idp.password.Argon2idPasswordHasher;
+import com.sourceware.labs.idp.password.PasswordHashCalibrator;
+import com.sourceware.labs.idp.password.PasswordHasher;
+import com.sourceware.labs.idp.repo.MigrationCheckpointRepo;
+import com.sourceware.labs.idp.repo.UserRepo;
+import com.sourceware.labs.idp.repo.UserRepo.Credentials;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Testing class for hashing stored plain credentials in keyset paginated batches
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class CredentialMigrationServiceTests {
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  private final ExecutorService rehashExecutor = Executors
+          .newSingleThreadExecutor(runnable -> new Thread(runnable, "password-rehash"));
+
+  private final PasswordHasher hasher = new Argon2idPasswordHasher(1024, 1, 1);
+
+  private final PasswordHashingService passwordHashingService = new PasswordHashingService(
+          List.of(hasher),
+          "argon2id",
+          new PasswordHashCalibrator(Duration.ofMillis(20), 1),
+          executor,
+          new SimpleMeterRegistry());
+
+  private UserRepo userRepo;
+
+  private MigrationCheckpointRepo checkpointRepo;
+
+  private JdbcTemplate jdbcTemplate;
+
+  private CredentialMigrationService service;
+
+  @BeforeEach
+  public void setup() {
+    userRepo = Mockito.mock(UserRepo.class);
+    checkpointRepo = Mockito.mock(MigrationCheckpointRepo.class);
+    jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+    service = new CredentialMigrationService(
+            userRepo,
+            checkpointRepo,
+            jdbcTemplate,
+            new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class)),
+            passwordHashingService,
+            rehashExecutor,
+            2);
+  }
+
+  @AfterAll
+  public void cleanup() {
+    executor.shutdown();
+    rehashExecutor.shutdown();
+  }
+
+  /**
+   * Test that only plain credentials are hashed, that the batch is written with compare-and-set
+   * batch updates and that the checkpoint resumes after the last user read
+   */
+  @Test
+  public void testMigrateBatches() {
+    String hashed = hasher.hash("hashed");
+    Mockito.when(checkpointRepo.findById(CredentialMigrationService.MIGRATION_NAME))
+            .thenReturn(Optional.empty());
+    Mockito.when(userRepo.findCredentialsByIdAfter(0L, Limit.of(2)))
+            .thenReturn(
+                    List.of(
+                            new TestCredentials(3L, "password3", 30L, "a1", hashed),
+                            new TestCredentials(7L, hashed, null, null, null)));
+
+    Assertions.assertEquals(2, service.migrateBatch());
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<Object[]>> passwords = ArgumentCaptor.forClass(List.class);
+    Mockito.verify(jdbcTemplate)
+            .batchUpdate(ArgumentMatchers.startsWith("update users"), passwords.capture());
+    Assertions.assertEquals(1, passwords.getValue().size());
+    Object[] password = passwords.getValue().get(0);
+    Assertions.assertTrue(hasher.matches("password3", (String) password[0]));
+    Assertions.assertEquals(3L, password[1]);
+    Assertions.assertEquals("password3", password[2]);
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<Object[]>> answers = ArgumentCaptor.forClass(List.class);
+    Mockito.verify(jdbcTemplate)
+            .batchUpdate(ArgumentMatchers.startsWith("update security_questions"), answers.capture());
+    Object[] answer = answers.getValue().get(0);
+    Assertions.assertTrue(hasher.matches("a1", (String) answer[0]));
+    Assertions.assertEquals(hashed, answer[1]);
+    Assertions.assertEquals(30L, answer[2]);
+    Assertions.assertEquals("a1", answer[3]);
+    Assertions.assertEquals(hashed, answer[4]);
+
+    ArgumentCaptor<MigrationCheckpoint> checkpoint = ArgumentCaptor
+            .forClass(MigrationCheckpoint.class);
+    Mockito.verify(checkpointRepo).save(checkpoint.capture());
+    Assertions.assertEquals(7L, checkpoint.getValue().getLastId());
+    Assertions.assertFalse(checkpoint.getValue().isCompleted());
+    Assertions.assertTrue(passwordHashingService.isPlainPasswordsAccepted());
+
+    // A short batch completes the migration and a completed migration reads nothing
+    Mockito.when(checkpointRepo.findById(CredentialMigrationService.MIGRATION_NAME))
+            .thenReturn(Optional.of(checkpoint.getValue()));
+    Mockito.when(userRepo.findCredentialsByIdAfter(7L, Limit.of(2))).thenReturn(List.of());
+    Assertions.assertEquals(0, service.migrateBatch());
+    Assertions.assertTrue(checkpoint.getValue().isCompleted());
+    Assertions.assertEquals(7L, checkpoint.getValue().getLastId());
+    Assertions.assertFalse(passwordHashingService.isPlainPasswordsAccepted());
+    Assertions.assertFalse(passwordHashingService.matches("password3", "password3"));
+    Assertions.assertEquals(0, service.migrateBatch());
+    Mockito.verify(userRepo, Mockito.times(2))
+            .findCredentialsByIdAfter(ArgumentMatchers.anyLong(), ArgumentMatchers.any());
+  }
+
+  /**
+   * Test that logins rehash plain and weaker passwords without touching current hashes, and that
+   * the hashes are written on the rehash executor rather than a hashing thread
+   */
+  @Test
+  public void testRehashOnLogin() throws InterruptedException {
+    List<String> writers = new CopyOnWriteArrayList<>();
+    Mockito.when(
+            jdbcTemplate.update(
+                    ArgumentMatchers.anyString(),
+                    ArgumentMatchers.anyString(),
+                    ArgumentMatchers.anyLong(),
+                    ArgumentMatchers.anyString()))
+            .thenAnswer(invocation -> {
+              writers.add(Thread.currentThread().getName());
+              return 1;
+            });
+    service.rehashOnLogin(1L, "password", hasher.hash("password"));
+    service.rehashOnLogin(2L, "password", "password");
+    String weaker = new Argon2idPasswordHasher(512, 1, 1).hash("password");
+    service.rehashOnLogin(3L, "password", weaker);
+    ArgumentCaptor<String> hash = ArgumentCaptor.forClass(String.class);
+    Mockito.verify(jdbcTemplate, Mockito.timeout(5000))
+            .update(
+                    ArgumentMatchers.startsWith("update users"),
+                    hash.capture(),
+                    ArgumentMatchers.eq(2L),
+                    ArgumentMatchers.eq("password"));
+    Assertions.assertTrue(hasher.matches("password", hash.getValue()));
+    Mockito.verify(jdbcTemplate, Mockito.timeout(5000))
+            .update(
+                    ArgumentMatchers.startsWith("update users"),
+                    ArgumentMatchers.anyString(),
+                    ArgumentMatchers.eq(3L),
+                    ArgumentMatchers.eq(weaker));
+    Mockito.verify(jdbcTemplate, Mockito.after(200).never())
+            .update(
+                    ArgumentMatchers.anyString(),
+                    ArgumentMatchers.anyString(),
+                    ArgumentMatchers.eq(1L),
+                    ArgumentMatchers.anyString());
+    Assertions.assertEquals(List.of("password-rehash", "password-rehash"), writers);
+  }
+
+  /**
+   * Test that a migration completed by another instance is noticed and stops plain passwords from
+   * being accepted
+   */
+  @Test
+  public void testCheckCompleted() {
+    PasswordHashingService hashingService = new PasswordHashingService(
+            List.of(hasher),
+            "argon2id",
+            new PasswordHashCalibrator(Duration.ofMillis(20), 1),
+            executor,
+            new SimpleMeterRegistry());
+    CredentialMigrationService other = new CredentialMigrationService(
+            userRepo,
+            checkpointRepo,
+            jdbcTemplate,
+            new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class)),
+            hashingService,
+            rehashExecutor,
+            2);
+    MigrationCheckpoint checkpoint = new MigrationCheckpoint(
+            CredentialMigrationService.MIGRATION_NAME,
+            7L,
+            false,
+            new Timestamp(0));
+    Mockito.when(checkpointRepo.findById(CredentialMigrationService.MIGRATION_NAME))
+            .thenReturn(Optional.of(checkpoint));
+    Assertions.assertFalse(other.checkCompleted());
+    Assertions.assertTrue(hashingService.matches("password", "password"));
+
+    // Completed by another instance
+    checkpoint.setCompleted(true);
+    Assertions.assertTrue(other.checkCompleted());
+    Assertions.assertFalse(hashingService.matches("password", "password"));
+    Mockito.verify(userRepo, Mockito.never())
+            .findCredentialsByIdAfter(ArgumentMatchers.anyLong(), ArgumentMatchers.any());
+  }
+
+  private record TestCredentials(
+          Long userId,
+          String password,
+          Long securityQuestionId,
+          String answer1,
+          String answer2) implements Credentials {
+
+    @Override
+    public Long getUserId() {
+      return userId;
+    }
+
+    @Override
+    public String getPassword() {
+      return password;
+    }
+
+    @Override
+    public Long getSecurityQuestionId() {
+      return securityQuestionId;
+    }
+
+    @Override
+    public String getAnswer1() {
+      return answer1;
+    }
+
+    @Override
+    public String getAnswer2() {
+      return answer2;
+    }
+
+  }
+
+}
@@ -0,0 +1,282 @@
+package com.sourceware.labs.idp.service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.sourceware.labs.idp.entity.EmailOutbox;
+import com.sourceware.labs.idp.entity.EmailOutbox.Status;
+import com.sourceware.labs.idp.mail.MailThrottledException;
+import com.sourceware.labs.idp.mail.MailUnavailableException;
+import com.sourceware.labs.idp.mail.SendRateLimiter;
+import com.sourceware.labs.idp.repo.EmailOutboxRepo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Testing class for dispatching emails from the outbox
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class EmailOutboxServiceTests {
+
+  private EmailOutboxRepo emailOutboxRepo;
+
+  private AwsEmailService awsEmailService;
+
+  private SimpleMeterRegistry meterRegistry;
+
+  private SendRateLimiter sendRateLimiter;
+
+  private EmailOutboxService service;
+
+  @BeforeEach
+  public void setup() {
+    emailOutboxRepo = Mockito.mock(EmailOutboxRepo.class);
+    awsEmailService = Mockito.mock(AwsEmailService.class);
+    meterRegistry = new SimpleMeterRegistry();
+    sendRateLimiter = new SendRateLimiter(0);
+    Mockito.when(awsEmailService.isAvailable()).thenReturn(true);
+    Mockito.when(emailOutboxRepo.saveAll(ArgumentMatchers.anyList()))
+            .thenAnswer(invocation -> invocation.getArgument(0));
+    Mockito.when(
+            awsEmailService.createSimpleMailMessage(
+                    ArgumentMatchers.anyString(),
+                    ArgumentMatchers.anyString(),
+                    ArgumentMatchers.anyString()))
+            .thenAnswer(invocation -> {
+              SimpleMailMessage message = new SimpleMailMessage();
+              message.setTo((String) invocation.getArgument(0));
+              return message;
+            });
+    service = new EmailOutboxService(
+            emailOutboxRepo,
+            new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class)),
+            awsEmailService,
+            sendRateLimiter,
+            10,
+            2,
+            Duration.ofSeconds(10),
+            Duration.ofSeconds(25),
+            Duration.ofMinutes(5),
+            meterRegistry);
+  }
+
+  /**
+   * Test that sent emails are deleted and that failed ones are retried with backoff until they
+   * failed the maximum number of attempts
+   */
+  @Test
+  public void testDispatchBatch() {
+    EmailOutbox sent = newEmail(1L, "sent@test.com");
+    EmailOutbox failing = newEmail(2L, "failing@test.com");
+    Mockito.when(emailOutboxRepo.lockDue(ArgumentMatchers.any(), ArgumentMatchers.eq(10)))
+            .thenReturn(List.of(sent, failing));
+    Mockito.when(awsEmailService.sendMessages(ArgumentMatchers.anyList()))
+            .thenAnswer(invocation -> failuresFor(invocation.getArgument(0), "failing@test.com"));
+
+    Instant before = Instant.now();
+    Assertions.assertEquals(2, service.dispatchBatch());
+    Mockito.verify(emailOutboxRepo).deleteAllByIdInBatch(List.of(1L));
+    Assertions.assertEquals(Status.Pending, failing.getStatus());
+    Assertions.assertEquals(1, failing.getAttempts());
+    Assertions.assertEquals("SES unavailable", failing.getLastError());
+    Assertions.assertFalse(
+            failing.getNextAttempt().toInstant().isBefore(before.plusSeconds(5)),
+            failing.getNextAttempt().toString());
+    Assertions.assertFalse(
+            failing.getNextAttempt().toInstant().isAfter(Instant.now().plusSeconds(10)),
+            failing.getNextAttempt().toString());
+
+    // The second failure reaches the maximum number of attempts
+    Mockito.when(emailOutboxRepo.lockDue(ArgumentMatchers.any(), ArgumentMatchers.eq(10)))
+            .thenReturn(List.of(failing));
+    Assertions.assertEquals(1, service.dispatchBatch());
+    Assertions.assertEquals(Status.Failed, failing.getStatus());
+    Assertions.assertEquals(2, failing.getAttempts());
+    Mockito.verify(emailOutboxRepo, Mockito.times(2)).save(failing);
+
+    Assertions.assertEquals(
+            1,
+            meterRegistry.get("email.outbox.dispatched").tag("result", "sent").counter().count());
+    Assertions.assertEquals(
+            1,
+            meterRegistry.get("email.outbox.dispatched")
+                    .tag("result", "retried")
+                    .counter()
+                    .count());
+    Assertions.assertEquals(
+            1,
+            meterRegistry.get("email.outbox.dispatched").tag("result", "failed").counter().count());
+  }
+
+  /**
+   * Test that emails with equal messages each get the outcome of their own message, so a sent one
+   * is deleted while a rejected one is retried
+   */
+  @Test
+  public void testEqualMessages() {
+    EmailOutbox sent = newEmail(1L, "repeated@test.com");
+    EmailOutbox rejected = newEmail(2L, "repeated@test.com");
+    Mockito.when(emailOutboxRepo.lockDue(ArgumentMatchers.any(), ArgumentMatchers.eq(10)))
+            .thenReturn(List.of(sent, rejected));
+    Mockito.when(awsEmailService.sendMessages(ArgumentMatchers.anyList()))
+            .thenAnswer(invocation -> {
+              List<SimpleMailMessage> messages = invocation.getArgument(0);
+              Assertions.assertEquals(messages.get(0), messages.get(1));
+              return Arrays.asList(null, new MailSendException("MessageRejected"));
+            });
+
+    Assertions.assertEquals(2, service.dispatchBatch());
+    Mockito.verify(emailOutboxRepo).deleteAllByIdInBatch(List.of(1L));
+    Assertions.assertEquals(0, sent.getAttempts());
+    Mockito.verify(emailOutboxRepo, Mockito.never()).save(sent);
+    Assertions.assertEquals(1, rejected.getAttempts());
+    Assertions.assertEquals("MessageRejected", rejected.getLastError());
+  }
+
+  /**
+   * Test that claimed emails are leased before they are sent
+   */
+  @Test
+  public void testClaimLeasesEmails() {
+    EmailOutbox email = newEmail(1L, "sent@test.com");
+    Mockito.when(emailOutboxRepo.lockDue(ArgumentMatchers.any(), ArgumentMatchers.eq(10)))
+            .thenReturn(List.of(email));
+    Mockito.when(awsEmailService.sendMessages(ArgumentMatchers.anyList()))
+            .thenAnswer(invocation -> {
+              Assertions.assertTrue(
+                      email.getNextAttempt().toInstant().isAfter(Instant.now().plusSeconds(240)));
+              return Arrays.asList(new Exception[1]);
+            });
+    Assertions.assertEquals(1, service.dispatchBatch());
+    Mockito.verify(emailOutboxRepo).saveAll(List.of(email));
+    Mockito.verify(awsEmailService).sendMessages(ArgumentMatchers.anyList());
+  }
+
+  /**
+   * Test that throttled emails are due again without counting as an attempt, that they slow the
+   * limiter down and that a batch holds at most the limiter's burst
+   */
+  @Test
+  public void testThrottledEmails() {
+    sendRateLimiter.setMaxRate(4);
+    EmailOutbox throttledEmail = newEmail(1L, "throttled@test.com");
+    Mockito.when(emailOutboxRepo.lockDue(ArgumentMatchers.any(), ArgumentMatchers.eq(4)))
+            .thenReturn(List.of(throttledEmail));
+    Mockito.when(awsEmailService.sendMessages(ArgumentMatchers.anyList()))
+            .thenReturn(List.of(new MailThrottledException("Throttling")));
+
+    Assertions.assertEquals(1, service.dispatchBatch());
+    Assertions.assertEquals(Status.Pending, throttledEmail.getStatus());
+    Assertions.assertEquals(0, throttledEmail.getAttempts());
+    Assertions.assertFalse(throttledEmail.getNextAttempt().toInstant().isAfter(Instant.now()));
+    Assertions.assertEquals(2, sendRateLimiter.getRate());
+    Assertions.assertEquals(2, sendRateLimiter.getBurst());
+    Assertions.assertEquals(
+            1,
+            meterRegistry.get("email.outbox.dispatched")
+                    .tag("result", "throttled")
+                    .counter()
+                    .count());
+    Assertions.assertEquals(2, meterRegistry.get("email.send.rate").gauge().value());
+  }
+
+  /**
+   * Test that an interrupted dispatch reports no claimed emails so that no further batch is
+   * claimed, and does not send the batch it claimed
+   */
+  @Test
+  public void testInterruptedDispatch() {
+    // An empty bucket makes the batch wait for its token
+    sendRateLimiter.setMaxRate(1);
+    Mockito.when(emailOutboxRepo.lockDue(ArgumentMatchers.any(), ArgumentMatchers.eq(1)))
+            .thenReturn(List.of(newEmail(1L, "interrupted@test.com")));
+    Thread.currentThread().interrupt();
+    try {
+      Assertions.assertEquals(0, service.dispatchBatch());
+      Assertions.assertTrue(Thread.currentThread().isInterrupted());
+    } finally {
+      Thread.interrupted();
+    }
+    Mockito.verify(awsEmailService, Mockito.never()).sendMessages(ArgumentMatchers.anyList());
+  }
+
+  /**
+   * Test that no emails are claimed while the email provider is unavailable and that emails it
+   * could not be handed to are deferred without counting as an attempt
+   */
+  @Test
+  public void testDeferredEmails() {
+    Mockito.when(awsEmailService.isAvailable()).thenReturn(false);
+    Assertions.assertEquals(0, service.dispatchBatch());
+    Mockito.verify(emailOutboxRepo, Mockito.never())
+            .lockDue(ArgumentMatchers.any(), ArgumentMatchers.anyInt());
+
+    Mockito.when(awsEmailService.isAvailable()).thenReturn(true);
+    EmailOutbox deferredEmail = newEmail(1L, "deferred@test.com");
+    Mockito.when(emailOutboxRepo.lockDue(ArgumentMatchers.any(), ArgumentMatchers.eq(10)))
+            .thenReturn(List.of(deferredEmail));
+    Mockito.when(awsEmailService.sendMessages(ArgumentMatchers.anyList()))
+            .thenReturn(List.of(new MailUnavailableException("Email provider circuit is open")));
+
+    Instant before = Instant.now();
+    Assertions.assertEquals(1, service.dispatchBatch());
+    Assertions.assertEquals(Status.Pending, deferredEmail.getStatus());
+    Assertions.assertEquals(0, deferredEmail.getAttempts());
+    Assertions.assertFalse(
+            deferredEmail.getNextAttempt().toInstant().isBefore(before.plusSeconds(5)),
+            deferredEmail.getNextAttempt().toString());
+    Assertions.assertEquals(
+            1,
+            meterRegistry.get("email.outbox.dispatched")
+                    .tag("result", "deferred")
+                    .counter()
+                    .count());
+  }
+
+  /**
+   * Test that the backoff doubles per attempt, stays within the maximum and is jittered
+   */
+  @Test
+  public void testBackoff() {
+    for (int i = 0; i < 100; i++) {
+      long first = service.getBackoff(1).toMillis();
+      Assertions.assertTrue(first >= 5000 && first <= 10000, String.valueOf(first));
+      long second = service.getBackoff(2).toMillis();
+      Assertions.assertTrue(second >= 10000 && second <= 20000, String.valueOf(second));
+      long capped = service.getBackoff(40).toMillis();
+      Assertions.assertTrue(capped >= 12500 && capped <= 25000, String.valueOf(capped));
+    }
+  }
+
+  private static List<Exception> failuresFor(List<SimpleMailMessage> messages, String recipient) {
+    return messages.stream()
+            .map(
+                    message -> recipient.equals(message.getTo()[0])
+                            ? (Exception) new MailSendException("SES unavailable")
+                            : null)
+            .toList();
+  }
+
+  private static EmailOutbox newEmail(Long id, String recipient) {
+    Timestamp now = Timestamp.from(Instant.now());
+    return new EmailOutbox(id, recipient, "Subject", "Body", Status.Pending, 0, now, null, now);
+  }
+
+}
@@ -0,0 +1,66 @@
+package com.sourceware.labs.idp.service;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.sourceware.labs.idp.mail.EmailTemplate;
+
+import freemarker.template.TemplateModelException;
+
+/**
+ * Testing class for rendering email bodies from the precompiled templates
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class EmailTemplateServiceTests {
+
+  private EmailTemplateService emailTemplateService;
+
+  @BeforeAll
+  public void setup() throws IOException, TemplateModelException {
+    emailTemplateService = new EmailTemplateService("https://idp.test.com/");
+  }
+
+  /**
+   * Test that the verification link uses the public URL and the verify route and that per-user
+   * variables are substituted without number formatting
+   */
+  @Test
+  public void testRenderVerification() {
+    String body = emailTemplateService.renderVerification("Jane", 12345L, "a token/1");
+    Assertions.assertTrue(body.contains("Welcome Jane,"), body);
+    Assertions.assertTrue(
+            body.contains("https://idp.test.com/user/verify/12345/a%20token%2F1\n"),
+            body);
+    Assertions.assertEquals(
+            body.replace("Jane", "there"),
+            emailTemplateService.renderVerification(null, 12345L, "a token/1"));
+  }
+
+  /**
+   * Test that every template renders and that a missing variable is rejected
+   */
+  @Test
+  public void testRenderTemplates() {
+    String recovery = emailTemplateService.render(
+            EmailTemplate.Recovery,
+            Map.of("firstName", "Jane", "recoveryCode", "ABC123", "expiresInMinutes", 15));
+    Assertions.assertTrue(recovery.contains("ABC123") && recovery.contains("15 minutes"), recovery);
+    String notification = emailTemplateService.render(
+            EmailTemplate.Notification,
+            Map.of("firstName", "Jane", "message", "Your password was changed."));
+    Assertions.assertTrue(notification.contains("Your password was changed."), notification);
+    Assertions.assertTrue(notification.contains("https://idp.test.com\n"), notification);
+    Assertions.assertThrows(
+            IllegalArgumentException.class,
+            () -> emailTemplateService.render(EmailTemplate.Recovery, Map.of("firstName", "Jane")));
+  }
+
+}
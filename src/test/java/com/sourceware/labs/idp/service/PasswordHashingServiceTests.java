@@ -0,0 +1,171 @@
+package com.sourceware.labs.idp.service;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.sourceware.labs.idp.password.Argon2idPasswordHasher;
+import com.sourceware.labs.idp.password.BCryptPasswordHasher;
+import com.sourceware.labs.idp.password.PasswordHashCalibrator;
+import com.sourceware.labs.idp.password.PasswordHasher;
+import com.sourceware.labs.idp.password.PasswordHashingRejectedException;
+import com.sourceware.labs.idp.password.Pbkdf2PasswordHasher;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Testing class for hashing passwords on the bounded password hashing executor
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class PasswordHashingServiceTests {
+
+  private final List<PasswordHasher> hashers = List.of(
+          new Argon2idPasswordHasher(1024, 1, 1),
+          new BCryptPasswordHasher(4),
+          new Pbkdf2PasswordHasher(1000));
+
+  // One thread and one queued hash
+  private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          1,
+          1,
+          0L,
+          TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>(1),
+          new ThreadPoolExecutor.AbortPolicy());
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final PasswordHashingService service = new PasswordHashingService(
+          hashers,
+          "argon2id",
+          new PasswordHashCalibrator(Duration.ofMillis(100), 1),
+          executor,
+          meterRegistry);
+
+  @AfterAll
+  public void cleanup() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Test that new hashes use the configured algorithm and that hashes of every algorithm and
+   * passwords stored before hashing are accepted
+   */
+  @Test
+  public void testHashAndMatch() {
+    String hash = service.hash("password");
+    Assertions.assertTrue(hash.startsWith("$argon2id$"), hash);
+    Assertions.assertTrue(service.matches("password", hash));
+    Assertions.assertFalse(service.matches("wrong", hash));
+    Assertions.assertTrue(service.matches("password", hashers.get(1).hash("password")));
+    Assertions.assertTrue(service.matches("password", hashers.get(2).hash("password")));
+    Assertions.assertTrue(service.matches("password", "password"));
+    Assertions.assertFalse(service.matches("password", "passwore"));
+    Assertions.assertFalse(service.matches("password", null));
+    Assertions.assertTrue(service.isHashed(hash));
+    Assertions.assertFalse(service.isHashed("password"));
+    Assertions.assertFalse(service.needsRehash(hash));
+    Assertions.assertTrue(service.needsRehash(hashers.get(1).hash("password")));
+    Assertions.assertTrue(service.needsRehash("password"));
+
+    // Missing values are passed through so that they are still rejected by validation
+    List<String> hashes = service.hashAll(Arrays.asList("password", null, " "));
+    Assertions.assertTrue(service.matches("password", hashes.get(0)));
+    Assertions.assertNull(hashes.get(1));
+    Assertions.assertEquals(" ", hashes.get(2));
+    Assertions.assertThrows(
+            IllegalArgumentException.class,
+            () -> new PasswordHashingService(
+                    hashers,
+                    "md5",
+                    new PasswordHashCalibrator(Duration.ofSeconds(1), 1),
+                    executor,
+                    meterRegistry));
+  }
+
+  /**
+   * Test that stored values are no longer accepted as plain passwords once they are rejected while
+   * hashes still match
+   */
+  @Test
+  public void testRejectPlainPasswords() {
+    PasswordHashingService migrated = new PasswordHashingService(
+            hashers,
+            "argon2id",
+            new PasswordHashCalibrator(Duration.ofMillis(100), 1),
+            executor,
+            meterRegistry);
+    Assertions.assertTrue(migrated.isPlainPasswordsAccepted());
+    migrated.rejectPlainPasswords();
+    Assertions.assertFalse(migrated.isPlainPasswordsAccepted());
+    Assertions.assertFalse(migrated.matches("password", "password"));
+    Assertions.assertTrue(migrated.matches("password", migrated.hash("password")));
+    Assertions.assertTrue(migrated.matches("password", hashers.get(1).hash("password")));
+  }
+
+  /**
+   * Test that calibration raises the cost for new hashes while hashes made with the previous cost
+   * are still accepted
+   */
+  @Test
+  public void testCalibrate() {
+    String previous = service.hash("password");
+    Assertions.assertEquals(1, meterRegistry.get("password.hashing.cost").gauge().value());
+    PasswordHasher calibrated = service.calibrate();
+    Assertions.assertTrue(calibrated.getCost() > 1, "Calibrated cost " + calibrated.getCost());
+    Assertions.assertSame(calibrated, service.getPasswordHasher());
+    Assertions.assertEquals(
+            calibrated.getCost(),
+            meterRegistry.get("password.hashing.cost").gauge().value());
+    Assertions.assertTrue(service.hash("password").contains(",t=" + calibrated.getCost() + ","));
+    Assertions.assertTrue(service.matches("password", previous));
+  }
+
+  /**
+   * Test that hashing fails fast once the executor's thread and queue are taken
+   */
+  @Test
+  public void testSaturatedExecutorRejects() throws InterruptedException {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch started = new CountDownLatch(1);
+    executor.execute(() -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    started.await();
+    executor.execute(() -> {
+    });
+    try {
+      Assertions.assertThrows(
+              PasswordHashingRejectedException.class,
+              () -> service.hash("password"));
+      Assertions.assertThrows(
+              PasswordHashingRejectedException.class,
+              () -> service.matches("password", hashers.get(0).hash("password")));
+      Assertions.assertEquals(2, meterRegistry.counter("password.hashing.rejected").count());
+    } finally {
+      release.countDown();
+    }
+    while (executor.getActiveCount() > 0 || !executor.getQueue().isEmpty()) {
+      Thread.sleep(1);
+    }
+    Assertions.assertTrue(service.matches("password", service.hash("password")));
+  }
+
+}
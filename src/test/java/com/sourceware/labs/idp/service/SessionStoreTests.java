@@ -0,0 +1,77 @@
+package com.sourceware.labs.idp.service;
+
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import com.sourceware.labs.idp.util.SessionCookie;
+
+/**
+ * Testing class for storing sessions behind random handles
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class SessionStoreTests {
+
+  private final SessionCookie session = new SessionCookie(
+          1L,
+          "RealQuick",
+          "User",
+          List.of(),
+          "accessToken",
+          "refreshToken");
+
+  /**
+   * Test that a session can be resolved, replaced and removed through its handle until it expires
+   */
+  @Test
+  public void testSessionLifecycle() {
+    SessionStore store = new SessionStore(100);
+    Instant now = Instant.now();
+    String handle = store.create(session, now.plusSeconds(60));
+    Assertions.assertEquals(43, handle.length());
+    Assertions.assertSame(session, store.get(handle, now));
+    Assertions.assertNull(store.get(handle, now.plusSeconds(60)));
+    Assertions.assertNull(store.get("unknown", now));
+    Assertions.assertNull(store.get(null, now));
+
+    SessionCookie refreshed = new SessionCookie(1L, "RealQuick", "User", List.of(), "a2", "r2");
+    store.update(handle, refreshed, now.plusSeconds(120));
+    Assertions.assertSame(refreshed, store.get(handle, now.plusSeconds(60)));
+    Assertions.assertSame(refreshed, store.remove(handle));
+    Assertions.assertNull(store.get(handle, now));
+
+    // Updating a removed session does not bring it back
+    store.update(handle, refreshed, now.plusSeconds(120));
+    Assertions.assertEquals(0, store.size());
+  }
+
+  /**
+   * Test that expired sessions are purged and that the store never holds more than its capacity
+   */
+  @Test
+  public void testExpirationAndCapacity() {
+    SessionStore store = new SessionStore(64);
+    Instant now = Instant.now();
+    Set<String> handles = new HashSet<>();
+    for (int i = 0; i < 10; i++) {
+      handles.add(store.create(session, now.minusSeconds(1)));
+    }
+    Assertions.assertEquals(10, handles.size());
+    Assertions.assertEquals(10, store.purgeExpired(now));
+    Assertions.assertEquals(0, store.size());
+
+    for (int i = 0; i < 1000; i++) {
+      store.create(session, now.plusSeconds(60 + i));
+    }
+    Assertions.assertTrue(store.size() <= 64, "Store holds " + store.size() + " sessions");
+  }
+
+}
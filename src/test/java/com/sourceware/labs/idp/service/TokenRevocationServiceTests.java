@@ -0,0 +1,149 @@
+package com.sourceware.labs.idp.service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import com.sourceware.labs.idp.entity.RevokedToken;
+import com.sourceware.labs.idp.repo.RevokedTokenRepo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Testing class for revoking tokens and checking revocations through the in-memory filter
+ *
+ * @author Robert Forristall (robert.s.forristall@gmail.com)
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class TokenRevocationServiceTests {
+
+  private RevokedTokenRepo revokedTokenRepo;
+
+  private SimpleMeterRegistry meterRegistry;
+
+  @BeforeEach
+  public void setup() {
+    revokedTokenRepo = Mockito.mock(RevokedTokenRepo.class);
+    meterRegistry = new SimpleMeterRegistry();
+  }
+
+  /**
+   * Test that every check is a lookup until the filter is built, and that afterwards only IDs the
+   * filter reports as possibly revoked are looked up
+   */
+  @Test
+  public void testFilterShortCircuitsLookups() {
+    TokenRevocationService service = newService(Duration.ofHours(1));
+    Mockito.when(revokedTokenRepo.existsById("revoked")).thenReturn(true);
+    Assertions.assertFalse(service.isRevoked("valid"));
+    Assertions.assertEquals(1, checks("lookup"));
+
+    Mockito.when(revokedTokenRepo.findJtiByExpirationAfter(ArgumentMatchers.any()))
+            .thenReturn(List.of("revoked"));
+    service.purgeAndRebuild(Instant.now());
+    Assertions.assertFalse(service.isRevoked("valid"));
+    Assertions.assertTrue(service.isRevoked("revoked"));
+    Assertions.assertFalse(service.isRevoked(null));
+    Assertions.assertEquals(1, checks("filtered"));
+    Assertions.assertEquals(2, checks("lookup"));
+    Mockito.verify(revokedTokenRepo, Mockito.times(1)).existsById("valid");
+    Mockito.verify(revokedTokenRepo, Mockito.never())
+            .findJtiByRevokedAfter(ArgumentMatchers.any());
+  }
+
+  /**
+   * Test that a revocation is saved and seen at once by this instance, and that revoking a token
+   * that already expired is ignored
+   */
+  @Test
+  public void testRevoke() {
+    TokenRevocationService service = newService(Duration.ofHours(1));
+    Mockito.when(revokedTokenRepo.findJtiByExpirationAfter(ArgumentMatchers.any()))
+            .thenReturn(List.of());
+    service.purgeAndRebuild(Instant.now());
+
+    Instant expiration = Instant.now().plusSeconds(60);
+    service.revoke("revoked", expiration);
+    ArgumentCaptor<RevokedToken> saved = ArgumentCaptor.forClass(RevokedToken.class);
+    Mockito.verify(revokedTokenRepo).save(saved.capture());
+    Assertions.assertEquals("revoked", saved.getValue().getJti());
+    Assertions.assertEquals(Timestamp.from(expiration), saved.getValue().getExpiration());
+    Assertions.assertNotNull(saved.getValue().getRevoked());
+    Mockito.when(revokedTokenRepo.existsById("revoked")).thenReturn(true);
+    Assertions.assertTrue(service.isRevoked("revoked"));
+
+    service.revoke("expired", Instant.now().minusSeconds(1));
+    service.revoke(null, expiration);
+    Mockito.verify(revokedTokenRepo, Mockito.times(1)).save(ArgumentMatchers.any());
+    Assertions.assertFalse(service.isRevoked("expired"));
+    Mockito.verify(revokedTokenRepo, Mockito.never()).existsById("expired");
+  }
+
+  /**
+   * Test that expired revocations are purged before the filter is rebuilt from the remaining ones,
+   * so a purged ID is no longer looked up
+   */
+  @Test
+  public void testPurgeAndRebuild() {
+    TokenRevocationService service = newService(Duration.ofHours(1));
+    Instant now = Instant.now();
+    Mockito.when(revokedTokenRepo.deleteByExpirationNotAfter(Timestamp.from(now))).thenReturn(1);
+    Mockito.when(revokedTokenRepo.findJtiByExpirationAfter(Timestamp.from(now)))
+            .thenReturn(List.of("remaining"));
+    Mockito.when(revokedTokenRepo.existsById("remaining")).thenReturn(true);
+
+    Assertions.assertEquals(1, service.purgeAndRebuild(now));
+    var order = Mockito.inOrder(revokedTokenRepo);
+    order.verify(revokedTokenRepo).deleteByExpirationNotAfter(Timestamp.from(now));
+    order.verify(revokedTokenRepo, Mockito.times(2))
+            .findJtiByExpirationAfter(Timestamp.from(now));
+    Assertions.assertTrue(service.isRevoked("remaining"));
+    Assertions.assertFalse(service.isRevoked("purged"));
+    Mockito.verify(revokedTokenRepo, Mockito.never()).existsById("purged");
+  }
+
+  /**
+   * Test that once the sync interval passed a check first reads the IDs revoked since the last
+   * sync, so a token revoked by another instance is seen without waiting for the next rebuild
+   */
+  @Test
+  public void testSyncRevocationsOfOtherInstances() {
+    TokenRevocationService service = newService(Duration.ZERO);
+    Mockito.when(revokedTokenRepo.findJtiByExpirationAfter(ArgumentMatchers.any()))
+            .thenReturn(List.of());
+    Instant rebuilt = Instant.now();
+    service.purgeAndRebuild(rebuilt);
+    Assertions.assertFalse(service.isRevoked("peer"));
+    Mockito.verify(revokedTokenRepo, Mockito.never()).existsById("peer");
+
+    // Revoked by another instance after the rebuild
+    Mockito.when(revokedTokenRepo.findJtiByRevokedAfter(ArgumentMatchers.any()))
+            .thenReturn(List.of("peer"));
+    Mockito.when(revokedTokenRepo.existsById("peer")).thenReturn(true);
+    Assertions.assertTrue(service.isRevoked("peer"));
+
+    // Every sync reads back from its start with an overlap for clock differences
+    ArgumentCaptor<Timestamp> since = ArgumentCaptor.forClass(Timestamp.class);
+    Mockito.verify(revokedTokenRepo, Mockito.atLeastOnce()).findJtiByRevokedAfter(since.capture());
+    Assertions.assertTrue(since.getAllValues().get(0).toInstant().isBefore(rebuilt));
+  }
+
+  private TokenRevocationService newService(Duration syncInterval) {
+    return new TokenRevocationService(revokedTokenRepo, 100, 0.01, syncInterval, meterRegistry);
+  }
+
+  private double checks(String result) {
+    return meterRegistry.get("token.revocation.checks").tag("result", result).counter().count();
+  }
+
+}